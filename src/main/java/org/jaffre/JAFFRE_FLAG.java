@@ -41,6 +41,12 @@ public final class JAFFRE_FLAG
 	/** <code>{@link #MEP_IN_OUT} | {@link #MEP_IN_ONLY}</code> */
 	public static final int MASK_MEP = MEP_IN_OUT | MEP_IN_ONLY;
 
+	/** <code>0x00001000</code> */
+	public static final int METHOD_ID_REQUEST = 0x00001000;
+
+	/** <code>0x00002000</code> */
+	public static final int BATCH_CONTINUE = 0x00002000;
+
 
 	private JAFFRE_FLAG()
 	{
@@ -38,13 +38,13 @@ public final class JaffreCallFrame implements Serializable
 	/** Bit flags. */
 	private int f = JAFFRE_FLAG.NO_FLAGS; // must be the first field in the class definition
 
-	/** The interface to be called. */
+	/** The interface to be called, or <code>null</code> if the method is identified by its id. */
 	private final Class<?> i;
 
-	/** The method to be called. */
+	/** The method to be called, or <code>null</code> if the method is identified by its id. */
 	private final String m;
 
-	/** The parameter types. */
+	/** The parameter types, or <code>null</code> if the method is identified by its id. */
 	private final Class<?>[] t;
 
 	/** The arguments. */
@@ -53,6 +53,12 @@ public final class JaffreCallFrame implements Serializable
 	/** User data, e.g. cookies. */
 	private Object u;
 
+	/** The correlation id. */
+	private long c;
+
+	/** The method id, or 0. */
+	private int d;
+
 
 	public JaffreCallFrame(Class<?>   p_clsInterface,
 	                       String     p_strMethodName,
@@ -105,6 +111,28 @@ public final class JaffreCallFrame implements Serializable
 	}
 
 
+	/**
+	 * Create a call frame that identifies the method to be called by the id
+	 * that the server assigned to it.
+	 * @param p_iMethodId The method id.
+	 * @param p_args The arguments.
+	 * @param p_userData User data, e.g. cookies.
+	 * @see JaffreReturnFrame#getMethodId()
+	 */
+	public JaffreCallFrame(int p_iMethodId, Object[] p_args, Object p_userData)
+	{
+		if (p_iMethodId <= 0)
+			throw new IllegalArgumentException(p_iMethodId + " is not a valid method id.");
+
+		i = null;
+		m = null;
+		t = null;
+		a = p_args != null && p_args.length > 0 ? p_args : NO_ARGS;
+		u = p_userData;
+		d = p_iMethodId;
+	}
+
+
 	public Class<?> getInterface()
 	{
 		return i;
@@ -119,20 +147,41 @@ public final class JaffreCallFrame implements Serializable
 
 	public boolean hasParameters()
 	{
-		assert t != null;
+		assert a != null;
 
-		return t.length > 0;
+		return a.length > 0;
 	}
 
 
 	public Class<?>[] getParameterTypes()
 	{
-		assert t != null;
-
 		return t;
 	}
 
 
+	/**
+	 * Check if this frame identifies the method to be called by its id
+	 * instead of the interface, the method name and the parameter types.
+	 * @return <code>true</code> if the frame carries a method id,
+	 *    or <code>false</code> otherwise.
+	 */
+	public boolean hasMethodId()
+	{
+		return d != 0;
+	}
+
+
+	/**
+	 * Get the method id.
+	 * @return The method id, or <code>0</code> if the method is identified
+	 *    by the interface, the method name and the parameter types.
+	 */
+	public int getMethodId()
+	{
+		return d;
+	}
+
+
 	public Object[] getParameters()
 	{
 		assert a != null;
@@ -159,6 +208,30 @@ public final class JaffreCallFrame implements Serializable
 	}
 
 
+	/**
+	 * Get the correlation id of this frame.
+	 * <p>A return frame carries the correlation id of the call frame it
+	 * answers, so a client can match the return frames of several
+	 * outstanding calls on a single connection. The default value is
+	 * <code>0</code>.</p>
+	 * @return The correlation id.
+	 */
+	public long getCorrelationId()
+	{
+		return c;
+	}
+
+
+	/**
+	 * Set the correlation id of this frame.
+	 * @param p_lCorrelationId The correlation id.
+	 */
+	public void setCorrelationId(long p_lCorrelationId)
+	{
+		c = p_lCorrelationId;
+	}
+
+
 	public int getFlags()
 	{
 		return f;
@@ -195,6 +268,58 @@ public final class JaffreCallFrame implements Serializable
 	}
 
 
+	/**
+	 * Check if the sender wishes to get an id for the called method.
+	 * @return <code>true</code> if the sender wishes to call the method
+	 *    by its id in subsequent calls, or <code>false</code> otherwise.
+	 */
+	public boolean isMethodIdRequest()
+	{
+		return (f & JAFFRE_FLAG.METHOD_ID_REQUEST) == JAFFRE_FLAG.METHOD_ID_REQUEST;
+	}
+
+
+	/**
+	 * Set the method id request flag.
+	 * @param p_bRequest <code>true</code> if the sender wishes to get
+	 *    an id for the called method, or <code>false</code> otherwise.
+	 */
+	public void setMethodIdRequest(boolean p_bRequest)
+	{
+		if (p_bRequest)
+			f = f | JAFFRE_FLAG.METHOD_ID_REQUEST;
+		else
+			f = f & ~JAFFRE_FLAG.METHOD_ID_REQUEST;
+	}
+
+
+	/**
+	 * Check if further call frames of the same batch follow this frame.
+	 * <p>The receiver may delay writing the return frame until it has
+	 * processed the last frame of the batch.</p>
+	 * @return <code>true</code> if further call frames follow,
+	 *    or <code>false</code> otherwise.
+	 */
+	public boolean isBatchContinue()
+	{
+		return (f & JAFFRE_FLAG.BATCH_CONTINUE) == JAFFRE_FLAG.BATCH_CONTINUE;
+	}
+
+
+	/**
+	 * Set the batch continue flag.
+	 * @param p_bContinue <code>true</code> if further call frames of the
+	 *    same batch follow this frame, or <code>false</code> otherwise.
+	 */
+	public void setBatchContinue(boolean p_bContinue)
+	{
+		if (p_bContinue)
+			f = f | JAFFRE_FLAG.BATCH_CONTINUE;
+		else
+			f = f & ~JAFFRE_FLAG.BATCH_CONTINUE;
+	}
+
+
 	/**
 	 * Check if the sender wishes to keep the existing connection alive.
 	 * @return <code>true</code> if the sender wishes to keep the
@@ -245,11 +370,13 @@ public final class JaffreCallFrame implements Serializable
 
 		return
 			f == l_other.f &&
-			i.equals(l_other.i) &&
-			m.equals(l_other.m) &&
+			(i == null ? l_other.i == null : i.equals(l_other.i)) &&
+			(m == null ? l_other.m == null : m.equals(l_other.m)) &&
 			Arrays.equals(t, l_other.t) &&
 			Arrays.equals(a, l_other.a) &&
-			(u == null ? l_other.u == null : u.equals(l_other.u));
+			(u == null ? l_other.u == null : u.equals(l_other.u)) &&
+			c == l_other.c &&
+			d == l_other.d;
 	}
 
 
@@ -261,11 +388,13 @@ public final class JaffreCallFrame implements Serializable
 
 		m_iHashCode =
 			f ^
-			i.hashCode() ^
-			m.hashCode() ^
+			(i == null ? 0 : i.hashCode()) ^
+			(m == null ? 0 : m.hashCode()) ^
 			Arrays.hashCode(t) ^
 			Arrays.hashCode(a) ^
-			(u == null ? 0 : u.hashCode());
+			(u == null ? 0 : u.hashCode()) ^
+			(int)(c ^ (c >>> 32)) ^
+			d;
 
 		return m_iHashCode;
 	}
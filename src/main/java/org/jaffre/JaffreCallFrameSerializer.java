@@ -57,4 +57,18 @@ public interface JaffreCallFrameSerializer
 	 */
 	public JaffreCallFrame deserialize(InputStream p_in)
 		throws IOException, ClassNotFoundException, JaffreSerializeException;
+
+
+	/**
+	 * Get a serializer for the frames of a single connection.
+	 * <p>Serializers that keep state between the frames of a connection
+	 * return a new instance that must only be used with the streams of that
+	 * connection. The methods of such an instance need not be thread-safe.
+	 * The default implementation returns this serializer.</p>
+	 * @return A serializer for a single connection.
+	 */
+	public default JaffreCallFrameSerializer forConnection()
+	{
+		return this;
+	}
 }
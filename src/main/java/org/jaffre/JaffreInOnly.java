@@ -0,0 +1,41 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre;
+
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Marks an interface method as in-only (fire-and-forget).
+ * <p>Clients do not wait for the server when an in-only method is invoked.
+ * The call frame is queued and sent together with other queued in-only
+ * call frames, and the server sends no return frame. Neither the result of
+ * the call nor exceptions that are thrown on the server are reported to the
+ * caller, so in-only methods must return <code>void</code>.</p>
+ * @author Alexander Veit
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface JaffreInOnly
+{
+}
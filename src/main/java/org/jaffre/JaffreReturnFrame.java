@@ -42,6 +42,12 @@ public final class JaffreReturnFrame implements Serializable
 	/** User data, e.g. cookies. */
 	private Object u;
 
+	/** The correlation id. */
+	private long c;
+
+	/** The acknowledged method id, or 0. */
+	private int d;
+
 
 	public JaffreReturnFrame(Object p_objResult, boolean p_bExceptionResult)
 	{
@@ -81,6 +87,55 @@ public final class JaffreReturnFrame implements Serializable
 	}
 
 
+	/**
+	 * Get the correlation id of this frame.
+	 * <p>A return frame carries the correlation id of the call frame it
+	 * answers, so a client can match the return frames of several
+	 * outstanding calls on a single connection. The default value is
+	 * <code>0</code>.</p>
+	 * @return The correlation id.
+	 */
+	public long getCorrelationId()
+	{
+		return c;
+	}
+
+
+	/**
+	 * Set the correlation id of this frame.
+	 * @param p_lCorrelationId The correlation id.
+	 */
+	public void setCorrelationId(long p_lCorrelationId)
+	{
+		c = p_lCorrelationId;
+	}
+
+
+	/**
+	 * Get the method id that the server assigned to the method of the call
+	 * frame that this frame answers.
+	 * <p>The id is only set if the call frame carried the
+	 * {@link JAFFRE_FLAG#METHOD_ID_REQUEST} flag. Subsequent call frames on
+	 * the same connection may identify the method by this id.
+	 * The default value is <code>0</code>.</p>
+	 * @return The method id, or <code>0</code>.
+	 */
+	public int getMethodId()
+	{
+		return d;
+	}
+
+
+	/**
+	 * Set the method id.
+	 * @param p_iMethodId The method id.
+	 */
+	public void setMethodId(int p_iMethodId)
+	{
+		d = p_iMethodId;
+	}
+
+
 	public int getFlags()
 	{
 		return f;
@@ -145,7 +200,9 @@ public final class JaffreReturnFrame implements Serializable
 			e == l_other.e &&
 			f == l_other.f &&
 			(r == null ? l_other.r == null : r.equals(l_other.r)) &&
-			(u == null ? l_other.u == null : u.equals(l_other.u));
+			(u == null ? l_other.u == null : u.equals(l_other.u)) &&
+			c == l_other.c &&
+			d == l_other.d;
 	}
 
 
@@ -159,7 +216,9 @@ public final class JaffreReturnFrame implements Serializable
 			(e ? 1 : 0) ^
 			f ^
 			(r == null ? 0 : r.hashCode()) ^
-			(u == null ? 0 : u.hashCode());
+			(u == null ? 0 : u.hashCode()) ^
+			(int)(c ^ (c >>> 32)) ^
+			d;
 
 		return m_iHashCode;
 	}
@@ -18,19 +18,38 @@
 package org.jaffre.client.spi;
 
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import javax.net.SocketFactory;
+
+import org.jaffre.JaffreCallFrame;
 import org.jaffre.JaffreCallFrameSerializer;
 import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreCookie;
 import org.jaffre.JaffreCookieSupport;
+import org.jaffre.JaffreInOnly;
+import org.jaffre.JaffreNoReturnFrameException;
+import org.jaffre.JaffreReturnFrame;
 import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreUncheckedException;
 import org.jaffre.client.JaffreClient;
+import org.jaffre.io.PooledBufferedOutputStream;
 import org.jaffre.spi.DefaultJaffreCallFrameSerializer;
 import org.jaffre.spi.DefaultJaffreReturnFrameSerializer;
+import org.jaffre.util.JaffreUtil;
 
 
 /**
@@ -52,21 +71,64 @@ public abstract class AbstractSocketJaffreClient implements JaffreClient, Jaffre
 
 	private boolean m_bAcceptCookies = false;
 
+	private boolean m_bUseMethodIds = false;
+
+	private int m_iInOnlyQueueCapacity = 1024;
+
+	private final Object m_lockInOnly = new Object();
+
+	/** The queue of in-only calls, or <code>null</code>. Guarded by <code>m_lockInOnly</code>. */
+	private InOnlyCallQueue m_queueInOnly;
+
+	/** The connection for in-only calls. Confined to the sender thread of the queue. */
+	private Socket m_socketInOnly;
+
+	private PooledBufferedOutputStream m_outInOnly;
+
+	private JaffreCallFrameSerializer m_serCallInOnly;
+
 
 	protected final class InvocationHandlerImpl<T> implements InvocationHandler
 	{
 		private final Class<?> m_interface;
 
+		/** The methods that are annotated with {@link JaffreInOnly}. */
+		private final Set<Method> m_methodsInOnly;
+
 		protected InvocationHandlerImpl(Class<T> p_interface)
 		{
-			m_interface = p_interface;
+			m_interface     = p_interface;
+			m_methodsInOnly = new HashSet<>();
+
+			for (final Method l_method : p_interface.getMethods())
+			{
+				if (l_method.isAnnotationPresent(JaffreInOnly.class))
+				{
+					if (l_method.getReturnType() != void.class)
+					{
+						throw new IllegalArgumentException
+							("The in-only method " + l_method + " does not return void.");
+					}
+
+					m_methodsInOnly.add(l_method);
+				}
+			}
 		}
 
 		@Override
 		public Object invoke(Object p_proxy, Method p_method, Object[] p_args)
 			throws Throwable
 		{
-			return invokeImpl(m_interface, p_proxy, p_method, p_args);
+			if (!m_methodsInOnly.isEmpty() && m_methodsInOnly.contains(p_method))
+			{
+				invokeInOnlyImpl(m_interface, p_proxy, p_method, p_args);
+
+				return null;
+			}
+			else if (p_method.getReturnType() == CompletableFuture.class)
+				return invokeAsyncImpl(m_interface, p_proxy, p_method, p_args);
+			else
+				return invokeImpl(m_interface, p_proxy, p_method, p_args);
 		}
 	}
 
@@ -234,6 +296,101 @@ public abstract class AbstractSocketJaffreClient implements JaffreClient, Jaffre
 	}
 
 
+	/**
+	 * Get the method id property. The default value is <code>false</code>.
+	 * @return <code>true</code> if this client calls methods by the ids
+	 *    that the server assigned to them, or <code>false</code> otherwise.
+	 */
+	public boolean isUseMethodIds()
+	{
+		return m_bUseMethodIds;
+	}
+
+
+	/**
+	 * Set the method id property.
+	 * <p>If set, the first call of a method on a connection requests an id for
+	 * the method from the server. Subsequent calls of the method on the same
+	 * connection send only the id instead of the interface name, the method
+	 * name and the parameter types. The server must use a
+	 * {@link org.jaffre.server.spi.DefaultJaffreServer} or a subclass thereof.
+	 * Not all clients support method ids.</p>
+	 * @param p_bUseMethodIds <code>true</code> if this client should call
+	 *    methods by their ids, or <code>false</code> otherwise.
+	 */
+	public void setUseMethodIds(boolean p_bUseMethodIds)
+	{
+		m_bUseMethodIds = p_bUseMethodIds;
+	}
+
+
+	/**
+	 * Get the maximum number of in-only calls that may wait to be sent.
+	 * The default value is <code>1024</code>.
+	 * @return The capacity of the in-only queue.
+	 * @see JaffreInOnly
+	 */
+	public int getInOnlyQueueCapacity()
+	{
+		synchronized (m_lockInOnly)
+		{
+			return m_iInOnlyQueueCapacity;
+		}
+	}
+
+
+	/**
+	 * Set the maximum number of in-only calls that may wait to be sent.
+	 * Callers of in-only methods are blocked while the queue is full.
+	 * The value takes effect when the queue is created, i.e. with the first
+	 * in-only call after the client was created or disposed.
+	 * @param p_iCapacity The capacity of the in-only queue.
+	 * @throws JaffreConfigurationException If the capacity is less than <code>1</code>.
+	 */
+	public void setInOnlyQueueCapacity(int p_iCapacity)
+	{
+		if (p_iCapacity < 1)
+			throw new JaffreConfigurationException(p_iCapacity + " is not a valid queue capacity.");
+
+		synchronized (m_lockInOnly)
+		{
+			m_iInOnlyQueueCapacity = p_iCapacity;
+		}
+	}
+
+
+	/**
+	 * Get the number of in-only calls that are not yet sent.
+	 * @return The number of queued in-only calls.
+	 */
+	public int getNumQueuedInOnlyCalls()
+	{
+		synchronized (m_lockInOnly)
+		{
+			return m_queueInOnly != null ? m_queueInOnly.size() : 0;
+		}
+	}
+
+
+	/**
+	 * Wait until all in-only calls that were queued before have been sent,
+	 * or discarded because of an error.
+	 * @throws InterruptedException If the current thread was interrupted.
+	 */
+	public void flushInOnlyCalls() throws InterruptedException
+	{
+		final InOnlyCallQueue l_queue;
+
+		synchronized (m_lockInOnly)
+		{
+			l_queue = m_queueInOnly;
+		}
+
+		if (l_queue != null)
+			l_queue.flush();
+	}
+
+
 	/*
 	 * @see org.jaffre.client.JaffreClient#getProxy(java.lang.Class)
 	 */
@@ -252,10 +409,170 @@ public abstract class AbstractSocketJaffreClient implements JaffreClient, Jaffre
 	}
 
 
+	/**
+	 * Free the resources of the in-only queue. Queued in-only calls are
+	 * sent before. Subclasses must call this method when they are disposed.
+	 */
 	@Override
 	public void dispose()
 	{
-		// an empty default implementation
+		final InOnlyCallQueue l_queue;
+
+		synchronized (m_lockInOnly)
+		{
+			l_queue       = m_queueInOnly;
+			m_queueInOnly = null;
+		}
+
+		if (l_queue != null)
+			l_queue.close(1000L);
+	}
+
+
+	/**
+	 * Create a batch of method invocations that are sent to the server in
+	 * a single round trip.
+	 * @return A new, empty batch.
+	 */
+	public JaffreBatch newBatch()
+	{
+		return new JaffreBatch(this);
+	}
+
+
+	/**
+	 * Create the in-out call frame for a remote method invocation.
+	 * <p>The keep-alive flag is set according to this client's keep-alive
+	 * property, and the current thread's cookie is attached if this client
+	 * sends cookies.</p>
+	 * @param p_interface The invoked interface.
+	 * @param p_method The method to be invoked.
+	 * @param p_args Method parameters.
+	 * @return The call frame.
+	 */
+	protected JaffreCallFrame newCallFrame(Class<?> p_interface, Method p_method, Object[] p_args)
+	{
+		return newCallFrame(p_interface, p_method, p_args, null);
+	}
+
+
+	/**
+	 * Create the in-out call frame for a remote method invocation on a
+	 * connection that has a method id dictionary.
+	 * <p>If this client uses method ids, the frame carries the method id if
+	 * it is known, or otherwise requests an id for the method.</p>
+	 * @param p_interface The invoked interface.
+	 * @param p_method The method to be invoked.
+	 * @param p_args Method parameters.
+	 * @param p_methodIds The method ids of the connection, or <code>null</code>.
+	 * @return The call frame.
+	 * @see #acceptMethodId(JaffreReturnFrame, Class, Method, MethodIdDictionary)
+	 */
+	protected JaffreCallFrame newCallFrame(Class<?>           p_interface,
+	                                       Method             p_method,
+	                                       Object[]           p_args,
+	                                       MethodIdDictionary p_methodIds)
+	{
+		final int             l_iMethodId;
+		final JaffreCallFrame l_frameCall;
+
+		if (isUseMethodIds() && p_methodIds != null)
+			l_iMethodId = p_methodIds.get(p_interface, p_method);
+		else
+			l_iMethodId = 0;
+
+		if (l_iMethodId != 0)
+		{
+			l_frameCall = new JaffreCallFrame(l_iMethodId, p_args, null);
+		}
+		else
+		{
+			l_frameCall = new JaffreCallFrame(p_interface,
+			                                  p_method.getName(),
+			                                  p_method.getParameterTypes(),
+			                                  p_args);
+
+			l_frameCall.setMethodIdRequest(isUseMethodIds() && p_methodIds != null);
+		}
+
+		l_frameCall.setKeepAlive(isKeepAlive());
+		l_frameCall.setInOut();
+
+		if (isSendCookies())
+			l_frameCall.setUserData(JaffreCookie.get());
+
+		return l_frameCall;
+	}
+
+
+	/**
+	 * Remember the method id that the server acknowledged in a return frame.
+	 * @param p_frameReturn The return frame.
+	 * @param p_interface The invoked interface.
+	 * @param p_method The invoked method.
+	 * @param p_methodIds The method ids of the connection, or <code>null</code>.
+	 */
+	protected void acceptMethodId(JaffreReturnFrame  p_frameReturn,
+	                              Class<?>           p_interface,
+	                              Method             p_method,
+	                              MethodIdDictionary p_methodIds)
+	{
+		if (p_methodIds != null && p_frameReturn.getMethodId() != 0)
+			p_methodIds.put(p_interface, p_method, p_frameReturn.getMethodId());
+	}
+
+
+	/**
+	 * Return the result of a remote method invocation to the caller, or
+	 * re-throw the exception that was thrown on the server.
+	 * <p>The cookie of the return frame is set for the current thread if
+	 * this client accepts cookies.</p>
+	 * @param p_frameReturn The return frame.
+	 * @param p_method The invoked method.
+	 * @return The return value.
+	 * @throws Throwable The exception that was thrown on the server. Exceptions
+	 *    that are not declared by <code>p_method</code> are wrapped into
+	 *    a {@link JaffreUncheckedException}.
+	 */
+	protected Object returnResult(JaffreReturnFrame p_frameReturn, Method p_method)
+		throws Throwable
+	{
+		if (isAcceptCookies())
+			JaffreCookie.set(p_frameReturn.getUserData());
+
+		return getResult(p_frameReturn, p_method);
+	}
+
+
+	/**
+	 * Get the result of a remote method invocation, or throw the exception
+	 * that was thrown on the server. Unlike {@link #returnResult(JaffreReturnFrame, Method)}
+	 * this method does not touch the current thread's cookie.
+	 * @param p_frameReturn The return frame.
+	 * @param p_method The invoked method.
+	 * @return The return value.
+	 * @throws Throwable The exception that was thrown on the server. Exceptions
+	 *    that are not declared by <code>p_method</code> are wrapped into
+	 *    a {@link JaffreUncheckedException}.
+	 */
+	protected static Object getResult(JaffreReturnFrame p_frameReturn, Method p_method)
+		throws Throwable
+	{
+		if (!p_frameReturn.isExceptionResult())
+		{
+			return p_frameReturn.getResult();
+		}
+		else
+		{
+			final Throwable l_e;
+
+			l_e = (Throwable)p_frameReturn.getResult();
+
+			if (JaffreUtil.isDeclaredThrowable(l_e, p_method))
+				throw l_e;
+			else
+				throw new JaffreUncheckedException(l_e);
+		}
 	}
 
 
@@ -273,4 +590,268 @@ public abstract class AbstractSocketJaffreClient implements JaffreClient, Jaffre
 	                                     Method   p_method,
 	                                     Object[] p_args)
 		throws Throwable;
+
+
+	/**
+	 * Perform a remote call of a method that returns a
+	 * {@link CompletableFuture}.
+	 * <p>The server waits for the future that is returned by the service
+	 * endpoint and sends its value. The future returned by this method is
+	 * completed with that value, or completed exceptionally with the
+	 * exception that occurred.</p>
+	 * <p>The default implementation performs the call synchronously by
+	 * calling {@link #invokeImpl(Class, Object, Method, Object[])}
+	 * and returns a completed future. Subclasses that can receive return
+	 * frames on a shared I/O thread should override this method, so that
+	 * the calling thread is not blocked.</p>
+	 * @param p_interface The invoked interface.
+	 * @param p_proxy The proxy object the metod is invoked on.
+	 * @param p_method The method to be invoked.
+	 * @param p_args Method parameters.
+	 * @return The future result.
+	 */
+	protected CompletableFuture<Object> invokeAsyncImpl(Class<?> p_interface,
+	                                                    Object   p_proxy,
+	                                                    Method   p_method,
+	                                                    Object[] p_args)
+	{
+		final CompletableFuture<Object> l_future;
+
+		l_future = new CompletableFuture<>();
+
+		try
+		{
+			l_future.complete(invokeImpl(p_interface, p_proxy, p_method, p_args));
+		}
+		catch (Throwable l_e)
+		{
+			l_future.completeExceptionally(l_e);
+		}
+
+		return l_future;
+	}
+
+
+	/**
+	 * Perform the remote calls of a batch.
+	 * <p>The default implementation invokes the methods one after another
+	 * by calling {@link #invokeImpl(Class, Object, Method, Object[])}.
+	 * Subclasses should override this method and use
+	 * {@link #exchangeBatch(List, JaffreCallFrameSerializer, JaffreReturnFrameSerializer, OutputStream, InputStream, MethodIdDictionary)}
+	 * to send all call frames at once.</p>
+	 * @param p_calls The calls, not empty. The implementation must complete
+	 *    the futures of all calls.
+	 * @throws Throwable If the calls could not be performed. The futures of
+	 *    calls that are not yet completed are then completed exceptionally.
+	 */
+	protected void invokeBatchImpl(List<JaffreBatch.Call> p_calls)
+		throws Throwable
+	{
+		for (final JaffreBatch.Call l_call : p_calls)
+		{
+			try
+			{
+				l_call.getFuture().complete
+					(invokeImpl(l_call.getInterface(), null, l_call.getMethod(), l_call.getArgs()));
+			}
+			catch (Throwable l_e)
+			{
+				l_call.getFuture().completeExceptionally(l_e);
+			}
+		}
+	}
+
+
+	/**
+	 * Queue the call of an in-only method.
+	 * <p>The call frame is created like the frames of other calls, but
+	 * it is an in-only frame that asks the server to keep the connection
+	 * alive. The calling thread is only blocked while the queue is full.</p>
+	 * @param p_interface The invoked interface.
+	 * @param p_proxy The proxy object the metod is invoked on.
+	 * @param p_method The method to be invoked.
+	 * @param p_args Method parameters.
+	 * @see JaffreInOnly
+	 */
+	protected void invokeInOnlyImpl(Class<?> p_interface,
+	                                Object   p_proxy,
+	                                Method   p_method,
+	                                Object[] p_args)
+	{
+		final JaffreCallFrame l_frameCall;
+		final InOnlyCallQueue l_queue;
+
+		l_frameCall = newCallFrame(p_interface, p_method, p_args);
+
+		l_frameCall.setKeepAlive(true);
+		l_frameCall.setInOnly();
+
+		synchronized (m_lockInOnly)
+		{
+			if (m_queueInOnly == null)
+				m_queueInOnly = new InOnlyCallQueue(this, m_iInOnlyQueueCapacity);
+
+			l_queue = m_queueInOnly;
+		}
+
+		try
+		{
+			l_queue.put(l_frameCall);
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new JaffreUncheckedException(l_e);
+		}
+	}
+
+
+	/**
+	 * Send in-only call frames. This method is being called by the sender
+	 * thread of the in-only queue with all frames that were queued at a time.
+	 * <p>The default implementation writes the frames to a dedicated
+	 * connection with a single flush. Subclasses that do not connect with
+	 * plain sockets must override this method and
+	 * {@link #closeInOnlyConnection()}.</p>
+	 * @param p_frames The call frames, not empty.
+	 * @throws IOException If an I/O error occurred. The frames are discarded.
+	 */
+	protected void sendInOnlyFrames(List<JaffreCallFrame> p_frames) throws IOException
+	{
+		if (m_socketInOnly == null)
+		{
+			final Socket l_socket;
+
+			l_socket = SocketFactory.getDefault().createSocket();
+
+			try
+			{
+				l_socket.setKeepAlive(isKeepAlive());
+				l_socket.setTcpNoDelay(true);
+				l_socket.connect(new InetSocketAddress(getServiceInetAddress(), getServicePort()));
+
+				m_outInOnly = new PooledBufferedOutputStream(l_socket.getOutputStream(), 65536);
+			}
+			catch (IOException l_e)
+			{
+				JaffreUtil.close(l_socket);
+
+				throw l_e;
+			}
+
+			m_socketInOnly  = l_socket;
+			m_serCallInOnly = getCallFrameSerializer().forConnection();
+		}
+
+		try
+		{
+			for (final JaffreCallFrame l_frameCall : p_frames)
+				m_serCallInOnly.serialize(l_frameCall, m_outInOnly);
+
+			m_outInOnly.flush();
+		}
+		catch (IOException l_e)
+		{
+			closeInOnlyConnection();
+
+			throw l_e;
+		}
+	}
+
+
+	/**
+	 * Close the connection that is used by {@link #sendInOnlyFrames(List)}.
+	 * This method is being called by the sender thread of the in-only queue.
+	 */
+	protected void closeInOnlyConnection()
+	{
+		m_outInOnly     = null;
+		m_serCallInOnly = null;
+		m_socketInOnly  = JaffreUtil.close(m_socketInOnly);
+	}
+
+
+	/**
+	 * Write the call frames of a batch with a single flush, and read their
+	 * return frames.
+	 * <p>All call frames but the last carry the
+	 * {@link org.jaffre.JAFFRE_FLAG#BATCH_CONTINUE} flag and ask the server to
+	 * keep the connection alive, so the server may write all return frames
+	 * at once.</p>
+	 * @param p_calls The calls, not empty.
+	 * @param p_serCall The call frame serializer of the connection.
+	 * @param p_serRtrn The return frame serializer of the connection.
+	 * @param p_out The output stream of the connection.
+	 * @param p_in The input stream of the connection.
+	 * @param p_methodIds The method ids of the connection, or <code>null</code>.
+	 * @return <code>true</code> if the connection may be kept alive,
+	 *    or <code>false</code> otherwise.
+	 * @throws IOException If an I/O error occurred.
+	 * @throws ClassNotFoundException If the class of a serialized object
+	 *    cannot be found.
+	 */
+	protected boolean exchangeBatch(List<JaffreBatch.Call>      p_calls,
+	                                JaffreCallFrameSerializer   p_serCall,
+	                                JaffreReturnFrameSerializer p_serRtrn,
+	                                OutputStream                p_out,
+	                                InputStream                 p_in,
+	                                MethodIdDictionary          p_methodIds)
+		throws IOException, ClassNotFoundException
+	{
+		final int l_iLast;
+		boolean   l_bKeepAlive;
+
+		l_iLast      = p_calls.size() - 1;
+		l_bKeepAlive = false;
+
+		for (int i = 0; i <= l_iLast; i++)
+		{
+			final JaffreBatch.Call l_call;
+			final JaffreCallFrame  l_frameCall;
+
+			l_call      = p_calls.get(i);
+			l_frameCall = newCallFrame(l_call.getInterface(), l_call.getMethod(), l_call.getArgs(), p_methodIds);
+
+			if (i < l_iLast)
+			{
+				l_frameCall.setKeepAlive(true);
+				l_frameCall.setBatchContinue(true);
+			}
+			else
+			{
+				l_bKeepAlive = l_frameCall.isKeepAlive();
+			}
+
+			p_serCall.serialize(l_frameCall, p_out);
+		}
+
+		p_out.flush();
+
+		for (final JaffreBatch.Call l_call : p_calls)
+		{
+			final JaffreReturnFrame l_frameReturn;
+
+			l_frameReturn = p_serRtrn.deserialize(p_in);
+
+			if (l_frameReturn == null)
+				throw new JaffreNoReturnFrameException();
+
+			acceptMethodId(l_frameReturn, l_call.getInterface(), l_call.getMethod(), p_methodIds);
+
+			// we close the connection if the server wishes to do so
+			l_bKeepAlive = l_bKeepAlive && l_frameReturn.isKeepAlive();
+
+			try
+			{
+				l_call.getFuture().complete(returnResult(l_frameReturn, l_call.getMethod()));
+			}
+			catch (Throwable l_e)
+			{
+				l_call.getFuture().completeExceptionally(l_e);
+			}
+		}
+
+		return l_bKeepAlive;
+	}
 }
\ No newline at end of file
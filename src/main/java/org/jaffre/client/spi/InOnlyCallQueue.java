@@ -0,0 +1,260 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+
+
+/**
+ * The queue of in-only call frames of a client.
+ * <p>A sender thread takes all call frames that are queued at a time and
+ * hands them to {@link AbstractSocketJaffreClient#sendInOnlyFrames(List)},
+ * so that many frames are written with a single flush.</p>
+ * @author Alexander Veit
+ */
+final class InOnlyCallQueue implements Runnable
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(InOnlyCallQueue.class);
+
+	private static final AtomicInteger ms_intThreadCount = new AtomicInteger(0);
+
+	/** Tells the sender thread to exit. */
+	private static final JaffreCallFrame ms_frameClose = new JaffreCallFrame(Integer.MAX_VALUE, null, null);
+
+	private final AbstractSocketJaffreClient m_client;
+
+	private final BlockingQueue<JaffreCallFrame> m_queue;
+
+	private final Thread m_thread;
+
+	/** The number of call frames that were queued. Guarded by <code>this</code>. */
+	private long m_lngQueued;
+
+	/** The number of call frames that were written or discarded. Guarded by <code>this</code>. */
+	private long m_lngDone;
+
+	/** Guarded by <code>this</code>. */
+	private boolean m_bClosed;
+
+	/** <code>true</code> if the sender thread took its last frames. Guarded by <code>this</code>. */
+	private boolean m_bExited;
+
+
+	InOnlyCallQueue(AbstractSocketJaffreClient p_client, int p_iCapacity)
+	{
+		m_client = p_client;
+		m_queue  = new LinkedBlockingQueue<>(p_iCapacity);
+		m_thread = new Thread(this, "InOnlyCallQueue-" + ms_intThreadCount.incrementAndGet());
+
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+
+
+	/**
+	 * Queue a call frame. Blocks while the queue is full.
+	 * @param p_frameCall The in-only call frame.
+	 * @throws InterruptedException If the current thread was interrupted
+	 *    while waiting for space in the queue.
+	 * @throws IllegalStateException If the queue was closed.
+	 */
+	void put(JaffreCallFrame p_frameCall) throws InterruptedException
+	{
+		synchronized (this)
+		{
+			if (m_bClosed)
+				throw new IllegalStateException("The queue is closed.");
+
+			m_lngQueued++;
+		}
+
+		try
+		{
+			m_queue.put(p_frameCall);
+		}
+		catch (InterruptedException l_e)
+		{
+			_done(1);
+
+			throw l_e;
+		}
+
+		synchronized (this)
+		{
+			// the queue was closed concurrently, and the sender
+			// thread took its last frames before this one was queued
+			if (m_bExited)
+				_discard();
+		}
+	}
+
+
+	/**
+	 * Get the number of call frames that are not yet written.
+	 * @return The number of queued call frames.
+	 */
+	synchronized int size()
+	{
+		return (int)(m_lngQueued - m_lngDone);
+	}
+
+
+	/**
+	 * Wait until all call frames that were queued before have been written
+	 * or discarded.
+	 * @throws InterruptedException If the current thread was interrupted.
+	 */
+	synchronized void flush() throws InterruptedException
+	{
+		final long l_lngQueued;
+
+		l_lngQueued = m_lngQueued;
+
+		while (m_lngDone < l_lngQueued)
+			wait();
+	}
+
+
+	/**
+	 * Write the queued call frames and stop the sender thread.
+	 * @param p_lTimeout The time to wait for the sender thread in milliseconds.
+	 */
+	void close(long p_lTimeout)
+	{
+		synchronized (this)
+		{
+			if (m_bClosed)
+				return;
+
+			m_bClosed = true;
+		}
+
+		try
+		{
+			m_queue.put(ms_frameClose);
+
+			m_thread.join(p_lTimeout);
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	@Override
+	public void run()
+	{
+		final List<JaffreCallFrame> l_frames;
+		boolean                     l_bClose;
+
+		l_frames = new ArrayList<>();
+		l_bClose = false;
+
+		try
+		{
+			while (!l_bClose)
+			{
+				try
+				{
+					l_frames.add(m_queue.take());
+				}
+				catch (InterruptedException l_e)
+				{
+					ms_log.warn("Unexpected interrupt.", l_e);
+
+					continue;
+				}
+
+				// coalesce all frames that are queued
+				m_queue.drainTo(l_frames);
+
+				l_bClose = l_frames.remove(ms_frameClose);
+
+				if (!l_frames.isEmpty())
+					_send(l_frames);
+
+				l_frames.clear();
+			}
+		}
+		finally
+		{
+			// frames that were queued concurrently with closing the queue
+			synchronized (this)
+			{
+				m_bExited = true;
+
+				_discard();
+			}
+
+			m_client.closeInOnlyConnection();
+
+			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
+		}
+	}
+
+
+	private void _send(List<JaffreCallFrame> p_frames)
+	{
+		try
+		{
+			m_client.sendInOnlyFrames(p_frames);
+		}
+		catch (Throwable l_e)
+		{
+			ms_log.warn(p_frames.size() + " in-only calls could not be sent.", l_e);
+		}
+		finally
+		{
+			_done(p_frames.size());
+		}
+	}
+
+
+	private synchronized void _discard()
+	{
+		final List<JaffreCallFrame> l_frames;
+
+		l_frames = new ArrayList<>();
+
+		m_queue.drainTo(l_frames);
+
+		if (!l_frames.isEmpty())
+		{
+			ms_log.debug(l_frames.size() + " in-only calls were discarded after the queue was closed.");
+
+			_done(l_frames.size());
+		}
+	}
+
+
+	private synchronized void _done(int p_iCount)
+	{
+		m_lngDone += p_iCount;
+
+		notifyAll();
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * A batch of remote method invocations that are sent to the server in
+ * a single round trip.
+ * <p>Methods that are invoked on the proxies of a batch are not sent to the
+ * server immediately, but collected until {@link #flush()} is called. Since the
+ * results are not known when the method returns, methods that return
+ * a {@link CompletableFuture} return a future that is completed on flush, and
+ * all other methods return <code>null</code>, <code>0</code> or
+ * <code>false</code>.</p>
+ * <p>Example:</p>
+ * <pre>
+ * final JaffreBatch l_batch = l_client.newBatch();
+ * final Echo        l_echo  = l_batch.getProxy(Echo.class);
+ *
+ * l_echo.echo("a");
+ * l_echo.echo("b");
+ *
+ * final List&lt;CompletableFuture&lt;Object&gt;&gt; l_results = l_batch.flush();
+ * </pre>
+ * <p><i>Note: a batch is not thread-safe.</i></p>
+ * @author Alexander Veit
+ */
+public final class JaffreBatch
+{
+	private final AbstractSocketJaffreClient m_client;
+
+	private List<Call> m_calls = new ArrayList<>();
+
+
+	/**
+	 * A method invocation of a batch.
+	 */
+	public static final class Call
+	{
+		private final Class<?> m_interface;
+
+		private final Method m_method;
+
+		private final Object[] m_args;
+
+		private final CompletableFuture<Object> m_future = new CompletableFuture<>();
+
+
+		private Call(Class<?> p_interface, Method p_method, Object[] p_args)
+		{
+			m_interface = p_interface;
+			m_method    = p_method;
+			m_args      = p_args;
+		}
+
+
+		public Class<?> getInterface()
+		{
+			return m_interface;
+		}
+
+
+		public Method getMethod()
+		{
+			return m_method;
+		}
+
+
+		public Object[] getArgs()
+		{
+			return m_args;
+		}
+
+
+		/**
+		 * Get the future that receives the result of the invocation.
+		 * @return The future.
+		 */
+		public CompletableFuture<Object> getFuture()
+		{
+			return m_future;
+		}
+	}
+
+
+	JaffreBatch(AbstractSocketJaffreClient p_client)
+	{
+		m_client = p_client;
+	}
+
+
+	/**
+	 * Create a proxy that adds the methods invoked on it to this batch.
+	 * @param <T> The interface.
+	 * @param p_interface The interface class.
+	 * @return The proxy.
+	 */
+	public <T> T getProxy(Class<T> p_interface)
+	{
+		if (!p_interface.isInterface())
+			throw new IllegalArgumentException(p_interface.getName() + " is not an interface.");
+
+		@SuppressWarnings("unchecked")
+		final T l_proxy = (T)Proxy.newProxyInstance(p_interface.getClassLoader(),
+		                                            new Class<?>[] {p_interface},
+		                                            (p_proxy, p_method, p_args) ->
+		                                               _add(p_interface, p_method, p_args));
+
+		return l_proxy;
+	}
+
+
+	/**
+	 * Get the number of method invocations that wait to be sent.
+	 * @return The number of method invocations.
+	 */
+	public int size()
+	{
+		return m_calls.size();
+	}
+
+
+	/**
+	 * Send all collected method invocations to the server in a single round
+	 * trip and wait for their results.
+	 * <p>The returned futures are completed, either with the return value or
+	 * with the exception of the invocation. The batch is empty afterwards and
+	 * may be reused.</p>
+	 * @return The results, in the order of the invocations.
+	 */
+	public List<CompletableFuture<Object>> flush()
+	{
+		final List<Call>                      l_calls;
+		final List<CompletableFuture<Object>> l_results;
+
+		l_calls = m_calls;
+		m_calls = new ArrayList<>();
+
+		if (l_calls.isEmpty())
+			return Collections.emptyList();
+
+		try
+		{
+			m_client.invokeBatchImpl(l_calls);
+		}
+		catch (Throwable l_e)
+		{
+			for (final Call l_call : l_calls)
+				l_call.m_future.completeExceptionally(l_e);
+		}
+
+		l_results = new ArrayList<>(l_calls.size());
+
+		for (final Call l_call : l_calls)
+			l_results.add(l_call.m_future);
+
+		return l_results;
+	}
+
+
+	private Object _add(Class<?> p_interface, Method p_method, Object[] p_args)
+	{
+		final Call     l_call;
+		final Class<?> l_clsReturn;
+
+		l_call = new Call(p_interface, p_method, p_args);
+
+		m_calls.add(l_call);
+
+		l_clsReturn = p_method.getReturnType();
+
+		if (l_clsReturn == CompletableFuture.class)
+			return l_call.m_future;
+		else if (!l_clsReturn.isPrimitive() || l_clsReturn == void.class)
+			return null;
+		else if (l_clsReturn == boolean.class)
+			return Boolean.FALSE;
+		else if (l_clsReturn == char.class)
+			return Character.valueOf((char)0);
+		else if (l_clsReturn == byte.class)
+			return Byte.valueOf((byte)0);
+		else if (l_clsReturn == short.class)
+			return Short.valueOf((short)0);
+		else if (l_clsReturn == int.class)
+			return Integer.valueOf(0);
+		else if (l_clsReturn == long.class)
+			return Long.valueOf(0L);
+		else if (l_clsReturn == float.class)
+			return Float.valueOf(0.0f);
+		else
+			return Double.valueOf(0.0d);
+	}
+}
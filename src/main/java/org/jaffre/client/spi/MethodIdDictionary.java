@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The method ids that a server has acknowledged on a single connection.
+ * <p>The ids are assigned by the server's endpoint registry, so a dictionary
+ * must be cleared whenever its connection is closed.</p>
+ * @author Alexander Veit
+ */
+public final class MethodIdDictionary
+{
+	private final Map<Class<?>, Map<Method, Integer>> m_map = new ConcurrentHashMap<>();
+
+
+	public MethodIdDictionary()
+	{
+	}
+
+
+	/**
+	 * Get the id of a method.
+	 * @param p_interface The invoked interface.
+	 * @param p_method The invoked method.
+	 * @return The method id, or <code>0</code> if the server has not yet
+	 *    acknowledged an id for the method.
+	 */
+	public int get(Class<?> p_interface, Method p_method)
+	{
+		final Map<Method, Integer> l_map;
+		final Integer              l_id;
+
+		l_map = m_map.get(p_interface);
+
+		if (l_map == null)
+			return 0;
+
+		l_id = l_map.get(p_method);
+
+		return l_id != null ? l_id.intValue() : 0;
+	}
+
+
+	/**
+	 * Set the id of a method.
+	 * @param p_interface The invoked interface.
+	 * @param p_method The invoked method.
+	 * @param p_iId The method id that was acknowledged by the server.
+	 */
+	public void put(Class<?> p_interface, Method p_method, int p_iId)
+	{
+		if (p_iId <= 0)
+			throw new IllegalArgumentException(p_iId + " is not a valid method id.");
+
+		m_map.computeIfAbsent(p_interface, l_interface -> new ConcurrentHashMap<>()).put(p_method, p_iId);
+	}
+
+
+	/**
+	 * Get the number of known method ids.
+	 * @return The number of method ids.
+	 */
+	public int size()
+	{
+		int l_iSize;
+
+		l_iSize = 0;
+
+		for (final Map<Method, Integer> l_map : m_map.values())
+			l_iSize += l_map.size();
+
+		return l_iSize;
+	}
+
+
+	/**
+	 * Forget all method ids.
+	 */
+	public void clear()
+	{
+		m_map.clear();
+	}
+}
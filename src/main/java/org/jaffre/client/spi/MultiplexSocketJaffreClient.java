@@ -0,0 +1,521 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.client.spi;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
+
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreUncheckedException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.PooledBufferedInputStream;
+import org.jaffre.io.PooledBufferedOutputStream;
+import org.jaffre.spi.FramedJaffreCallFrameSerializer;
+import org.jaffre.util.JaffreUtil;
+
+
+/**
+ * A client that shares a single connection between all threads that
+ * invoke methods on its proxies.
+ * <p>Call frames are written as they arrive, without waiting for the return
+ * frames of outstanding calls. A reader thread receives the return frames and
+ * matches them with the waiting callers by their correlation id, so the
+ * return frames may arrive in any order. A slow method therefore does not
+ * block other calls on the same connection.</p>
+ * <p>The server must use a connector that processes calls concurrently, e.g. the
+ * {@link org.jaffre.server.spi.MultiplexSocketJaffreConnector}. The connection
+ * is always kept alive, the keep-alive property of this client only controls
+ * the <code>SO_KEEPALIVE</code> socket option.</p>
+ * @author Alexander Veit
+ */
+public class MultiplexSocketJaffreClient extends AbstractSocketJaffreClient
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(MultiplexSocketJaffreClient.class);
+
+	private static final AtomicInteger ms_intThreadCount = new AtomicInteger(0);
+
+	private final AtomicLong m_lngCorrelationId = new AtomicLong(0L);
+
+	private int m_iBufferSize = 8192;
+
+	private Connection m_conn;
+
+
+	/**
+	 * A connection that is shared by several concurrent calls.
+	 */
+	private final class Connection implements Runnable
+	{
+		private final Socket m_socket;
+
+		private final PooledBufferedOutputStream m_out;
+
+		private final PooledBufferedInputStream m_in;
+
+		/** The calls that wait for their return frames, by correlation id. */
+		private final ConcurrentHashMap<Long, CompletableFuture<JaffreReturnFrame>> m_pending =
+			new ConcurrentHashMap<>();
+
+		/** The method ids acknowledged on this connection. */
+		private final MethodIdDictionary m_methodIds = new MethodIdDictionary();
+
+		private final JaffreCallFrameSerializer m_serCall = getCallFrameSerializer().forConnection();
+
+		private final JaffreReturnFrameSerializer m_serRtrn = getReturnFrameSerializer().forConnection();
+
+		private volatile boolean m_bClosed;
+
+
+		private Connection(Socket p_socket) throws IOException
+		{
+			m_socket = p_socket;
+			m_out    = new PooledBufferedOutputStream(p_socket.getOutputStream(), m_iBufferSize);
+			m_in     = new PooledBufferedInputStream(p_socket.getInputStream(), m_iBufferSize);
+		}
+
+
+		/**
+		 * Send a call frame.
+		 * @param p_frameCall The call frame.
+		 * @param p_future The future that receives the return frame.
+		 * @throws IOException If an I/O error occurred.
+		 */
+		private void send(JaffreCallFrame p_frameCall, CompletableFuture<JaffreReturnFrame> p_future)
+			throws IOException
+		{
+			final Long l_lngId;
+
+			l_lngId = p_frameCall.getCorrelationId();
+
+			m_pending.put(l_lngId, p_future);
+
+			try
+			{
+				// the reader fails all pending calls after the connection was closed
+				if (m_bClosed)
+					throw new EOFException("Connection closed.");
+
+				synchronized (m_out)
+				{
+					m_serCall.serialize(p_frameCall, m_out);
+
+					// the frames of a batch are written at once
+					if (!p_frameCall.isBatchContinue())
+						m_out.flush();
+				}
+			}
+			catch (IOException l_e)
+			{
+				m_pending.remove(l_lngId);
+
+				close(l_e);
+
+				throw l_e;
+			}
+		}
+
+
+		@Override
+		public void run()
+		{
+			Throwable l_cause;
+
+			l_cause = null;
+
+			try
+			{
+				while (true)
+				{
+					final JaffreReturnFrame                    l_frameReturn;
+					final CompletableFuture<JaffreReturnFrame> l_future;
+
+					l_frameReturn = m_serRtrn.deserialize(m_in);
+
+					if (l_frameReturn == null)
+						break;
+
+					// the server will close the connection, so we don't send
+					// further call frames
+					if (!l_frameReturn.isKeepAlive())
+						_detach();
+
+					l_future = m_pending.remove(l_frameReturn.getCorrelationId());
+
+					if (l_future != null)
+						l_future.complete(l_frameReturn);
+					else
+						ms_log.warn("Unexpected return frame " + l_frameReturn.getCorrelationId() + ".");
+				}
+			}
+			catch (Throwable l_e)
+			{
+				if (!m_bClosed)
+					l_cause = l_e;
+			}
+			finally
+			{
+				close(l_cause != null ? l_cause : new EOFException("Connection closed."));
+
+				// return the stream buffers to the pool
+				synchronized (m_out)
+				{
+					JaffreUtil.close(m_out);
+				}
+
+				JaffreUtil.close(m_in);
+			}
+
+			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
+		}
+
+
+		/**
+		 * Close the connection and fail all pending calls.
+		 * @param p_cause The cause.
+		 */
+		private void close(Throwable p_cause)
+		{
+			final Iterator<CompletableFuture<JaffreReturnFrame>> l_it;
+
+			m_bClosed = true;
+
+			_detach();
+
+			JaffreUtil.close(m_socket);
+
+			l_it = m_pending.values().iterator();
+
+			while (l_it.hasNext())
+			{
+				final CompletableFuture<JaffreReturnFrame> l_future;
+
+				l_future = l_it.next();
+
+				l_it.remove();
+
+				l_future.completeExceptionally(new JaffreUncheckedException(p_cause));
+			}
+		}
+
+
+		/**
+		 * Make sure that subsequent calls use a new connection.
+		 */
+		private void _detach()
+		{
+			synchronized (MultiplexSocketJaffreClient.this)
+			{
+				if (m_conn == this)
+					m_conn = null;
+			}
+		}
+	}
+
+
+	/**
+	 * Create a client whose call frame serializer is a
+	 * {@link FramedJaffreCallFrameSerializer}, as required by the
+	 * {@link org.jaffre.server.spi.MultiplexSocketJaffreConnector}.
+	 */
+	public MultiplexSocketJaffreClient()
+	{
+		setCallFrameSerializer(new FramedJaffreCallFrameSerializer());
+	}
+
+
+	/**
+	 * Get the number of calls that currently wait for their return frames.
+	 * @return The number of outstanding calls.
+	 */
+	public synchronized int getNumPendingCalls()
+	{
+		return m_conn != null ? m_conn.m_pending.size() : 0;
+	}
+
+
+	/**
+	 * Free all network resources that are no longer needed by this client.
+	 * Outstanding calls fail with a {@link JaffreUncheckedException}.
+	 * <p><i>Note: subsequent method invocations on client interfaces
+	 * will acquire new resources, so this method has to be called again.</i></p>
+	 */
+	@Override
+	public void dispose()
+	{
+		final Connection l_conn;
+
+		super.dispose();
+
+		synchronized (this)
+		{
+			l_conn = m_conn;
+			m_conn = null;
+		}
+
+		if (l_conn != null)
+			l_conn.close(new EOFException("Client disposed."));
+	}
+
+
+	@Override
+	protected Object invokeImpl(Class<?> p_interface,
+	                            Object   p_proxy,
+	                            Method   p_method,
+	                            Object[] p_args)
+		throws Throwable
+	{
+		final CompletableFuture<JaffreReturnFrame> l_future;
+		final JaffreReturnFrame                    l_frameReturn;
+
+		l_future = _call(p_interface, p_method, p_args, false);
+
+		try
+		{
+			l_frameReturn = l_future.get();
+		}
+		catch (InterruptedException l_e)
+		{
+			l_future.cancel(false);
+
+			Thread.currentThread().interrupt();
+
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (ExecutionException l_e)
+		{
+			if (l_e.getCause() instanceof JaffreUncheckedException)
+				throw l_e.getCause();
+			else
+				throw new JaffreUncheckedException(l_e.getCause());
+		}
+
+		// return the result to the caller, or re-throw the exception that
+		// was thrown on the server
+		return returnResult(l_frameReturn, p_method);
+	}
+
+
+	/**
+	 * Perform a remote call without blocking the calling thread.
+	 * <p>The returned future is completed by the reader thread of the
+	 * connection. Cookies are not accepted for asynchronous calls.</p>
+	 */
+	@Override
+	protected CompletableFuture<Object> invokeAsyncImpl(Class<?> p_interface,
+	                                                    Object   p_proxy,
+	                                                    Method   p_method,
+	                                                    Object[] p_args)
+	{
+		return _call(p_interface, p_method, p_args, false).thenApply(l_frameReturn ->
+		{
+			try
+			{
+				return getResult(l_frameReturn, p_method);
+			}
+			catch (Throwable l_e)
+			{
+				throw new CompletionException(l_e);
+			}
+		});
+	}
+
+
+	/**
+	 * Send the call frames of a batch with a single flush, and wait for all
+	 * return frames.
+	 */
+	@Override
+	protected void invokeBatchImpl(List<JaffreBatch.Call> p_calls)
+	{
+		final int l_iLast;
+
+		l_iLast = p_calls.size() - 1;
+
+		for (int i = 0; i <= l_iLast; i++)
+		{
+			final JaffreBatch.Call l_call;
+
+			l_call = p_calls.get(i);
+
+			_call(l_call.getInterface(), l_call.getMethod(), l_call.getArgs(), i < l_iLast)
+				.whenComplete((l_frameReturn, l_e) ->
+			{
+				try
+				{
+					if (l_e != null)
+						throw l_e;
+
+					l_call.getFuture().complete(returnResult(l_frameReturn, l_call.getMethod()));
+				}
+				catch (Throwable l_t)
+				{
+					l_call.getFuture().completeExceptionally(l_t);
+				}
+			});
+		}
+
+		for (final JaffreBatch.Call l_call : p_calls)
+		{
+			try
+			{
+				l_call.getFuture().join();
+			}
+			catch (CompletionException l_e)
+			{
+				// the future keeps the exception
+			}
+		}
+	}
+
+
+	/**
+	 * Send a call frame.
+	 * @param p_interface The invoked interface.
+	 * @param p_method The method to be invoked.
+	 * @param p_args Method parameters.
+	 * @param p_bBatchContinue <code>true</code> if further call frames of
+	 *    the same batch follow, so the connection is not flushed.
+	 * @return A future that receives the return frame. If the future is
+	 *    cancelled, a late return frame is discarded.
+	 */
+	private CompletableFuture<JaffreReturnFrame> _call(Class<?> p_interface,
+	                                                   Method   p_method,
+	                                                   Object[] p_args,
+	                                                   boolean  p_bBatchContinue)
+	{
+		final Connection                           l_conn;
+		final JaffreCallFrame                      l_frameCall;
+		final CompletableFuture<JaffreReturnFrame> l_future;
+		final Long                                 l_lngId;
+
+		l_future = new CompletableFuture<>();
+
+		try
+		{
+			l_conn = _getConnection();
+		}
+		catch (IOException l_e)
+		{
+			l_future.completeExceptionally(new JaffreUncheckedException(l_e));
+
+			return l_future;
+		}
+
+		l_frameCall = newCallFrame(p_interface, p_method, p_args, l_conn.m_methodIds);
+		l_lngId     = m_lngCorrelationId.incrementAndGet();
+
+		l_frameCall.setKeepAlive(true);
+		l_frameCall.setBatchContinue(p_bBatchContinue);
+		l_frameCall.setCorrelationId(l_lngId);
+
+		try
+		{
+			l_conn.send(l_frameCall, l_future);
+		}
+		catch (IOException l_e)
+		{
+			l_future.completeExceptionally(new JaffreUncheckedException(l_e));
+
+			return l_future;
+		}
+
+		l_future.whenComplete((l_frameReturn, l_e) ->
+		{
+			l_conn.m_pending.remove(l_lngId);
+
+			if (l_frameReturn != null)
+				acceptMethodId(l_frameReturn, p_interface, p_method, l_conn.m_methodIds);
+		});
+
+		return l_future;
+	}
+
+
+	/**
+	 * Get the shared connection, and open it if neccessary.
+	 * @return The connection.
+	 * @throws IOException If the connection cannot be opened.
+	 */
+	private synchronized Connection _getConnection() throws IOException
+	{
+		if (m_conn == null)
+		{
+			final Socket     l_socket;
+			final Connection l_conn;
+			final Thread     l_thread;
+
+			l_socket = SocketFactory.getDefault().createSocket();
+
+			try
+			{
+				l_socket.setKeepAlive(isKeepAlive());
+				l_socket.setTcpNoDelay(true);
+				l_socket.bind(null);
+				l_socket.connect(new InetSocketAddress(getServiceInetAddress(), getServicePort()));
+
+				l_conn = new Connection(l_socket);
+			}
+			catch (IOException l_e)
+			{
+				JaffreUtil.close(l_socket);
+
+				throw l_e;
+			}
+
+			l_thread = new Thread(l_conn, "MultiplexSocketJaffreClientReader-" + ms_intThreadCount.incrementAndGet());
+
+			l_thread.setDaemon(true);
+			l_thread.start();
+
+			m_conn = l_conn;
+		}
+
+		return m_conn;
+	}
+
+
+	/*
+	 * @see java.lang.Object#finalize()
+	 */
+	@Override
+	protected void finalize()
+	{
+		if (m_conn != null)
+			ms_log.warn("Call dispose to cleanup system resources.");
+
+		dispose();
+	}
+}
@@ -0,0 +1,476 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.SocketFactory;
+
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreUncheckedException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.PooledBufferedInputStream;
+import org.jaffre.io.PooledBufferedOutputStream;
+import org.jaffre.util.JaffreUtil;
+
+
+/**
+ * A client that pipelines the calls of all threads on a single keep-alive
+ * connection.
+ * <p>Call frames are written back-to-back without waiting for the return
+ * frames of outstanding calls. A reader thread receives the return frames,
+ * which the server sends in the order of the call frames, and hands them to
+ * the waiting callers. No correlation ids are needed, so any connector that
+ * serves keep-alive connections in sequence can be used, e.g. the
+ * {@link org.jaffre.server.spi.SocketJaffreConnector}.</p>
+ * <p>The number of outstanding calls is limited by the pipeline depth.
+ * A slow method delays the return frames of all calls that were written
+ * after it. If the server closes the connection, the calls that were
+ * written after the last answered call fail.</p>
+ * @author Alexander Veit
+ */
+public class PipeliningSocketJaffreClient extends AbstractSocketJaffreClient
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(PipeliningSocketJaffreClient.class);
+
+	private static final AtomicInteger ms_intThreadCount = new AtomicInteger(0);
+
+	private int m_iPipelineDepth = 16;
+
+	private int m_iBufferSize = 8192;
+
+	private Connection m_conn;
+
+
+	/**
+	 * A connection that carries the pipelined calls.
+	 */
+	private final class Connection implements Runnable
+	{
+		private final Socket m_socket;
+
+		private final PooledBufferedOutputStream m_out;
+
+		private final PooledBufferedInputStream m_in;
+
+		private final int m_iDepth;
+
+		/** Limits the number of outstanding calls. */
+		private final Semaphore m_permits;
+
+		/** The calls that wait for their return frames, in the order of their call frames. */
+		private final Queue<CompletableFuture<JaffreReturnFrame>> m_pending = new ConcurrentLinkedQueue<>();
+
+		/** The method ids acknowledged on this connection. */
+		private final MethodIdDictionary m_methodIds = new MethodIdDictionary();
+
+		private final JaffreCallFrameSerializer m_serCall = getCallFrameSerializer().forConnection();
+
+		private final JaffreReturnFrameSerializer m_serRtrn = getReturnFrameSerializer().forConnection();
+
+		private volatile boolean m_bClosed;
+
+
+		private Connection(Socket p_socket, int p_iDepth) throws IOException
+		{
+			m_socket  = p_socket;
+			m_out     = new PooledBufferedOutputStream(p_socket.getOutputStream(), m_iBufferSize);
+			m_in      = new PooledBufferedInputStream(p_socket.getInputStream(), m_iBufferSize);
+			m_iDepth  = p_iDepth;
+			m_permits = new Semaphore(p_iDepth);
+		}
+
+
+		/**
+		 * Send a call frame. Blocks while the pipeline is full.
+		 * @param p_frameCall The call frame.
+		 * @param p_future The future that receives the return frame.
+		 * @throws IOException If an I/O error occurred.
+		 * @throws InterruptedException If the current thread was interrupted
+		 *    while waiting for a free slot in the pipeline.
+		 */
+		private void send(JaffreCallFrame p_frameCall, CompletableFuture<JaffreReturnFrame> p_future)
+			throws IOException, InterruptedException
+		{
+			m_permits.acquire();
+
+			try
+			{
+				synchronized (m_out)
+				{
+					if (m_bClosed)
+						throw new EOFException("Connection closed.");
+
+					// the queue has the order of the call frames
+					m_pending.add(p_future);
+
+					m_serCall.serialize(p_frameCall, m_out);
+
+					m_out.flush();
+				}
+			}
+			catch (IOException l_e)
+			{
+				// wakes up the next waiting sender, if any
+				m_permits.release();
+
+				close(l_e);
+
+				throw l_e;
+			}
+		}
+
+
+		@Override
+		public void run()
+		{
+			Throwable l_cause;
+
+			l_cause = null;
+
+			try
+			{
+				while (true)
+				{
+					final JaffreReturnFrame                    l_frameReturn;
+					final CompletableFuture<JaffreReturnFrame> l_future;
+
+					l_frameReturn = m_serRtrn.deserialize(m_in);
+
+					if (l_frameReturn == null)
+						break;
+
+					// the server will close the connection, so we don't send
+					// further call frames
+					if (!l_frameReturn.isKeepAlive())
+						_detach();
+
+					l_future = m_pending.poll();
+
+					m_permits.release();
+
+					if (l_future != null)
+						l_future.complete(l_frameReturn);
+					else
+						ms_log.warn("Unexpected return frame.");
+				}
+			}
+			catch (Throwable l_e)
+			{
+				if (!m_bClosed)
+					l_cause = l_e;
+			}
+			finally
+			{
+				close(l_cause != null ? l_cause : new EOFException("Connection closed."));
+
+				// return the stream buffers to the pool
+				synchronized (m_out)
+				{
+					JaffreUtil.close(m_out);
+				}
+
+				JaffreUtil.close(m_in);
+			}
+
+			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
+		}
+
+
+		/**
+		 * Close the connection and fail all pending calls.
+		 * @param p_cause The cause.
+		 */
+		private void close(Throwable p_cause)
+		{
+			CompletableFuture<JaffreReturnFrame> l_future;
+
+			synchronized (m_out)
+			{
+				if (m_bClosed)
+					return;
+
+				m_bClosed = true;
+			}
+
+			_detach();
+
+			JaffreUtil.close(m_socket);
+
+			while ((l_future = m_pending.poll()) != null)
+				l_future.completeExceptionally(new JaffreUncheckedException(p_cause));
+
+			// let the waiting senders fail
+			m_permits.release(m_iDepth);
+		}
+
+
+		/**
+		 * Make sure that subsequent calls use a new connection.
+		 */
+		private void _detach()
+		{
+			synchronized (PipeliningSocketJaffreClient.this)
+			{
+				if (m_conn == this)
+					m_conn = null;
+			}
+		}
+	}
+
+
+	public PipeliningSocketJaffreClient()
+	{
+	}
+
+
+	/**
+	 * Get the maximum number of outstanding calls. The default value
+	 * is <code>16</code>.
+	 * @return The pipeline depth.
+	 */
+	public synchronized int getPipelineDepth()
+	{
+		return m_iPipelineDepth;
+	}
+
+
+	/**
+	 * Set the maximum number of outstanding calls. The value takes effect
+	 * for new connections.
+	 * @param p_iDepth The pipeline depth.
+	 * @throws JaffreConfigurationException If the depth is less than <code>1</code>.
+	 */
+	public synchronized void setPipelineDepth(int p_iDepth)
+	{
+		if (p_iDepth < 1)
+			throw new JaffreConfigurationException(p_iDepth + " is not a valid pipeline depth.");
+
+		m_iPipelineDepth = p_iDepth;
+	}
+
+
+	/**
+	 * Get the number of calls that currently wait for their return frames.
+	 * @return The number of outstanding calls.
+	 */
+	public synchronized int getNumPendingCalls()
+	{
+		return m_conn != null ? m_conn.m_pending.size() : 0;
+	}
+
+
+	/**
+	 * Free all network resources that are no longer needed by this client.
+	 * Outstanding calls fail with a {@link JaffreUncheckedException}.
+	 * <p><i>Note: subsequent method invocations on client interfaces
+	 * will acquire new resources, so this method has to be called again.</i></p>
+	 */
+	@Override
+	public void dispose()
+	{
+		final Connection l_conn;
+
+		super.dispose();
+
+		synchronized (this)
+		{
+			l_conn = m_conn;
+			m_conn = null;
+		}
+
+		if (l_conn != null)
+			l_conn.close(new EOFException("Client disposed."));
+	}
+
+
+	@Override
+	protected Object invokeImpl(Class<?> p_interface,
+	                            Object   p_proxy,
+	                            Method   p_method,
+	                            Object[] p_args)
+		throws Throwable
+	{
+		final CompletableFuture<JaffreReturnFrame> l_future;
+		final JaffreReturnFrame                    l_frameReturn;
+
+		l_future = _call(p_interface, p_method, p_args);
+
+		try
+		{
+			l_frameReturn = l_future.get();
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (ExecutionException l_e)
+		{
+			if (l_e.getCause() instanceof JaffreUncheckedException)
+				throw l_e.getCause();
+			else
+				throw new JaffreUncheckedException(l_e.getCause());
+		}
+
+		// return the result to the caller, or re-throw the exception that
+		// was thrown on the server
+		return returnResult(l_frameReturn, p_method);
+	}
+
+
+	/**
+	 * Perform a remote call without waiting for the return frame.
+	 * <p>The calling thread is only blocked while the pipeline is full.
+	 * Cookies are not accepted for asynchronous calls.</p>
+	 */
+	@Override
+	protected CompletableFuture<Object> invokeAsyncImpl(Class<?> p_interface,
+	                                                    Object   p_proxy,
+	                                                    Method   p_method,
+	                                                    Object[] p_args)
+	{
+		return _call(p_interface, p_method, p_args).thenApply(l_frameReturn ->
+		{
+			try
+			{
+				return getResult(l_frameReturn, p_method);
+			}
+			catch (Throwable l_e)
+			{
+				throw new CompletionException(l_e);
+			}
+		});
+	}
+
+
+	/**
+	 * Send a call frame.
+	 * @param p_interface The invoked interface.
+	 * @param p_method The method to be invoked.
+	 * @param p_args Method parameters.
+	 * @return A future that receives the return frame.
+	 */
+	private CompletableFuture<JaffreReturnFrame> _call(Class<?> p_interface, Method p_method, Object[] p_args)
+	{
+		final CompletableFuture<JaffreReturnFrame> l_future;
+
+		l_future = new CompletableFuture<>();
+
+		try
+		{
+			final Connection      l_conn;
+			final JaffreCallFrame l_frameCall;
+
+			l_conn      = _getConnection();
+			l_frameCall = newCallFrame(p_interface, p_method, p_args, l_conn.m_methodIds);
+
+			l_frameCall.setKeepAlive(true);
+
+			l_conn.send(l_frameCall, l_future);
+
+			l_future.thenAccept(l_frameReturn ->
+				acceptMethodId(l_frameReturn, p_interface, p_method, l_conn.m_methodIds));
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+
+			l_future.completeExceptionally(new JaffreUncheckedException(l_e));
+		}
+		catch (IOException l_e)
+		{
+			l_future.completeExceptionally(new JaffreUncheckedException(l_e));
+		}
+
+		return l_future;
+	}
+
+
+	/**
+	 * Get the shared connection, and open it if neccessary.
+	 * @return The connection.
+	 * @throws IOException If the connection cannot be opened.
+	 */
+	private synchronized Connection _getConnection() throws IOException
+	{
+		if (m_conn == null)
+		{
+			final Socket     l_socket;
+			final Connection l_conn;
+			final Thread     l_thread;
+
+			l_socket = SocketFactory.getDefault().createSocket();
+
+			try
+			{
+				l_socket.setKeepAlive(isKeepAlive());
+				l_socket.setTcpNoDelay(true);
+				l_socket.bind(null);
+				l_socket.connect(new InetSocketAddress(getServiceInetAddress(), getServicePort()));
+
+				l_conn = new Connection(l_socket, m_iPipelineDepth);
+			}
+			catch (IOException l_e)
+			{
+				JaffreUtil.close(l_socket);
+
+				throw l_e;
+			}
+
+			l_thread = new Thread(l_conn, "PipeliningSocketJaffreClientReader-" + ms_intThreadCount.incrementAndGet());
+
+			l_thread.setDaemon(true);
+			l_thread.start();
+
+			m_conn = l_conn;
+		}
+
+		return m_conn;
+	}
+
+
+	/*
+	 * @see java.lang.Object#finalize()
+	 */
+	@Override
+	protected void finalize()
+	{
+		if (m_conn != null)
+			ms_log.warn("Call dispose to cleanup system resources.");
+
+		dispose();
+	}
+}
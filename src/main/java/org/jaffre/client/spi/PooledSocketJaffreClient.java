@@ -0,0 +1,566 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.client.spi;
+
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import javax.net.SocketFactory;
+
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreNoReturnFrameException;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreUncheckedException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.PooledBufferedInputStream;
+import org.jaffre.io.PooledBufferedOutputStream;
+import org.jaffre.util.JaffreUtil;
+
+
+/**
+ * A client that distributes concurrent calls over a pool of connections.
+ * <p>Each call borrows a connection from the pool for the duration of the
+ * call, so up to {@link #getMaxConnections()} calls are performed in parallel.
+ * Further callers wait up to {@link #getBorrowTimeout()} milliseconds for a
+ * connection to become available.</p>
+ * <p>A connection is returned to the pool if both this client and the server
+ * wish to keep it alive, and it passes a health check. Connections that were
+ * idle for longer than {@link #getIdleTimeout()} milliseconds are closed,
+ * except for {@link #getMinConnections()} connections.</p>
+ * @author Alexander Veit
+ */
+public class PooledSocketJaffreClient extends AbstractSocketJaffreClient
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(PooledSocketJaffreClient.class);
+
+	private int m_iMinConnections = 0;
+
+	private int m_iMaxConnections = 8;
+
+	private long m_lIdleTimeout = 60000L; // one minute
+
+	private long m_lBorrowTimeout = 10000L; // ten seconds
+
+	private int m_iBufferSize = 8192;
+
+	/** The idle connections, most recently used first. */
+	private final Deque<PooledConnection> m_idle = new ArrayDeque<>();
+
+	/** The number of idle and borrowed connections. */
+	private int m_iOpen;
+
+	/** Incremented by {@link #dispose()} to discard borrowed connections on return. */
+	private int m_iGeneration;
+
+
+	/**
+	 * A pooled connection.
+	 */
+	private static final class PooledConnection
+	{
+		private final Socket m_socket;
+
+		private final PooledBufferedOutputStream m_out;
+
+		private final PooledBufferedInputStream m_in;
+
+		private final int m_iGeneration;
+
+		/** The method ids acknowledged on this connection. */
+		private final MethodIdDictionary m_methodIds = new MethodIdDictionary();
+
+		private final JaffreCallFrameSerializer m_serCall;
+
+		private final JaffreReturnFrameSerializer m_serRtrn;
+
+		private long m_lLastUsed;
+
+
+		private PooledConnection(Socket                      p_socket,
+		                         int                         p_iBufferSize,
+		                         int                         p_iGeneration,
+		                         JaffreCallFrameSerializer   p_serCall,
+		                         JaffreReturnFrameSerializer p_serRtrn)
+			throws IOException
+		{
+			m_socket      = p_socket;
+			m_out         = new PooledBufferedOutputStream(p_socket.getOutputStream(), p_iBufferSize);
+			m_in          = new PooledBufferedInputStream(p_socket.getInputStream(), p_iBufferSize);
+			m_iGeneration = p_iGeneration;
+			m_serCall     = p_serCall.forConnection();
+			m_serRtrn     = p_serRtrn.forConnection();
+		}
+
+
+		/**
+		 * Check if the connection can be used for further calls.
+		 * @return <code>true</code> if the connection is usable,
+		 *    or <code>false</code> otherwise.
+		 */
+		private boolean isHealthy()
+		{
+			try
+			{
+				// no unread data must be left, otherwise the next
+				// call would receive a wrong return frame
+				return
+					m_socket.isConnected() &&
+					!m_socket.isClosed() &&
+					!m_socket.isInputShutdown() &&
+					!m_socket.isOutputShutdown() &&
+					m_in.available() == 0;
+			}
+			catch (IOException l_e)
+			{
+				return false;
+			}
+		}
+
+
+		private void close()
+		{
+			JaffreUtil.close(m_out);
+			JaffreUtil.close(m_in);
+			JaffreUtil.close(m_socket);
+		}
+	}
+
+
+	public PooledSocketJaffreClient()
+	{
+	}
+
+
+	/**
+	 * Get the minimum number of connections that are kept open when idle.
+	 * The default value is <code>0</code>.
+	 * @return The minimum number of connections.
+	 */
+	public synchronized int getMinConnections()
+	{
+		return m_iMinConnections;
+	}
+
+
+	/**
+	 * Set the minimum number of connections that are kept open when idle.
+	 * @param p_iMinConnections The minimum number of connections.
+	 * @throws JaffreConfigurationException If the number is negative.
+	 */
+	public synchronized void setMinConnections(int p_iMinConnections)
+	{
+		if (p_iMinConnections < 0)
+		{
+			throw new JaffreConfigurationException
+				(p_iMinConnections + " is not a valid minimum number of connections.");
+		}
+
+		m_iMinConnections = p_iMinConnections;
+	}
+
+
+	/**
+	 * Get the maximum number of open connections.
+	 * The default value is <code>8</code>.
+	 * @return The maximum number of connections.
+	 */
+	public synchronized int getMaxConnections()
+	{
+		return m_iMaxConnections;
+	}
+
+
+	/**
+	 * Set the maximum number of open connections.
+	 * @param p_iMaxConnections The maximum number of connections.
+	 * @throws JaffreConfigurationException If the number is less than <code>1</code>.
+	 */
+	public synchronized void setMaxConnections(int p_iMaxConnections)
+	{
+		if (p_iMaxConnections < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iMaxConnections + " is not a valid maximum number of connections.");
+		}
+
+		m_iMaxConnections = p_iMaxConnections;
+
+		notifyAll();
+	}
+
+
+	/**
+	 * Get the time after which idle connections are closed.
+	 * The default value is <code>60000</code> milliseconds.
+	 * @return The timeout in milliseconds.
+	 */
+	public synchronized long getIdleTimeout()
+	{
+		return m_lIdleTimeout;
+	}
+
+
+	/**
+	 * Set the time after which idle connections are closed.
+	 * @param p_lIdleTimeout The timeout in milliseconds.
+	 * @throws JaffreConfigurationException If the timeout is negative.
+	 */
+	public synchronized void setIdleTimeout(long p_lIdleTimeout)
+	{
+		if (p_lIdleTimeout < 0)
+			throw new JaffreConfigurationException("Negative timeout value.");
+
+		m_lIdleTimeout = p_lIdleTimeout;
+	}
+
+
+	/**
+	 * Get the time a call waits for a connection if all connections are in use.
+	 * The default value is <code>10000</code> milliseconds.
+	 * @return The timeout in milliseconds.
+	 */
+	public synchronized long getBorrowTimeout()
+	{
+		return m_lBorrowTimeout;
+	}
+
+
+	/**
+	 * Set the time a call waits for a connection if all connections are in use.
+	 * @param p_lBorrowTimeout The timeout in milliseconds.
+	 * @throws JaffreConfigurationException If the timeout is negative.
+	 */
+	public synchronized void setBorrowTimeout(long p_lBorrowTimeout)
+	{
+		if (p_lBorrowTimeout < 0)
+			throw new JaffreConfigurationException("Negative timeout value.");
+
+		m_lBorrowTimeout = p_lBorrowTimeout;
+	}
+
+
+	/**
+	 * Get the number of open connections, including the connections
+	 * that are currently in use.
+	 * @return The number of open connections.
+	 */
+	public synchronized int getNumOpenConnections()
+	{
+		return m_iOpen;
+	}
+
+
+	/**
+	 * Get the number of idle connections.
+	 * @return The number of idle connections.
+	 */
+	public synchronized int getNumIdleConnections()
+	{
+		return m_idle.size();
+	}
+
+
+	/**
+	 * Close all idle connections. Connections that are currently in use
+	 * are closed when the respective call is finished.
+	 * <p><i>Note: subsequent method invocations on client interfaces
+	 * will acquire new resources, so this method has to be called again.</i></p>
+	 */
+	@Override
+	public void dispose()
+	{
+		super.dispose();
+
+		synchronized (this)
+		{
+			PooledConnection l_conn;
+
+			m_iGeneration++;
+
+			while ((l_conn = m_idle.pollFirst()) != null)
+			{
+				l_conn.close();
+
+				m_iOpen--;
+			}
+		}
+	}
+
+
+	@Override
+	protected Object invokeImpl(Class<?> p_interface,
+	                            Object   p_proxy,
+	                            Method   p_method,
+	                            Object[] p_args)
+		throws Throwable
+	{
+		final PooledConnection  l_conn;
+		boolean                 l_bKeepAlive;
+		final JaffreCallFrame   l_frameCall;
+		final JaffreReturnFrame l_frameReturn;
+
+		l_conn = _borrow();
+
+		l_frameCall  = newCallFrame(p_interface, p_method, p_args, l_conn.m_methodIds);
+		l_bKeepAlive = false;
+
+		try
+		{
+			l_conn.m_serCall.serialize(l_frameCall, l_conn.m_out);
+
+			l_conn.m_out.flush();
+
+			l_frameReturn = l_conn.m_serRtrn.deserialize(l_conn.m_in);
+
+			if (l_frameReturn == null)
+				throw new JaffreNoReturnFrameException();
+
+			acceptMethodId(l_frameReturn, p_interface, p_method, l_conn.m_methodIds);
+
+			// the connection is returned to the pool if the client is configured
+			// to keep connections alive, and the server wishes to do so
+			l_bKeepAlive = l_frameCall.isKeepAlive() && l_frameReturn.isKeepAlive();
+		}
+		catch (ClassNotFoundException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (IOException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		finally
+		{
+			_return(l_conn, l_bKeepAlive);
+		}
+
+		// return the result to the caller, or re-throw the exception that
+		// was thrown on the server
+		return returnResult(l_frameReturn, p_method);
+	}
+
+
+	@Override
+	protected void invokeBatchImpl(List<JaffreBatch.Call> p_calls)
+		throws Throwable
+	{
+		final PooledConnection l_conn;
+		boolean                l_bKeepAlive;
+
+		l_conn = _borrow();
+
+		l_bKeepAlive = false;
+
+		try
+		{
+			l_bKeepAlive = exchangeBatch(p_calls,
+			                             l_conn.m_serCall,
+			                             l_conn.m_serRtrn,
+			                             l_conn.m_out,
+			                             l_conn.m_in,
+			                             l_conn.m_methodIds);
+		}
+		catch (ClassNotFoundException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (IOException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		finally
+		{
+			_return(l_conn, l_bKeepAlive);
+		}
+	}
+
+
+	/**
+	 * Borrow a connection from the pool, or open a new one.
+	 * @return The connection.
+	 * @throws JaffreUncheckedException If no connection became available within
+	 *    the borrow timeout, or a new connection cannot be opened.
+	 */
+	private PooledConnection _borrow()
+	{
+		final int l_iGeneration;
+
+		synchronized (this)
+		{
+			final long l_lTimeLimit;
+
+			l_lTimeLimit = System.currentTimeMillis() + m_lBorrowTimeout;
+
+			while (true)
+			{
+				final PooledConnection l_conn;
+				final long             l_lWait;
+
+				_evictIdle();
+
+				l_conn = m_idle.pollFirst();
+
+				if (l_conn != null)
+					return l_conn;
+
+				if (m_iOpen < m_iMaxConnections)
+				{
+					m_iOpen++;
+
+					l_iGeneration = m_iGeneration;
+
+					break;
+				}
+
+				l_lWait = l_lTimeLimit - System.currentTimeMillis();
+
+				if (l_lWait <= 0)
+				{
+					throw new JaffreUncheckedException
+						("No connection available within " + m_lBorrowTimeout + " milliseconds.");
+				}
+
+				try
+				{
+					wait(l_lWait);
+				}
+				catch (InterruptedException l_e)
+				{
+					Thread.currentThread().interrupt();
+
+					throw new JaffreUncheckedException(l_e);
+				}
+			}
+		}
+
+		// open a new connection outside of the lock
+		Socket l_socket;
+
+		l_socket = null;
+
+		try
+		{
+			l_socket = SocketFactory.getDefault().createSocket();
+
+			l_socket.setKeepAlive(isKeepAlive());
+			l_socket.bind(null);
+			l_socket.connect(new InetSocketAddress(getServiceInetAddress(), getServicePort()));
+
+			return new PooledConnection(l_socket,
+			                            m_iBufferSize,
+			                            l_iGeneration,
+			                            getCallFrameSerializer(),
+			                            getReturnFrameSerializer());
+		}
+		catch (IOException l_e)
+		{
+			JaffreUtil.close(l_socket);
+
+			synchronized (this)
+			{
+				m_iOpen--;
+
+				notifyAll();
+			}
+
+			throw new JaffreUncheckedException(l_e);
+		}
+	}
+
+
+	/**
+	 * Return a connection to the pool.
+	 * @param p_conn The connection.
+	 * @param p_bKeepAlive <code>true</code> if the connection may be used for
+	 *    further calls, or <code>false</code> if it must be closed.
+	 */
+	private void _return(PooledConnection p_conn, boolean p_bKeepAlive)
+	{
+		if (p_bKeepAlive && p_conn.isHealthy())
+		{
+			synchronized (this)
+			{
+				if (p_conn.m_iGeneration == m_iGeneration)
+				{
+					p_conn.m_lLastUsed = System.currentTimeMillis();
+
+					m_idle.addFirst(p_conn);
+
+					_evictIdle();
+
+					notifyAll();
+
+					return;
+				}
+			}
+		}
+
+		p_conn.close();
+
+		synchronized (this)
+		{
+			m_iOpen--;
+
+			notifyAll();
+		}
+	}
+
+
+	/**
+	 * Close the connections that were idle for too long.
+	 * The caller must hold the lock on this client.
+	 */
+	private void _evictIdle()
+	{
+		final long l_lTimeLimit;
+
+		assert Thread.holdsLock(this);
+
+		l_lTimeLimit = System.currentTimeMillis() - m_lIdleTimeout;
+
+		while (m_idle.size() > m_iMinConnections && m_idle.peekLast().m_lLastUsed < l_lTimeLimit)
+		{
+			m_idle.pollLast().close();
+
+			m_iOpen--;
+		}
+	}
+
+
+	/*
+	 * @see java.lang.Object#finalize()
+	 */
+	@Override
+	protected void finalize()
+	{
+		if (!m_idle.isEmpty())
+			ms_log.warn("Call dispose to cleanup system resources.");
+
+		dispose();
+	}
+}
@@ -19,13 +19,13 @@ package org.jaffre.client.spi;
 
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
@@ -36,14 +36,18 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 
 import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
 import org.jaffre.JaffreConfigurationException;
 import org.jaffre.JaffreNoReturnFrameException;
 import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
 import org.jaffre.JaffreUncheckedException;
 import org.jaffre.Logger;
 import org.jaffre.LoggerFactory;
-import org.jaffre.io.AbstractByteBufferInputStream;
-import org.jaffre.io.AbstractByteBufferOutputStream;
+import org.jaffre.io.ByteBufferPool;
+import org.jaffre.ssl.BlockingChannel;
+import org.jaffre.ssl.SSLInputStream;
+import org.jaffre.ssl.SSLOutputStream;
 import org.jaffre.ssl.SSLUtil;
 import org.jaffre.util.JaffreUtil;
 
@@ -56,20 +60,16 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 	private static final Logger ms_log = LoggerFactory.getLogger(SSLSocketJaffreClient.class);
 
 	//// network resources
-	private SocketChannel m_socketChannel;
+	private BlockingChannel m_channel;
 
-	//// I/O objects
-	private ByteBuffer m_outAppBuf;
+	//// I/O objects, they hold no buffers while the connection is idle
+	private SSLOutputStream m_out;
 
-	private ByteBuffer m_outNetBuf;
+	private SSLInputStream m_in;
 
-	private ByteBuffer m_inAppBuf;
+	private JaffreCallFrameSerializer m_serCall;
 
-	private ByteBuffer m_inNetBuf;
-
-	private OutputStream m_out;
-
-	private InputStream m_in;
+	private JaffreReturnFrameSerializer m_serRtrn;
 
 	//// SSL context, engine, ...
 	private SSLContext m_sslContext;
@@ -97,6 +97,15 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 
 	private String m_strTrustManagerFacAlgorithm = "SunX509";
 
+	private int m_iSessionCacheSize = -1;
+
+	private int m_iSessionTimeout = -1;
+
+	//// statistics
+	private final AtomicLong m_lngFullHandshakes = new AtomicLong(0L);
+
+	private final AtomicLong m_lngResumedHandshakes = new AtomicLong(0L);
+
 
 	public SSLSocketJaffreClient()
 	{
@@ -111,9 +120,10 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 	 * properties.</p>
 	 * @param p_sslContext The <code>SSLContext</code> to be used.
 	 */
-	public void setSSLContext(SSLContext p_sslContext)
+	public synchronized void setSSLContext(SSLContext p_sslContext)
 	{
 		m_sslContextCustom = p_sslContext;
+		m_sslContext       = null;
 	}
 
 
@@ -302,143 +312,151 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 
 
 	/**
-	 * Free all resources that are no longer needed by this client.
-	 * <p><i>Note: subsequent method invocations on client interfaces
-	 * will acquire new resources, so this method has to be called again.</i></p>
+	 * Get the maximum number of SSL sessions that are cached for
+	 * resumption.
+	 * @return The cache size, <code>0</code> if the cache size is
+	 *    unlimited, or <code>-1</code> if the default of the
+	 *    <code>SSLContext</code> is used.
 	 */
-	@Override
-	public synchronized void dispose()
+	public synchronized int getSessionCacheSize()
 	{
-		// properly close the SSL/TLS link
-		if (m_socketChannel != null && m_socketChannel.isConnected())
-		{
-			assert m_sslEngine != null;
-
-			try
-			{
-				if (!m_sslEngine.isOutboundDone())
-				{
-					assert !m_sslEngine.isInboundDone();
+		return m_iSessionCacheSize;
+	}
 
-					SSLUtil.writeClosingMessage
-						(m_socketChannel, m_sslEngine, m_outAppBuf, m_outNetBuf);
 
-					SSLUtil.readClosingMessage
-						(m_socketChannel, m_sslEngine, m_inAppBuf, m_inNetBuf);
-				}
-			}
-			catch (IOException l_e)
-			{
-				ms_log.error("Error while exchanging SSL closing messages.", l_e);
-			}
+	/**
+	 * Set the maximum number of SSL sessions that are cached for
+	 * resumption. The sessions are cached per server host and port.
+	 * <p>The size is not applied to a <code>SSLContext</code> that was
+	 * set with {@link #setSSLContext(SSLContext)}.</p>
+	 * @param p_iSessionCacheSize The cache size, or <code>0</code> for
+	 *    an unlimited cache size.
+	 * @throws JaffreConfigurationException If the size is negative.
+	 */
+	public synchronized void setSessionCacheSize(int p_iSessionCacheSize)
+	{
+		if (p_iSessionCacheSize < 0)
+		{
+			throw new JaffreConfigurationException
+				(p_iSessionCacheSize + " is not a valid session cache size.");
 		}
 
-		// SSL resources
-		m_sslEngine  = null;
-		m_sslContext = null; // we keep the custom context, if any
+		m_iSessionCacheSize = p_iSessionCacheSize;
 
-		// I/O objects
-		m_outAppBuf = null;
-		m_outNetBuf = null;
-		m_inAppBuf  = null;
-		m_inNetBuf  = null;
-		m_out       = null;
-		m_in        = null;
-
-		// network resources
-		m_socketChannel = JaffreUtil.close(m_socketChannel);
+		// the internal context is kept across dispose
+		if (m_sslContext != null && m_sslContext != m_sslContextCustom)
+			m_sslContext.getClientSessionContext().setSessionCacheSize(p_iSessionCacheSize);
 	}
 
 
-	@Override
-	protected synchronized Object invokeImpl(Class<?> p_interface,
-	                                         Object   p_proxy,
-	                                         Method   p_method,
-	                                         Object[] p_args)
-		throws Throwable // MUSTFIX avoid UndeclaredThrowableException
+	/**
+	 * Get the time cached SSL sessions may be resumed.
+	 * @return The timeout in seconds, <code>0</code> if cached sessions
+	 *    do not time out, or <code>-1</code> if the default of the
+	 *    <code>SSLContext</code> is used.
+	 */
+	public synchronized int getSessionTimeout()
 	{
-		if (m_sslContext == null)
-			_setupSSLContext();
+		return m_iSessionTimeout;
+	}
 
-		if (m_sslEngine == null)
-		{
-			final SSLEngine  l_sslEngine;
-			final SSLSession l_sslSession;
 
-			l_sslEngine = m_sslContext.createSSLEngine
-				(getServiceInetAddress().getHostName(), getServicePort());
+	/**
+	 * Set the time cached SSL sessions may be resumed.
+	 * <p>The timeout is not applied to a <code>SSLContext</code> that was
+	 * set with {@link #setSSLContext(SSLContext)}.</p>
+	 * @param p_iSessionTimeout The timeout in seconds, or <code>0</code>
+	 *    if cached sessions should not time out.
+	 * @throws JaffreConfigurationException If the timeout is negative.
+	 */
+	public synchronized void setSessionTimeout(int p_iSessionTimeout)
+	{
+		if (p_iSessionTimeout < 0)
+			throw new JaffreConfigurationException("Negative timeout value.");
 
-			l_sslEngine.setUseClientMode(true);
+		m_iSessionTimeout = p_iSessionTimeout;
 
-			l_sslSession = l_sslEngine.getSession();
-			m_outAppBuf  = ByteBuffer.allocate(l_sslSession.getApplicationBufferSize());
-			m_outNetBuf  = ByteBuffer.allocate(l_sslSession.getPacketBufferSize());
-			m_inAppBuf   = ByteBuffer.allocate(l_sslSession.getApplicationBufferSize());
-			m_inNetBuf   = ByteBuffer.allocate(l_sslSession.getPacketBufferSize());
+		if (m_sslContext != null && m_sslContext != m_sslContextCustom)
+			m_sslContext.getClientSessionContext().setSessionTimeout(p_iSessionTimeout);
+	}
 
-			m_out = new AbstractByteBufferOutputStream(m_outAppBuf)
-			{
-				@Override
-				public void write(ByteBuffer p_buffer, WRITE_MODE p_mode) throws IOException
-				{
-					assert p_buffer == m_outAppBuf;
 
-					SSLUtil.write(m_socketChannel, m_sslEngine, m_outAppBuf, m_outNetBuf);
-				}
-			};
+	/**
+	 * Get the number of full SSL handshakes performed by this client.
+	 * @return The number of full handshakes.
+	 */
+	public long getNumFullHandshakes()
+	{
+		return m_lngFullHandshakes.get();
+	}
 
-			m_in = new AbstractByteBufferInputStream(m_inAppBuf, false)
-			{
-				@Override
-				public int read(ByteBuffer p_buffer) throws IOException
-				{
-					assert p_buffer == m_inAppBuf;
 
-					return SSLUtil.read(m_socketChannel, m_sslEngine, m_inAppBuf, m_inNetBuf);
-				}
-			};
+	/**
+	 * Get the number of SSL handshakes that resumed a cached session.
+	 * @return The number of abbreviated handshakes.
+	 */
+	public long getNumResumedHandshakes()
+	{
+		return m_lngResumedHandshakes.get();
+	}
 
-			m_sslEngine = l_sslEngine;
-		}
 
-		// clear all buffers
-		m_outAppBuf.clear();
-		m_outNetBuf.clear();
-		m_inAppBuf.clear();
-		m_inNetBuf.clear();
+	/**
+	 * Free all resources that are no longer needed by this client.
+	 * <p><i>Note: subsequent method invocations on client interfaces
+	 * will acquire new resources, so this method has to be called again.</i></p>
+	 * <p>The <code>SSLContext</code> is kept, so subsequent connections
+	 * may resume the cached SSL sessions.</p>
+	 */
+	@Override
+	public void dispose()
+	{
+		super.dispose();
 
-		// initialize the SSL connection if neccessary
-		if (m_socketChannel == null || !m_socketChannel.isConnected())
+		synchronized (this)
 		{
-			// create a blocking socket channel
-			final SocketChannel l_socketChannel;
-
-			if (m_socketChannel == null)
+			// properly close the SSL/TLS link
+			if (m_channel != null && m_channel.getChannel().isConnected() && m_out != null)
 			{
-				l_socketChannel = SocketChannel.open();
-				l_socketChannel.configureBlocking(true);
-				l_socketChannel.socket().setKeepAlive(isKeepAlive());
-			}
-			else
-			{
-				assert m_socketChannel.isOpen();
+				assert m_sslEngine != null;
 
-				l_socketChannel = m_socketChannel;
-				m_socketChannel = null;
-			}
+				try
+				{
+					if (!m_sslEngine.isOutboundDone())
+					{
+						assert !m_sslEngine.isInboundDone();
 
-			l_socketChannel.connect
-				(new InetSocketAddress(getServiceInetAddress(), getServicePort()));
+						m_out.writeClosingMessage();
+						m_in.readClosingMessage();
+					}
+				}
+				catch (IOException l_e)
+				{
+					ms_log.error("Error while exchanging SSL closing messages.", l_e);
+				}
+			}
 
-			while (!l_socketChannel.finishConnect())
-				Thread.yield(); // do something until connect finished
+			// SSL resources, we keep the context and its session cache
+			m_sslEngine = null;
 
-			m_socketChannel = l_socketChannel;
+			// I/O objects, return their buffers to the pools
+			m_out = JaffreUtil.close(m_out);
+			m_in  = JaffreUtil.close(m_in);
 
-			// initial handshake
-			SSLUtil.doHandshake
-				(m_socketChannel, m_sslEngine, m_outAppBuf, m_outNetBuf, m_inAppBuf, m_inNetBuf);
+			// network resources
+			m_channel = JaffreUtil.close(m_channel);
 		}
+	}
+
+
+	@Override
+	protected synchronized Object invokeImpl(Class<?> p_interface,
+	                                         Object   p_proxy,
+	                                         Method   p_method,
+	                                         Object[] p_args)
+		throws Throwable // MUSTFIX avoid UndeclaredThrowableException
+	{
+		_connect();
 
 		// invoke the method on the server and receive the result
 		boolean                 l_bKeepAlive;
@@ -458,20 +476,12 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 		try
 		{
 			// send the call frame
-			m_outAppBuf.clear();
-			m_outNetBuf.clear();
-
-			getCallFrameSerializer().serialize(l_frameCall, m_out);
+			m_serCall.serialize(l_frameCall, m_out);
 
 			m_out.flush();
 
 			// receive the return frame
-			m_inNetBuf.clear();
-			m_inAppBuf.flip(); // the deserializer must not read null bytes
-
-			assert !m_inAppBuf.hasRemaining();
-
-			l_frameReturn = getReturnFrameSerializer().deserialize(m_in);
+			l_frameReturn = m_serRtrn.deserialize(m_in);
 
 			if (l_frameReturn == null)
 				throw new JaffreNoReturnFrameException();
@@ -493,22 +503,16 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 			if (!l_bKeepAlive)
 			{
 				// the server will send it's closing message first
-				SSLUtil.readClosingMessage
-					(m_socketChannel, m_sslEngine, m_inAppBuf, m_inNetBuf);
+				m_in.readClosingMessage();
 
 				// now the client
-				SSLUtil.writeClosingMessage
-					(m_socketChannel, m_sslEngine, m_outAppBuf, m_outNetBuf);
+				m_out.writeClosingMessage();
 
 				m_sslEngine = null;
-				m_outAppBuf = null;
-				m_outNetBuf = null;
-				m_inAppBuf  = null;
-				m_inNetBuf  = null;
-				m_out       = null;
-				m_in        = null;
-
-				m_socketChannel = JaffreUtil.close(m_socketChannel);
+				m_out       = JaffreUtil.close(m_out);
+				m_in        = JaffreUtil.close(m_in);
+
+				m_channel = JaffreUtil.close(m_channel);
 			}
 		}
 
@@ -532,6 +536,137 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 	}
 
 
+	/**
+	 * Send in-only call frames on the connection that is used for other calls,
+	 * with a single flush.
+	 */
+	@Override
+	protected synchronized void sendInOnlyFrames(List<JaffreCallFrame> p_frames) throws IOException
+	{
+		_connect();
+
+		for (final JaffreCallFrame l_frameCall : p_frames)
+			m_serCall.serialize(l_frameCall, m_out);
+
+		m_out.flush();
+	}
+
+
+	/**
+	 * The in-only calls share the connection that is used for other calls,
+	 * so this method does nothing.
+	 */
+	@Override
+	protected void closeInOnlyConnection()
+	{
+	}
+
+
+	/**
+	 * Create the SSL engine, and open the connection if neccessary.
+	 * @throws IOException If an I/O error occurred.
+	 */
+	private void _connect() throws IOException
+	{
+		if (m_sslContext == null)
+			_setupSSLContext();
+
+		if (m_sslEngine == null)
+		{
+			final InetSocketAddress l_address;
+			final SSLEngine         l_sslEngine;
+
+			// the session cache is keyed by host and port, avoid reverse lookups
+			l_address   = new InetSocketAddress(getServiceInetAddress(), getServicePort());
+			l_sslEngine = m_sslContext.createSSLEngine(l_address.getHostString(), l_address.getPort());
+
+			l_sslEngine.setUseClientMode(true);
+
+			m_sslEngine = l_sslEngine;
+		}
+
+		// initialize the SSL connection if neccessary
+		if (m_channel == null || !m_channel.getChannel().isConnected())
+		{
+			if (m_channel == null || !m_channel.isOpen())
+			{
+				final SocketChannel l_socketChannel;
+
+				l_socketChannel = SocketChannel.open();
+				l_socketChannel.socket().setKeepAlive(isKeepAlive());
+
+				// the channel blocks until the server is ready
+				m_channel = new BlockingChannel(l_socketChannel, 0);
+			}
+
+			try
+			{
+				m_channel.connect(new InetSocketAddress(getServiceInetAddress(), getServicePort()));
+			}
+			catch (IOException l_e)
+			{
+				m_channel = JaffreUtil.close(m_channel);
+
+				throw l_e;
+			}
+
+			_handshake();
+
+			m_serCall = getCallFrameSerializer().forConnection();
+			m_serRtrn = getReturnFrameSerializer().forConnection();
+		}
+	}
+
+
+	/**
+	 * Do the initial handshake and create the streams.
+	 * <p>The buffers for the handshake are acquired from the pools. The
+	 * streams acquire their buffers only while data are transferred.</p>
+	 * @throws IOException If an I/O error occurred.
+	 */
+	private void _handshake() throws IOException
+	{
+		final SSLSession l_sslSession;
+		final ByteBuffer l_outAppBuf;
+		final ByteBuffer l_outNetBuf;
+		final ByteBuffer l_inAppBuf;
+		final ByteBuffer l_inNetBuf;
+
+		l_sslSession = m_sslEngine.getSession();
+		l_outAppBuf  = ByteBufferPool.getHeapPool().acquire(l_sslSession.getApplicationBufferSize());
+		l_outNetBuf  = ByteBufferPool.getDirectPool().acquire(l_sslSession.getPacketBufferSize());
+		l_inAppBuf   = ByteBufferPool.getHeapPool().acquire(l_sslSession.getApplicationBufferSize());
+		l_inNetBuf   = ByteBufferPool.getDirectPool().acquire(l_sslSession.getPacketBufferSize());
+
+		try
+		{
+			if (SSLUtil.doHandshake(m_channel, m_sslEngine, l_outAppBuf, l_outNetBuf, l_inAppBuf, l_inNetBuf))
+				m_lngResumedHandshakes.incrementAndGet();
+			else
+				m_lngFullHandshakes.incrementAndGet();
+		}
+		catch (IOException | RuntimeException l_e)
+		{
+			ByteBufferPool.getHeapPool().release(l_inAppBuf, false);
+			ByteBufferPool.getDirectPool().release(l_inNetBuf, false);
+
+			// the engine cannot be used for another handshake
+			m_sslEngine = null;
+			m_channel   = JaffreUtil.close(m_channel);
+
+			throw l_e;
+		}
+		finally
+		{
+			ByteBufferPool.getHeapPool().release(l_outAppBuf, false);
+			ByteBufferPool.getDirectPool().release(l_outNetBuf, false);
+		}
+
+		m_out = new SSLOutputStream(m_channel, m_sslEngine);
+		m_in  = new SSLInputStream(m_channel, m_sslEngine, l_inAppBuf, l_inNetBuf);
+	}
+
+
 	private void _setupSSLContext()
 	{
 		assert m_sslContext == null;
@@ -587,6 +722,12 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 
 				l_sslContext.init(l_keyManagers, l_trustManagers, null);
 
+				if (m_iSessionCacheSize >= 0)
+					l_sslContext.getClientSessionContext().setSessionCacheSize(m_iSessionCacheSize);
+
+				if (m_iSessionTimeout >= 0)
+					l_sslContext.getClientSessionContext().setSessionTimeout(m_iSessionTimeout);
+
 				m_sslContext = l_sslContext;
 			}
 			catch (Exception l_e)
@@ -596,6 +737,7 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 		}
 		else
 		{
+			// a custom context may be shared, so its session cache is left alone
 			m_sslContext = m_sslContextCustom;
 		}
 	}
@@ -607,7 +749,7 @@ public class SSLSocketJaffreClient extends AbstractSocketJaffreClient
 	@Override
 	protected void finalize()
 	{
-		if (m_sslEngine == null || m_sslContext == null || m_socketChannel == null)
+		if (m_sslEngine == null || m_channel == null)
 			ms_log.warn("Call dispose to cleanup system resources.");
 
 		dispose();
@@ -0,0 +1,343 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreUncheckedException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.MappedRingBuffer;
+import org.jaffre.util.JaffreUtil;
+
+
+/**
+ * A client that exchanges call and return frames with a
+ * {@link org.jaffre.server.spi.SharedMemoryJaffreConnector} on the same
+ * host through shared memory.
+ * <p>The client connects to the connector's port with a plain socket to
+ * obtain the shared memory. The socket is kept open to detect that the
+ * server has gone, but no frames are sent over it.</p>
+ * @author Alexander Veit
+ */
+public class SharedMemoryJaffreClient extends AbstractSocketJaffreClient
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(SharedMemoryJaffreClient.class);
+
+	private SocketChannel m_channel;
+
+	private final ByteBuffer m_probe = ByteBuffer.allocate(1);
+
+	private OutputStream m_out;
+
+	private InputStream m_in;
+
+	private int m_iSpinCount = 1000;
+
+	/** The method ids acknowledged on the current connection. */
+	private final MethodIdDictionary m_methodIds = new MethodIdDictionary();
+
+	private JaffreCallFrameSerializer m_serCall;
+
+	private JaffreReturnFrameSerializer m_serRtrn;
+
+
+	public SharedMemoryJaffreClient()
+	{
+	}
+
+
+	/**
+	 * Get the number of times a thread polls the shared memory before it
+	 * parks while it waits for a return frame. The default value is
+	 * <code>1000</code>.
+	 * @return The spin count.
+	 */
+	public synchronized int getSpinCount()
+	{
+		return m_iSpinCount;
+	}
+
+
+	/**
+	 * Set the number of times a thread polls the shared memory before it
+	 * parks. The value is used for subsequently opened connections.
+	 * @param p_iSpinCount The spin count.
+	 * @throws JaffreConfigurationException If the spin count is negative.
+	 */
+	public synchronized void setSpinCount(int p_iSpinCount)
+	{
+		if (p_iSpinCount < 0)
+			throw new JaffreConfigurationException(p_iSpinCount + " is not a valid spin count.");
+
+		m_iSpinCount = p_iSpinCount;
+	}
+
+
+	/**
+	 * Free all resources that are no longer needed by this client.
+	 * <p><i>Note: subsequent method invocations on client interfaces
+	 * will acquire new resources, so this method has to be called again.</i></p>
+	 */
+	@Override
+	public void dispose()
+	{
+		super.dispose();
+
+		synchronized (this)
+		{
+			_close();
+		}
+	}
+
+
+	@Override
+	protected synchronized Object invokeImpl(Class<?> p_interface,
+	                                         Object   p_proxy,
+	                                         Method   p_method,
+	                                         Object[] p_args)
+		throws Throwable
+	{
+		_connect();
+
+		// invoke the method on the server and receive the result
+		boolean                 l_bKeepAlive;
+		final JaffreCallFrame   l_frameCall;
+		final JaffreReturnFrame l_frameReturn;
+
+		l_frameCall  = newCallFrame(p_interface, p_method, p_args, m_methodIds);
+		l_bKeepAlive = l_frameCall.isKeepAlive();
+
+		try
+		{
+			m_serCall.serialize(l_frameCall, m_out);
+
+			m_out.flush();
+
+			l_frameReturn = m_serRtrn.deserialize(m_in);
+
+			if (l_frameReturn == null)
+				throw new JaffreUncheckedException("Connection closed.");
+
+			acceptMethodId(l_frameReturn, p_interface, p_method, m_methodIds);
+
+			// we close the connection if the client is not configured to
+			// keep connections alive, or the server wishes to do so
+			l_bKeepAlive = l_bKeepAlive && l_frameReturn.isKeepAlive();
+		}
+		catch (ClassNotFoundException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (IOException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		finally
+		{
+			if (!l_bKeepAlive)
+				_close();
+		}
+
+		// return the result to the caller, or re-throw the exception that
+		// was thrown on the server
+		return returnResult(l_frameReturn, p_method);
+	}
+
+
+	@Override
+	protected synchronized void invokeBatchImpl(List<JaffreBatch.Call> p_calls)
+		throws Throwable
+	{
+		boolean l_bKeepAlive;
+
+		_connect();
+
+		l_bKeepAlive = false;
+
+		try
+		{
+			l_bKeepAlive = exchangeBatch(p_calls, m_serCall, m_serRtrn, m_out, m_in, m_methodIds);
+		}
+		catch (ClassNotFoundException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (IOException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		finally
+		{
+			if (!l_bKeepAlive)
+				_close();
+		}
+	}
+
+
+	/**
+	 * Send the in-only call frames through the shared memory that is
+	 * used for other calls.
+	 */
+	@Override
+	protected synchronized void sendInOnlyFrames(List<JaffreCallFrame> p_frames) throws IOException
+	{
+		_connect();
+
+		try
+		{
+			for (final JaffreCallFrame l_frameCall : p_frames)
+				m_serCall.serialize(l_frameCall, m_out);
+
+			m_out.flush();
+		}
+		catch (IOException l_e)
+		{
+			_close();
+
+			throw l_e;
+		}
+	}
+
+
+	/**
+	 * The in-only calls share the connection that is used for other calls,
+	 * so this method does nothing.
+	 */
+	@Override
+	protected void closeInOnlyConnection()
+	{
+	}
+
+
+	/**
+	 * Obtain the shared memory from the server if neccessary.
+	 */
+	private void _connect()
+	{
+		if (m_channel == null)
+		{
+			SocketChannel l_channel;
+
+			l_channel = null;
+
+			try
+			{
+				final DataInputStream  l_in;
+				final String           l_strPath;
+				final int              l_iSize;
+				final MappedByteBuffer l_buf;
+
+				l_channel = SocketChannel.open(new InetSocketAddress(getServiceInetAddress(), getServicePort()));
+
+				l_in      = new DataInputStream(Channels.newInputStream(l_channel));
+				l_strPath = l_in.readUTF();
+				l_iSize   = MappedRingBuffer.getSize(l_in.readInt());
+
+				try (final FileChannel l_file = FileChannel.open
+					(Paths.get(l_strPath), StandardOpenOption.READ, StandardOpenOption.WRITE))
+				{
+					l_buf = l_file.map(FileChannel.MapMode.READ_WRITE, 0L, 2L * l_iSize);
+				}
+
+				// the file may be deleted now
+				l_channel.write(ByteBuffer.wrap(new byte[] {1}));
+
+				// the socket is only used to detect that the server has gone
+				l_channel.configureBlocking(false);
+
+				l_buf.limit(l_iSize);
+				m_out = new MappedRingBuffer(l_buf.slice(), m_iSpinCount, this::_isAlive).getOutputStream();
+
+				l_buf.limit(2 * l_iSize).position(l_iSize);
+				m_in = new MappedRingBuffer(l_buf.slice(), m_iSpinCount, this::_isAlive).getInputStream();
+
+				m_channel = l_channel;
+
+				m_methodIds.clear();
+
+				m_serCall = getCallFrameSerializer().forConnection();
+				m_serRtrn = getReturnFrameSerializer().forConnection();
+			}
+			catch (IOException l_e)
+			{
+				JaffreUtil.close(l_channel);
+
+				throw new JaffreUncheckedException(l_e);
+			}
+		}
+	}
+
+
+	private void _close()
+	{
+		m_out     = JaffreUtil.close(m_out);
+		m_in      = JaffreUtil.close(m_in);
+		m_channel = JaffreUtil.close(m_channel);
+	}
+
+
+	/**
+	 * Check if the server is alive. This method is being called by the
+	 * thread that waits for a return frame.
+	 */
+	private boolean _isAlive()
+	{
+		try
+		{
+			m_probe.clear();
+
+			return m_channel.read(m_probe) >= 0;
+		}
+		catch (IOException l_e)
+		{
+			return false;
+		}
+	}
+
+
+	/*
+	 * @see java.lang.Object#finalize()
+	 */
+	@Override
+	protected void finalize()
+	{
+		if (m_channel != null)
+			ms_log.warn("Call dispose to cleanup system resources.");
+
+		dispose();
+	}
+}
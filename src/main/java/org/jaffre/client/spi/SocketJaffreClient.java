@@ -18,22 +18,24 @@
 package org.jaffre.client.spi;
 
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.List;
 
 import javax.net.SocketFactory;
 
 import org.jaffre.JaffreCallFrame;
-import org.jaffre.JaffreCookie;
+import org.jaffre.JaffreCallFrameSerializer;
 import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
 import org.jaffre.JaffreUncheckedException;
 import org.jaffre.Logger;
 import org.jaffre.LoggerFactory;
+import org.jaffre.io.PooledBufferedInputStream;
+import org.jaffre.io.PooledBufferedOutputStream;
 import org.jaffre.util.JaffreUtil;
 
 
@@ -50,9 +52,16 @@ public class SocketJaffreClient extends AbstractSocketJaffreClient
 
 	private int m_iBufferSize = 8192;
 
-	private BufferedOutputStream m_out;
+	private PooledBufferedOutputStream m_out;
 
-	private BufferedInputStream m_in;
+	private PooledBufferedInputStream m_in;
+
+	/** The method ids acknowledged on the current connection. */
+	private final MethodIdDictionary m_methodIds = new MethodIdDictionary();
+
+	private JaffreCallFrameSerializer m_serCall;
+
+	private JaffreReturnFrameSerializer m_serRtrn;
 
 
 	public SocketJaffreClient()
@@ -88,11 +97,16 @@ public class SocketJaffreClient extends AbstractSocketJaffreClient
 	 * will acquire new resources, so this method has to be called again.</i></p>
 	 */
 	@Override
-	public synchronized void dispose()
+	public void dispose()
 	{
-		m_out    = JaffreUtil.close(m_out);
-		m_in     = JaffreUtil.close(m_in);
-		m_socket = JaffreUtil.close(m_socket);
+		super.dispose();
+
+		synchronized (this)
+		{
+			m_out    = JaffreUtil.close(m_out);
+			m_in     = JaffreUtil.close(m_in);
+			m_socket = JaffreUtil.close(m_socket);
+		}
 	}
 
 
@@ -103,7 +117,59 @@ public class SocketJaffreClient extends AbstractSocketJaffreClient
 	                                         Object[] p_args)
 		throws Throwable
 	{
-		// create the client socket
+		_connect();
+
+		// invoke the method on the server and receive the result
+		boolean                 l_bKeepAlive;
+		final JaffreCallFrame   l_frameCall;
+		final JaffreReturnFrame l_frameReturn;
+
+		l_frameCall  = newCallFrame(p_interface, p_method, p_args, m_methodIds);
+		l_bKeepAlive = l_frameCall.isKeepAlive();
+
+		try
+		{
+			m_serCall.serialize(l_frameCall, m_out);
+
+			m_out.flush();
+
+			l_frameReturn = m_serRtrn.deserialize(m_in);
+
+			acceptMethodId(l_frameReturn, p_interface, p_method, m_methodIds);
+
+			// we close the connection if the client is not configured to
+			// keep connections alive, or the server wishes to do so
+			l_bKeepAlive = l_bKeepAlive && l_frameReturn.isKeepAlive();
+		}
+		catch (ClassNotFoundException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (IOException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		finally
+		{
+			if (!l_bKeepAlive)
+			{
+				m_out    = JaffreUtil.close(m_out);
+				m_in     = JaffreUtil.close(m_in);
+				m_socket = JaffreUtil.close(m_socket);
+			}
+		}
+
+		// return the result to the caller, or re-throw the exception that
+		// was thrown on the server
+		return returnResult(l_frameReturn, p_method);
+	}
+
+
+	/**
+	 * Create the client socket if neccessary.
+	 */
+	private void _connect()
+	{
 		if (m_socket == null)
 		{
 			try
@@ -120,8 +186,13 @@ public class SocketJaffreClient extends AbstractSocketJaffreClient
 
 				m_socket = l_socket;
 
-				m_out = new BufferedOutputStream(l_socket.getOutputStream(), m_iBufferSize);
-				m_in  = new BufferedInputStream(l_socket.getInputStream(), m_iBufferSize);
+				m_methodIds.clear();
+
+				m_serCall = getCallFrameSerializer().forConnection();
+				m_serRtrn = getReturnFrameSerializer().forConnection();
+
+				m_out = new PooledBufferedOutputStream(l_socket.getOutputStream(), m_iBufferSize);
+				m_in  = new PooledBufferedInputStream(l_socket.getInputStream(), m_iBufferSize);
 			}
 			catch (SocketException l_e)
 			{
@@ -132,39 +203,22 @@ public class SocketJaffreClient extends AbstractSocketJaffreClient
 				throw new JaffreUncheckedException(l_e);
 			}
 		}
+	}
 
-		// invoke the method on the server and receive the result
-		boolean                 l_bKeepAlive;
-		final JaffreCallFrame   l_frameCall;
-		final JaffreReturnFrame l_frameReturn;
-
-		l_frameCall = new JaffreCallFrame(p_interface,
-		                                  p_method.getName(),
-		                                  p_method.getParameterTypes(),
-		                                  p_args);
 
-		l_bKeepAlive = isKeepAlive();
+	@Override
+	protected synchronized void invokeBatchImpl(List<JaffreBatch.Call> p_calls)
+		throws Throwable
+	{
+		boolean l_bKeepAlive;
 
-		l_frameCall.setKeepAlive(l_bKeepAlive);
-		l_frameCall.setInOut();
+		_connect();
 
-		if (isSendCookies())
-			l_frameCall.setUserData(JaffreCookie.get());
+		l_bKeepAlive = false;
 
 		try
 		{
-			getCallFrameSerializer().serialize(l_frameCall, m_out);
-
-			m_out.flush();
-
-			l_frameReturn = getReturnFrameSerializer().deserialize(m_in);
-
-			if (isAcceptCookies())
-				JaffreCookie.set(l_frameReturn.getUserData());
-
-			// we close the connection if the client is not configured to
-			// keep connections alive, or the server wishes to do so
-			l_bKeepAlive = l_bKeepAlive && l_frameReturn.isKeepAlive();
+			l_bKeepAlive = exchangeBatch(p_calls, m_serCall, m_serRtrn, m_out, m_in, m_methodIds);
 		}
 		catch (ClassNotFoundException l_e)
 		{
@@ -183,24 +237,6 @@ public class SocketJaffreClient extends AbstractSocketJaffreClient
 				m_socket = JaffreUtil.close(m_socket);
 			}
 		}
-
-		// return the result to the caller, or re-throw the exception that
-		// was thrown on the server
-		if (!l_frameReturn.isExceptionResult())
-		{
-			return l_frameReturn.getResult();
-		}
-		else
-		{
-			final Throwable l_e;
-
-			l_e = (Throwable)l_frameReturn.getResult();
-
-			if (JaffreUtil.isDeclaredThrowable(l_e, p_method))
-				throw l_e;
-			else
-				throw new JaffreUncheckedException(l_e);
-		}
 	}
 
 
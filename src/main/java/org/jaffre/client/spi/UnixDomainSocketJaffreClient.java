@@ -0,0 +1,288 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreUncheckedException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.ChannelInputStream;
+import org.jaffre.io.ChannelOutputStream;
+import org.jaffre.util.JaffreUtil;
+import org.jaffre.util.UnixDomainSocketUtil;
+
+
+/**
+ * A client that connects to a
+ * {@link org.jaffre.server.spi.UnixDomainSocketJaffreConnector} through a
+ * Unix domain socket.
+ * <p>Unix domain sockets require a Java 16 or later runtime. The service
+ * address and the service port are ignored by this client.</p>
+ * @author Alexander Veit
+ */
+public class UnixDomainSocketJaffreClient extends AbstractSocketJaffreClient
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(UnixDomainSocketJaffreClient.class);
+
+	private String m_strPath;
+
+	private SocketChannel m_channel;
+
+	private int m_iBufferSize = 8192;
+
+	private ChannelOutputStream m_out;
+
+	private ChannelInputStream m_in;
+
+	/** The method ids acknowledged on the current connection. */
+	private final MethodIdDictionary m_methodIds = new MethodIdDictionary();
+
+	private JaffreCallFrameSerializer m_serCall;
+
+	private JaffreReturnFrameSerializer m_serRtrn;
+
+
+	public UnixDomainSocketJaffreClient()
+	{
+	}
+
+
+	/**
+	 * Get the path of the server's socket file.
+	 * @return The path of the socket file, or <code>null</code>.
+	 */
+	public synchronized String getPath()
+	{
+		return m_strPath;
+	}
+
+
+	/**
+	 * Set the path of the server's socket file. The path is used for
+	 * subsequently opened connections.
+	 * @param p_strPath The path of the socket file.
+	 */
+	public synchronized void setPath(String p_strPath)
+	{
+		m_strPath = p_strPath;
+	}
+
+
+	/**
+	 * Free all resources that are no longer needed by this client.
+	 * <p><i>Note: subsequent method invocations on client interfaces
+	 * will acquire new resources, so this method has to be called again.</i></p>
+	 */
+	@Override
+	public void dispose()
+	{
+		super.dispose();
+
+		synchronized (this)
+		{
+			_close();
+		}
+	}
+
+
+	@Override
+	protected synchronized Object invokeImpl(Class<?> p_interface,
+	                                         Object   p_proxy,
+	                                         Method   p_method,
+	                                         Object[] p_args)
+		throws Throwable
+	{
+		_connect();
+
+		// invoke the method on the server and receive the result
+		boolean                 l_bKeepAlive;
+		final JaffreCallFrame   l_frameCall;
+		final JaffreReturnFrame l_frameReturn;
+
+		l_frameCall  = newCallFrame(p_interface, p_method, p_args, m_methodIds);
+		l_bKeepAlive = l_frameCall.isKeepAlive();
+
+		try
+		{
+			m_serCall.serialize(l_frameCall, m_out);
+
+			m_out.flush();
+
+			l_frameReturn = m_serRtrn.deserialize(m_in);
+
+			if (l_frameReturn == null)
+				throw new JaffreUncheckedException("Connection closed.");
+
+			acceptMethodId(l_frameReturn, p_interface, p_method, m_methodIds);
+
+			// we close the connection if the client is not configured to
+			// keep connections alive, or the server wishes to do so
+			l_bKeepAlive = l_bKeepAlive && l_frameReturn.isKeepAlive();
+		}
+		catch (ClassNotFoundException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (IOException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		finally
+		{
+			if (!l_bKeepAlive)
+				_close();
+		}
+
+		// return the result to the caller, or re-throw the exception that
+		// was thrown on the server
+		return returnResult(l_frameReturn, p_method);
+	}
+
+
+	@Override
+	protected synchronized void invokeBatchImpl(List<JaffreBatch.Call> p_calls)
+		throws Throwable
+	{
+		boolean l_bKeepAlive;
+
+		_connect();
+
+		l_bKeepAlive = false;
+
+		try
+		{
+			l_bKeepAlive = exchangeBatch(p_calls, m_serCall, m_serRtrn, m_out, m_in, m_methodIds);
+		}
+		catch (ClassNotFoundException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		catch (IOException l_e)
+		{
+			throw new JaffreUncheckedException(l_e);
+		}
+		finally
+		{
+			if (!l_bKeepAlive)
+				_close();
+		}
+	}
+
+
+	/**
+	 * Send the in-only call frames on the connection that is used for
+	 * other calls.
+	 */
+	@Override
+	protected synchronized void sendInOnlyFrames(List<JaffreCallFrame> p_frames) throws IOException
+	{
+		_connect();
+
+		try
+		{
+			for (final JaffreCallFrame l_frameCall : p_frames)
+				m_serCall.serialize(l_frameCall, m_out);
+
+			m_out.flush();
+		}
+		catch (IOException l_e)
+		{
+			_close();
+
+			throw l_e;
+		}
+	}
+
+
+	/**
+	 * The in-only calls share the connection that is used for other calls,
+	 * so this method does nothing.
+	 */
+	@Override
+	protected void closeInOnlyConnection()
+	{
+	}
+
+
+	/**
+	 * Open the connection if neccessary.
+	 */
+	private void _connect()
+	{
+		if (m_channel == null)
+		{
+			final SocketChannel l_channel;
+
+			if (m_strPath == null)
+				throw new JaffreConfigurationException("No socket path.");
+
+			l_channel = UnixDomainSocketUtil.openSocketChannel();
+
+			try
+			{
+				l_channel.connect(UnixDomainSocketUtil.newAddress(m_strPath));
+			}
+			catch (IOException l_e)
+			{
+				JaffreUtil.close(l_channel);
+
+				throw new JaffreUncheckedException(l_e);
+			}
+
+			m_channel = l_channel;
+
+			m_methodIds.clear();
+
+			m_serCall = getCallFrameSerializer().forConnection();
+			m_serRtrn = getReturnFrameSerializer().forConnection();
+
+			m_out = new ChannelOutputStream(l_channel, m_iBufferSize);
+			m_in  = new ChannelInputStream(l_channel, m_iBufferSize);
+		}
+	}
+
+
+	private void _close()
+	{
+		m_out     = JaffreUtil.close(m_out);
+		m_in      = JaffreUtil.close(m_in);
+		m_channel = JaffreUtil.close(m_channel);
+	}
+
+
+	/*
+	 * @see java.lang.Object#finalize()
+	 */
+	@Override
+	protected void finalize()
+	{
+		if (m_channel != null)
+			ms_log.warn("Call dispose to cleanup system resources.");
+
+		dispose();
+	}
+}
@@ -24,13 +24,25 @@ import java.nio.ByteBuffer;
 
 
 /**
+ * <p>A buffer that is created by this class is acquired from the
+ * {@link ByteBufferPool#getHeapPool() heap buffer pool} or the
+ * {@link ByteBufferPool#getDirectPool() direct buffer pool} and released to
+ * the global cache of the pool when the stream is closed. A stream often
+ * lives as long as a connection whose thread ends with it, so the cache of
+ * the closing thread is bypassed.</p>
  * <p>This class is not synchronized.</p>
  * @author Alexander Veit
  */
 public abstract class AbstractByteBufferInputStream extends InputStream
 {
+	/** The buffer of closed streams. */
+	private static final ByteBuffer ms_bufClosed = ByteBuffer.allocate(0);
+
 	protected ByteBuffer m_buffer;
 
+	/** The pooled buffer that backs the buffer, or <code>null</code>. */
+	private final ByteBuffer m_bufPooled;
+
 
 	/**
 	 * Create an input stream that reads a <code>java.nio.ByteBuffer</code>.
@@ -44,22 +56,47 @@ public abstract class AbstractByteBufferInputStream extends InputStream
 	 */
 	public AbstractByteBufferInputStream(ByteBuffer p_buffer, boolean p_bContainsData)
 	{
-		m_buffer = p_buffer;
+		m_buffer    = p_buffer;
+		m_bufPooled = null;
 
 		if (!p_bContainsData)
 			m_buffer.clear().flip();
 	}
 
 
+	/**
+	 * Create an input stream with a pooled heap buffer.
+	 * @param p_iCapacity The minimum capacity of the buffer.
+	 */
 	public AbstractByteBufferInputStream(int p_iCapacity)
 	{
-		this(ByteBuffer.allocate(p_iCapacity), false);
+		this(p_iCapacity, false);
+	}
 
-		if (p_iCapacity <= 0) // < 0 is already checked by allocate
+
+	/**
+	 * Create an input stream with a pooled buffer.
+	 * <p>Direct buffers avoid the copy into a temporary direct buffer
+	 * that the JDK makes when a heap buffer is passed to a channel.</p>
+	 * @param p_iCapacity The minimum capacity of the buffer.
+	 * @param p_bDirect <code>true</code> if the buffer is to be acquired
+	 *    from the {@link ByteBufferPool#getDirectPool() direct buffer pool},
+	 *    or <code>false</code> if it is to be acquired from the
+	 *    {@link ByteBufferPool#getHeapPool() heap buffer pool}.
+	 */
+	public AbstractByteBufferInputStream(int p_iCapacity, boolean p_bDirect)
+	{
+		if (p_iCapacity <= 0)
 		{
 			throw new IllegalArgumentException
 				(p_iCapacity + " is not a valid buffer capacity.");
 		}
+
+		// the pooled buffer may be larger than requested
+		m_bufPooled = _getPool(p_bDirect).acquire(p_iCapacity);
+		m_buffer    = ((ByteBuffer)m_bufPooled.limit(p_iCapacity)).slice();
+
+		m_buffer.flip();
 	}
 
 
@@ -236,18 +273,22 @@ public abstract class AbstractByteBufferInputStream extends InputStream
 	 * @return The number of bytes read, or <code>-1</code> if no
 	 *    more input is available.
 	 * @throws IOException If an I/O error occurred, or if {@link #read(ByteBuffer)}
-	 *    returned <code>0</code>.
+	 *    returned <code>0</code>, or if the stream is closed.
 	 * @see #read(ByteBuffer)
 	 */
 	private int _read(ByteBuffer p_buffer) throws IOException
 	{
 		final int l_iRead;
 
+		if (p_buffer == ms_bufClosed)
+			throw new IOException("Stream closed.");
+
 		p_buffer.compact();
 
 		l_iRead = read(p_buffer);
 
-		assert p_buffer.remaining() >= l_iRead;
+		// the implementation may have replaced the buffer
+		assert m_buffer.remaining() >= l_iRead;
 
 		return l_iRead;
 	}
@@ -261,6 +302,9 @@ public abstract class AbstractByteBufferInputStream extends InputStream
 	 * <li>Implementors <b>must</b> ensure that this method will never return 0.</li>
 	 * <li>Also, this method <b>must</b> prepare the input buffer for subsequent relative
 	 * <code>get</code> operations.</li>
+	 * <li>Implementors may replace {@link #m_buffer} by another compacted buffer, e.g. in
+	 * order to release an idle buffer to a pool. Then the new buffer must be read into
+	 * and prepared instead.</li>
 	 * </ul>
 	 * @param p_buffer The buffer.
 	 * @return The number of bytes read, or <code>-1</code> if no
@@ -272,11 +316,24 @@ public abstract class AbstractByteBufferInputStream extends InputStream
 
 
 	/**
-	 * This method does nothing.
+	 * Release a pooled buffer. This method does nothing if the buffer was
+	 * passed to the constructor.
 	 */
 	@Override
 	public void close() throws IOException
 	{
-		// nothing to do
+		if (m_bufPooled != null && m_buffer != ms_bufClosed)
+		{
+			_getPool(m_bufPooled.isDirect()).release(m_bufPooled, false);
+
+			// subsequent reads fail
+			m_buffer = ms_bufClosed;
+		}
+	}
+
+
+	private static ByteBufferPool _getPool(boolean p_bDirect)
+	{
+		return p_bDirect ? ByteBufferPool.getDirectPool() : ByteBufferPool.getHeapPool();
 	}
 }
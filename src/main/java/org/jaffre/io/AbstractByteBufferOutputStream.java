@@ -33,6 +33,12 @@ import java.nio.ByteBuffer;
  * Data not consumed by {@link #write(ByteBuffer, WRITE_MODE)} will again be passed in
  * subsequent write operations. So the implementor is responsible for avoiding infinite
  * loops.</p>
+ * <p>A buffer that is created by this class is acquired from the
+ * {@link ByteBufferPool#getHeapPool() heap buffer pool} or the
+ * {@link ByteBufferPool#getDirectPool() direct buffer pool} and released to
+ * the global cache of the pool when the stream is closed. A stream often
+ * lives as long as a connection whose thread ends with it, so the cache of
+ * the closing thread is bypassed.</p>
  * <p>This class is not synchronized.</p>
  * @author Alexander Veit
  */
@@ -44,8 +50,31 @@ public abstract class AbstractByteBufferOutputStream extends OutputStream
 
 	private final byte[] m_oneByte = new byte[1];
 
+	/** The pooled buffer that backs the buffer, or <code>null</code>. */
+	private final ByteBuffer m_bufPooled;
 
+
+	/**
+	 * Create an output stream with a pooled heap buffer.
+	 * @param p_iCapacity The minimum capacity of the buffer.
+	 */
 	public AbstractByteBufferOutputStream(int p_iCapacity)
+	{
+		this(p_iCapacity, false);
+	}
+
+
+	/**
+	 * Create an output stream with a pooled buffer.
+	 * <p>A direct buffer should be used if {@link #write(ByteBuffer, WRITE_MODE)}
+	 * passes the buffer to a channel.</p>
+	 * @param p_iCapacity The minimum capacity of the buffer.
+	 * @param p_bDirect <code>true</code> if the buffer is to be acquired
+	 *    from the {@link ByteBufferPool#getDirectPool() direct buffer pool},
+	 *    or <code>false</code> if it is to be acquired from the
+	 *    {@link ByteBufferPool#getHeapPool() heap buffer pool}.
+	 */
+	public AbstractByteBufferOutputStream(int p_iCapacity, boolean p_bDirect)
 	{
 		if (p_iCapacity <= 0)
 		{
@@ -53,13 +82,16 @@ public abstract class AbstractByteBufferOutputStream extends OutputStream
 				(p_iCapacity + " is not a valid buffer capacity.");
 		}
 
-		m_buffer = ByteBuffer.allocate(p_iCapacity);
+		// the pooled buffer may be larger than requested
+		m_bufPooled = _getPool(p_bDirect).acquire(p_iCapacity);
+		m_buffer    = ((ByteBuffer)m_bufPooled.limit(p_iCapacity)).slice();
 	}
 
 
 	public AbstractByteBufferOutputStream(ByteBuffer p_buffer)
 	{
-		m_buffer = p_buffer;
+		m_buffer    = p_buffer;
+		m_bufPooled = null;
 	}
 
 
@@ -84,6 +116,9 @@ public abstract class AbstractByteBufferOutputStream extends OutputStream
 			throw new IndexOutOfBoundsException();
 		}
 
+		if (m_buffer == null)
+			throw new IOException("Stream closed.");
+
 		l_iOffs        = p_iOffs;
 		l_iToBeWritten = p_iLen;
 
@@ -145,6 +180,9 @@ public abstract class AbstractByteBufferOutputStream extends OutputStream
 	@Override
 	public void flush() throws IOException
 	{
+		if (m_buffer == null)
+			throw new IOException("Stream closed.");
+
 		m_buffer.flip();
 		write(m_buffer, WRITE_MODE.FLUSH);
 
@@ -166,26 +204,48 @@ public abstract class AbstractByteBufferOutputStream extends OutputStream
 	 * Closes this output stream and forces any buffered output bytes
      * to be written out.
      * <p>{@link #write(ByteBuffer, WRITE_MODE)} will be called with {@link WRITE_MODE#CLOSE}
-     * as second parameter.</p>
+     * as second parameter. A pooled buffer is released afterwards, even if
+     * an exception is thrown.</p>
      * @throws IOException If an I/O error occurred, or if the call to
      *    {@link #write(ByteBuffer, WRITE_MODE)} did not consume all pending data.
 	 */
 	@Override
 	public void close() throws IOException
 	{
-		m_buffer.flip();
-		write(m_buffer, WRITE_MODE.CLOSE);
+		if (m_buffer == null)
+			return; // already closed
 
-		// put the buffer in a defined state even though we may throw an exception
-		if (m_buffer.hasRemaining())
+		try
 		{
-			m_buffer.compact();
+			m_buffer.flip();
+			write(m_buffer, WRITE_MODE.CLOSE);
 
-			throw new IOException("Output data could not be written.");
+			// put the buffer in a defined state even though we may throw an exception
+			if (m_buffer.hasRemaining())
+			{
+				m_buffer.compact();
+
+				throw new IOException("Output data could not be written.");
+			}
+			else
+			{
+				m_buffer.compact();
+			}
 		}
-		else
+		finally
 		{
-			m_buffer.compact();
+			if (m_bufPooled != null)
+			{
+				_getPool(m_bufPooled.isDirect()).release(m_bufPooled, false);
+
+				m_buffer = null;
+			}
 		}
 	}
+
+
+	private static ByteBufferPool _getPool(boolean p_bDirect)
+	{
+		return p_bDirect ? ByteBufferPool.getDirectPool() : ByteBufferPool.getHeapPool();
+	}
 }
@@ -0,0 +1,360 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.io;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A pool of reusable byte buffers.
+ * <p>Buffers are pooled in size classes. The size classes are the powers of
+ * two and the values halfway between them, from 512 bytes to 4 MiB. A request
+ * is served with a buffer of the smallest size class that is large enough,
+ * so the capacity of an acquired buffer may be larger than requested. Larger
+ * buffers are allocated on each request and are not pooled.</p>
+ * <p>Released buffers are first kept in a cache of the releasing thread, and
+ * in a global cache if the thread's cache is full. The cache of a thread is
+ * limited by the number of buffers per size class and by the total number of
+ * bytes. If both caches are full, the buffer is left to the garbage
+ * collector. A thread that acquires a buffer tries its own cache first, then
+ * the global cache, and allocates a new buffer if both are empty.</p>
+ * <p>A buffer must not be used after it was released, and it must not be
+ * released twice. Buffers need not be released, but then they are not
+ * reused.</p>
+ * <p>This class is thread-safe.</p>
+ * @author Alexander Veit
+ */
+public final class ByteBufferPool
+{
+	/** The size classes, in ascending order. Initialized before the shared pools. */
+	private static final int[] ms_sizes = _sizes();
+
+	/** The default maximum number of bytes cached by a thread. */
+	private static final long THREAD_CACHE_SIZE = 1024L * 1024L;
+
+	private static final ByteBufferPool ms_heapPool = new ByteBufferPool(false, 8, 256);
+
+	private static final ByteBufferPool ms_directPool = new ByteBufferPool(true, 8, 256);
+
+	private final boolean m_bDirect;
+
+	private final int m_iThreadCapacity;
+
+	private final long m_lngThreadCacheSize;
+
+	private final int m_iGlobalCapacity;
+
+	/** The caches of the threads. */
+	private final ThreadLocal<ThreadCache> m_threadCaches;
+
+	/** The global cache, one queue per size class. */
+	private final ConcurrentLinkedQueue<ByteBuffer>[] m_globalCaches;
+
+	/** The number of buffers in the global cache, per size class. */
+	private final AtomicInteger[] m_globalCounts;
+
+	private final AtomicLong m_lngAllocations = new AtomicLong();
+
+
+	/**
+	 * The cache of a thread.
+	 */
+	private static final class ThreadCache
+	{
+		/** One queue per size class. */
+		private final ArrayDeque<ByteBuffer>[] m_queues;
+
+		/** The number of bytes in the queues. */
+		private long m_lngSize;
+
+
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		private ThreadCache()
+		{
+			m_queues = new ArrayDeque[ms_sizes.length];
+		}
+	}
+
+
+	/**
+	 * Create a buffer pool whose threads cache at most 1 MiB each.
+	 * @param p_bDirect <code>true</code> if the pool holds direct buffers,
+	 *    or <code>false</code> if it holds heap buffers.
+	 * @param p_iThreadCapacity The maximum number of buffers per size class
+	 *    that are cached by a thread.
+	 * @param p_iGlobalCapacity The maximum number of buffers per size class
+	 *    in the global cache.
+	 * @throws IllegalArgumentException If a capacity is negative.
+	 */
+	public ByteBufferPool(boolean p_bDirect, int p_iThreadCapacity, int p_iGlobalCapacity)
+	{
+		this(p_bDirect, p_iThreadCapacity, THREAD_CACHE_SIZE, p_iGlobalCapacity);
+	}
+
+
+	/**
+	 * Create a buffer pool.
+	 * @param p_bDirect <code>true</code> if the pool holds direct buffers,
+	 *    or <code>false</code> if it holds heap buffers.
+	 * @param p_iThreadCapacity The maximum number of buffers per size class
+	 *    that are cached by a thread.
+	 * @param p_lngThreadCacheSize The maximum number of bytes that are
+	 *    cached by a thread.
+	 * @param p_iGlobalCapacity The maximum number of buffers per size class
+	 *    in the global cache.
+	 * @throws IllegalArgumentException If a capacity or the size is negative.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public ByteBufferPool(boolean p_bDirect, int p_iThreadCapacity, long p_lngThreadCacheSize, int p_iGlobalCapacity)
+	{
+		if (p_iThreadCapacity < 0)
+			throw new IllegalArgumentException(p_iThreadCapacity + " is not a valid capacity.");
+
+		if (p_lngThreadCacheSize < 0)
+			throw new IllegalArgumentException(p_lngThreadCacheSize + " is not a valid cache size.");
+
+		if (p_iGlobalCapacity < 0)
+			throw new IllegalArgumentException(p_iGlobalCapacity + " is not a valid capacity.");
+
+		m_bDirect            = p_bDirect;
+		m_iThreadCapacity    = p_iThreadCapacity;
+		m_lngThreadCacheSize = p_lngThreadCacheSize;
+		m_iGlobalCapacity    = p_iGlobalCapacity;
+		m_threadCaches       = ThreadLocal.withInitial(ThreadCache::new);
+		m_globalCaches       = new ConcurrentLinkedQueue[ms_sizes.length];
+		m_globalCounts       = new AtomicInteger[ms_sizes.length];
+
+		for (int i = 0; i < ms_sizes.length; i++)
+		{
+			m_globalCaches[i] = new ConcurrentLinkedQueue<>();
+			m_globalCounts[i] = new AtomicInteger();
+		}
+	}
+
+
+	/**
+	 * Get the shared pool of heap buffers.
+	 * @return The pool of heap buffers.
+	 */
+	public static ByteBufferPool getHeapPool()
+	{
+		return ms_heapPool;
+	}
+
+
+	/**
+	 * Get the shared pool of direct buffers.
+	 * @return The pool of direct buffers.
+	 */
+	public static ByteBufferPool getDirectPool()
+	{
+		return ms_directPool;
+	}
+
+
+	/**
+	 * Check if this pool holds direct buffers.
+	 * @return <code>true</code> if this pool holds direct buffers,
+	 *    or <code>false</code> if it holds heap buffers.
+	 */
+	public boolean isDirect()
+	{
+		return m_bDirect;
+	}
+
+
+	/**
+	 * Get the number of buffers that were allocated by this pool.
+	 * @return The number of allocations.
+	 */
+	public long getNumAllocations()
+	{
+		return m_lngAllocations.get();
+	}
+
+
+	/**
+	 * Acquire a buffer.
+	 * @param p_iCapacity The minimum capacity of the buffer.
+	 * @return A cleared buffer with at least the requested capacity.
+	 * @throws IllegalArgumentException If the capacity is negative.
+	 */
+	public ByteBuffer acquire(int p_iCapacity)
+	{
+		final int                    l_iClass;
+		final ThreadCache            l_cache;
+		final ArrayDeque<ByteBuffer> l_local;
+		ByteBuffer                   l_buf;
+
+		if (p_iCapacity < 0)
+			throw new IllegalArgumentException(p_iCapacity + " is not a valid buffer capacity.");
+
+		l_iClass = _sizeClass(p_iCapacity);
+
+		if (l_iClass < 0)
+			return _allocate(p_iCapacity); // too large to be pooled
+
+		l_cache = m_threadCaches.get();
+		l_local = l_cache.m_queues[l_iClass];
+		l_buf   = l_local != null ? l_local.pollFirst() : null;
+
+		if (l_buf != null)
+		{
+			l_cache.m_lngSize -= l_buf.capacity();
+		}
+		else
+		{
+			l_buf = m_globalCaches[l_iClass].poll();
+
+			if (l_buf != null)
+				m_globalCounts[l_iClass].decrementAndGet();
+			else
+				l_buf = _allocate(ms_sizes[l_iClass]);
+		}
+
+		return l_buf;
+	}
+
+
+	/**
+	 * Release a buffer to this pool.
+	 * <p>The pool does not track the buffers it allocated. A buffer of the
+	 * kind of this pool whose capacity is one of the size classes is taken
+	 * in, even if it was not acquired from a pool. Read-only buffers and
+	 * heap buffers that do not start at the beginning of their array are
+	 * ignored. Slices of direct buffers cannot be recognized and must not
+	 * be released.</p>
+	 * @param p_buf The buffer, or <code>null</code>.
+	 */
+	public void release(ByteBuffer p_buf)
+	{
+		release(p_buf, true);
+	}
+
+
+	/**
+	 * Release a buffer to this pool.
+	 * <p>The pool does not track the buffers it allocated. A buffer of the
+	 * kind of this pool whose capacity is one of the size classes is taken
+	 * in, even if it was not acquired from a pool. Read-only buffers and
+	 * heap buffers that do not start at the beginning of their array are
+	 * ignored. Slices of direct buffers cannot be recognized and must not
+	 * be released.</p>
+	 * <p>A thread that will not acquire buffers in the near future, e.g.
+	 * because it waits for an idle connection, should bypass its cache.
+	 * Otherwise the buffer is kept by the thread and cannot be reused by
+	 * other threads.</p>
+	 * @param p_buf The buffer, or <code>null</code>.
+	 * @param p_bThreadCache <code>true</code> if the buffer may be kept in
+	 *    the cache of the releasing thread, or <code>false</code> if it is
+	 *    released to the global cache.
+	 */
+	public void release(ByteBuffer p_buf, boolean p_bThreadCache)
+	{
+		final int              l_iClass;
+		final ThreadCache      l_cache;
+		ArrayDeque<ByteBuffer> l_local;
+
+		if (p_buf == null || p_buf.isDirect() != m_bDirect || p_buf.isReadOnly())
+			return;
+
+		l_iClass = Arrays.binarySearch(ms_sizes, p_buf.capacity());
+
+		// a buffer that was not allocated by a pool, or a slice
+		if (l_iClass < 0 || (!m_bDirect && p_buf.arrayOffset() != 0))
+			return;
+
+		p_buf.clear();
+
+		if (p_bThreadCache)
+		{
+			l_cache = m_threadCaches.get();
+			l_local = l_cache.m_queues[l_iClass];
+
+			if (l_local == null)
+				l_local = l_cache.m_queues[l_iClass] = new ArrayDeque<>(m_iThreadCapacity);
+
+			if (l_local.size() < m_iThreadCapacity &&
+			    l_cache.m_lngSize + p_buf.capacity() <= m_lngThreadCacheSize)
+			{
+				l_local.addFirst(p_buf);
+				l_cache.m_lngSize += p_buf.capacity();
+				return;
+			}
+		}
+
+		if (m_globalCounts[l_iClass].incrementAndGet() <= m_iGlobalCapacity)
+			m_globalCaches[l_iClass].offer(p_buf);
+		else
+			m_globalCounts[l_iClass].decrementAndGet();
+	}
+
+
+	private ByteBuffer _allocate(int p_iCapacity)
+	{
+		m_lngAllocations.incrementAndGet();
+
+		return m_bDirect ? ByteBuffer.allocateDirect(p_iCapacity) : ByteBuffer.allocate(p_iCapacity);
+	}
+
+
+	/**
+	 * Get the smallest size class that holds a capacity.
+	 * @param p_iCapacity The capacity.
+	 * @return The index of the size class, or <code>-1</code> if the capacity
+	 *    is larger than the largest size class.
+	 */
+	private static int _sizeClass(int p_iCapacity)
+	{
+		final int l_iIndex;
+
+		l_iIndex = Arrays.binarySearch(ms_sizes, p_iCapacity);
+
+		if (l_iIndex >= 0)
+			return l_iIndex;
+		else if (-l_iIndex - 1 < ms_sizes.length)
+			return -l_iIndex - 1;
+		else
+			return -1;
+	}
+
+
+	private static int[] _sizes()
+	{
+		final int[] l_sizes;
+		int         l_iCnt;
+
+		l_sizes = new int[32];
+		l_iCnt  = 0;
+
+		for (int l_iSize = 512; l_iSize <= 4 * 1024 * 1024; l_iSize <<= 1)
+		{
+			l_sizes[l_iCnt++] = l_iSize;
+
+			if (l_iSize < 4 * 1024 * 1024)
+				l_sizes[l_iCnt++] = l_iSize + (l_iSize >> 1);
+		}
+
+		return Arrays.copyOf(l_sizes, l_iCnt);
+	}
+}
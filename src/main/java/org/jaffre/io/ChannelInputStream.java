@@ -0,0 +1,149 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.io;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * A buffered input stream that reads from a blocking channel into a
+ * direct buffer.
+ * <p>The buffer is acquired from the {@link ByteBufferPool#getDirectPool()
+ * direct buffer pool}, and released when the stream is closed. Large reads
+ * bypass the buffer.</p>
+ * <p>Like {@link java.io.BufferedInputStream} a read operation only blocks
+ * until some data is available.</p>
+ * <p>This class is not synchronized.</p>
+ * @author Alexander Veit
+ */
+public class ChannelInputStream extends AbstractByteBufferInputStream
+{
+	private final ReadableByteChannel m_channel;
+
+
+	/**
+	 * Create a buffered input stream.
+	 * @param p_channel The underlying channel. The channel must be in
+	 *    blocking mode.
+	 * @param p_iSize The buffer size.
+	 */
+	public ChannelInputStream(ReadableByteChannel p_channel, int p_iSize)
+	{
+		super(p_iSize, true);
+
+		m_channel = p_channel;
+	}
+
+
+	/**
+	 * Get the underlying channel.
+	 * @return The channel.
+	 */
+	public ReadableByteChannel getChannel()
+	{
+		return m_channel;
+	}
+
+
+	@Override
+	public int available() throws IOException
+	{
+		return m_buffer.remaining();
+	}
+
+
+	@Override
+	public int read(byte[] p_buf, int p_iOffs, int p_iLen) throws IOException
+	{
+		final int l_iByte;
+		final int l_iLen;
+
+		if (p_iOffs < 0 || p_iOffs > p_buf.length || p_iLen < 0 ||
+		    p_iOffs + p_iLen > p_buf.length || p_iOffs + p_iLen < 0)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+
+		if (p_iLen == 0)
+			return 0;
+
+		// large reads bypass the buffer
+		if (!m_buffer.hasRemaining() && p_iLen >= m_buffer.capacity())
+			return _read(ByteBuffer.wrap(p_buf, p_iOffs, p_iLen));
+
+		// refills the buffer if neccessary
+		l_iByte = read();
+
+		if (l_iByte == -1)
+			return -1;
+
+		p_buf[p_iOffs] = (byte)l_iByte;
+
+		l_iLen = Math.min(p_iLen - 1, m_buffer.remaining());
+
+		m_buffer.get(p_buf, p_iOffs + 1, l_iLen);
+
+		return l_iLen + 1;
+	}
+
+
+	@Override
+	public int read(ByteBuffer p_buffer) throws IOException
+	{
+		final int l_iRead;
+
+		l_iRead = _read(p_buffer);
+
+		p_buffer.flip();
+
+		return l_iRead;
+	}
+
+
+	/**
+	 * Release the buffer and close the underlying channel.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			super.close();
+		}
+		finally
+		{
+			m_channel.close();
+		}
+	}
+
+
+	private int _read(ByteBuffer p_buffer) throws IOException
+	{
+		int l_iRead;
+
+		do
+		{
+			l_iRead = m_channel.read(p_buffer);
+		}
+		while (l_iRead == 0);
+
+		return l_iRead;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.io;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+
+/**
+ * A buffered output stream that writes to a blocking channel from a
+ * direct buffer.
+ * <p>The buffer is acquired from the {@link ByteBufferPool#getDirectPool()
+ * direct buffer pool}, and released when the stream is closed.</p>
+ * <p>Buffered data and large writes are passed to the channel in a single
+ * gathering write, so large arrays are not copied into the buffer. Data
+ * that is already held in byte buffers may be written with
+ * {@link #write(ByteBuffer[])}.</p>
+ * <p>This class is not synchronized.</p>
+ * @author Alexander Veit
+ */
+public class ChannelOutputStream extends AbstractByteBufferOutputStream
+{
+	private final GatheringByteChannel m_channel;
+
+	/** The buffers of a gathering write. */
+	private final ByteBuffer[] m_bufs = new ByteBuffer[2];
+
+
+	/**
+	 * Create a buffered output stream.
+	 * @param p_channel The underlying channel. The channel must be in
+	 *    blocking mode.
+	 * @param p_iSize The buffer size.
+	 */
+	public ChannelOutputStream(GatheringByteChannel p_channel, int p_iSize)
+	{
+		super(p_iSize, true);
+
+		m_channel = p_channel;
+	}
+
+
+	/**
+	 * Get the underlying channel.
+	 * @return The channel.
+	 */
+	public GatheringByteChannel getChannel()
+	{
+		return m_channel;
+	}
+
+
+	@Override
+	public void write(byte[] p_buf, int p_iOffs, int p_iLen) throws IOException
+	{
+		// large writes bypass the buffer
+		if (m_buffer != null && p_iLen >= m_buffer.capacity() &&
+		    p_iOffs >= 0 && p_iLen >= 0 && p_iOffs + p_iLen <= p_buf.length)
+		{
+			m_bufs[0] = m_buffer;
+			m_bufs[1] = ByteBuffer.wrap(p_buf, p_iOffs, p_iLen);
+
+			try
+			{
+				_write(m_bufs);
+			}
+			finally
+			{
+				m_bufs[0] = null;
+				m_bufs[1] = null;
+			}
+		}
+		else
+		{
+			super.write(p_buf, p_iOffs, p_iLen);
+		}
+	}
+
+
+	/**
+	 * Write the buffered data followed by the remaining data of the given
+	 * buffers. All data is passed to the channel with gathering writes, so
+	 * the data of the given buffers is not copied into the buffer of this
+	 * stream.
+	 * <p>The data is not flushed. When this method returns, the given
+	 * buffers have no remaining data.</p>
+	 * @param p_bufs The buffers.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void write(ByteBuffer[] p_bufs) throws IOException
+	{
+		final ByteBuffer[] l_bufs;
+
+		if (m_buffer == null)
+			throw new IOException("Stream closed.");
+
+		l_bufs = new ByteBuffer[p_bufs.length + 1];
+
+		l_bufs[0] = m_buffer;
+
+		System.arraycopy(p_bufs, 0, l_bufs, 1, p_bufs.length);
+
+		_write(l_bufs);
+	}
+
+
+	@Override
+	public void write(ByteBuffer p_buffer, WRITE_MODE p_mode) throws IOException
+	{
+		while (p_buffer.hasRemaining())
+			m_channel.write(p_buffer);
+	}
+
+
+	/**
+	 * Write the buffered data, release the buffer, and close the underlying
+	 * channel.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			super.close();
+		}
+		finally
+		{
+			m_channel.close();
+		}
+	}
+
+
+	/**
+	 * @param p_bufs The buffers, the first one being the buffer of this stream.
+	 */
+	private void _write(ByteBuffer[] p_bufs) throws IOException
+	{
+		long l_lRemaining;
+
+		m_buffer.flip();
+
+		try
+		{
+			l_lRemaining = 0L;
+
+			for (ByteBuffer l_buf : p_bufs)
+				l_lRemaining += l_buf.remaining();
+
+			while (l_lRemaining > 0L)
+				l_lRemaining -= m_channel.write(p_bufs);
+		}
+		finally
+		{
+			m_buffer.compact();
+		}
+	}
+}
@@ -0,0 +1,674 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.io;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * A single-producer single-consumer byte pipe in a buffer that is shared
+ * by two processes, usually a memory-mapped file.
+ * <p>The buffer starts with a header of {@link #HEADER_SIZE} bytes, followed
+ * by the data. The header holds the number of bytes written and read so far,
+ * and the close flags of both ends. A newly created file contains zeros, which
+ * is the initial state of the header. One process writes the pipe through
+ * {@link #getOutputStream()}, the other one reads it through
+ * {@link #getInputStream()}.</p>
+ * <p>A waiting end spins for a number of iterations, and then parks with
+ * increasing intervals. While parked it checks if the other process is still
+ * alive, so a crashed peer does not block it forever.</p>
+ * <p>Written data is visible to the reader after the output stream was
+ * flushed, or when the writer waits for free space.</p>
+ * <p>The counters and the close flags are written after a release fence,
+ * and read before an acquire fence. The fences are those of
+ * <code>java.lang.invoke.VarHandle</code> on Java 9 and later, and those of
+ * <code>sun.misc.Unsafe</code> on Java 8.</p>
+ * @author Alexander Veit
+ */
+public final class MappedRingBuffer
+{
+	/** The size of the header. */
+	public static final int HEADER_SIZE = 128;
+
+	/** The number of bytes written, a <code>long</code>. Written by the producer. */
+	private static final int TAIL = 0;
+
+	/** The close flag of the producer, an <code>int</code>. */
+	private static final int PRODUCER_CLOSED = 8;
+
+	/** The number of bytes read, a <code>long</code>. Written by the consumer. */
+	private static final int HEAD = 64;
+
+	/** The close flag of the consumer, an <code>int</code>. */
+	private static final int CONSUMER_CLOSED = 72;
+
+	private static final long MIN_PARK_NANOS = 1000L;
+
+	private static final long MAX_PARK_NANOS = 1000000L;
+
+	/** The acquire fence, or <code>null</code> if not available. */
+	private static final MethodHandle ms_mhAcquireFence = _getFence("acquireFence", "loadFence");
+
+	/** The release fence, or <code>null</code> if not available. */
+	private static final MethodHandle ms_mhReleaseFence = _getFence("releaseFence", "storeFence");
+
+	/**
+	 * Volatile accesses to this field order the plain accesses to the shared
+	 * buffer if no fences are available. This relies on HotSpot, which
+	 * compiles them to the required fences.
+	 */
+	private static volatile int ms_iFence;
+
+	private final ByteBuffer m_buf;
+
+	private final int m_iCapacity;
+
+	private final int m_iMask;
+
+	private final int m_iSpinCount;
+
+	private final BooleanSupplier m_alive;
+
+	private volatile boolean m_bClosed;
+
+
+	/**
+	 * Create a pipe.
+	 * @param p_buf The shared buffer. Its capacity must be {@link #HEADER_SIZE}
+	 *    plus a power of two.
+	 * @param p_iSpinCount The number of times a waiting end polls the buffer
+	 *    before it parks.
+	 * @param p_alive Checks if the other process is alive, or <code>null</code>.
+	 * @throws IllegalArgumentException If the buffer or the spin count is invalid.
+	 */
+	public MappedRingBuffer(ByteBuffer p_buf, int p_iSpinCount, BooleanSupplier p_alive)
+	{
+		final int l_iCapacity;
+
+		if (!p_buf.isDirect())
+			throw new IllegalArgumentException("Not a direct buffer.");
+
+		if (p_iSpinCount < 0)
+			throw new IllegalArgumentException(p_iSpinCount + " is not a valid spin count.");
+
+		l_iCapacity = p_buf.capacity() - HEADER_SIZE;
+
+		if (l_iCapacity <= 0 || (l_iCapacity & (l_iCapacity - 1)) != 0)
+			throw new IllegalArgumentException(l_iCapacity + " is not a valid ring capacity.");
+
+		m_buf        = p_buf.duplicate();
+		m_iCapacity  = l_iCapacity;
+		m_iMask      = l_iCapacity - 1;
+		m_iSpinCount = p_iSpinCount;
+		m_alive      = p_alive;
+
+		m_buf.clear();
+	}
+
+
+	/**
+	 * Get the size of a shared buffer.
+	 * @param p_iCapacity The capacity of the pipe.
+	 * @return The size of a buffer that holds a pipe with the given capacity.
+	 */
+	public static int getSize(int p_iCapacity)
+	{
+		return HEADER_SIZE + p_iCapacity;
+	}
+
+
+	/**
+	 * Get the capacity of this pipe.
+	 * @return The number of bytes that may be written before the reader
+	 *    must consume data.
+	 */
+	public int getCapacity()
+	{
+		return m_iCapacity;
+	}
+
+
+	/**
+	 * Check if this end of the pipe is closed.
+	 * @return <code>true</code> if this end was closed, or the other process
+	 *    was found dead.
+	 */
+	public boolean isClosed()
+	{
+		return m_bClosed;
+	}
+
+
+	/**
+	 * Close this end of the pipe without publishing pending data. May be
+	 * called by any thread, a thread that waits on this end returns.
+	 */
+	public void close()
+	{
+		m_bClosed = true;
+	}
+
+
+	/**
+	 * Get the stream that writes this pipe. Must be called at most once
+	 * per pipe, and only by the producer.
+	 * @return The output stream.
+	 */
+	public OutputStream getOutputStream()
+	{
+		return new RingOutputStream();
+	}
+
+
+	/**
+	 * Get the stream that reads this pipe. Must be called at most once
+	 * per pipe, and only by the consumer.
+	 * @return The input stream.
+	 */
+	public InputStream getInputStream()
+	{
+		return new RingInputStream();
+	}
+
+
+	/**
+	 * Check if fences are available.
+	 * @return <code>true</code> if the accesses to the shared buffer are
+	 *    ordered with fences, or <code>false</code> if they are ordered
+	 *    with volatile accesses.
+	 */
+	static boolean hasFences()
+	{
+		return ms_mhAcquireFence != null && ms_mhReleaseFence != null;
+	}
+
+
+	private static MethodHandle _getFence(String p_strVarHandleMethod, String p_strUnsafeMethod)
+	{
+		final MethodType l_type;
+
+		l_type = MethodType.methodType(void.class);
+
+		try
+		{
+			// Java 9 and later
+			return MethodHandles.publicLookup().findStatic
+				(Class.forName("java.lang.invoke.VarHandle"), p_strVarHandleMethod, l_type);
+		}
+		catch (ReflectiveOperationException l_e)
+		{
+			// Java 8
+		}
+
+		try
+		{
+			final Class<?> l_clsUnsafe;
+			final Field    l_field;
+
+			l_clsUnsafe = Class.forName("sun.misc.Unsafe");
+			l_field     = l_clsUnsafe.getDeclaredField("theUnsafe");
+
+			l_field.setAccessible(true);
+
+			return MethodHandles.lookup().findVirtual
+				(l_clsUnsafe, p_strUnsafeMethod, l_type).bindTo(l_field.get(null));
+		}
+		catch (ReflectiveOperationException | RuntimeException l_e)
+		{
+			return null;
+		}
+	}
+
+
+	/**
+	 * Subsequent reads and writes must not be reordered with previous reads.
+	 */
+	private static void _acquireFence()
+	{
+		if (ms_mhAcquireFence != null)
+		{
+			try
+			{
+				ms_mhAcquireFence.invokeExact();
+			}
+			catch (Throwable l_e)
+			{
+				throw new AssertionError(l_e);
+			}
+		}
+		else
+		{
+			@SuppressWarnings("unused")
+			final int l_iFence = ms_iFence;
+		}
+	}
+
+
+	/**
+	 * Previous reads and writes must not be reordered with subsequent writes.
+	 */
+	private static void _releaseFence()
+	{
+		if (ms_mhReleaseFence != null)
+		{
+			try
+			{
+				ms_mhReleaseFence.invokeExact();
+			}
+			catch (Throwable l_e)
+			{
+				throw new AssertionError(l_e);
+			}
+		}
+		else
+		{
+			ms_iFence = 0;
+		}
+	}
+
+
+	private long _getLong(int p_iIndex)
+	{
+		final long l_lValue;
+
+		l_lValue = m_buf.getLong(p_iIndex);
+
+		// subsequent accesses of the data must not be reordered with this read
+		_acquireFence();
+
+		return l_lValue;
+	}
+
+
+	private void _putLong(int p_iIndex, long p_lValue)
+	{
+		// previous accesses of the data must not be reordered with this write
+		_releaseFence();
+
+		m_buf.putLong(p_iIndex, p_lValue);
+	}
+
+
+	private boolean _isClosed(int p_iFlag)
+	{
+		final boolean l_bClosed;
+
+		if (m_bClosed)
+			return true;
+
+		l_bClosed = m_buf.getInt(p_iFlag) != 0;
+
+		// the data published before the flag must be read after it
+		_acquireFence();
+
+		return l_bClosed;
+	}
+
+
+	private void _setClosed(int p_iFlag)
+	{
+		// the data must be published before the flag
+		_releaseFence();
+
+		m_buf.putInt(p_iFlag, 1);
+	}
+
+
+	/**
+	 * Wait until the value at the given index differs from the given value,
+	 * or the pipe is closed.
+	 * @param p_iIndex The index of the value.
+	 * @param p_lValue The current value.
+	 * @param p_iFlag The index of the close flag of the other end.
+	 * @return The value.
+	 * @throws InterruptedIOException If the current thread was interrupted.
+	 */
+	private long _await(int p_iIndex, long p_lValue, int p_iFlag) throws InterruptedIOException
+	{
+		long l_lParkNanos;
+
+		l_lParkNanos = MIN_PARK_NANOS;
+
+		for (int i = 0; ; i++)
+		{
+			final long l_lValue;
+
+			l_lValue = _getLong(p_iIndex);
+
+			if (l_lValue != p_lValue)
+				return l_lValue;
+
+			// the other end publishes its data before it sets its flag
+			if (_isClosed(p_iFlag))
+				return _getLong(p_iIndex);
+
+			if (i < m_iSpinCount)
+				continue;
+
+			if (m_alive != null && !m_alive.getAsBoolean())
+			{
+				m_bClosed = true;
+
+				continue;
+			}
+
+			LockSupport.parkNanos(l_lParkNanos);
+
+			if (Thread.interrupted())
+				throw new InterruptedIOException();
+
+			l_lParkNanos = Math.min(l_lParkNanos * 2L, MAX_PARK_NANOS);
+		}
+	}
+
+
+	/**
+	 * The producer's end.
+	 */
+	private final class RingOutputStream extends OutputStream
+	{
+		private final ByteBuffer m_data;
+
+		private final byte[] m_oneByte = new byte[1];
+
+		/** The number of bytes written. */
+		private long m_lTail;
+
+		/** The number of bytes written, as last published. */
+		private long m_lPublished;
+
+		/** The number of bytes read, as last seen. */
+		private long m_lHead;
+
+		private boolean m_bStreamClosed;
+
+
+		private RingOutputStream()
+		{
+			m_buf.position(HEADER_SIZE);
+
+			m_data       = m_buf.slice();
+			m_lTail      = _getLong(TAIL);
+			m_lPublished = m_lTail;
+			m_lHead      = _getLong(HEAD);
+
+			m_buf.clear();
+		}
+
+
+		@Override
+		public void write(int p_iByte) throws IOException
+		{
+			m_oneByte[0] = (byte)p_iByte;
+
+			write(m_oneByte, 0, 1);
+		}
+
+
+		@Override
+		public void write(byte[] p_buf, int p_iOffs, int p_iLen) throws IOException
+		{
+			int l_iOffs;
+			int l_iLen;
+
+			if (p_iOffs < 0 || p_iOffs > p_buf.length || p_iLen < 0 ||
+			    p_iOffs + p_iLen > p_buf.length || p_iOffs + p_iLen < 0)
+			{
+				throw new IndexOutOfBoundsException();
+			}
+
+			_checkOpen();
+
+			l_iOffs = p_iOffs;
+			l_iLen  = p_iLen;
+
+			while (l_iLen > 0)
+			{
+				final int l_iIndex;
+				final int l_iLen1;
+				int       l_iFree;
+
+				l_iFree = m_iCapacity - (int)(m_lTail - m_lHead);
+
+				if (l_iFree == 0)
+				{
+					// let the consumer see what we have written so far
+					_publish();
+
+					m_lHead = _await(HEAD, m_lHead, CONSUMER_CLOSED);
+
+					_checkOpen();
+
+					continue;
+				}
+
+				l_iFree  = Math.min(l_iFree, l_iLen);
+				l_iIndex = (int)(m_lTail & m_iMask);
+				l_iLen1  = Math.min(l_iFree, m_iCapacity - l_iIndex);
+
+				m_data.position(l_iIndex);
+				m_data.put(p_buf, l_iOffs, l_iLen1);
+
+				if (l_iLen1 < l_iFree)
+				{
+					m_data.position(0);
+					m_data.put(p_buf, l_iOffs + l_iLen1, l_iFree - l_iLen1);
+				}
+
+				m_lTail += l_iFree;
+				l_iOffs += l_iFree;
+				l_iLen  -= l_iFree;
+			}
+		}
+
+
+		@Override
+		public void flush() throws IOException
+		{
+			if (m_bStreamClosed)
+				throw new IOException("Stream closed.");
+
+			// nothing to publish, the consumer may have gone
+			if (m_lTail == m_lPublished)
+				return;
+
+			_checkOpen();
+			_publish();
+		}
+
+
+		@Override
+		public void close()
+		{
+			if (!m_bStreamClosed)
+			{
+				m_bStreamClosed = true;
+
+				if (!m_bClosed)
+					_publish();
+
+				_setClosed(PRODUCER_CLOSED);
+
+				m_bClosed = true;
+			}
+		}
+
+
+		private void _publish()
+		{
+			_putLong(TAIL, m_lTail);
+
+			m_lPublished = m_lTail;
+		}
+
+
+		private void _checkOpen() throws IOException
+		{
+			if (m_bStreamClosed)
+				throw new IOException("Stream closed.");
+
+			if (_isClosed(CONSUMER_CLOSED))
+				throw new IOException("Connection closed.");
+		}
+	}
+
+
+	/**
+	 * The consumer's end.
+	 */
+	private final class RingInputStream extends InputStream
+	{
+		private final ByteBuffer m_data;
+
+		/** The number of bytes read. */
+		private long m_lHead;
+
+		/** The number of bytes written, as last seen. */
+		private long m_lTail;
+
+		private boolean m_bStreamClosed;
+
+
+		private RingInputStream()
+		{
+			m_buf.position(HEADER_SIZE);
+
+			m_data  = m_buf.slice();
+			m_lHead = _getLong(HEAD);
+			m_lTail = _getLong(TAIL);
+
+			m_buf.clear();
+		}
+
+
+		@Override
+		public int available() throws IOException
+		{
+			if (m_bStreamClosed)
+				throw new IOException("Stream closed.");
+
+			if (m_lTail == m_lHead)
+				m_lTail = _getLong(TAIL);
+
+			return (int)(m_lTail - m_lHead);
+		}
+
+
+		@Override
+		public int read() throws IOException
+		{
+			if (_awaitData() == 0)
+				return -1;
+
+			m_data.position((int)(m_lHead & m_iMask));
+
+			return _consumed(1, m_data.get() & 0x000000FF);
+		}
+
+
+		@Override
+		public int read(byte[] p_buf, int p_iOffs, int p_iLen) throws IOException
+		{
+			final int l_iIndex;
+			final int l_iLen;
+			final int l_iLen1;
+
+			if (p_iOffs < 0 || p_iOffs > p_buf.length || p_iLen < 0 ||
+			    p_iOffs + p_iLen > p_buf.length || p_iOffs + p_iLen < 0)
+			{
+				throw new IndexOutOfBoundsException();
+			}
+
+			if (p_iLen == 0)
+				return 0;
+
+			l_iLen = Math.min(_awaitData(), p_iLen);
+
+			if (l_iLen == 0)
+				return -1;
+
+			l_iIndex = (int)(m_lHead & m_iMask);
+			l_iLen1  = Math.min(l_iLen, m_iCapacity - l_iIndex);
+
+			m_data.position(l_iIndex);
+			m_data.get(p_buf, p_iOffs, l_iLen1);
+
+			if (l_iLen1 < l_iLen)
+			{
+				m_data.position(0);
+				m_data.get(p_buf, p_iOffs + l_iLen1, l_iLen - l_iLen1);
+			}
+
+			return _consumed(l_iLen, l_iLen);
+		}
+
+
+		@Override
+		public void close()
+		{
+			if (!m_bStreamClosed)
+			{
+				m_bStreamClosed = true;
+
+				_setClosed(CONSUMER_CLOSED);
+
+				m_bClosed = true;
+			}
+		}
+
+
+		/**
+		 * Wait until data is available.
+		 * @return The number of available bytes, or <code>0</code> if the
+		 *    pipe was closed.
+		 */
+		private int _awaitData() throws IOException
+		{
+			if (m_bStreamClosed)
+				throw new IOException("Stream closed.");
+
+			if (m_lTail == m_lHead)
+				m_lTail = _await(TAIL, m_lHead, PRODUCER_CLOSED);
+
+			return (int)(m_lTail - m_lHead);
+		}
+
+
+		/**
+		 * Publish consumed data, so the producer may reuse the space.
+		 */
+		private int _consumed(int p_iLen, int p_iResult)
+		{
+			m_lHead += p_iLen;
+
+			_putLong(HEAD, m_lHead);
+
+			return p_iResult;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.io;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * A buffered input stream whose buffer is acquired from the
+ * {@link ByteBufferPool#getHeapPool() heap buffer pool}, and released
+ * when the stream is closed.
+ * <p>Like {@link java.io.BufferedInputStream} a read operation only blocks
+ * until some data is available.</p>
+ * <p>This class is not synchronized.</p>
+ * @author Alexander Veit
+ */
+public class PooledBufferedInputStream extends AbstractByteBufferInputStream
+{
+	private final InputStream m_in;
+
+
+	/**
+	 * Create a buffered input stream.
+	 * @param p_in The underlying input stream.
+	 * @param p_iSize The buffer size.
+	 */
+	public PooledBufferedInputStream(InputStream p_in, int p_iSize)
+	{
+		super(p_iSize);
+
+		m_in = p_in;
+	}
+
+
+	@Override
+	public int available() throws IOException
+	{
+		return m_buffer.remaining() + m_in.available();
+	}
+
+
+	@Override
+	public int read(byte[] p_buf, int p_iOffs, int p_iLen) throws IOException
+	{
+		final int l_iByte;
+		final int l_iLen;
+
+		if (p_iOffs < 0 || p_iOffs > p_buf.length || p_iLen < 0 ||
+		    p_iOffs + p_iLen > p_buf.length || p_iOffs + p_iLen < 0)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+
+		if (p_iLen == 0)
+			return 0;
+
+		// large reads bypass the buffer
+		if (!m_buffer.hasRemaining() && p_iLen >= m_buffer.capacity())
+			return m_in.read(p_buf, p_iOffs, p_iLen);
+
+		// refills the buffer if neccessary
+		l_iByte = read();
+
+		if (l_iByte == -1)
+			return -1;
+
+		p_buf[p_iOffs] = (byte)l_iByte;
+
+		l_iLen = Math.min(p_iLen - 1, m_buffer.remaining());
+
+		m_buffer.get(p_buf, p_iOffs + 1, l_iLen);
+
+		return l_iLen + 1;
+	}
+
+
+	@Override
+	public int read(ByteBuffer p_buffer) throws IOException
+	{
+		int l_iRead;
+
+		do
+		{
+			l_iRead = m_in.read(p_buffer.array(),
+			                    p_buffer.arrayOffset() + p_buffer.position(),
+			                    p_buffer.remaining());
+		}
+		while (l_iRead == 0);
+
+		if (l_iRead > 0)
+			p_buffer.position(p_buffer.position() + l_iRead);
+
+		p_buffer.flip();
+
+		return l_iRead;
+	}
+
+
+	/**
+	 * Release the buffer and close the underlying input stream.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			super.close();
+		}
+		finally
+		{
+			m_in.close();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.io;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * A buffered output stream whose buffer is acquired from the
+ * {@link ByteBufferPool#getHeapPool() heap buffer pool}, and released
+ * when the stream is closed.
+ * <p>This class is not synchronized.</p>
+ * @author Alexander Veit
+ */
+public class PooledBufferedOutputStream extends AbstractByteBufferOutputStream
+{
+	private final OutputStream m_out;
+
+
+	/**
+	 * Create a buffered output stream.
+	 * @param p_out The underlying output stream.
+	 * @param p_iSize The buffer size.
+	 */
+	public PooledBufferedOutputStream(OutputStream p_out, int p_iSize)
+	{
+		super(p_iSize);
+
+		m_out = p_out;
+	}
+
+
+	@Override
+	public void write(byte[] p_buf, int p_iOffs, int p_iLen) throws IOException
+	{
+		// large writes bypass the buffer
+		if (m_buffer != null && p_iLen >= m_buffer.capacity() &&
+		    p_iOffs >= 0 && p_iLen >= 0 && p_iOffs + p_iLen <= p_buf.length)
+		{
+			m_buffer.flip();
+			write(m_buffer, WRITE_MODE.WRITE);
+			m_buffer.compact();
+
+			m_out.write(p_buf, p_iOffs, p_iLen);
+		}
+		else
+		{
+			super.write(p_buf, p_iOffs, p_iLen);
+		}
+	}
+
+
+	@Override
+	public void write(ByteBuffer p_buffer, WRITE_MODE p_mode) throws IOException
+	{
+		if (p_buffer.hasRemaining())
+		{
+			m_out.write(p_buffer.array(), p_buffer.arrayOffset() + p_buffer.position(), p_buffer.remaining());
+
+			p_buffer.position(p_buffer.limit());
+		}
+
+		if (p_mode != WRITE_MODE.WRITE)
+			m_out.flush();
+	}
+
+
+	/**
+	 * Write the buffered data, release the buffer, and close the underlying
+	 * output stream.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			super.close();
+		}
+		finally
+		{
+			m_out.close();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server;
+
+
+/**
+ * Invokes a method on a service endpoint.
+ * @author Alexander Veit
+ */
+@FunctionalInterface
+public interface EndpointInvoker
+{
+	/**
+	 * Invoke the method.
+	 * @param p_args The arguments.
+	 * @return The result of the method, or <code>null</code> if the method
+	 *    is a <code>void</code> method.
+	 * @throws Throwable The exception that was thrown by the method. The
+	 *    exception is not wrapped into an
+	 *    {@link java.lang.reflect.InvocationTargetException}.
+	 */
+	public Object invoke(Object[] p_args) throws Throwable;
+}
@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server;
+
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+
+/**
+ * A method of a registered service endpoint.
+ * <p>The endpoint registry assigns a small positive id to each method of an
+ * endpoint interface when the endpoint is registered. Clients may call a
+ * method by its id instead of sending the interface, the method name and the
+ * parameter types with every call frame. Methods of registries that do not
+ * assign ids have the id <code>0</code>.</p>
+ * @author Alexander Veit
+ */
+public final class EndpointMethod
+{
+	private final int m_iId;
+
+	private final Class<?> m_interface;
+
+	private final Method m_method;
+
+	private final Object m_endpoint;
+
+	private final EndpointInvoker m_invoker;
+
+
+	/**
+	 * Create an endpoint method that is invoked by reflection.
+	 * @param p_iId The method id, or <code>0</code> if the method has no id.
+	 * @param p_interface The endpoint interface.
+	 * @param p_method The interface method.
+	 * @param p_endpoint The object that implements the endpoint interface.
+	 */
+	public EndpointMethod(int p_iId, Class<?> p_interface, Method p_method, Object p_endpoint)
+	{
+		this(p_iId, p_interface, p_method, p_endpoint, null);
+	}
+
+
+	/**
+	 * Create an endpoint method.
+	 * @param p_iId The method id, or <code>0</code> if the method has no id.
+	 * @param p_interface The endpoint interface.
+	 * @param p_method The interface method.
+	 * @param p_endpoint The object that implements the endpoint interface.
+	 * @param p_invoker The invoker of the method, or <code>null</code> if
+	 *    the method should be invoked by reflection.
+	 */
+	public EndpointMethod(int             p_iId,
+	                      Class<?>        p_interface,
+	                      Method          p_method,
+	                      Object          p_endpoint,
+	                      EndpointInvoker p_invoker)
+	{
+		if (p_iId < 0)
+			throw new IllegalArgumentException(p_iId + " is not a valid method id.");
+
+		if (p_interface == null)
+			throw new IllegalArgumentException("No interface.");
+
+		if (p_method == null)
+			throw new IllegalArgumentException("No method.");
+
+		if (p_endpoint == null)
+			throw new IllegalArgumentException("No endpoint.");
+
+		m_iId       = p_iId;
+		m_interface = p_interface;
+		m_method    = p_method;
+		m_endpoint  = p_endpoint;
+		m_invoker   = p_invoker != null ? p_invoker : this::_invokeReflective;
+	}
+
+
+	/**
+	 * Get the method id.
+	 * @return The id, a positive number, or <code>0</code> if the method
+	 *    has no id.
+	 */
+	public int getId()
+	{
+		return m_iId;
+	}
+
+
+	/**
+	 * Get the endpoint interface.
+	 * @return The interface.
+	 */
+	public Class<?> getInterface()
+	{
+		return m_interface;
+	}
+
+
+	/**
+	 * Get the interface method.
+	 * @return The method.
+	 */
+	public Method getMethod()
+	{
+		return m_method;
+	}
+
+
+	/**
+	 * Get the object that implements the endpoint interface.
+	 * @return The endpoint.
+	 */
+	public Object getEndpoint()
+	{
+		return m_endpoint;
+	}
+
+
+	/**
+	 * Invoke the method on the endpoint.
+	 * @param p_args The arguments.
+	 * @return The result of the method.
+	 * @throws Throwable The exception that was thrown by the method.
+	 */
+	public Object invoke(Object[] p_args) throws Throwable
+	{
+		return m_invoker.invoke(p_args);
+	}
+
+
+	private Object _invokeReflective(Object[] p_args) throws Throwable
+	{
+		try
+		{
+			return m_method.invoke(m_endpoint, p_args);
+		}
+		catch (InvocationTargetException l_e)
+		{
+			throw l_e.getCause();
+		}
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return m_interface.getName() + '#' + m_method.getName();
+	}
+}
@@ -18,6 +18,9 @@
 package org.jaffre.server;
 
 
+import java.lang.reflect.Method;
+
+
 /**
  * @author Alexander Veit
  */
@@ -39,4 +42,75 @@ public interface EndpointRegistry
 
 
 	public <T> T getStub(Class<T> p_interface);
+
+
+	/**
+	 * Get a method of a registered endpoint by its id.
+	 * <p>The default implementation returns <code>null</code>, i.e. the
+	 * registry does not assign method ids.</p>
+	 * @param p_iId The method id.
+	 * @return The endpoint method, or <code>null</code> if no method
+	 *    with the given id is registered.
+	 */
+	public default EndpointMethod getEndpointMethod(int p_iId)
+	{
+		return null;
+	}
+
+
+	/**
+	 * Get a method of a registered endpoint.
+	 * <p>The default implementation looks up the method by its signature.</p>
+	 * @param p_interface The endpoint interface.
+	 * @param p_method A method of the endpoint interface.
+	 * @return The endpoint method, or <code>null</code> if the interface
+	 *    is not registered.
+	 */
+	public default EndpointMethod getEndpointMethod(Class<?> p_interface, Method p_method)
+	{
+		if (p_method == null)
+			throw new IllegalArgumentException("No method.");
+
+		return getEndpointMethod(p_interface, p_method.getName(), p_method.getParameterTypes());
+	}
+
+
+	/**
+	 * Get a method of a registered endpoint by its signature.
+	 * <p>The default implementation looks up the method of the stub that
+	 * is returned by {@link #getStub(Class)}. The returned endpoint method
+	 * has no id.</p>
+	 * @param p_interface The endpoint interface.
+	 * @param p_strName The method name.
+	 * @param p_parameterTypes The parameter types.
+	 * @return The endpoint method, or <code>null</code> if the interface
+	 *    is not registered or has no such method.
+	 */
+	public default EndpointMethod getEndpointMethod(Class<?> p_interface, String p_strName, Class<?>[] p_parameterTypes)
+	{
+		final Object l_stub;
+		final Method l_method;
+
+		if (p_interface == null)
+			throw new IllegalArgumentException("No interface.");
+
+		if (p_strName == null)
+			throw new IllegalArgumentException("No method name.");
+
+		l_stub = getStub(p_interface);
+
+		if (l_stub == null)
+			return null;
+
+		try
+		{
+			l_method = p_interface.getMethod(p_strName, p_parameterTypes);
+		}
+		catch (NoSuchMethodException l_e)
+		{
+			return null;
+		}
+
+		return new EndpointMethod(0, p_interface, l_method, l_stub);
+	}
 }
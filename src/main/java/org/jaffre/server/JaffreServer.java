@@ -18,6 +18,9 @@
 package org.jaffre.server;
 
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 import org.jaffre.JaffreCallFrame;
 import org.jaffre.JaffreNoInterfaceException;
 import org.jaffre.JaffreReturnFrame;
@@ -57,6 +60,23 @@ public interface JaffreServer
 	public JaffreReturnFrame process(JaffreCallFrame p_call, Object p_extParam);
 
 
+	/**
+	 * Process a call frame without waiting for an endpoint method that
+	 * completes asynchronously.
+	 * <p>The default implementation calls {@link #process(JaffreCallFrame, Object)}
+	 * and returns a completed stage.</p>
+	 * @param p_call The call frame to be processed.
+	 * @param p_extParam A parameter reserved for implementors that need
+	 *    to pass additional information to this method.
+	 * @return A stage that completes with the return frame that contains
+	 *    the result of the method call.
+	 */
+	public default CompletionStage<JaffreReturnFrame> processAsync(JaffreCallFrame p_call, Object p_extParam)
+	{
+		return CompletableFuture.completedFuture(process(p_call, p_extParam));
+	}
+
+
 	/**
 	 * Support for local transport.
 	 * @param <T> The type of interface requested from this service.
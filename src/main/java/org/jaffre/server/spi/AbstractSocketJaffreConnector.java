@@ -18,12 +18,25 @@
 package org.jaffre.server.spi;
 
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.jaffre.JaffreCallFrame;
 import org.jaffre.JaffreCallFrameSerializer;
 import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreReturnFrame;
 import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreSerializeException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
 import org.jaffre.server.JaffreConnector;
 import org.jaffre.server.JaffreServer;
 import org.jaffre.spi.DefaultJaffreCallFrameSerializer;
@@ -35,10 +48,36 @@ import org.jaffre.spi.DefaultJaffreReturnFrameSerializer;
  */
 public abstract class AbstractSocketJaffreConnector implements JaffreConnector
 {
+	private static final Logger ms_log = LoggerFactory.getLogger(AbstractSocketJaffreConnector.class);
+
+	private static final AtomicInteger ms_intThreadCount = new AtomicInteger(0);
+
+	/** The time in milliseconds after which a waiting in-only call checks if the connector was stopped. */
+	private static final long IN_ONLY_QUEUE_POLL_INTERVAL = 100L;
+
 	private int m_iThreadCorePoolSize = 4;
 
 	private int m_iThreadMaxPoolSize = 10;
 
+	private int m_iInOnlyThreadPoolSize = 1;
+
+	private boolean m_bAsyncInOnly = false;
+
+	private int m_iInOnlyQueueCapacity = 1024;
+
+	private int m_iNumAcceptorThreads = 1;
+
+	private boolean m_bReusePort = false;
+
+	private long m_lKeepAliveTime = 60000L;	// one minute
+
+	private int m_iAcceptQueueCapacity = 1024;
+
+	private final Object m_lockInOnly = new Object();
+
+	/** The executor for in-only calls, or <code>null</code>. Guarded by <code>m_lockInOnly</code>. */
+	private ThreadPoolExecutor m_executorInOnly;
+
 	private long m_lStopTimeout = 1000;	// one second
 
 	private InetAddress m_inetAddr;
@@ -100,6 +139,235 @@ public abstract class AbstractSocketJaffreConnector implements JaffreConnector
 	}
 
 
+	/**
+	 * Determine whether in-only calls are processed asynchronously. The
+	 * default value is <code>false</code>, i.e. an in-only call is processed
+	 * in order with the other calls of its connection.
+	 * @return <code>true</code> if in-only calls are handed to a separate
+	 *    pool of {@link #getInOnlyThreadPoolSize()} threads.
+	 */
+	public boolean isAsyncInOnly()
+	{
+		return m_bAsyncInOnly;
+	}
+
+
+	/**
+	 * Determine whether in-only calls are processed asynchronously. If so,
+	 * the calls that follow an in-only call on the same connection may be
+	 * processed before the in-only call.
+	 * @param p_bAsyncInOnly <code>true</code> if in-only calls should be
+	 *    handed to a separate thread pool.
+	 * @throws IllegalStateException If the connector is already running.
+	 */
+	public void setAsyncInOnly(boolean p_bAsyncInOnly)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		m_bAsyncInOnly = p_bAsyncInOnly;
+	}
+
+
+	/**
+	 * Get the number of threads that process in-only calls if they are
+	 * processed asynchronously. The default value is <code>1</code>, so the
+	 * in-only calls of all connections are processed in the order they were
+	 * received.
+	 * @return The number of threads for in-only calls.
+	 */
+	public int getInOnlyThreadPoolSize()
+	{
+		return m_iInOnlyThreadPoolSize;
+	}
+
+
+	/**
+	 * Set the number of threads that process in-only calls.
+	 * @param p_iInOnlyThreadPoolSize The number of threads for in-only calls.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the number is less than <code>1</code>.
+	 */
+	public void setInOnlyThreadPoolSize(int p_iInOnlyThreadPoolSize)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iInOnlyThreadPoolSize < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iInOnlyThreadPoolSize + " is not a valid thread pool size.");
+		}
+
+		m_iInOnlyThreadPoolSize = p_iInOnlyThreadPoolSize;
+	}
+
+
+	/**
+	 * Get the maximum number of in-only calls that wait to be processed if
+	 * they are processed asynchronously. The default value is
+	 * <code>1024</code>. If the queue is full, the thread that reads the
+	 * connection waits until the queue has room for the call.
+	 * @return The capacity of the queue for in-only calls.
+	 */
+	public int getInOnlyQueueCapacity()
+	{
+		return m_iInOnlyQueueCapacity;
+	}
+
+
+	/**
+	 * Set the maximum number of in-only calls that wait to be processed.
+	 * @param p_iInOnlyQueueCapacity The capacity of the queue for in-only calls.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the capacity is less than <code>1</code>.
+	 */
+	public void setInOnlyQueueCapacity(int p_iInOnlyQueueCapacity)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iInOnlyQueueCapacity < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iInOnlyQueueCapacity + " is not a valid queue capacity.");
+		}
+
+		m_iInOnlyQueueCapacity = p_iInOnlyQueueCapacity;
+	}
+
+
+	/**
+	 * Get the number of threads that accept connections and hand them to
+	 * the worker threads. The default value is <code>1</code>.
+	 * <p>This property is only used by connectors with dedicated acceptor
+	 * threads.</p>
+	 * @return The number of acceptor threads.
+	 */
+	public int getNumAcceptorThreads()
+	{
+		return m_iNumAcceptorThreads;
+	}
+
+
+	/**
+	 * Set the number of threads that accept connections.
+	 * @param p_iNumAcceptorThreads The number of acceptor threads.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the number is less than <code>1</code>.
+	 */
+	public void setNumAcceptorThreads(int p_iNumAcceptorThreads)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iNumAcceptorThreads < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iNumAcceptorThreads + " is not a valid number of acceptor threads.");
+		}
+
+		m_iNumAcceptorThreads = p_iNumAcceptorThreads;
+	}
+
+
+	/**
+	 * Check if every acceptor thread listens on its own server socket that
+	 * is bound with the <code>SO_REUSEPORT</code> option. The default value
+	 * is <code>false</code>, all acceptor threads share one server socket.
+	 * @return <code>true</code> if the acceptor threads have their own sockets.
+	 * @see #getNumAcceptorThreads()
+	 */
+	public boolean isReusePort()
+	{
+		return m_bReusePort;
+	}
+
+
+	/**
+	 * Set if every acceptor thread should listen on its own server socket.
+	 * If <code>SO_REUSEPORT</code> is not supported by the runtime or the
+	 * operating system, a warning is logged and the acceptor threads share
+	 * one server socket.
+	 * @param p_bReusePort <code>true</code> if the acceptor threads should
+	 *    have their own sockets.
+	 * @throws IllegalStateException If the connector is already running.
+	 */
+	public void setReusePort(boolean p_bReusePort)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		m_bReusePort = p_bReusePort;
+	}
+
+
+	/**
+	 * Get the time that a worker thread exceeding the core thread pool size
+	 * may be idle before it terminates. The default value is
+	 * <code>60000</code> milliseconds.
+	 * @return The keep-alive time in milliseconds.
+	 */
+	public long getKeepAliveTime()
+	{
+		return m_lKeepAliveTime;
+	}
+
+
+	/**
+	 * Set the time that a worker thread exceeding the core thread pool size
+	 * may be idle before it terminates.
+	 * @param p_lKeepAliveTime The keep-alive time in milliseconds.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the time is negative.
+	 */
+	public void setKeepAliveTime(long p_lKeepAliveTime)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_lKeepAliveTime < 0)
+			throw new JaffreConfigurationException("Negative keep-alive time.");
+
+		m_lKeepAliveTime = p_lKeepAliveTime;
+	}
+
+
+	/**
+	 * Get the maximum number of accepted connections that may wait for a
+	 * worker thread. If the queue is full, the acceptor threads stop
+	 * accepting connections until a worker becomes available. The default
+	 * value is <code>1024</code>.
+	 * @return The capacity of the accept queue.
+	 */
+	public int getAcceptQueueCapacity()
+	{
+		return m_iAcceptQueueCapacity;
+	}
+
+
+	/**
+	 * Set the maximum number of accepted connections that may wait for a
+	 * worker thread.
+	 * @param p_iAcceptQueueCapacity The capacity of the accept queue.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the capacity is less than <code>1</code>.
+	 */
+	public void setAcceptQueueCapacity(int p_iAcceptQueueCapacity)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iAcceptQueueCapacity < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iAcceptQueueCapacity + " is not a valid accept queue capacity.");
+		}
+
+		m_iAcceptQueueCapacity = p_iAcceptQueueCapacity;
+	}
+
+
 	/**
 	 * Get the timeout to wait for worker threads when this connector's
 	 * {@link #stop()} method is being called. The default value is
@@ -246,6 +514,248 @@ public abstract class AbstractSocketJaffreConnector implements JaffreConnector
 	}
 
 
+	/**
+	 * Serve the calls of a single client connection.
+	 * <p>Call frames are read from <code>p_in</code> and processed in sequence
+	 * until the client closes the connection, the client does not wish to keep
+	 * the connection alive, {@link #canKeepAlive()} returns <code>false</code>,
+	 * or {@link #isAcceptingCalls()} returns <code>false</code>.</p>
+	 * <p>The output stream is not flushed after return frames that answer
+	 * a call frame with the {@link org.jaffre.JAFFRE_FLAG#BATCH_CONTINUE}
+	 * flag.</p>
+	 * <p>In-only calls are handed to {@link #executeInOnly(JaffreCallFrame)},
+	 * so the next call frame can be read while they are being processed.</p>
+	 * @param p_in The connection's input stream.
+	 * @param p_out The connection's output stream.
+	 * @throws IOException If an I/O error occurred.
+	 * @throws JaffreSerializeException
+	 *    See {@link org.jaffre.JaffreCallFrameSerializer#deserialize(InputStream)}.
+	 * @throws ClassNotFoundException
+	 *    See {@link org.jaffre.JaffreCallFrameSerializer#deserialize(InputStream)}.
+	 */
+	protected void dialog(InputStream p_in, OutputStream p_out)
+		throws IOException, JaffreSerializeException, ClassNotFoundException
+	{
+		final JaffreCallFrameSerializer   l_serCall;
+		final JaffreReturnFrameSerializer l_serRtrn;
+
+		l_serCall = getCallFrameSerializer().forConnection();
+		l_serRtrn = getReturnFrameSerializer().forConnection();
+
+		dialog:
+		while (isAcceptingCalls())
+		{
+			final JaffreCallFrame l_frameCall;
+			final boolean         l_bKeepAlive;
+
+			l_frameCall = l_serCall.deserialize(p_in);
+
+			if (l_frameCall == null)
+				break dialog;
+
+			l_bKeepAlive = l_frameCall.isKeepAlive();
+
+			if (l_frameCall.isInOnly())
+			{
+				executeInOnly(l_frameCall);
+			}
+			else
+			{
+				final JaffreReturnFrame l_frameReturn;
+
+				l_frameReturn = getServer().process(l_frameCall, null);
+
+				if (l_frameCall.isInOut())
+				{
+					l_frameReturn.setKeepAlive(l_bKeepAlive);
+					l_frameReturn.setCorrelationId(l_frameCall.getCorrelationId());
+
+					l_serRtrn.serialize(l_frameReturn, p_out);
+
+					// the return frames of a batch are written at once
+					if (!l_frameCall.isBatchContinue())
+						p_out.flush();
+				}
+			}
+
+			if (!l_bKeepAlive || !canKeepAlive())
+				break dialog;
+		}
+
+		// the dialog may end within a batch
+		p_out.flush();
+	}
+
+
+	/**
+	 * Process an in-only call.
+	 * <p>The default implementation processes the call on the calling thread,
+	 * unless {@link #isAsyncInOnly()} is <code>true</code>. Then the call is
+	 * handed to a pool of {@link #getInOnlyThreadPoolSize()} threads, and
+	 * the calling thread waits while the queue of the pool is full. An
+	 * asynchronous in-only call may thus still be processed while subsequent
+	 * calls of the same connection are processed.</p>
+	 * @param p_frameCall The in-only call frame.
+	 * @throws RejectedExecutionException If the connector was stopped, or the
+	 *    calling thread was interrupted while waiting for the queue.
+	 */
+	protected void executeInOnly(JaffreCallFrame p_frameCall)
+	{
+		final ThreadPoolExecutor l_executor;
+
+		if (!m_bAsyncInOnly)
+		{
+			_processInOnly(p_frameCall);
+
+			return;
+		}
+
+		synchronized (m_lockInOnly)
+		{
+			if (m_executorInOnly == null)
+			{
+				l_executor = new ThreadPoolExecutor(m_iInOnlyThreadPoolSize,
+				                                    m_iInOnlyThreadPoolSize,
+				                                    60L,
+				                                    TimeUnit.SECONDS,
+				                                    new ArrayBlockingQueue<Runnable>(m_iInOnlyQueueCapacity),
+				                                    AbstractSocketJaffreConnector::_newInOnlyThread,
+				                                    AbstractSocketJaffreConnector::_awaitInOnlyQueue);
+
+				l_executor.allowCoreThreadTimeOut(true);
+
+				m_executorInOnly = l_executor;
+			}
+			else
+			{
+				l_executor = m_executorInOnly;
+			}
+		}
+
+		l_executor.execute(() -> _processInOnly(p_frameCall));
+	}
+
+
+	private void _processInOnly(JaffreCallFrame p_frameCall)
+	{
+		try
+		{
+			getServer().process(p_frameCall, null);
+		}
+		catch (Throwable l_e)
+		{
+			ms_log.error("An unexpected error occurred.", l_e);
+		}
+	}
+
+
+	/**
+	 * Wait until the queue of the in-only executor has room for a call.
+	 * Processing the call on the calling thread instead would change the
+	 * order of the calls.
+	 * <p>The executor may be shut down while the calling thread waits, so
+	 * the queue is offered the call for a short time only, and the state of
+	 * the executor is checked again. A call that was queued while the
+	 * executor was shut down is taken back and rejected, unless a thread
+	 * of the executor already took it.</p>
+	 * @param p_runnable The in-only call.
+	 * @param p_executor The in-only executor.
+	 */
+	private static void _awaitInOnlyQueue(Runnable p_runnable, ThreadPoolExecutor p_executor)
+	{
+		try
+		{
+			do
+			{
+				if (p_executor.isShutdown())
+					throw new RejectedExecutionException("The in-only executor is shut down.");
+			}
+			while (!p_executor.getQueue().offer(p_runnable, IN_ONLY_QUEUE_POLL_INTERVAL, TimeUnit.MILLISECONDS));
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new RejectedExecutionException("Interrupted while waiting for the in-only queue.", l_e);
+		}
+
+		if (p_executor.isShutdown() && p_executor.remove(p_runnable))
+			throw new RejectedExecutionException("The in-only executor is shut down.");
+
+		// the threads of the executor may have timed out in the meantime
+		if (p_executor.getPoolSize() == 0)
+			p_executor.prestartCoreThread();
+	}
+
+
+	/**
+	 * Process the queued in-only calls within the stop timeout, and free the
+	 * threads of {@link #executeInOnly(JaffreCallFrame)}. Subclasses must call
+	 * this method when they are stopped.
+	 */
+	protected void stopInOnlyExecutor()
+	{
+		final ThreadPoolExecutor l_executor;
+
+		synchronized (m_lockInOnly)
+		{
+			l_executor       = m_executorInOnly;
+			m_executorInOnly = null;
+		}
+
+		if (l_executor != null)
+		{
+			l_executor.shutdown();
+
+			try
+			{
+				l_executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException l_e)
+			{
+				// don't wait any longer
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	private static Thread _newInOnlyThread(Runnable p_runnable)
+	{
+		final Thread l_thread;
+
+		l_thread = new Thread(p_runnable, "InOnlyThread-" + ms_intThreadCount.incrementAndGet());
+
+		l_thread.setDaemon(true);
+
+		return l_thread;
+	}
+
+
+	/**
+	 * Check if the connector accepts further calls on open connections.
+	 * The default implementation returns the value of {@link #isRunning()}.
+	 * @return <code>true</code> if further calls are accepted,
+	 *    or <code>false</code> otherwise.
+	 */
+	protected boolean isAcceptingCalls()
+	{
+		return isRunning();
+	}
+
+
+	/**
+	 * Check if connections may be kept alive.
+	 * The default implementation always returns <code>true</code>.
+	 * @return <code>true</code> if connections may be kept alive,
+	 *    or <code>false</code> otherwise.
+	 */
+	protected boolean canKeepAlive()
+	{
+		return true;
+	}
+
+
 	/*
 	 * @see org.jaffre.server.JaffreConnector#getServer()
 	 */
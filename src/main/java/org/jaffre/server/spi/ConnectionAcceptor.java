@@ -0,0 +1,398 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server.spi;
+
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.util.JaffreUtil;
+
+
+/**
+ * Accepts connections on dedicated threads and hands them to the worker
+ * threads of a connector.
+ * <p>The accepted channels are passed through a lock-free queue. An
+ * accepted channel is transferred directly to a worker that waits in
+ * {@link #take()}. If no worker is waiting, the channel is queued and the
+ * connector is notified, so it may start another worker. If the queue is
+ * full, the acceptor thread waits until a worker takes the channel, so the
+ * pending connections remain in the backlog of the operating system.</p>
+ * <p>The time the accepted channels wait for a worker is recorded.</p>
+ * <p>If the runtime and the operating system support the
+ * <code>SO_REUSEPORT</code> socket option, every acceptor thread may listen
+ * on its own server socket channel, so the operating system balances the
+ * incoming connections among them.</p>
+ * @author Alexander Veit
+ */
+final class ConnectionAcceptor
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(ConnectionAcceptor.class);
+
+	/** <code>StandardSocketOptions.SO_REUSEPORT</code>, or <code>null</code>. */
+	private static final SocketOption<Boolean> ms_optReusePort = _getReusePortOption();
+
+	private final LinkedTransferQueue<Accepted> m_queue = new LinkedTransferQueue<>();
+
+	/** The number of queued channels that were not transferred directly. */
+	private final AtomicInteger m_intQueued = new AtomicInteger(0);
+
+	private final int m_iQueueCapacity;
+
+	private final ServerSocketChannel[] m_channels;
+
+	private final LongAdder m_adderTaken = new LongAdder();
+
+	private final LongAdder m_adderWaitTime = new LongAdder();
+
+	private final AtomicLong m_lngMaxWaitTime = new AtomicLong(0L);
+
+	private final Runnable m_onQueued;
+
+	private volatile boolean m_bRun = true;
+
+
+	/**
+	 * An accepted channel and the time it was accepted.
+	 */
+	private static final class Accepted
+	{
+		private final SocketChannel m_channel;
+
+		private final long m_lTime = System.nanoTime();
+
+		/** <code>true</code> if the channel was counted as queued. */
+		private volatile boolean m_bQueued;
+
+		private Accepted(SocketChannel p_channel)
+		{
+			m_channel = p_channel;
+		}
+	}
+
+
+	/**
+	 * Bind the server socket channels.
+	 * @param p_address The socket address.
+	 * @param p_iNumThreads The number of acceptor threads.
+	 * @param p_bReusePort <code>true</code> if every acceptor thread should
+	 *    have its own server socket channel.
+	 * @param p_iQueueCapacity The maximum number of queued channels.
+	 * @param p_onQueued Called by an acceptor thread when a channel was
+	 *    queued because no worker was waiting.
+	 * @throws IOException If a channel cannot be bound.
+	 */
+	ConnectionAcceptor(InetSocketAddress p_address,
+	                   int               p_iNumThreads,
+	                   boolean           p_bReusePort,
+	                   int               p_iQueueCapacity,
+	                   Runnable          p_onQueued)
+		throws IOException
+	{
+		final boolean l_bReusePort;
+
+		l_bReusePort = p_bReusePort && p_iNumThreads > 1 && _isReusePortSupported();
+
+		m_channels       = new ServerSocketChannel[l_bReusePort ? p_iNumThreads : 1];
+		m_onQueued       = p_onQueued;
+		m_iQueueCapacity = p_iQueueCapacity;
+
+		try
+		{
+			InetSocketAddress l_address;
+
+			l_address = p_address;
+
+			for (int i = 0; i < m_channels.length; i++)
+			{
+				m_channels[i] = ServerSocketChannel.open();
+
+				if (l_bReusePort)
+					m_channels[i].setOption(ms_optReusePort, Boolean.TRUE);
+
+				m_channels[i].configureBlocking(true);
+				m_channels[i].bind(l_address);
+
+				// the other channels listen on the same port
+				l_address = new InetSocketAddress(p_address.getAddress(), getLocalPort());
+			}
+		}
+		catch (IOException l_e)
+		{
+			close();
+
+			throw l_e;
+		}
+	}
+
+
+	/**
+	 * Start the acceptor threads.
+	 * @param p_iNumThreads The number of acceptor threads.
+	 * @param p_threadFactory The factory for the acceptor threads.
+	 */
+	void start(int p_iNumThreads, ThreadFactory p_threadFactory)
+	{
+		for (int i = 0; i < p_iNumThreads; i++)
+		{
+			final ServerSocketChannel l_channel;
+
+			l_channel = m_channels[i % m_channels.length];
+
+			p_threadFactory.newThread(() -> _accept(l_channel)).start();
+		}
+	}
+
+
+	/**
+	 * Get the port the channels are bound to.
+	 * @return The local port, or <code>-1</code>.
+	 */
+	int getLocalPort()
+	{
+		return m_channels[0] != null ? m_channels[0].socket().getLocalPort() : -1;
+	}
+
+
+	/**
+	 * Get the number of server socket channels.
+	 * @return The number of channels.
+	 */
+	int getNumChannels()
+	{
+		return m_channels.length;
+	}
+
+
+	/**
+	 * Get the number of accepted channels that wait for a worker.
+	 * @return The number of queued channels.
+	 */
+	int getNumQueued()
+	{
+		return m_intQueued.get();
+	}
+
+
+	/**
+	 * Get the number of channels that were handed to a worker.
+	 * @return The number of channels.
+	 */
+	long getNumTaken()
+	{
+		return m_adderTaken.sum();
+	}
+
+
+	/**
+	 * Get the sum of the times the channels waited for a worker.
+	 * @return The time in nanoseconds.
+	 */
+	long getTotalWaitTime()
+	{
+		return m_adderWaitTime.sum();
+	}
+
+
+	/**
+	 * Get the longest time a channel waited for a worker.
+	 * @return The time in nanoseconds.
+	 */
+	long getMaxWaitTime()
+	{
+		return m_lngMaxWaitTime.get();
+	}
+
+
+	/**
+	 * Wait for an accepted channel. This method is being called by the
+	 * worker threads.
+	 * @return The channel.
+	 * @throws InterruptedException If the current thread was interrupted.
+	 */
+	SocketChannel take() throws InterruptedException
+	{
+		return _taken(m_queue.take());
+	}
+
+
+	/**
+	 * Wait for an accepted channel. This method is being called by the
+	 * worker threads.
+	 * @param p_lTimeout The time to wait in milliseconds.
+	 * @return The channel, or <code>null</code> if the timeout elapsed.
+	 * @throws InterruptedException If the current thread was interrupted.
+	 */
+	SocketChannel poll(long p_lTimeout) throws InterruptedException
+	{
+		return _taken(m_queue.poll(p_lTimeout, TimeUnit.MILLISECONDS));
+	}
+
+
+	/**
+	 * Close the server socket channels and the queued channels. The
+	 * acceptor threads exit.
+	 */
+	void close()
+	{
+		Accepted l_accepted;
+
+		m_bRun = false;
+
+		for (int i = 0; i < m_channels.length; i++)
+			m_channels[i] = JaffreUtil.close(m_channels[i]);
+
+		while ((l_accepted = m_queue.poll()) != null)
+			JaffreUtil.close(l_accepted.m_channel);
+	}
+
+
+	private void _accept(ServerSocketChannel p_channel)
+	{
+		while (m_bRun)
+		{
+			try
+			{
+				final Accepted l_accepted;
+
+				l_accepted = new Accepted(p_channel.accept());
+
+				if (!m_queue.tryTransfer(l_accepted))
+				{
+					if (m_intQueued.incrementAndGet() <= m_iQueueCapacity)
+					{
+						l_accepted.m_bQueued = true;
+
+						m_queue.offer(l_accepted);
+
+						m_onQueued.run();
+					}
+					else
+					{
+						m_intQueued.decrementAndGet();
+
+						m_onQueued.run();
+
+						// stop accepting until a worker takes the channel
+						try
+						{
+							m_queue.transfer(l_accepted);
+						}
+						catch (InterruptedException l_e)
+						{
+							JaffreUtil.close(l_accepted.m_channel);
+
+							break;
+						}
+					}
+				}
+			}
+			catch (ClosedChannelException l_e)
+			{
+				if (m_bRun)
+					ms_log.error("Server socket channel closed unexpectedly.", l_e);
+
+				break;
+			}
+			catch (Throwable l_e)
+			{
+				ms_log.error("An unexpected error occurred.", l_e);
+			}
+		}
+
+		ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
+	}
+
+
+	private SocketChannel _taken(Accepted p_accepted)
+	{
+		final long l_lWaitTime;
+		long       l_lMaxWaitTime;
+
+		if (p_accepted == null)
+			return null;
+
+		if (p_accepted.m_bQueued)
+			m_intQueued.decrementAndGet();
+
+		l_lWaitTime = System.nanoTime() - p_accepted.m_lTime;
+
+		m_adderTaken.increment();
+		m_adderWaitTime.add(l_lWaitTime);
+
+		while (l_lWaitTime > (l_lMaxWaitTime = m_lngMaxWaitTime.get()))
+		{
+			if (m_lngMaxWaitTime.compareAndSet(l_lMaxWaitTime, l_lWaitTime))
+				break;
+		}
+
+		return p_accepted.m_channel;
+	}
+
+
+	private static boolean _isReusePortSupported()
+	{
+		if (ms_optReusePort == null)
+		{
+			ms_log.warn("SO_REUSEPORT is not supported by the runtime.");
+
+			return false;
+		}
+
+		try (final ServerSocketChannel l_channel = ServerSocketChannel.open())
+		{
+			if (l_channel.supportedOptions().contains(ms_optReusePort))
+				return true;
+		}
+		catch (IOException l_e)
+		{
+			ms_log.debug("Cannot open a server socket channel.", l_e);
+		}
+
+		ms_log.warn("SO_REUSEPORT is not supported by the operating system.");
+
+		return false;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> _getReusePortOption()
+	{
+		try
+		{
+			// Java 9 or later
+			return (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		}
+		catch (Exception l_e)
+		{
+			return null;
+		}
+	}
+}
@@ -20,6 +20,11 @@ package org.jaffre.server.spi;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.jaffre.JaffreCallFrame;
 import org.jaffre.JaffreCookie;
@@ -28,6 +33,7 @@ import org.jaffre.JaffreNoInterfaceException;
 import org.jaffre.JaffreReturnFrame;
 import org.jaffre.Logger;
 import org.jaffre.LoggerFactory;
+import org.jaffre.server.EndpointMethod;
 import org.jaffre.server.EndpointRegistry;
 import org.jaffre.server.JaffreServer;
 
@@ -141,6 +147,9 @@ public class DefaultJaffreServer implements JaffreServer, JaffreCookieSupport
 
 	/**
 	 * Process a call frame.
+	 * <p>The calling thread waits for the value of a future that was returned
+	 * by the endpoint method. Use {@link #processAsync(JaffreCallFrame, Object)}
+	 * if the thread should not be blocked.</p>
 	 * @param p_call The call frame to be processed.
 	 * @param p_extParam A parameter reserved for implementors that need to pass
 	 *    additional information to this method. Not used in this implementation.
@@ -151,61 +160,230 @@ public class DefaultJaffreServer implements JaffreServer, JaffreCookieSupport
 	{
 		try
 		{
-			final Class<?>          l_clsInterface;
-			final Object            l_objStub;
-			final Method            l_method;
-			final Object            l_objResult;
-			final JaffreReturnFrame l_return;
+			final EndpointMethod l_epm;
+			final Object         l_objResult;
 
-			l_clsInterface = p_call.getInterface();
+			l_epm = _getEndpointMethod(p_call);
+
+			if (isAcceptCookies())
+				JaffreCookie.set(p_call.getUserData());
+
+			l_objResult = _await(l_epm.getMethod(), l_epm.invoke(p_call.getParameters()));
+
+			return _createReturnFrame(p_call, l_epm, l_objResult, isSendCookies() ? JaffreCookie.get() : null);
+		}
+		catch (Throwable l_e)
+		{
+			return _createErrorFrame(p_call, l_e);
+		}
+		finally
+		{
+			if (isAcceptCookies() || isSendCookies())
+				JaffreCookie.clear();
+		}
+	}
 
-			l_objStub = getEndpointInterface(l_clsInterface);
 
-			l_method = l_clsInterface.getMethod
-				(p_call.getMethodName(), p_call.getParameterTypes());
+	/**
+	 * Process a call frame.
+	 * <p>If the endpoint method returns a <code>CompletionStage</code>, the
+	 * returned stage completes when the stage of the endpoint method
+	 * completes, so no thread waits for it. Other futures are waited for
+	 * as in {@link #process(JaffreCallFrame, Object)}.</p>
+	 * <p>The cookie that is sent to the client is the one that was set
+	 * before the endpoint method returned.</p>
+	 * @param p_call The call frame to be processed.
+	 * @param p_extParam A parameter reserved for implementors that need to pass
+	 *    additional information to this method. Not used in this implementation.
+	 * @return A stage that completes with the return frame that contains
+	 *    the result of the method call.
+	 */
+	@Override
+	public CompletionStage<JaffreReturnFrame> processAsync(JaffreCallFrame p_call, Object p_extParam)
+	{
+		try
+		{
+			final EndpointMethod l_epm;
+			final Object         l_objResult;
+			final Object         l_cookie;
+
+			l_epm = _getEndpointMethod(p_call);
 
 			if (isAcceptCookies())
 				JaffreCookie.set(p_call.getUserData());
 
-			l_objResult = l_method.invoke(l_objStub, p_call.getParameters());
+			l_objResult = l_epm.invoke(p_call.getParameters());
+			l_cookie    = isSendCookies() ? JaffreCookie.get() : null;
 
-			l_return = new JaffreReturnFrame(l_objResult, false);
+			if (_isFuture(l_epm.getMethod()) && l_objResult instanceof CompletionStage)
+			{
+				return ((CompletionStage<?>)l_objResult).handle((l_obj, l_e) -> l_e == null ?
+					_createReturnFrame(p_call, l_epm, l_obj, l_cookie) : _createErrorFrame(p_call, l_e));
+			}
+			else
+			{
+				return CompletableFuture.completedFuture
+					(_createReturnFrame(p_call, l_epm, _await(l_epm.getMethod(), l_objResult), l_cookie));
+			}
+		}
+		catch (Throwable l_e)
+		{
+			return CompletableFuture.completedFuture(_createErrorFrame(p_call, l_e));
+		}
+		finally
+		{
+			if (isAcceptCookies() || isSendCookies())
+				JaffreCookie.clear();
+		}
+	}
+
+
+	/**
+	 * Look up the endpoint method of a call frame.
+	 * @param p_call The call frame.
+	 * @return The endpoint method.
+	 * @throws JaffreNoInterfaceException If the method id or the interface
+	 *    of the call frame is not registered.
+	 * @throws NoSuchMethodException If the interface has no such method.
+	 */
+	private EndpointMethod _getEndpointMethod(JaffreCallFrame p_call)
+		throws JaffreNoInterfaceException, NoSuchMethodException
+	{
+		final Class<?>       l_clsInterface;
+		final EndpointMethod l_epm;
 
-			if (isSendCookies())
-				l_return.setUserData(JaffreCookie.get());
+		if (p_call.hasMethodId())
+		{
+			l_epm = m_epr.getEndpointMethod(p_call.getMethodId());
 
-			return l_return;
+			if (l_epm == null)
+			{
+				throw new JaffreNoInterfaceException
+					(p_call.getMethodId() + " is not the id of a registered service endpoint method.");
+			}
 		}
-		catch (Throwable l_e)
+		else
 		{
-			final Throwable l_t;
+			l_clsInterface = p_call.getInterface();
 
-			if (l_e instanceof InvocationTargetException)
-				l_t = l_e.getCause();
-			else
-				l_t = l_e;
+			// a lookup in the dispatch table that was built on registration
+			l_epm = m_epr.getEndpointMethod
+				(l_clsInterface, p_call.getMethodName(), p_call.getParameterTypes());
 
-			if ((p_call.isInOnly() && m_bLogInOnlyExceptions) ||
-			    (p_call.isInOut() && m_bLogInOutExceptions))
+			if (l_epm == null)
 			{
-				final StringBuilder l_sbuf = new StringBuilder(128);
+				getEndpointInterface(l_clsInterface);
+
+				throw new NoSuchMethodException(l_clsInterface.getName() + "." + p_call.getMethodName());
+			}
+		}
+
+		return l_epm;
+	}
+
+
+	private JaffreReturnFrame _createReturnFrame(JaffreCallFrame p_call,
+	                                             EndpointMethod  p_epm,
+	                                             Object          p_objResult,
+	                                             Object          p_cookie)
+	{
+		final JaffreReturnFrame l_return;
+
+		l_return = new JaffreReturnFrame(p_objResult, false);
+
+		if (isSendCookies())
+			l_return.setUserData(p_cookie);
+
+		// acknowledge the method id, the client may use it for subsequent calls
+		if (p_call.isMethodIdRequest())
+			l_return.setMethodId(p_epm.getId());
+
+		return l_return;
+	}
+
+
+	private JaffreReturnFrame _createErrorFrame(JaffreCallFrame p_call, Throwable p_e)
+	{
+		final Throwable l_t;
+
+		if (p_e instanceof InvocationTargetException || p_e instanceof ExecutionException ||
+		    (p_e instanceof CompletionException && p_e.getCause() != null))
+			l_t = p_e.getCause();
+		else
+			l_t = p_e;
+
+		if ((p_call.isInOnly() && m_bLogInOnlyExceptions) ||
+		    (p_call.isInOut() && m_bLogInOutExceptions))
+		{
+			final StringBuilder l_sbuf = new StringBuilder(128);
+
+			l_sbuf.append("Error in call to ");
+
+			if (p_call.hasMethodId())
+			{
+				final EndpointMethod l_epm;
+
+				l_epm = m_epr.getEndpointMethod(p_call.getMethodId());
 
-				l_sbuf.append("Error in call to ");
+				l_sbuf.append(l_epm != null ? l_epm.toString() : "method " + p_call.getMethodId());
+			}
+			else
+			{
 				l_sbuf.append(p_call.getInterface().getName());
 				l_sbuf.append('#');
 				l_sbuf.append(p_call.getMethodName());
-				l_sbuf.append('.');
-
-				ms_log.error(l_sbuf.toString(), l_t);
 			}
 
-			return new JaffreReturnFrame(l_t, true);
-		}
-		finally
-		{
-			if (isAcceptCookies() || isSendCookies())
-				JaffreCookie.clear();
+			l_sbuf.append('.');
+
+			ms_log.error(l_sbuf.toString(), l_t);
 		}
+
+		return new JaffreReturnFrame(l_t, true);
+	}
+
+
+	/**
+	 * Determine whether an endpoint method returns a future.
+	 * @param p_method The endpoint method.
+	 * @return <code>true</code> if the method returns a <code>Future</code>
+	 *    or a <code>CompletionStage</code>.
+	 */
+	private static boolean _isFuture(Method p_method)
+	{
+		final Class<?> l_clsReturn;
+
+		l_clsReturn = p_method.getReturnType();
+
+		return Future.class.isAssignableFrom(l_clsReturn) || CompletionStage.class.isAssignableFrom(l_clsReturn);
+	}
+
+
+	/**
+	 * Wait for the value of a future that was returned by an endpoint method,
+	 * since the future itself cannot be sent to the client.
+	 * <p>This blocks the calling thread until the future completes, so with
+	 * a bounded number of threads a connector should use
+	 * {@link #processAsync(JaffreCallFrame, Object)} instead.</p>
+	 * @param p_method The endpoint method.
+	 * @param p_objResult The result of the endpoint method.
+	 * @return The value of the future, or <code>p_objResult</code> if the
+	 *    method does not return a future.
+	 * @throws InterruptedException If the current thread was interrupted.
+	 * @throws ExecutionException If the future completed exceptionally.
+	 */
+	private static Object _await(Method p_method, Object p_objResult)
+		throws InterruptedException, ExecutionException
+	{
+		if (!_isFuture(p_method))
+			return p_objResult;
+
+		if (p_objResult instanceof CompletionStage)
+			return ((CompletionStage<?>)p_objResult).toCompletableFuture().get();
+		else if (p_objResult instanceof Future)
+			return ((Future<?>)p_objResult).get();
+		else
+			return p_objResult;
 	}
 
 
@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server.spi;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.server.EndpointInvoker;
+
+
+/**
+ * Creates invokers that call endpoint methods through method handles.
+ * <p>The handle is bound to the endpoint and adapted to the signature
+ * <code>(Object[])Object</code> once, when the endpoint is registered. Unlike
+ * <code>Method.invoke</code> an invocation needs no access checks and does
+ * not wrap exceptions.</p>
+ * <p>On Java 16 and later each invoker is an instance of its own hidden
+ * class that holds the handle in a <code>static final</code> field. The
+ * handle is thus a constant to the JIT compiler, and the endpoint method
+ * can be inlined into the invoker. On older Java versions all invokers
+ * share a single class, and the handle is no constant.</p>
+ * @author Alexander Veit
+ */
+final class EndpointInvokers
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(EndpointInvokers.class);
+
+	private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+	/** <code>MethodHandles.classData</code>, or <code>null</code> before Java 16. */
+	private static final MethodHandle ms_mhClassData = _getClassData();
+
+	/** <code>Lookup.defineHiddenClassWithClassData</code>, or <code>null</code> before Java 16. */
+	private static final MethodHandle ms_mhDefineHiddenClass = _getDefineHiddenClass();
+
+	/** The class file of {@link Template}, or <code>null</code> if hidden classes are not supported. */
+	private static final byte[] ms_template = _getTemplate();
+
+
+	/**
+	 * The template of the invoker classes. Its class file is defined as a
+	 * hidden class once per endpoint method, with the handle as class data.
+	 */
+	static final class Template implements EndpointInvoker
+	{
+		private static final MethodHandle ms_mh = classData(MethodHandles.lookup());
+
+
+		@Override
+		public Object invoke(Object[] p_args) throws Throwable
+		{
+			return ms_mh.invokeExact(p_args);
+		}
+	}
+
+
+	private EndpointInvokers()
+	{
+	}
+
+
+	/**
+	 * Create an invoker for an endpoint method.
+	 * @param p_method The interface method.
+	 * @param p_endpoint The object that implements the method.
+	 * @return The invoker, or <code>null</code> if the method cannot be
+	 *    accessed through a method handle and has to be invoked by reflection.
+	 */
+	static EndpointInvoker create(Method p_method, Object p_endpoint)
+	{
+		final MethodHandle l_mh;
+
+		try
+		{
+			l_mh = MethodHandles.lookup()
+				.unreflect(p_method)
+				.bindTo(p_endpoint)
+				.asSpreader(Object[].class, p_method.getParameterCount())
+				.asType(INVOKER_TYPE);
+		}
+		catch (IllegalAccessException l_e)
+		{
+			if (ms_log.isDebugEnabled())
+				ms_log.debug("Using reflection to invoke " + p_method + ".", l_e);
+
+			return null;
+		}
+
+		if (hasHiddenClasses())
+		{
+			try
+			{
+				final Lookup l_lookup;
+
+				l_lookup = (Lookup)ms_mhDefineHiddenClass.invoke
+					(MethodHandles.lookup(), ms_template, l_mh, true, _getClassOptions());
+
+				return (EndpointInvoker)l_lookup.findConstructor
+					(l_lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+			}
+			catch (Throwable l_e)
+			{
+				ms_log.warn("Cannot create an invoker class for " + p_method + ".", l_e);
+			}
+		}
+
+		return p_args -> l_mh.invokeExact(p_args);
+	}
+
+
+	/**
+	 * Check if each invoker has its own class.
+	 * @return <code>true</code> if the invokers are instances of hidden
+	 *    classes, or <code>false</code> if they share a single class.
+	 */
+	static boolean hasHiddenClasses()
+	{
+		return ms_mhClassData != null && ms_mhDefineHiddenClass != null && ms_template != null;
+	}
+
+
+	/**
+	 * Get the handle of an invoker class.
+	 * @param p_lookup The lookup of the invoker class.
+	 * @return The handle, or <code>null</code> if the class is no hidden class.
+	 */
+	static MethodHandle classData(Lookup p_lookup)
+	{
+		try
+		{
+			return ms_mhClassData != null ?
+				(MethodHandle)ms_mhClassData.invoke(p_lookup, "_", MethodHandle.class) : null;
+		}
+		catch (Throwable l_e)
+		{
+			throw new IllegalStateException("Cannot get the class data of " + p_lookup + ".", l_e);
+		}
+	}
+
+
+	private static MethodHandle _getClassData()
+	{
+		try
+		{
+			return MethodHandles.publicLookup().findStatic
+				(MethodHandles.class,
+				 "classData",
+				 MethodType.methodType(Object.class, Lookup.class, String.class, Class.class));
+		}
+		catch (ReflectiveOperationException l_e)
+		{
+			return null; // before Java 16
+		}
+	}
+
+
+	private static MethodHandle _getDefineHiddenClass()
+	{
+		try
+		{
+			return MethodHandles.publicLookup().findVirtual
+				(Lookup.class,
+				 "defineHiddenClassWithClassData",
+				 MethodType.methodType(Lookup.class,
+				                       byte[].class,
+				                       Object.class,
+				                       boolean.class,
+				                       _getClassOptions().getClass())).asFixedArity();
+		}
+		catch (ReflectiveOperationException l_e)
+		{
+			return null; // before Java 16
+		}
+	}
+
+
+	/**
+	 * Get an empty array of <code>Lookup.ClassOption</code>.
+	 * @return The array.
+	 * @throws ClassNotFoundException Before Java 15.
+	 */
+	private static Object _getClassOptions() throws ClassNotFoundException
+	{
+		return Array.newInstance(Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption"), 0);
+	}
+
+
+	private static byte[] _getTemplate()
+	{
+		final String l_strName;
+
+		l_strName = Template.class.getName();
+
+		try (final InputStream l_in = Template.class.getResourceAsStream
+			(l_strName.substring(l_strName.lastIndexOf('.') + 1) + ".class"))
+		{
+			final ByteArrayOutputStream l_out;
+			final byte[]                l_buf;
+			int                         l_iRead;
+
+			if (l_in == null)
+				return null;
+
+			l_out = new ByteArrayOutputStream(1024);
+			l_buf = new byte[1024];
+
+			while ((l_iRead = l_in.read(l_buf)) != -1)
+				l_out.write(l_buf, 0, l_iRead);
+
+			return l_out.toByteArray();
+		}
+		catch (IOException l_e)
+		{
+			ms_log.warn("Cannot read the class file of " + l_strName + ".", l_e);
+
+			return null;
+		}
+	}
+}
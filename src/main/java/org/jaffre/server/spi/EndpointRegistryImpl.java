@@ -20,11 +20,14 @@ package org.jaffre.server.spi;
 
 import java.io.Externalizable;
 import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.jaffre.Logger;
 import org.jaffre.LoggerFactory;
+import org.jaffre.server.EndpointMethod;
 import org.jaffre.server.EndpointRegistry;
 
 
@@ -35,8 +38,64 @@ public class EndpointRegistryImpl implements EndpointRegistry
 {
 	private static final Logger ms_log = LoggerFactory.getLogger(EndpointRegistryImpl.class);
 
+	private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
 	private volatile Map<Class<?>, Object> m_map = new HashMap<>();
 
+	/** The dispatch table, the endpoint methods by interface and signature. */
+	private volatile Map<Class<?>, Map<Signature, EndpointMethod>> m_methodsByInterface = new HashMap<>();
+
+	/** The endpoint methods, indexed by their ids. */
+	private volatile EndpointMethod[] m_methods = new EndpointMethod[1];
+
+
+	/**
+	 * The name and the parameter types of a method.
+	 */
+	private static final class Signature
+	{
+		private final String m_strName;
+
+		private final Class<?>[] m_types;
+
+		private final int m_iHashCode;
+
+
+		private Signature(String p_strName, Class<?>[] p_types)
+		{
+			m_strName   = p_strName;
+			m_types     = p_types;
+			m_iHashCode = p_strName.hashCode() * 31 + Arrays.hashCode(p_types);
+		}
+
+
+		@Override
+		public boolean equals(Object p_other)
+		{
+			final Signature l_other;
+
+			if (p_other == this)
+				return true;
+
+			if (!(p_other instanceof Signature))
+				return false;
+
+			l_other = (Signature)p_other;
+
+			return
+				m_iHashCode == l_other.m_iHashCode &&
+				m_strName.equals(l_other.m_strName) &&
+				Arrays.equals(m_types, l_other.m_types);
+		}
+
+
+		@Override
+		public int hashCode()
+		{
+			return m_iHashCode;
+		}
+	}
+
 
 	@Override
 	public void registerEndpoint(Object p_obj)
@@ -123,7 +182,12 @@ public class EndpointRegistryImpl implements EndpointRegistry
 
 	private void _registerEndpoint(Class<?> p_interface, Object p_obj)
 	{
-		final Map<Class<?>, Object> l_map;
+		final Map<Class<?>, Object>                         l_map;
+		final Map<Class<?>, Map<Signature, EndpointMethod>> l_methodsByInterface;
+		final Map<Signature, Method>                        l_signatures;
+		final Map<Signature, EndpointMethod>                l_methodMap;
+		final EndpointMethod[]                              l_methods;
+		int                                                 l_iId;
 
 		synchronized (this)
 		{
@@ -137,7 +201,48 @@ public class EndpointRegistryImpl implements EndpointRegistry
 
 			l_map.put(p_interface, p_obj);
 
-			m_map = l_map;
+			l_signatures = new HashMap<>();
+
+			for (Method l_method : p_interface.getMethods())
+			{
+				final Signature l_signature;
+				final Method    l_other;
+
+				l_signature = new Signature(l_method.getName(), l_method.getParameterTypes());
+				l_other     = l_signatures.get(l_signature);
+
+				// like Class#getMethod choose the method with the most specific
+				// return type if super-interfaces declare the same signature
+				if (l_other == null || l_other.getReturnType().isAssignableFrom(l_method.getReturnType()))
+					l_signatures.put(l_signature, l_method);
+			}
+
+			// assign ids to the interface methods, ids are never reused
+			l_methods            = Arrays.copyOf(m_methods, m_methods.length + l_signatures.size());
+			l_methodMap          = new HashMap<>();
+			l_methodsByInterface = new HashMap<>(m_methodsByInterface);
+			l_iId                = m_methods.length;
+
+			for (Map.Entry<Signature, Method> l_entry : l_signatures.entrySet())
+			{
+				final EndpointMethod l_method;
+
+				l_method = new EndpointMethod(l_iId++,
+				                              p_interface,
+				                              l_entry.getValue(),
+				                              p_obj,
+				                              EndpointInvokers.create(l_entry.getValue(), p_obj));
+
+				l_methods[l_method.getId()] = l_method;
+
+				l_methodMap.put(l_entry.getKey(), l_method);
+			}
+
+			l_methodsByInterface.put(p_interface, l_methodMap);
+
+			m_methods            = l_methods;
+			m_methodsByInterface = l_methodsByInterface;
+			m_map                = l_map;
 
 			if (ms_log.isDebugEnabled())
 				ms_log.debug("Registered endpoint with interface " + p_interface.getName() + ".");
@@ -157,4 +262,48 @@ public class EndpointRegistryImpl implements EndpointRegistry
 
 		return (T)m_map.get(p_interface);
 	}
+
+
+	@Override
+	public EndpointMethod getEndpointMethod(int p_iId)
+	{
+		final EndpointMethod[] l_methods;
+
+		l_methods = m_methods;
+
+		if (p_iId <= 0 || p_iId >= l_methods.length)
+			return null;
+
+		return l_methods[p_iId];
+	}
+
+
+	@Override
+	public EndpointMethod getEndpointMethod(Class<?> p_interface, Method p_method)
+	{
+		if (p_method == null)
+			throw new IllegalArgumentException("No method.");
+
+		return getEndpointMethod(p_interface, p_method.getName(), p_method.getParameterTypes());
+	}
+
+
+	@Override
+	public EndpointMethod getEndpointMethod(Class<?> p_interface, String p_strName, Class<?>[] p_parameterTypes)
+	{
+		final Map<Signature, EndpointMethod> l_methodMap;
+
+		if (p_interface == null)
+			throw new IllegalArgumentException("No interface.");
+
+		if (p_strName == null)
+			throw new IllegalArgumentException("No method name.");
+
+		l_methodMap = m_methodsByInterface.get(p_interface);
+
+		if (l_methodMap == null)
+			return null;
+
+		return l_methodMap.get(new Signature(p_strName, p_parameterTypes != null ? p_parameterTypes : NO_TYPES));
+	}
 }
@@ -0,0 +1,75 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.server.spi;
+
+
+import org.jaffre.JaffreConfigurationException;
+
+
+/**
+ * A connector that processes several calls of a single connection concurrently.
+ * <p>Return frames are written as soon as the respective call is processed,
+ * so they may be sent in a different order than the call frames were received.
+ * Each return frame carries the correlation id of its call frame.
+ * This connector is meant to be used with the
+ * {@link org.jaffre.client.spi.MultiplexSocketJaffreClient}.</p>
+ * @author Alexander Veit
+ */
+public class MultiplexSocketJaffreConnector extends NioSocketJaffreConnector
+{
+	private int m_iMaxConcurrentCalls = 64;
+
+
+	public MultiplexSocketJaffreConnector()
+	{
+	}
+
+
+	/**
+	 * Get the maximum number of calls that are processed concurrently on a
+	 * single connection. The default value is <code>64</code>.
+	 * @return The maximum number of concurrent calls per connection.
+	 */
+	@Override
+	public int getMaxConcurrentCalls()
+	{
+		return m_iMaxConcurrentCalls;
+	}
+
+
+	/**
+	 * Set the maximum number of calls that are processed concurrently on a
+	 * single connection.
+	 * @param p_iMaxConcurrentCalls The maximum number of concurrent calls.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the number is less than <code>1</code>.
+	 */
+	public void setMaxConcurrentCalls(int p_iMaxConcurrentCalls)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iMaxConcurrentCalls < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iMaxConcurrentCalls + " is not a valid number of concurrent calls.");
+		}
+
+		m_iMaxConcurrentCalls = p_iMaxConcurrentCalls;
+	}
+}
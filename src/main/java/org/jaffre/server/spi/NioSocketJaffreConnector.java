@@ -0,0 +1,1114 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.server.spi;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jaffre.JAFFRE_FLAG;
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.ByteBufferPool;
+import org.jaffre.server.JaffreServerException;
+import org.jaffre.spi.FramedJaffreCallFrameSerializer;
+import org.jaffre.util.JaffreUtil;
+
+
+/**
+ * A connector that serves all connections with a small number of selector
+ * threads.
+ * <p>Each selector thread owns a set of non-blocking socket channels that are
+ * registered for read readiness. Incoming data is accumulated per connection
+ * and decoded as soon as a complete call frame is available. Complete call
+ * frames are handed to a worker pool that calls
+ * {@link org.jaffre.server.JaffreServer#processAsync(JaffreCallFrame, Object)}.
+ * Idle keep-alive connections and calls to endpoint methods that complete
+ * asynchronously therefore do not occupy a worker thread.</p>
+ * <p>Calls on a single connection are processed in the order they arrive,
+ * and at most one call per connection is processed at a time. Subclasses may
+ * allow more concurrent calls per connection by overriding
+ * {@link #getMaxConcurrentCalls()}.</p>
+ * <p>Since call frames are decoded from partially received data, serializers
+ * that keep state between the frames of a connection are not supported.</p>
+ * <p>The call frame serializer must be a
+ * {@link FramedJaffreCallFrameSerializer}, and clients must use a framed
+ * call frame serializer, too. The frame header tells when a call frame is
+ * complete, so each frame is deserialized only once, however slowly it is
+ * received, and frames that exceed the maximum frame size are rejected
+ * before they are received. Connections whose received data exceed
+ * {@link #getMaxReceiveBufferSize()} are closed.</p>
+ * @author Alexander Veit
+ */
+public class NioSocketJaffreConnector extends AbstractSocketJaffreConnector
+{
+	private static final Logger ms_log = LoggerFactory.getLogger(NioSocketJaffreConnector.class);
+
+	private boolean m_bRunning = false;
+
+	private final ThreadGroup m_threadGroup =
+		new ThreadGroup("NioSocketJaffreConnectorThreadGroup");
+
+	private volatile boolean m_bRun = false;
+
+	private int m_iSelectorThreads = 1;
+
+	private final AtomicInteger m_intNextReactor = new AtomicInteger(0);
+
+	private final AtomicInteger m_intConnections = new AtomicInteger(0);
+
+
+	private ServerSocketChannel m_channel;
+
+	private Reactor[] m_reactors;
+
+	private ThreadPoolExecutor m_executor;
+
+
+	private int m_iBufferSize = 8192;
+
+	private int m_iMaxReceiveBufferSize = 16 * 1024 * 1024;
+
+
+	/**
+	 * An output stream whose data may be wrapped without being copied.
+	 */
+	private static final class ReturnFrameOutputStream extends ByteArrayOutputStream
+	{
+		private ReturnFrameOutputStream(int p_iSize)
+		{
+			super(p_iSize);
+		}
+
+		private ByteBuffer toByteBuffer()
+		{
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+
+	/**
+	 * The standard thread factory for this connector.
+	 */
+	private final class ConnectorThreadFactory implements ThreadFactory
+	{
+		private final String m_strKind;
+
+		private AtomicInteger m_intCount = new AtomicInteger(0);
+
+		private ConnectorThreadFactory(String p_strKind)
+		{
+			m_strKind = p_strKind;
+		}
+
+		@Override
+		public Thread newThread(Runnable p_runnable)
+		{
+			final Thread        l_thread;
+			final StringBuilder l_sbuf;
+			final InetAddress   l_inetAddr;
+			final int           l_iPort;
+
+			l_inetAddr = getBindingInetAddress();
+			l_iPort    = getPort();
+
+			assert l_inetAddr != null;
+			assert l_iPort >= 0 && l_iPort <= 0xFFFF;
+
+			l_sbuf = new StringBuilder(128);
+
+			l_sbuf.append("NioSocketJaffreConnector");
+			l_sbuf.append(m_strKind);
+			l_sbuf.append('-');
+			l_sbuf.append(l_inetAddr.getHostAddress());
+			l_sbuf.append(':');
+			l_sbuf.append(l_iPort);
+			l_sbuf.append('-');
+			l_sbuf.append(m_intCount.incrementAndGet());
+
+			l_thread = new Thread(m_threadGroup, p_runnable, l_sbuf.toString());
+
+			l_thread.setDaemon(true);
+
+			return l_thread;
+		}
+	}
+
+
+	/**
+	 * A selector thread that owns a set of connections.
+	 */
+	private final class Reactor implements Runnable
+	{
+		private final Selector m_selector;
+
+		private final Queue<Runnable> m_tasks = new ConcurrentLinkedQueue<>();
+
+
+		private Reactor() throws IOException
+		{
+			m_selector = SelectorProvider.provider().openSelector();
+		}
+
+
+		/**
+		 * Execute a task on this reactor's thread.
+		 * @param p_task The task.
+		 */
+		private void execute(Runnable p_task)
+		{
+			m_tasks.add(p_task);
+			m_selector.wakeup();
+		}
+
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (m_bRun && m_selector.isOpen())
+				{
+					m_selector.select();
+
+					_runTasks();
+
+					final Iterator<SelectionKey> l_it;
+
+					l_it = m_selector.selectedKeys().iterator();
+
+					while (l_it.hasNext())
+					{
+						final SelectionKey l_skey;
+
+						l_skey = l_it.next();
+
+						l_it.remove();
+
+						try
+						{
+							if (!l_skey.isValid())
+								continue;
+
+							if (l_skey.isAcceptable())
+							{
+								_accept((ServerSocketChannel)l_skey.channel());
+							}
+							else
+							{
+								final Connection l_conn;
+
+								l_conn = (Connection)l_skey.attachment();
+
+								if (l_skey.isWritable())
+									l_conn.flush();
+
+								if (l_skey.isValid() && l_skey.isReadable())
+									l_conn.read();
+							}
+						}
+						catch (CancelledKeyException l_e)
+						{
+							ms_log.debug("Selection key cancelled.", l_e);
+						}
+					}
+				}
+			}
+			catch (Throwable l_e)
+			{
+				if (m_bRun)
+					ms_log.error("An unexpected error occurred.", l_e);
+			}
+			finally
+			{
+				_shutdown();
+			}
+
+			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
+		}
+
+
+		private void _runTasks()
+		{
+			Runnable l_task;
+
+			while ((l_task = m_tasks.poll()) != null)
+			{
+				try
+				{
+					l_task.run();
+				}
+				catch (Throwable l_e)
+				{
+					ms_log.error("An unexpected error occurred.", l_e);
+				}
+			}
+		}
+
+
+		private void _accept(ServerSocketChannel p_ssc) throws IOException
+		{
+			final SocketChannel l_channel;
+			final Reactor       l_reactor;
+
+			assert p_ssc == m_channel;
+
+			l_channel = p_ssc.accept();
+
+			if (l_channel == null)
+				return; // another selector thread was faster
+
+			l_channel.configureBlocking(false);
+
+			l_reactor = m_reactors[(m_intNextReactor.getAndIncrement() & 0x7FFFFFFF) % m_reactors.length];
+
+			if (l_reactor == this)
+				_register(l_channel);
+			else
+				l_reactor.execute(() -> l_reactor._register(l_channel));
+		}
+
+
+		private void _register(SocketChannel p_channel)
+		{
+			try
+			{
+				final Connection l_conn;
+
+				l_conn = new Connection(this, p_channel);
+
+				l_conn.m_key = p_channel.register(m_selector, SelectionKey.OP_READ, l_conn);
+
+				m_intConnections.incrementAndGet();
+			}
+			catch (IOException l_e)
+			{
+				ms_log.error("Cannot register channel.", l_e);
+
+				JaffreUtil.close(p_channel);
+			}
+		}
+
+
+		private void _shutdown()
+		{
+			try
+			{
+				for (final SelectionKey l_skey : m_selector.keys())
+				{
+					if (l_skey.attachment() instanceof Connection)
+						((Connection)l_skey.attachment()).close();
+				}
+			}
+			catch (Throwable l_e)
+			{
+				ms_log.debug("Error while closing connections.", l_e);
+			}
+
+			JaffreUtil.close(m_selector);
+		}
+	}
+
+
+	/**
+	 * The call frames of a batch that are being processed.
+	 */
+	private static final class Batch
+	{
+		/** The number of frames of the batch being processed. */
+		private int m_iActive;
+
+		/** <code>true</code> if the last frame of the batch was decoded. */
+		private boolean m_bComplete;
+	}
+
+
+	/**
+	 * The state of a single client connection.
+	 * <p>All methods except {@link #process(JaffreCallFrame)} must be called
+	 * on the owning reactor's thread.</p>
+	 */
+	private final class Connection
+	{
+		private final Reactor m_reactor;
+
+		private final SocketChannel m_channel;
+
+		private SelectionKey m_key;
+
+		/** Received data, in write mode. Taken from the pool, <code>null</code> when closed. */
+		private ByteBuffer m_in = ByteBufferPool.getHeapPool().acquire(m_iBufferSize);
+
+		/** The size of the incomplete framed call frame, or <code>-1</code> if unknown. */
+		private int m_iFrameSize = -1;
+
+		/** Pending output data. */
+		private final Queue<ByteBuffer> m_out = new ArrayDeque<>();
+
+		/** The number of call frames being processed. */
+		private int m_iActive;
+
+		/** The batch whose last frame was not decoded yet, or <code>null</code>. */
+		private Batch m_batch;
+
+		/** <code>true</code> if the connection is to be closed when all output is written. */
+		private boolean m_bClose;
+
+		private boolean m_bClosed;
+
+
+		private Connection(Reactor p_reactor, SocketChannel p_channel)
+		{
+			m_reactor = p_reactor;
+			m_channel = p_channel;
+		}
+
+
+		private void read() throws IOException
+		{
+			final int l_iRead;
+
+			if (!m_in.hasRemaining())
+			{
+				final ByteBuffer l_buf;
+
+				if (m_in.capacity() >= m_iMaxReceiveBufferSize || m_iFrameSize > m_iMaxReceiveBufferSize)
+				{
+					ms_log.warn("Closing a connection that exceeds the maximum receive buffer size " +
+					            m_iMaxReceiveBufferSize + ".");
+
+					close();
+
+					return;
+				}
+
+				l_buf = ByteBufferPool.getHeapPool().acquire
+					(Math.min(Math.max(m_in.capacity() * 2, m_iFrameSize), m_iMaxReceiveBufferSize));
+
+				m_in.flip();
+				l_buf.put(m_in);
+
+				ByteBufferPool.getHeapPool().release(m_in);
+
+				m_in = l_buf;
+			}
+
+			try
+			{
+				l_iRead = m_channel.read(m_in);
+			}
+			catch (IOException l_e)
+			{
+				ms_log.debug("Error while reading from channel.", l_e);
+
+				close();
+
+				return;
+			}
+
+			if (l_iRead == -1)
+				close();
+			else if (l_iRead > 0)
+				decode();
+		}
+
+
+		/**
+		 * Decode call frames from the received data and hand them to the
+		 * worker pool, as long as the number of calls being processed is
+		 * less than {@link NioSocketJaffreConnector#getMaxConcurrentCalls()}.
+		 */
+		private void decode()
+		{
+			boolean l_bFlush;
+
+			l_bFlush = false;
+
+			while (!m_bClose && !m_bClosed && m_iActive < getMaxConcurrentCalls())
+			{
+				final JaffreCallFrame l_frameCall;
+				final Batch           l_batch;
+
+				l_frameCall = _decodeFrame();
+
+				if (l_frameCall == null)
+					break;
+
+				l_batch = _getBatch(l_frameCall);
+
+				// asynchronous in-only calls do not count as calls being
+				// processed, there is no return frame to wait for
+				if (l_frameCall.isInOnly() && isAsyncInOnly())
+				{
+					if (!l_frameCall.isKeepAlive() || !canKeepAlive())
+						m_bClose = true;
+
+					if (l_batch != null && l_batch.m_bComplete && l_batch.m_iActive == 0)
+						l_bFlush = true;
+
+					try
+					{
+						executeInOnly(l_frameCall);
+					}
+					catch (RejectedExecutionException l_e)
+					{
+						ms_log.debug("In-only call frame rejected.", l_e);
+
+						close();
+					}
+
+					continue;
+				}
+
+				m_iActive++;
+
+				if (l_batch != null)
+					l_batch.m_iActive++;
+
+				try
+				{
+					m_executor.execute(() -> process(l_frameCall, l_batch));
+				}
+				catch (RejectedExecutionException l_e)
+				{
+					ms_log.debug("Call frame rejected.", l_e);
+
+					close();
+				}
+			}
+
+			if (m_bClosed)
+				return;
+
+			// an in-only call may have been the last call of the connection
+			// or of a batch
+			if ((m_bClose && m_iActive == 0) || l_bFlush)
+			{
+				flush();
+
+				if (m_bClosed)
+					return;
+			}
+
+			if (!m_bClose && m_iActive < getMaxConcurrentCalls())
+				m_key.interestOps(m_key.interestOps() | SelectionKey.OP_READ);
+			else
+				m_key.interestOps(m_key.interestOps() & ~SelectionKey.OP_READ);
+		}
+
+
+		/**
+		 * Get the batch of a call frame.
+		 * @param p_frameCall The call frame that was just decoded.
+		 * @return The batch, or <code>null</code> if the frame does not
+		 *    belong to a batch.
+		 */
+		private Batch _getBatch(JaffreCallFrame p_frameCall)
+		{
+			final Batch l_batch;
+
+			if (m_batch == null && p_frameCall.isBatchContinue())
+				m_batch = new Batch();
+
+			l_batch = m_batch;
+
+			if (l_batch != null && !p_frameCall.isBatchContinue())
+			{
+				l_batch.m_bComplete = true;
+
+				m_batch = null;
+			}
+
+			return l_batch;
+		}
+
+
+		/**
+		 * Try to decode a single call frame from the received data.
+		 * @return The call frame, or <code>null</code> if no complete call
+		 *    frame is available or the connection was closed.
+		 */
+		private JaffreCallFrame _decodeFrame()
+		{
+			if (m_in.position() == 0)
+				return null;
+
+			m_in.flip();
+
+			try
+			{
+				return _decodeFramed((FramedJaffreCallFrameSerializer)getCallFrameSerializer());
+			}
+			catch (Throwable l_e)
+			{
+				ms_log.error("Cannot decode call frame.", l_e);
+
+				m_in.clear();
+
+				close();
+
+				return null;
+			}
+			finally
+			{
+				if (!m_bClosed)
+					m_in.compact();
+			}
+		}
+
+
+		/**
+		 * Decode the next complete framed call frame. The frame is only
+		 * deserialized when it is complete. A complete in-only frame that
+		 * cannot be deserialized is skipped, since the client does not wait
+		 * for its return frame.
+		 * @param p_serCall The call frame serializer.
+		 * @return The call frame, or <code>null</code> if no complete call
+		 *    frame is available.
+		 * @throws Exception If a complete in-out frame cannot be deserialized.
+		 */
+		private JaffreCallFrame _decodeFramed(FramedJaffreCallFrameSerializer p_serCall)
+			throws Exception
+		{
+			while (!m_bClose)
+			{
+				final int       l_iFrameSize;
+				JaffreCallFrame l_frameCall;
+
+				m_iFrameSize = p_serCall.getFrameSize(m_in);
+
+				if (m_iFrameSize < 0 || m_iFrameSize > m_in.remaining())
+					return null; // incomplete frame
+
+				l_iFrameSize = m_iFrameSize;
+				m_iFrameSize = -1;
+
+				try
+				{
+					l_frameCall = p_serCall.deserialize(new ByteArrayInputStream
+						(m_in.array(), m_in.arrayOffset() + m_in.position(), l_iFrameSize));
+				}
+				catch (Exception l_e)
+				{
+					final int l_iFlags;
+
+					l_iFlags = p_serCall.getFrameFlags(m_in);
+
+					if ((l_iFlags & JAFFRE_FLAG.MASK_MEP) != JAFFRE_FLAG.MEP_IN_ONLY)
+						throw l_e;
+
+					ms_log.warn("Skipped a malformed in-only call frame.", l_e);
+
+					if ((l_iFlags & JAFFRE_FLAG.CONNECTION_KEEP_ALIVE) == 0 || !canKeepAlive())
+						m_bClose = true;
+
+					l_frameCall = null;
+				}
+
+				m_in.position(m_in.position() + l_iFrameSize);
+
+				if (l_frameCall != null)
+					return l_frameCall;
+			}
+
+			return null;
+		}
+
+
+		/**
+		 * Process a call frame. This method is being called by a worker thread.
+		 * <p>The worker thread does not wait for an endpoint method that
+		 * completes asynchronously.</p>
+		 * @param p_frameCall The call frame.
+		 * @param p_batch The batch of the call frame, or <code>null</code>.
+		 */
+		private void process(JaffreCallFrame p_frameCall, Batch p_batch)
+		{
+			final CompletionStage<JaffreReturnFrame> l_stage;
+
+			try
+			{
+				l_stage = getServer().processAsync(p_frameCall, null);
+			}
+			catch (Throwable l_e)
+			{
+				ms_log.error("An unexpected error occurred.", l_e);
+
+				m_reactor.execute(() -> processed(null, false, p_batch));
+
+				return;
+			}
+
+			l_stage.whenComplete((l_frameReturn, l_e) -> complete(p_frameCall, l_frameReturn, l_e, p_batch));
+		}
+
+
+		/**
+		 * Serialize the return frame of a processed call frame. This method is
+		 * being called by the thread that completed the call.
+		 * @param p_frameCall The call frame.
+		 * @param p_frameReturn The return frame, or <code>null</code>.
+		 * @param p_e The error that occurred while processing the call,
+		 *    or <code>null</code>.
+		 * @param p_batch The batch of the call frame, or <code>null</code>.
+		 */
+		private void complete(JaffreCallFrame   p_frameCall,
+		                      JaffreReturnFrame p_frameReturn,
+		                      Throwable         p_e,
+		                      Batch             p_batch)
+		{
+			ByteBuffer l_bufOut;
+			boolean    l_bKeepAlive;
+
+			l_bufOut     = null;
+			l_bKeepAlive = false;
+
+			try
+			{
+				if (p_e != null)
+					throw p_e;
+
+				l_bKeepAlive = p_frameCall.isKeepAlive() && canKeepAlive();
+
+				if (p_frameCall.isInOut())
+				{
+					final ReturnFrameOutputStream l_out;
+
+					p_frameReturn.setKeepAlive(l_bKeepAlive);
+					p_frameReturn.setCorrelationId(p_frameCall.getCorrelationId());
+
+					l_out = new ReturnFrameOutputStream(m_iBufferSize);
+
+					getReturnFrameSerializer().serialize(p_frameReturn, l_out);
+
+					l_bufOut = l_out.toByteBuffer();
+				}
+			}
+			catch (Throwable l_e)
+			{
+				ms_log.error("An unexpected error occurred.", l_e);
+
+				l_bKeepAlive = false;
+			}
+			finally
+			{
+				final ByteBuffer l_buf       = l_bufOut;
+				final boolean    l_bContinue = l_bKeepAlive;
+
+				m_reactor.execute(() -> processed(l_buf, l_bContinue, p_batch));
+			}
+		}
+
+
+		/**
+		 * Called on the reactor's thread when a call frame was processed.
+		 * <p>The return frames of a batch are collected until all frames of
+		 * the batch were processed. Since the frames of a connection may
+		 * complete in any order, this does not depend on other calls being
+		 * processed.</p>
+		 * @param p_bufOut The serialized return frame, or <code>null</code>.
+		 * @param p_bKeepAlive <code>true</code> if the connection should be kept alive.
+		 * @param p_batch The batch of the call frame, or <code>null</code>.
+		 */
+		private void processed(ByteBuffer p_bufOut, boolean p_bKeepAlive, Batch p_batch)
+		{
+			if (m_bClosed)
+				return;
+
+			m_iActive--;
+
+			if (p_batch != null)
+				p_batch.m_iActive--;
+
+			if (p_bufOut != null)
+				m_out.add(p_bufOut);
+
+			if (!p_bKeepAlive || !m_bRun)
+				m_bClose = true;
+
+			decode(); // there may be pipelined frames
+
+			if (p_batch == null || (p_batch.m_bComplete && p_batch.m_iActive == 0) || m_bClose)
+				flush();
+		}
+
+
+		/**
+		 * Write pending output data. All pending buffers are written with
+		 * a single gathering write.
+		 */
+		private void flush()
+		{
+			if (m_bClosed)
+				return;
+
+			try
+			{
+				if (!m_out.isEmpty())
+				{
+					m_channel.write(m_out.toArray(new ByteBuffer[m_out.size()]));
+
+					while (!m_out.isEmpty() && !m_out.peek().hasRemaining())
+						m_out.remove();
+				}
+			}
+			catch (IOException l_e)
+			{
+				ms_log.debug("Error while writing to channel.", l_e);
+
+				close();
+
+				return;
+			}
+
+			if (!m_out.isEmpty())
+			{
+				m_key.interestOps(m_key.interestOps() | SelectionKey.OP_WRITE);
+			}
+			else
+			{
+				m_key.interestOps(m_key.interestOps() & ~SelectionKey.OP_WRITE);
+
+				if (m_bClose && m_iActive == 0)
+					close();
+			}
+		}
+
+
+		private void close()
+		{
+			if (m_bClosed)
+				return;
+
+			m_bClosed = true;
+
+			if (m_key != null)
+				m_key.cancel();
+
+			m_out.clear();
+
+			ByteBufferPool.getHeapPool().release(m_in);
+
+			m_in = null;
+
+			JaffreUtil.close(m_channel);
+
+			m_intConnections.decrementAndGet();
+		}
+	}
+
+
+	/**
+	 * Create a connector whose call frame serializer is a
+	 * {@link FramedJaffreCallFrameSerializer} that decorates a
+	 * {@link org.jaffre.spi.DefaultJaffreCallFrameSerializer}.
+	 */
+	public NioSocketJaffreConnector()
+	{
+		setCallFrameSerializer(new FramedJaffreCallFrameSerializer());
+	}
+
+
+	@Override
+	public int getLocalPort()
+	{
+		if (m_channel != null)
+			return m_channel.socket().getLocalPort();
+		else
+			return -1;
+	}
+
+
+	/**
+	 * Get the number of selector threads. The default value is <code>1</code>.
+	 * @return The number of selector threads.
+	 */
+	public int getSelectorThreadCount()
+	{
+		return m_iSelectorThreads;
+	}
+
+
+	/**
+	 * Set the number of selector threads.
+	 * @param p_iSelectorThreads The number of selector threads.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the number is less than <code>1</code>.
+	 */
+	public void setSelectorThreadCount(int p_iSelectorThreads)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iSelectorThreads < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iSelectorThreads + " is not a valid number of selector threads.");
+		}
+
+		m_iSelectorThreads = p_iSelectorThreads;
+	}
+
+
+	/**
+	 * Get the maximum size of the data received on a connection that do not
+	 * form a complete call frame yet. The default value is 16 MiB.
+	 * @return The maximum receive buffer size in bytes.
+	 */
+	public int getMaxReceiveBufferSize()
+	{
+		return m_iMaxReceiveBufferSize;
+	}
+
+
+	/**
+	 * Set the maximum size of the data received on a connection that do not
+	 * form a complete call frame yet. Connections that exceed the size are
+	 * closed.
+	 * @param p_iMaxReceiveBufferSize The maximum receive buffer size in bytes.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the size is less than
+	 *    <code>8192</code>.
+	 */
+	public void setMaxReceiveBufferSize(int p_iMaxReceiveBufferSize)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iMaxReceiveBufferSize < m_iBufferSize)
+		{
+			throw new JaffreConfigurationException
+				(p_iMaxReceiveBufferSize + " is not a valid maximum receive buffer size.");
+		}
+
+		m_iMaxReceiveBufferSize = p_iMaxReceiveBufferSize;
+	}
+
+
+	/**
+	 * Get the number of worker threads that currently exist.
+	 * @return The number of worker threads.
+	 */
+	public int getNumRunningThreads()
+	{
+		final ThreadPoolExecutor l_executor;
+
+		l_executor = m_executor;
+
+		return l_executor != null ? l_executor.getPoolSize() : 0;
+	}
+
+
+	/**
+	 * Get the number of currently open client connections.
+	 * @return The number of open connections.
+	 */
+	public int getNumConnections()
+	{
+		return m_intConnections.get();
+	}
+
+
+	/**
+	 * Get the maximum number of calls that are processed concurrently on a
+	 * single connection. Reading from a connection is suspended while this
+	 * number of calls is being processed.
+	 * <p>The default implementation returns <code>1</code>, so the return
+	 * frames are sent in the order of the call frames.</p>
+	 * @return The maximum number of concurrent calls per connection.
+	 */
+	protected int getMaxConcurrentCalls()
+	{
+		return 1;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#start()
+	 */
+	@Override
+	public synchronized void start()
+	{
+		final InetAddress l_inetAddr;
+		final int         l_iPort;
+
+		assert !m_bRun;
+		assert getCoreThreadPoolSize() > 0;
+
+		if (m_bRunning)
+			throw new IllegalStateException("The connector is already running.");
+
+		if (getServer() == null)
+			throw new JaffreConfigurationException("No Jaffre server.");
+
+		l_inetAddr = getBindingInetAddress();
+
+		if (l_inetAddr == null)
+			throw new JaffreConfigurationException("No binding address.");
+
+		l_iPort = getPort();
+
+		if (l_iPort < 0 || l_iPort > 0xFFFF)
+			throw new JaffreConfigurationException("Illegal port number " + l_iPort + ".");
+
+		if (!(getCallFrameSerializer() instanceof FramedJaffreCallFrameSerializer))
+			throw new JaffreConfigurationException("The call frame serializer must be a framed serializer.");
+
+		if (getCallFrameSerializer().forConnection() != getCallFrameSerializer() ||
+		    getReturnFrameSerializer().forConnection() != getReturnFrameSerializer())
+		{
+			throw new JaffreConfigurationException
+				("Serializers that keep state between frames are not supported.");
+		}
+
+		try
+		{
+			m_reactors = new Reactor[m_iSelectorThreads];
+
+			for (int i = 0; i < m_reactors.length; i++)
+				m_reactors[i] = new Reactor();
+
+			m_channel = ServerSocketChannel.open();
+
+			m_channel.configureBlocking(false);
+			m_channel.socket().bind(new InetSocketAddress(l_inetAddr, l_iPort));
+			m_channel.register(m_reactors[0].m_selector, SelectionKey.OP_ACCEPT, null);
+		}
+		catch (IOException l_e)
+		{
+			_closeReactors();
+
+			m_channel = JaffreUtil.close(m_channel);
+
+			throw new JaffreServerException("Cannot start connector.", l_e);
+		}
+
+		m_executor = new ThreadPoolExecutor(Math.max(getCoreThreadPoolSize(), getMaxThreadPoolSize()),
+		                                    Math.max(getCoreThreadPoolSize(), getMaxThreadPoolSize()),
+		                                    60L,
+		                                    TimeUnit.SECONDS,
+		                                    new LinkedBlockingQueue<Runnable>(),
+		                                    new ConnectorThreadFactory("Thread"));
+
+		m_executor.allowCoreThreadTimeOut(true);
+
+		for (int i = 0, l_iCnt = getCoreThreadPoolSize(); i < l_iCnt; i++)
+			m_executor.prestartCoreThread();
+
+		m_bRun = true;
+
+		final ThreadFactory l_factory = new ConnectorThreadFactory("Selector");
+
+		for (final Reactor l_reactor : m_reactors)
+			l_factory.newThread(l_reactor).start();
+
+		m_bRunning = true;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#isRunning()
+	 */
+	@Override
+	public boolean isRunning()
+	{
+		return m_bRunning;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#stop()
+	 */
+	@Override
+	public synchronized void stop()
+	{
+		assert m_bRun;
+
+		if (!m_bRunning)
+			throw new IllegalStateException("The connector is not running.");
+
+		m_bRun = false;
+
+		try
+		{
+			final long l_lTimeLimit;
+
+			for (final Reactor l_reactor : m_reactors)
+				l_reactor.m_selector.wakeup();
+
+			m_executor.shutdownNow();
+
+			l_lTimeLimit = System.currentTimeMillis() + getStopTimeout();
+
+			try
+			{
+				while (System.currentTimeMillis() < l_lTimeLimit && m_threadGroup.activeCount() > 0)
+					Thread.sleep(10);
+			}
+			catch (InterruptedException l_e)
+			{
+				// don't wait any longer
+			}
+		}
+		finally
+		{
+			stopInOnlyExecutor();
+
+			m_channel  = JaffreUtil.close(m_channel);
+			m_executor = null;
+			m_bRunning = false;
+		}
+	}
+
+
+	private void _closeReactors()
+	{
+		if (m_reactors != null)
+		{
+			for (final Reactor l_reactor : m_reactors)
+			{
+				if (l_reactor != null)
+					JaffreUtil.close(l_reactor.m_selector);
+			}
+		}
+	}
+}
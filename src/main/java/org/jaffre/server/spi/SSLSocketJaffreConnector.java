@@ -18,26 +18,23 @@
 package org.jaffre.server.spi;
 
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.ClosedSelectorException;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.spi.SelectorProvider;
 import java.security.KeyStore;
-import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
@@ -47,15 +44,15 @@ import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 
-import org.jaffre.JaffreCallFrame;
 import org.jaffre.JaffreConfigurationException;
-import org.jaffre.JaffreReturnFrame;
 import org.jaffre.JaffreSerializeException;
 import org.jaffre.Logger;
 import org.jaffre.LoggerFactory;
-import org.jaffre.io.AbstractByteBufferInputStream;
-import org.jaffre.io.AbstractByteBufferOutputStream;
+import org.jaffre.io.ByteBufferPool;
 import org.jaffre.server.JaffreServerException;
+import org.jaffre.ssl.BlockingChannel;
+import org.jaffre.ssl.SSLInputStream;
+import org.jaffre.ssl.SSLOutputStream;
 import org.jaffre.ssl.SSLUtil;
 import org.jaffre.util.JaffreUtil;
 
@@ -73,18 +70,14 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 	private final ThreadGroup m_threadGroup =
 		new ThreadGroup("SSLSocketJaffreConnectorThreadGroup");
 
-	private final ThreadFactory m_threadFactory = new ConnectorThreadFactory();
+	private final ThreadFactory m_threadFactory = new ConnectorThreadFactory("Thread");
 
 	private volatile boolean m_bRun = false;
 
 	private AtomicInteger m_intRunning = new AtomicInteger(0);
 
-	private AtomicInteger m_intEngaged = new AtomicInteger(0);
 
-
-	private Selector m_selector;
-
-	private ServerSocketChannel m_channel;
+	private volatile ConnectionAcceptor m_acceptor;
 
 
 	//// SSL related properties
@@ -113,14 +106,42 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 
 	private boolean m_bNeedClientAuth = false;
 
+	private int m_iSessionCacheSize = -1;
+
+	private int m_iSessionTimeout = -1;
+
+	private int m_iHandshakeThreadPoolSize = Runtime.getRuntime().availableProcessors();
+
+	private int m_iMaxHandshakeRate = 0;
+
+	/** The executor for delegated SSL tasks, or <code>null</code>. */
+	private volatile ThreadPoolExecutor m_executorHandshake;
+
+	/** The earliest time of the next handshake, see {@link #_awaitHandshakePermit()}. */
+	private final AtomicLong m_lngNextHandshake = new AtomicLong(System.nanoTime());
+
+
+	//// statistics
+
+	private final AtomicLong m_lngFullHandshakes = new AtomicLong(0L);
+
+	private final AtomicLong m_lngResumedHandshakes = new AtomicLong(0L);
+
 
 	/**
 	 * The standard thread factory for this connector.
 	 */
 	private final class ConnectorThreadFactory implements ThreadFactory
 	{
+		private final String m_strKind;
+
 		private AtomicInteger m_intCount = new AtomicInteger(0);
 
+		private ConnectorThreadFactory(String p_strKind)
+		{
+			m_strKind = p_strKind;
+		}
+
 		@Override
 		public Thread newThread(Runnable p_runnable)
 		{
@@ -137,7 +158,9 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 
 			l_sbuf = new StringBuilder(128);
 
-			l_sbuf.append("SSLSocketJaffreConnectorThread-");
+			l_sbuf.append("SSLSocketJaffreConnector");
+			l_sbuf.append(m_strKind);
+			l_sbuf.append('-');
 			l_sbuf.append(l_inetAddr.getHostAddress());
 			l_sbuf.append(':');
 			l_sbuf.append(l_iPort);
@@ -161,39 +184,64 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 		@Override
 		public void run()
 		{
+			boolean l_bRetired = false;
+
 			try
 			{
-				m_intRunning.incrementAndGet();
-
-				while (_shouldRun())
+				while (m_bRun)
 				{
-					try (final SocketChannel l_channel = _select())
+					final SocketChannel l_channel;
+
+					try
+					{
+						// workers exceeding the core pool size may time out
+						if (m_intRunning.get() > getCoreThreadPoolSize())
+							l_channel = m_acceptor.poll(getKeepAliveTime());
+						else
+							l_channel = m_acceptor.take();
+					}
+					catch (InterruptedException l_e)
+					{
+						assert !m_bRun;
+
+						break;
+					}
+
+					if (l_channel == null)
 					{
-						if (l_channel != null)
+						// the keep-alive time elapsed
+						if (_retireWorkerThread())
 						{
-							try
-							{
-								// start new workers if neccessary and allowed
-								if (m_intEngaged.incrementAndGet() >= m_intRunning.get())
-								{
-									if (m_intRunning.get() < getMaxThreadPoolSize())
-										_startWorkerThread();
-								}
-
-								_process(l_channel);
-							}
-							finally
-							{
-								m_intEngaged.decrementAndGet();
-							}
+							l_bRetired = true;
+
+							// an acceptor may have queued a connection while
+							// the pool was at its maximum size, and left it to
+							// this thread
+							if (m_bRun && getNumQueuedConnections() > 0)
+								_onQueued();
+
+							break;
 						}
+
+						continue;
+					}
+
+					try (final SocketChannel l_ch = l_channel)
+					{
+						_process(l_ch);
 					}
 					catch (ClosedByInterruptException l_e)
 					{
-						assert !_shouldRun();
+						assert !m_bRun;
 
 						ms_log.debug("Socket closed by interrupt.", l_e);
 					}
+					catch (InterruptedIOException l_e)
+					{
+						assert !m_bRun;
+
+						ms_log.debug("SSL handshake interrupted.", l_e);
+					}
 					catch (Throwable l_e)
 					{
 						ms_log.error("An unexpected error occurred.", l_e);
@@ -202,92 +250,14 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 			}
 			finally
 			{
-				m_intRunning.decrementAndGet();
+				if (!l_bRetired)
+					m_intRunning.decrementAndGet();
 			}
 
 			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
 		}
 
 
-		/**
-		 * @return <code>true</code> if the connector's <code>stop()</code>
-		 *    method was not already invoked and the server-socket channel's
-		 *    selector is open.
-		 */
-		private boolean _shouldRun()
-		{
-			assert m_selector != null;
-
-			return m_bRun && m_selector.isOpen();
-		}
-
-
-		/**
-		 * @return A selected server-socket channel.
-		 * @throws ClosedSelectorException
-		 *    If the server-socket channel's selector was closed.
-		 */
-		private SocketChannel _select() throws ClosedSelectorException
-		{
-			assert m_selector != null;
-
-			synchronized (m_selector)
-			{
-				if (!_shouldRun())
-					return null;
-
-				try
-				{
-					if (m_selector.select() > 0) // i.e. == 1
-					{
-						final Iterator<SelectionKey> l_it;
-
-						l_it = m_selector.selectedKeys().iterator();
-
-						if (l_it.hasNext())
-						{
-							final SelectionKey        l_skey;
-							final ServerSocketChannel l_ssc;
-							final SocketChannel       l_channel;
-
-							l_skey = l_it.next();
-
-							l_it.remove();
-
-							l_ssc = (ServerSocketChannel)l_skey.channel();
-
-							assert l_ssc == m_channel;
-
-							l_channel = l_ssc.accept();
-
-							if (l_channel != null)
-								l_channel.configureBlocking(true);
-							else
-								ms_log.error("Selected a null channel.");
-
-							return l_channel;
-						}
-						else
-						{
-							return null;
-						}
-					}
-					else
-					{
-						// no keys selected
-						return null;
-					}
-				}
-				catch (IOException l_e)
-				{
-					ms_log.error("Error while selecting channels.", l_e);
-
-					return null;
-				}
-			}
-		}
-
-
 		/**
 		 * @param p_channel The socket channel.
 		 * @throws ClosedChannelException
@@ -315,7 +285,7 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 				l_inetSocketAddr = (InetSocketAddress)l_socketAddr;
 
 				l_sslEngine = m_sslContext.createSSLEngine
-					(l_inetSocketAddr.getHostName(), l_inetSocketAddr.getPort());
+					(l_inetSocketAddr.getHostString(), l_inetSocketAddr.getPort());
 			}
 			else
 			{
@@ -326,91 +296,80 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 			l_sslEngine.setNeedClientAuth(m_bNeedClientAuth);
 
 			final SSLSession l_session;
-			final ByteBuffer l_outAppBuf;
-			final ByteBuffer l_outNetBuf;
-			final ByteBuffer l_inAppBuf;
-			final ByteBuffer l_inNetBuf;
-
-			l_session   = l_sslEngine.getSession();
-			l_outAppBuf = ByteBuffer.allocate(l_session.getApplicationBufferSize());
-			l_outNetBuf = ByteBuffer.allocate(l_session.getPacketBufferSize());
-			l_inAppBuf  = ByteBuffer.allocate(l_session.getApplicationBufferSize());
-			l_inNetBuf  = ByteBuffer.allocate(l_session.getPacketBufferSize());
-
-			SSLUtil.doHandshake
-				(p_channel, l_sslEngine, l_outAppBuf, l_outNetBuf, l_inAppBuf, l_inNetBuf);
-
-			InputStream  l_in;
-			OutputStream l_out;
+			final int        l_iAppBufSize;
+			final int        l_iNetBufSize;
 
-			l_in  = null;
-			l_out = null;
+			l_session     = l_sslEngine.getSession();
+			l_iAppBufSize = l_session.getApplicationBufferSize();
+			l_iNetBufSize = l_session.getPacketBufferSize();
 
-			try
+			// the thread blocks in the socket until the peer is ready
+			try (final BlockingChannel l_channel = new BlockingChannel(p_channel, 0))
 			{
-				l_in = new AbstractByteBufferInputStream(l_inAppBuf, false)
-				{
-					@Override
-					public int read(ByteBuffer p_buffer) throws IOException
-					{
-						assert p_buffer == l_inAppBuf;
-
-						return SSLUtil.read(p_channel, l_sslEngine, l_inAppBuf, l_inNetBuf);
-					}
-				};
+				final ByteBuffer      l_outAppBuf;
+				final ByteBuffer      l_outNetBuf;
+				final ByteBuffer      l_inAppBuf;
+				final ByteBuffer      l_inNetBuf;
+				final SSLInputStream  l_in;
+				final SSLOutputStream l_out;
+
+				l_outAppBuf = ByteBufferPool.getHeapPool().acquire(l_iAppBufSize);
+				l_outNetBuf = ByteBufferPool.getDirectPool().acquire(l_iNetBufSize);
+				l_inAppBuf  = ByteBufferPool.getHeapPool().acquire(l_iAppBufSize);
+				l_inNetBuf  = ByteBufferPool.getDirectPool().acquire(l_iNetBufSize);
 
-				l_out = new BufferedOutputStream(new AbstractByteBufferOutputStream(l_outAppBuf)
+				try
 				{
-					@Override
-					public void write(ByteBuffer p_buffer, WRITE_MODE p_mode) throws IOException
-					{
-						assert p_buffer == l_outAppBuf;
-
-						SSLUtil.write(p_channel, l_sslEngine, l_outAppBuf, l_outNetBuf);
-					}
-				});
+					_awaitHandshakePermit();
 
-				if (m_bRun)
-					ms_log.debug("Begin dialog.");
-
-				dialog:
-				while (m_bRun)
+					if (SSLUtil.doHandshake(l_channel, l_sslEngine, m_executorHandshake,
+					                        l_outAppBuf, l_outNetBuf, l_inAppBuf, l_inNetBuf))
+						m_lngResumedHandshakes.incrementAndGet();
+					else
+						m_lngFullHandshakes.incrementAndGet();
+				}
+				catch (IOException | RuntimeException l_e)
 				{
-					final JaffreCallFrame   l_frameCall;
-					final boolean         l_bKeepAlive;
-					final JaffreReturnFrame l_frameReturn;
-
-					l_frameCall = getCallFrameSerializer().deserialize(l_in);
+					ByteBufferPool.getHeapPool().release(l_inAppBuf, false);
+					ByteBufferPool.getDirectPool().release(l_inNetBuf, false);
 
-					if (l_frameCall == null)
-						break dialog;
+					throw l_e;
+				}
+				finally
+				{
+					// the output stream acquires its buffers when needed
+					ByteBufferPool.getHeapPool().release(l_outAppBuf, false);
+					ByteBufferPool.getDirectPool().release(l_outNetBuf, false);
+				}
 
-					l_bKeepAlive = l_frameCall.isKeepAlive();
+				// the streams release the buffers while the connection is idle
+				l_in  = new SSLInputStream(l_channel, l_sslEngine, l_inAppBuf, l_inNetBuf);
+				l_out = new SSLOutputStream(l_channel, l_sslEngine);
 
-					l_frameReturn = getServer().process(l_frameCall, null);
+				try
+				{
+					if (m_bRun)
+						ms_log.debug("Begin dialog.");
 
-					if (l_frameCall.isInOut())
+					dialog(l_in, l_out);
+				}
+				finally
+				{
+					try
 					{
-						l_frameReturn.setKeepAlive(l_bKeepAlive);
-
-						getReturnFrameSerializer().serialize(l_frameReturn, l_out);
-						l_out.flush();
+						// exchange closing messages with the client
+						l_out.writeClosingMessage();
+						l_in.readClosingMessage();
 					}
+					finally
+					{
+						l_in.close();
 
-					if (!l_bKeepAlive || !canKeepAlive())
-						break dialog;
-				}
-			}
-			finally
-			{
-				// exchange closing messages with the client
-				SSLUtil.writeClosingMessage(p_channel, l_sslEngine, l_outAppBuf, l_outNetBuf);
-				SSLUtil.readClosingMessage(p_channel, l_sslEngine, l_inAppBuf, l_inNetBuf);
-
-				JaffreUtil.close(l_in);
-				JaffreUtil.close(l_out);
+						JaffreUtil.close(l_out);
 
-				ms_log.debug("End dialog.");
+						ms_log.debug("End dialog.");
+					}
+				}
 			}
 		}
 	}
@@ -430,8 +389,8 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 	@Override
 	public int getLocalPort()
 	{
-		if (m_channel != null)
-			return m_channel.socket().getLocalPort();
+		if (m_acceptor != null)
+			return m_acceptor.getLocalPort();
 		else
 			return -1;
 	}
@@ -449,6 +408,58 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 	}
 
 
+	/**
+	 * Get the number of accepted connections that wait for a worker
+	 * thread.
+	 * @return The number of queued connections.
+	 */
+	public int getNumQueuedConnections()
+	{
+		final ConnectionAcceptor l_acceptor = m_acceptor;
+
+		return l_acceptor != null ? l_acceptor.getNumQueued() : 0;
+	}
+
+
+	/**
+	 * Get the number of connections that were handed to a worker thread
+	 * since the connector was started.
+	 * @return The number of connections.
+	 */
+	public long getNumAcceptedConnections()
+	{
+		final ConnectionAcceptor l_acceptor = m_acceptor;
+
+		return l_acceptor != null ? l_acceptor.getNumTaken() : 0L;
+	}
+
+
+	/**
+	 * Get the sum of the times the accepted connections waited for a
+	 * worker thread since the connector was started.
+	 * @return The time in nanoseconds.
+	 */
+	public long getTotalQueueWaitTime()
+	{
+		final ConnectionAcceptor l_acceptor = m_acceptor;
+
+		return l_acceptor != null ? l_acceptor.getTotalWaitTime() : 0L;
+	}
+
+
+	/**
+	 * Get the longest time an accepted connection waited for a worker
+	 * thread since the connector was started.
+	 * @return The time in nanoseconds.
+	 */
+	public long getMaxQueueWaitTime()
+	{
+		final ConnectionAcceptor l_acceptor = m_acceptor;
+
+		return l_acceptor != null ? l_acceptor.getMaxWaitTime() : 0L;
+	}
+
+
 	/**
 	 * Set a <code>SSLContext</code> to be used by this connector.
 	 * <p>This property can be used to provide a more customized
@@ -487,6 +498,169 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 	}
 
 
+	/**
+	 * Get the maximum number of SSL sessions that are cached for
+	 * resumption.
+	 * @return The cache size, <code>0</code> if the cache size is
+	 *    unlimited, or <code>-1</code> if the default of the
+	 *    <code>SSLContext</code> is used.
+	 */
+	public int getSessionCacheSize()
+	{
+		return m_iSessionCacheSize;
+	}
+
+
+	/**
+	 * Set the maximum number of SSL sessions that are cached for
+	 * resumption.
+	 * <p>The size is not applied to a <code>SSLContext</code> that was
+	 * set with {@link #setSSLContext(SSLContext)}.</p>
+	 * @param p_iSessionCacheSize The cache size, or <code>0</code> for
+	 *    an unlimited cache size.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the size is negative.
+	 */
+	public void setSessionCacheSize(int p_iSessionCacheSize)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iSessionCacheSize < 0)
+		{
+			throw new JaffreConfigurationException
+				(p_iSessionCacheSize + " is not a valid session cache size.");
+		}
+
+		m_iSessionCacheSize = p_iSessionCacheSize;
+	}
+
+
+	/**
+	 * Get the time cached SSL sessions may be resumed.
+	 * @return The timeout in seconds, <code>0</code> if cached sessions
+	 *    do not time out, or <code>-1</code> if the default of the
+	 *    <code>SSLContext</code> is used.
+	 */
+	public int getSessionTimeout()
+	{
+		return m_iSessionTimeout;
+	}
+
+
+	/**
+	 * Set the time cached SSL sessions may be resumed.
+	 * <p>The timeout is not applied to a <code>SSLContext</code> that was
+	 * set with {@link #setSSLContext(SSLContext)}.</p>
+	 * @param p_iSessionTimeout The timeout in seconds, or <code>0</code>
+	 *    if cached sessions should not time out.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the timeout is negative.
+	 */
+	public void setSessionTimeout(int p_iSessionTimeout)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iSessionTimeout < 0)
+			throw new JaffreConfigurationException("Negative timeout value.");
+
+		m_iSessionTimeout = p_iSessionTimeout;
+	}
+
+
+	/**
+	 * Get the number of threads that run the delegated tasks of SSL
+	 * handshakes, i.e. the expensive key exchange and signature
+	 * operations. The worker threads wait for these tasks without using
+	 * CPU, so handshakes cannot use more than this number of processors.
+	 * The default value is the number of available processors.
+	 * @return The number of handshake threads, or <code>0</code> if the
+	 *    worker threads run the tasks themselves.
+	 */
+	public int getHandshakeThreadPoolSize()
+	{
+		return m_iHandshakeThreadPoolSize;
+	}
+
+
+	/**
+	 * Set the number of threads that run the delegated tasks of SSL
+	 * handshakes.
+	 * @param p_iHandshakeThreadPoolSize The number of handshake threads, or
+	 *    <code>0</code> if the worker threads should run the tasks themselves.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the number is negative.
+	 */
+	public void setHandshakeThreadPoolSize(int p_iHandshakeThreadPoolSize)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iHandshakeThreadPoolSize < 0)
+		{
+			throw new JaffreConfigurationException
+				(p_iHandshakeThreadPoolSize + " is not a valid handshake thread pool size.");
+		}
+
+		m_iHandshakeThreadPoolSize = p_iHandshakeThreadPoolSize;
+	}
+
+
+	/**
+	 * Get the maximum number of SSL handshakes per second. Connections
+	 * exceeding the rate wait before their handshake begins, which
+	 * smoothes reconnect storms. The default value is <code>0</code>.
+	 * @return The maximum rate, or <code>0</code> if the rate is unlimited.
+	 */
+	public int getMaxHandshakeRate()
+	{
+		return m_iMaxHandshakeRate;
+	}
+
+
+	/**
+	 * Set the maximum number of SSL handshakes per second.
+	 * @param p_iMaxHandshakeRate The maximum rate, or <code>0</code> if
+	 *    the rate should be unlimited.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the rate is negative.
+	 */
+	public void setMaxHandshakeRate(int p_iMaxHandshakeRate)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iMaxHandshakeRate < 0)
+		{
+			throw new JaffreConfigurationException
+				(p_iMaxHandshakeRate + " is not a valid handshake rate.");
+		}
+
+		m_iMaxHandshakeRate = p_iMaxHandshakeRate;
+	}
+
+
+	/**
+	 * Get the number of full SSL handshakes performed by this connector.
+	 * @return The number of full handshakes.
+	 */
+	public long getNumFullHandshakes()
+	{
+		return m_lngFullHandshakes.get();
+	}
+
+
+	/**
+	 * Get the number of SSL handshakes that resumed a cached session.
+	 * @return The number of abbreviated handshakes.
+	 */
+	public long getNumResumedHandshakes()
+	{
+		return m_lngResumedHandshakes.get();
+	}
+
+
 	/**
 	 * Get the key store path.
 	 * <p>Default is the value of the <code>javax.net.ssl.keyStore</code>
@@ -691,23 +865,39 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 
 		try
 		{
-			m_selector = SelectorProvider.provider().openSelector();
-			m_channel  = ServerSocketChannel.open();
-
-			m_channel.configureBlocking(false);
-			m_channel.socket().bind(new InetSocketAddress(l_inetAddr, l_iPort));
-			m_channel.register(m_selector, SelectionKey.OP_ACCEPT, null);
+			m_acceptor = new ConnectionAcceptor(new InetSocketAddress(l_inetAddr, l_iPort),
+			                                    getNumAcceptorThreads(),
+			                                    isReusePort(),
+			                                    getAcceptQueueCapacity(),
+			                                    this::_onQueued);
 		}
 		catch (IOException l_e)
 		{
 			throw new JaffreServerException("Cannot start connector.", l_e);
 		}
 
+		if (m_iHandshakeThreadPoolSize > 0)
+		{
+			m_executorHandshake = new ThreadPoolExecutor(m_iHandshakeThreadPoolSize,
+			                                             m_iHandshakeThreadPoolSize,
+			                                             getKeepAliveTime(),
+			                                             TimeUnit.MILLISECONDS,
+			                                             new LinkedBlockingQueue<Runnable>(),
+			                                             new ConnectorThreadFactory("Handshake"));
+
+			if (getKeepAliveTime() > 0)
+				m_executorHandshake.allowCoreThreadTimeOut(true);
+		}
+
+		m_lngNextHandshake.set(System.nanoTime());
+
 		m_bRun = true;
 
 		for (int i = 0, l_iCnt = getCoreThreadPoolSize(); i < l_iCnt; i++)
 			_startWorkerThread();
 
+		m_acceptor.start(getNumAcceptorThreads(), new ConnectorThreadFactory("Acceptor"));
+
 		m_bRunning = true;
 	}
 
@@ -739,6 +929,12 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 		{
 			final long l_lTimeLimit;
 
+			m_acceptor.close();
+
+			if (m_executorHandshake != null)
+				m_executorHandshake.shutdownNow();
+
+			// interrupt waiting workers and blocking reads
 			m_threadGroup.interrupt();
 
 			l_lTimeLimit = System.currentTimeMillis() + getStopTimeout();
@@ -757,21 +953,137 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 		}
 		finally
 		{
-			m_channel  = JaffreUtil.close(m_channel);
+			m_executorHandshake = null;
+
+			stopInOnlyExecutor();
+
 			m_bRunning = false;
 		}
 	}
 
 
+	/**
+	 * Wait until the next handshake is allowed by the maximum handshake
+	 * rate. Every caller reserves the next free time slot with a
+	 * compare-and-set, so waiting connections are spread evenly.
+	 * @throws ClosedByInterruptException If the thread was interrupted.
+	 */
+	private void _awaitHandshakePermit() throws ClosedByInterruptException
+	{
+		final long l_lInterval;
+		final long l_lNow;
+		long       l_lNext;
+		long       l_lSlot;
+
+		if (m_iMaxHandshakeRate == 0)
+			return;
+
+		l_lInterval = 1000000000L / m_iMaxHandshakeRate;
+		l_lNow      = System.nanoTime();
+
+		do
+		{
+			l_lNext = m_lngNextHandshake.get();
+			l_lSlot = Math.max(l_lNext, l_lNow);
+		}
+		while (!m_lngNextHandshake.compareAndSet(l_lNext, l_lSlot + l_lInterval));
+
+		if (l_lSlot > l_lNow)
+		{
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(l_lSlot - l_lNow);
+			}
+			catch (InterruptedException l_e)
+			{
+				Thread.currentThread().interrupt();
+
+				throw new ClosedByInterruptException();
+			}
+		}
+	}
+
+
 	/**
 	 * Start a new worker thread.
 	 */
 	private void _startWorkerThread()
 	{
-		m_threadFactory.newThread(new ConnectorRunnable()).start();
+		m_intRunning.incrementAndGet();
+
+		_spawnWorkerThread();
+	}
+
+
+	/**
+	 * Start a new worker thread for which a slot was already reserved.
+	 */
+	private void _spawnWorkerThread()
+	{
+		try
+		{
+			m_threadFactory.newThread(new ConnectorRunnable()).start();
+		}
+		catch (Throwable l_e)
+		{
+			m_intRunning.decrementAndGet();
+
+			throw l_e;
+		}
+	}
+
+
+	/**
+	 * Release the slot of an idle worker thread if the number of running
+	 * worker threads exceeds the core thread pool size.
+	 * @return <code>true</code> if the worker thread should terminate.
+	 */
+	private boolean _retireWorkerThread()
+	{
+		int l_iRunning;
+
+		while ((l_iRunning = m_intRunning.get()) > getCoreThreadPoolSize())
+		{
+			if (m_intRunning.compareAndSet(l_iRunning, l_iRunning - 1))
+				return true;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Called by an acceptor thread when no worker was waiting for an
+	 * accepted connection, and by a retiring worker thread that finds
+	 * connections queued. Starts a new worker thread if allowed.
+	 */
+	private void _onQueued()
+	{
+		int l_iRunning;
+
+		while ((l_iRunning = m_intRunning.get()) < getMaxThreadPoolSize())
+		{
+			if (m_intRunning.compareAndSet(l_iRunning, l_iRunning + 1))
+			{
+				_spawnWorkerThread();
+
+				break;
+			}
+		}
+	}
+
+
+	/*
+	 * @see org.jaffre.server.spi.AbstractSocketJaffreConnector#isAcceptingCalls()
+	 */
+	@Override
+	protected boolean isAcceptingCalls()
+	{
+		return m_bRun;
 	}
 
 
+	@Override
 	protected boolean canKeepAlive()
 	{
 		return true; // TODO
@@ -833,6 +1145,12 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 
 				l_sslContext.init(l_keyManagers, l_trustManagers, null);
 
+				if (m_iSessionCacheSize >= 0)
+					l_sslContext.getServerSessionContext().setSessionCacheSize(m_iSessionCacheSize);
+
+				if (m_iSessionTimeout >= 0)
+					l_sslContext.getServerSessionContext().setSessionTimeout(m_iSessionTimeout);
+
 				m_sslContext = l_sslContext;
 			}
 			catch (Exception l_e)
@@ -842,6 +1160,7 @@ public class SSLSocketJaffreConnector extends AbstractSocketJaffreConnector
 		}
 		else
 		{
+			// a custom context may be shared, so its session cache is left alone
 			m_sslContext = m_sslContextCustom;
 		}
 	}
@@ -0,0 +1,654 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server.spi;
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.MappedRingBuffer;
+import org.jaffre.server.JaffreServerException;
+import org.jaffre.util.JaffreUtil;
+
+
+/**
+ * A connector for clients on the same host that exchanges call and return
+ * frames through shared memory.
+ * <p>A client connects to the port of the connector with a plain socket. The
+ * connector then creates a file in {@link #getDirectory()} that holds a ring
+ * buffer for the call frames and one for the return frames, maps it into memory,
+ * and passes its path to the client. The client maps the same file, and the file
+ * is deleted. From then on the frames are exchanged through the ring buffers
+ * only, and the socket is only used to detect that the other side has gone.</p>
+ * <p>Every connection is served by its own thread. The thread pool size
+ * properties are ignored by this connector. Since the shared memory is only
+ * reachable on the same host, connections from other hosts are rejected, and
+ * at most {@link #getMaxConnections()} connections are served at a time.</p>
+ * @author Alexander Veit
+ * @see org.jaffre.client.spi.SharedMemoryJaffreClient
+ */
+public class SharedMemoryJaffreConnector extends AbstractSocketJaffreConnector
+{
+	private static final Logger ms_log =
+		LoggerFactory.getLogger(SharedMemoryJaffreConnector.class);
+
+	private boolean m_bRunning = false;
+
+	private final ThreadGroup m_threadGroup =
+		new ThreadGroup("SharedMemoryJaffreConnectorThreadGroup");
+
+	private volatile boolean m_bRun = false;
+
+	private final Set<SocketChannel> m_connections =
+		Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+
+	private ServerSocketChannel m_channel;
+
+	private String m_strDirectory;
+
+	private int m_iRingCapacity = 65536;
+
+	private int m_iSpinCount = 1000;
+
+	private int m_iMaxConnections = 64;
+
+	private int m_iHandshakeTimeout = 10000;	// ten seconds
+
+
+	/**
+	 * The thread factory for this connector.
+	 */
+	private final class ConnectorThreadFactory implements ThreadFactory
+	{
+		private final String m_strPrefix;
+
+		private AtomicInteger m_intCount = new AtomicInteger(0);
+
+		private ConnectorThreadFactory(String p_strPrefix)
+		{
+			m_strPrefix = p_strPrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable p_runnable)
+		{
+			final Thread l_thread;
+
+			l_thread = new Thread(m_threadGroup, p_runnable, m_strPrefix + m_intCount.incrementAndGet());
+
+			l_thread.setDaemon(true);
+
+			return l_thread;
+		}
+	}
+
+
+	/**
+	 * Accepts connections and starts a new thread for each of them.
+	 */
+	private final class AcceptorRunnable implements Runnable
+	{
+		private final ThreadFactory m_threadFactory;
+
+		private AcceptorRunnable(ThreadFactory p_threadFactory)
+		{
+			m_threadFactory = p_threadFactory;
+		}
+
+		@Override
+		public void run()
+		{
+			while (m_bRun)
+			{
+				try
+				{
+					final SocketChannel l_channel;
+
+					l_channel = m_channel.accept();
+
+					if (!_isLocal(l_channel))
+					{
+						ms_log.warn("Rejected a connection from " +
+						            l_channel.socket().getInetAddress() + ".");
+
+						JaffreUtil.close(l_channel);
+
+						continue;
+					}
+
+					if (m_connections.size() >= m_iMaxConnections)
+					{
+						ms_log.warn("Rejected a connection, the maximum number of " +
+						            m_iMaxConnections + " connections is reached.");
+
+						JaffreUtil.close(l_channel);
+
+						continue;
+					}
+
+					m_connections.add(l_channel);
+
+					try
+					{
+						m_threadFactory.newThread(new ConnectionRunnable(l_channel)).start();
+					}
+					catch (Throwable l_e)
+					{
+						m_connections.remove(l_channel);
+
+						JaffreUtil.close(l_channel);
+
+						throw l_e;
+					}
+				}
+				catch (ClosedChannelException l_e)
+				{
+					if (m_bRun)
+						ms_log.error("Server socket channel closed unexpectedly.", l_e);
+
+					break;
+				}
+				catch (Throwable l_e)
+				{
+					ms_log.error("An unexpected error occurred.", l_e);
+				}
+			}
+
+			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
+		}
+
+		private boolean _isLocal(SocketChannel p_channel)
+		{
+			final InetAddress l_addr;
+
+			l_addr = p_channel.socket().getInetAddress();
+
+			return l_addr != null && l_addr.isLoopbackAddress();
+		}
+	}
+
+
+	/**
+	 * Sets up the shared memory and runs the dialog with a single client.
+	 */
+	private final class ConnectionRunnable implements Runnable
+	{
+		private final SocketChannel m_channel;
+
+		private final ByteBuffer m_probe = ByteBuffer.allocate(1);
+
+		private ConnectionRunnable(SocketChannel p_channel)
+		{
+			m_channel = p_channel;
+		}
+
+		@Override
+		public void run()
+		{
+			InputStream  l_in;
+			OutputStream l_out;
+
+			l_in  = null;
+			l_out = null;
+
+			try (final SocketChannel l_channel = m_channel)
+			{
+				final MappedByteBuffer l_buf;
+				final int              l_iSize;
+
+				l_iSize = MappedRingBuffer.getSize(m_iRingCapacity);
+				l_buf   = _handshake(l_iSize);
+
+				l_buf.limit(l_iSize);
+				l_in = new MappedRingBuffer(l_buf.slice(), m_iSpinCount, this::_isAlive).getInputStream();
+
+				l_buf.limit(2 * l_iSize).position(l_iSize);
+				l_out = new MappedRingBuffer(l_buf.slice(), m_iSpinCount, this::_isAlive).getOutputStream();
+
+				// the socket is only used to detect that the client has gone
+				l_channel.configureBlocking(false);
+
+				dialog(l_in, l_out);
+			}
+			catch (ClosedChannelException l_e)
+			{
+				ms_log.debug("Channel closed.", l_e);
+			}
+			catch (SocketTimeoutException l_e)
+			{
+				ms_log.warn("The client did not complete the handshake in time.");
+			}
+			catch (Throwable l_e)
+			{
+				if (m_bRun)
+					ms_log.error("An unexpected error occurred.", l_e);
+				else
+					ms_log.debug("Connection closed while stopping.", l_e);
+			}
+			finally
+			{
+				JaffreUtil.close(l_in);
+				JaffreUtil.close(l_out);
+
+				m_connections.remove(m_channel);
+			}
+		}
+
+		/**
+		 * Create the shared memory and pass it to the client.
+		 * @param p_iSize The size of a ring buffer.
+		 * @return The shared memory.
+		 * @throws IOException If an I/O error occurred.
+		 */
+		private MappedByteBuffer _handshake(int p_iSize) throws IOException
+		{
+			final Path             l_path;
+			final MappedByteBuffer l_buf;
+
+			l_path = Files.createTempFile(_getDirectoryPath(), "jaffre-", ".shm");
+
+			try
+			{
+				final DataOutputStream l_out;
+
+				try (final FileChannel l_file = FileChannel.open
+					(l_path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+				{
+					l_buf = l_file.map(FileChannel.MapMode.READ_WRITE, 0L, 2L * p_iSize);
+				}
+
+				l_out = new DataOutputStream(Channels.newOutputStream(m_channel));
+
+				l_out.writeUTF(l_path.toAbsolutePath().toString());
+				l_out.writeInt(m_iRingCapacity);
+				l_out.flush();
+
+				// the client has mapped the file, the socket adaptor's stream
+				// honours the timeout in blocking mode
+				m_channel.socket().setSoTimeout(m_iHandshakeTimeout);
+
+				if (new DataInputStream(m_channel.socket().getInputStream()).read() != 1)
+					throw new EOFException("Connection closed during handshake.");
+			}
+			finally
+			{
+				Files.deleteIfExists(l_path);
+			}
+
+			return l_buf;
+		}
+
+		private boolean _isAlive()
+		{
+			try
+			{
+				m_probe.clear();
+
+				return m_bRun && m_channel.read(m_probe) >= 0;
+			}
+			catch (IOException l_e)
+			{
+				return false;
+			}
+		}
+	}
+
+
+	public SharedMemoryJaffreConnector()
+	{
+	}
+
+
+	@Override
+	public int getLocalPort()
+	{
+		if (m_channel != null)
+			return m_channel.socket().getLocalPort();
+		else
+			return -1;
+	}
+
+
+	/**
+	 * Get the directory where the shared memory files are created.
+	 * @return The directory, or <code>null</code> if the files are created in
+	 *    the default temporary-file directory.
+	 */
+	public String getDirectory()
+	{
+		return m_strDirectory;
+	}
+
+
+	/**
+	 * Set the directory where the shared memory files are created. The
+	 * directory should reside in a memory file system, e.g.
+	 * <code>/dev/shm</code> on Linux.
+	 * @param p_strDirectory The directory, or <code>null</code> if the
+	 *    files should be created in the default temporary-file directory.
+	 * @throws IllegalStateException If the connector is already running.
+	 */
+	public void setDirectory(String p_strDirectory)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		m_strDirectory = p_strDirectory;
+	}
+
+
+	/**
+	 * Get the capacity of the ring buffers of a connection. The default value
+	 * is <code>65536</code> bytes.
+	 * @return The capacity of the ring buffers.
+	 */
+	public int getRingCapacity()
+	{
+		return m_iRingCapacity;
+	}
+
+
+	/**
+	 * Set the capacity of the ring buffers of a connection. Frames that are
+	 * larger than the capacity are passed in several chunks.
+	 * @param p_iRingCapacity The capacity, a power of two.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the capacity is not a power of two
+	 *    or less than <code>1024</code>.
+	 */
+	public void setRingCapacity(int p_iRingCapacity)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iRingCapacity < 1024 || p_iRingCapacity > (1 << 30) ||
+		    (p_iRingCapacity & (p_iRingCapacity - 1)) != 0)
+		{
+			throw new JaffreConfigurationException
+				(p_iRingCapacity + " is not a valid ring capacity.");
+		}
+
+		m_iRingCapacity = p_iRingCapacity;
+	}
+
+
+	/**
+	 * Get the number of times a thread polls a ring buffer before it parks.
+	 * The default value is <code>1000</code>.
+	 * @return The spin count.
+	 */
+	public int getSpinCount()
+	{
+		return m_iSpinCount;
+	}
+
+
+	/**
+	 * Set the number of times a thread polls a ring buffer before it parks.
+	 * Higher values reduce the latency of calls at the cost of CPU time.
+	 * @param p_iSpinCount The spin count.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the spin count is negative.
+	 */
+	public void setSpinCount(int p_iSpinCount)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iSpinCount < 0)
+			throw new JaffreConfigurationException(p_iSpinCount + " is not a valid spin count.");
+
+		m_iSpinCount = p_iSpinCount;
+	}
+
+
+	/**
+	 * Get the maximum number of client connections that are served at a
+	 * time. Further connections are closed immediately. The default value is
+	 * <code>64</code>.
+	 * @return The maximum number of connections.
+	 */
+	public int getMaxConnections()
+	{
+		return m_iMaxConnections;
+	}
+
+
+	/**
+	 * Set the maximum number of client connections that are served at a time.
+	 * @param p_iMaxConnections The maximum number of connections.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the number is less than
+	 *    <code>1</code>.
+	 */
+	public void setMaxConnections(int p_iMaxConnections)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iMaxConnections < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iMaxConnections + " is not a valid maximum number of connections.");
+		}
+
+		m_iMaxConnections = p_iMaxConnections;
+	}
+
+
+	/**
+	 * Get the time a client may take to map the shared memory. The default
+	 * value is <code>10000</code> milliseconds.
+	 * @return The handshake timeout in milliseconds.
+	 */
+	public int getHandshakeTimeout()
+	{
+		return m_iHandshakeTimeout;
+	}
+
+
+	/**
+	 * Set the time a client may take to map the shared memory. The connection
+	 * is closed if the client does not acknowledge the mapping in time.
+	 * @param p_iHandshakeTimeout The timeout in milliseconds.
+	 * @throws IllegalStateException If the connector is already running.
+	 * @throws JaffreConfigurationException If the timeout is not positive.
+	 */
+	public void setHandshakeTimeout(int p_iHandshakeTimeout)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		if (p_iHandshakeTimeout < 1)
+		{
+			throw new JaffreConfigurationException
+				(p_iHandshakeTimeout + " is not a valid handshake timeout.");
+		}
+
+		m_iHandshakeTimeout = p_iHandshakeTimeout;
+	}
+
+
+	/**
+	 * Get the number of currently open client connections.
+	 * @return The number of open connections.
+	 */
+	public int getNumConnections()
+	{
+		return m_connections.size();
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#start()
+	 */
+	@Override
+	public synchronized void start()
+	{
+		final InetAddress l_inetAddr;
+		final int         l_iPort;
+		final String      l_strSuffix;
+
+		assert !m_bRun;
+
+		if (m_bRunning)
+			throw new IllegalStateException("The connector is already running.");
+
+		if (getServer() == null)
+			throw new JaffreConfigurationException("No Jaffre server.");
+
+		l_inetAddr = getBindingInetAddress();
+
+		if (l_inetAddr == null)
+			throw new JaffreConfigurationException("No binding address.");
+
+		l_iPort = getPort();
+
+		if (l_iPort < 0 || l_iPort > 0xFFFF)
+			throw new JaffreConfigurationException("Illegal port number " + l_iPort + ".");
+
+		if (!Files.isDirectory(_getDirectoryPath()))
+			throw new JaffreConfigurationException("Not a directory: " + _getDirectoryPath() + ".");
+
+		try
+		{
+			m_channel = ServerSocketChannel.open();
+
+			m_channel.configureBlocking(true);
+			m_channel.socket().bind(new InetSocketAddress(l_inetAddr, l_iPort));
+		}
+		catch (IOException l_e)
+		{
+			m_channel = JaffreUtil.close(m_channel);
+
+			throw new JaffreServerException("Cannot start connector.", l_e);
+		}
+
+		l_strSuffix = l_inetAddr.getHostAddress() + ':' + getLocalPort() + '-';
+
+		m_bRun = true;
+
+		new ConnectorThreadFactory("SharedMemoryJaffreConnectorAcceptor-" + l_strSuffix).newThread
+			(new AcceptorRunnable(new ConnectorThreadFactory("SharedMemoryJaffreConnectorThread-" + l_strSuffix))).start();
+
+		m_bRunning = true;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#isRunning()
+	 */
+	@Override
+	public boolean isRunning()
+	{
+		return m_bRunning;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#stop()
+	 */
+	@Override
+	public synchronized void stop()
+	{
+		assert m_bRun;
+
+		if (!m_bRunning)
+			throw new IllegalStateException("The connector is not running.");
+
+		m_bRun = false;
+
+		try
+		{
+			final long l_lTimeLimit;
+
+			m_channel = JaffreUtil.close(m_channel);
+
+			// waiting threads find their connections closed when they park
+			for (final SocketChannel l_channel : m_connections)
+				JaffreUtil.close(l_channel);
+
+			l_lTimeLimit = System.currentTimeMillis() + getStopTimeout();
+
+			try
+			{
+				while (System.currentTimeMillis() < l_lTimeLimit &&
+				       (m_threadGroup.activeCount() > 0 || !m_connections.isEmpty()))
+				{
+					Thread.sleep(10);
+				}
+			}
+			catch (InterruptedException l_e)
+			{
+				// don't wait any longer
+			}
+		}
+		finally
+		{
+			stopInOnlyExecutor();
+
+			m_channel  = JaffreUtil.close(m_channel);
+			m_bRunning = false;
+		}
+	}
+
+
+	/*
+	 * @see org.jaffre.server.spi.AbstractSocketJaffreConnector#isAcceptingCalls()
+	 */
+	@Override
+	protected boolean isAcceptingCalls()
+	{
+		return m_bRun;
+	}
+
+
+	private Path _getDirectoryPath()
+	{
+		if (m_strDirectory != null)
+			return Paths.get(m_strDirectory);
+		else
+			return new File(System.getProperty("java.io.tmpdir")).toPath();
+	}
+}
@@ -18,33 +18,23 @@
 package org.jaffre.server.spi;
 
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.ClosedSelectorException;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.spi.SelectorProvider;
-import java.util.Iterator;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.jaffre.JaffreCallFrame;
 import org.jaffre.JaffreConfigurationException;
-import org.jaffre.JaffreReturnFrame;
 import org.jaffre.JaffreSerializeException;
 import org.jaffre.Logger;
 import org.jaffre.LoggerFactory;
+import org.jaffre.io.ChannelInputStream;
+import org.jaffre.io.ChannelOutputStream;
 import org.jaffre.server.JaffreServerException;
-import org.jaffre.util.JaffreUtil;
 
 
 /**
@@ -58,18 +48,14 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 
 	private final ThreadGroup m_threadGroup = new ThreadGroup("SocketJaffreConnectorThreadGroup");
 
-	private final ThreadFactory m_threadFactory = new ConnectorThreadFactory();
+	private final ThreadFactory m_threadFactory = new ConnectorThreadFactory("Thread");
 
 	private volatile boolean m_bRun = false;
 
 	private AtomicInteger m_intRunning = new AtomicInteger(0);
 
-	private AtomicInteger m_intEngaged = new AtomicInteger(0);
 
-
-	private Selector m_selector;
-
-	private ServerSocketChannel m_channel;
+	private volatile ConnectionAcceptor m_acceptor;
 
 
 	private int m_iBufferSize = 8192;
@@ -80,8 +66,15 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 	 */
 	private final class ConnectorThreadFactory implements ThreadFactory
 	{
+		private final String m_strKind;
+
 		private AtomicInteger m_intCount = new AtomicInteger(0);
 
+		private ConnectorThreadFactory(String p_strKind)
+		{
+			m_strKind = p_strKind;
+		}
+
 		@Override
 		public Thread newThread(Runnable p_runnable)
 		{
@@ -98,7 +91,9 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 
 			l_sbuf = new StringBuilder(128);
 
-			l_sbuf.append("SocketJaffreConnectorThread-");
+			l_sbuf.append("SocketJaffreConnector");
+			l_sbuf.append(m_strKind);
+			l_sbuf.append('-');
 			l_sbuf.append(l_inetAddr.getHostAddress());
 			l_sbuf.append(':');
 			l_sbuf.append(l_iPort);
@@ -122,36 +117,55 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 		@Override
 		public void run()
 		{
+			boolean l_bRetired = false;
+
 			try
 			{
-				m_intRunning.incrementAndGet();
-
-				while (_shouldRun())
+				while (m_bRun)
 				{
-					try (final SocketChannel l_channel = _select())
+					final SocketChannel l_channel;
+
+					try
 					{
-						if (l_channel != null)
+						// workers exceeding the core pool size may time out
+						if (m_intRunning.get() > getCoreThreadPoolSize())
+							l_channel = m_acceptor.poll(getKeepAliveTime());
+						else
+							l_channel = m_acceptor.take();
+					}
+					catch (InterruptedException l_e)
+					{
+						assert !m_bRun;
+
+						break;
+					}
+
+					if (l_channel == null)
+					{
+						// the keep-alive time elapsed
+						if (_retireWorkerThread())
 						{
-							try (final Socket l_socket = l_channel.socket())
-							{
-								// start new workers if neccessary and allowed
-								if (m_intEngaged.incrementAndGet() >= m_intRunning.get())
-								{
-									if (m_intRunning.get() < getMaxThreadPoolSize())
-										_startWorkerThread();
-								}
-
-								_process(l_socket);
-							}
-							finally
-							{
-								m_intEngaged.decrementAndGet();
-							}
+							l_bRetired = true;
+
+							// an acceptor may have queued a connection while
+							// the pool was at its maximum size, and left it to
+							// this thread
+							if (m_bRun && getNumQueuedConnections() > 0)
+								_onQueued();
+
+							break;
 						}
+
+						continue;
+					}
+
+					try (final SocketChannel l_ch = l_channel)
+					{
+						_process(l_ch);
 					}
 					catch (ClosedByInterruptException l_e)
 					{
-						assert !_shouldRun();
+						assert !m_bRun;
 
 						ms_log.debug("Socket closed by interrupt.", l_e);
 					}
@@ -163,7 +177,8 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 			}
 			finally
 			{
-				m_intRunning.decrementAndGet();
+				if (!l_bRetired)
+					m_intRunning.decrementAndGet();
 			}
 
 			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
@@ -171,83 +186,7 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 
 
 		/**
-		 * @return <code>true</code> if the connector's <code>stop()</code>
-		 *    method was not already invoked and the server-socket channel's
-		 *    selector is open.
-		 */
-		private boolean _shouldRun()
-		{
-			assert m_selector != null;
-
-			return m_bRun && m_selector.isOpen();
-		}
-
-
-		/**
-		 * @return A selected server-socket channel.
-		 * @throws ClosedSelectorException
-		 *    If the server-socket channel's selector was closed.
-		 */
-		private SocketChannel _select() throws ClosedSelectorException
-		{
-			assert m_selector != null;
-
-			synchronized (m_selector)
-			{
-				if (!_shouldRun())
-					return null;
-
-				try
-				{
-					if (m_selector.select() > 0) // TODO i.e. == 1 ?????
-					{
-						final Iterator<SelectionKey> l_it;
-
-						l_it = m_selector.selectedKeys().iterator();
-
-						if (l_it.hasNext())
-						{
-							final SelectionKey        l_skey;
-							final ServerSocketChannel l_ssc;
-							final SocketChannel       l_channel;
-
-							l_skey = l_it.next();
-
-							l_it.remove();
-
-							l_ssc = (ServerSocketChannel)l_skey.channel();
-
-							assert l_ssc == m_channel;
-
-							l_channel = l_ssc.accept();
-
-							if (l_channel == null)
-								ms_log.error("Selected a null channel.");
-
-							return l_channel;
-						}
-						else
-						{
-							return null;
-						}
-					}
-					else
-					{
-						return null;
-					}
-				}
-				catch (IOException l_e)
-				{
-					ms_log.error("Error while selecting channels.", l_e);
-
-					return null;
-				}
-			}
-		}
-
-
-		/**
-		 * @param p_socket The socket to read data from.
+		 * @param p_channel The channel to read data from.
 		 * @throws ClosedChannelException
 		 * @throws ClosedByInterruptException If the socket was closed by an interrupt.
 		 * @throws IOException If another I/O error occurred.
@@ -256,40 +195,14 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 		 * @throws ClassNotFoundException
 		 *    See {@link org.jaffre.JaffreCallFrameSerializer#deserializeCall(InputStream)}.
 		 */
-		private void _process(Socket p_socket)
+		private void _process(SocketChannel p_channel)
 			throws ClosedByInterruptException, ClosedChannelException, IOException,
 				JaffreSerializeException, ClassNotFoundException
 		{
-			try (BufferedInputStream  l_in  = new BufferedInputStream(p_socket.getInputStream(), m_iBufferSize);
-			     BufferedOutputStream l_out = new BufferedOutputStream(p_socket.getOutputStream(), m_iBufferSize))
+			try (ChannelInputStream  l_in  = new ChannelInputStream(p_channel, m_iBufferSize);
+			     ChannelOutputStream l_out = new ChannelOutputStream(p_channel, m_iBufferSize))
 			{
-				dialog:
-				while (m_bRun)
-				{
-					final JaffreCallFrame   l_frameCall;
-					final boolean           l_bKeepAlive;
-					final JaffreReturnFrame l_frameReturn;
-
-					l_frameCall = getCallFrameSerializer().deserialize(l_in);
-
-					if (l_frameCall == null)
-						break dialog;
-
-					l_bKeepAlive = l_frameCall.isKeepAlive();
-
-					l_frameReturn = getServer().process(l_frameCall, null);
-
-					if (l_frameCall.isInOut())
-					{
-						l_frameReturn.setKeepAlive(l_bKeepAlive);
-
-						getReturnFrameSerializer().serialize(l_frameReturn, l_out);
-						l_out.flush();
-					}
-
-					if (!l_bKeepAlive || !canKeepAlive())
-						break dialog;
-				}
+				dialog(l_in, l_out);
 			}
 		}
 	}
@@ -303,8 +216,8 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 	@Override
 	public int getLocalPort()
 	{
-		if (m_channel != null)
-			return m_channel.socket().getLocalPort();
+		if (m_acceptor != null)
+			return m_acceptor.getLocalPort();
 		else
 			return -1;
 	}
@@ -322,6 +235,58 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 	}
 
 
+	/**
+	 * Get the number of accepted connections that wait for a worker
+	 * thread.
+	 * @return The number of queued connections.
+	 */
+	public int getNumQueuedConnections()
+	{
+		final ConnectionAcceptor l_acceptor = m_acceptor;
+
+		return l_acceptor != null ? l_acceptor.getNumQueued() : 0;
+	}
+
+
+	/**
+	 * Get the number of connections that were handed to a worker thread
+	 * since the connector was started.
+	 * @return The number of connections.
+	 */
+	public long getNumAcceptedConnections()
+	{
+		final ConnectionAcceptor l_acceptor = m_acceptor;
+
+		return l_acceptor != null ? l_acceptor.getNumTaken() : 0L;
+	}
+
+
+	/**
+	 * Get the sum of the times the accepted connections waited for a
+	 * worker thread since the connector was started.
+	 * @return The time in nanoseconds.
+	 */
+	public long getTotalQueueWaitTime()
+	{
+		final ConnectionAcceptor l_acceptor = m_acceptor;
+
+		return l_acceptor != null ? l_acceptor.getTotalWaitTime() : 0L;
+	}
+
+
+	/**
+	 * Get the longest time an accepted connection waited for a worker
+	 * thread since the connector was started.
+	 * @return The time in nanoseconds.
+	 */
+	public long getMaxQueueWaitTime()
+	{
+		final ConnectionAcceptor l_acceptor = m_acceptor;
+
+		return l_acceptor != null ? l_acceptor.getMaxWaitTime() : 0L;
+	}
+
+
 	/*
 	 * @see org.jaffre.server.JaffreConnector#start()
 	 */
@@ -352,14 +317,11 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 
 		try
 		{
-			m_selector = SelectorProvider.provider().openSelector();
-			m_channel  = ServerSocketChannel.open();
-
-			// TODO make socket option SO_REUSEADDR configurable to handle time wait states
-			//m_channel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
-			m_channel.configureBlocking(false);
-			m_channel.socket().bind(new InetSocketAddress(l_inetAddr, l_iPort));
-			m_channel.register(m_selector, SelectionKey.OP_ACCEPT, null);
+			m_acceptor = new ConnectionAcceptor(new InetSocketAddress(l_inetAddr, l_iPort),
+			                                    getNumAcceptorThreads(),
+			                                    isReusePort(),
+			                                    getAcceptQueueCapacity(),
+			                                    this::_onQueued);
 		}
 		catch (IOException l_e)
 		{
@@ -371,6 +333,8 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 		for (int i = 0, l_iCnt = getCoreThreadPoolSize(); i < l_iCnt; i++)
 			_startWorkerThread();
 
+		m_acceptor.start(getNumAcceptorThreads(), new ConnectorThreadFactory("Acceptor"));
+
 		m_bRunning = true;
 	}
 
@@ -402,6 +366,9 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 		{
 			final long l_lTimeLimit;
 
+			m_acceptor.close();
+
+			// interrupt waiting workers and blocking reads
 			m_threadGroup.interrupt();
 
 			l_lTimeLimit = System.currentTimeMillis() + getStopTimeout();
@@ -418,7 +385,8 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 		}
 		finally
 		{
-			m_channel  = JaffreUtil.close(m_channel);
+			stopInOnlyExecutor();
+
 			m_bRunning = false;
 		}
 	}
@@ -429,10 +397,81 @@ public class SocketJaffreConnector extends AbstractSocketJaffreConnector
 	 */
 	private void _startWorkerThread()
 	{
-		m_threadFactory.newThread(new ConnectorRunnable()).start();
+		m_intRunning.incrementAndGet();
+
+		_spawnWorkerThread();
 	}
 
 
+	/**
+	 * Start a new worker thread for which a slot was already reserved.
+	 */
+	private void _spawnWorkerThread()
+	{
+		try
+		{
+			m_threadFactory.newThread(new ConnectorRunnable()).start();
+		}
+		catch (Throwable l_e)
+		{
+			m_intRunning.decrementAndGet();
+
+			throw l_e;
+		}
+	}
+
+
+	/**
+	 * Release the slot of an idle worker thread if the number of running
+	 * worker threads exceeds the core thread pool size.
+	 * @return <code>true</code> if the worker thread should terminate.
+	 */
+	private boolean _retireWorkerThread()
+	{
+		int l_iRunning;
+
+		while ((l_iRunning = m_intRunning.get()) > getCoreThreadPoolSize())
+		{
+			if (m_intRunning.compareAndSet(l_iRunning, l_iRunning - 1))
+				return true;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Called by an acceptor thread when no worker was waiting for an
+	 * accepted connection, and by a retiring worker thread that finds
+	 * connections queued. Starts a new worker thread if allowed.
+	 */
+	private void _onQueued()
+	{
+		int l_iRunning;
+
+		while ((l_iRunning = m_intRunning.get()) < getMaxThreadPoolSize())
+		{
+			if (m_intRunning.compareAndSet(l_iRunning, l_iRunning + 1))
+			{
+				_spawnWorkerThread();
+
+				break;
+			}
+		}
+	}
+
+
+	/*
+	 * @see org.jaffre.server.spi.AbstractSocketJaffreConnector#isAcceptingCalls()
+	 */
+	@Override
+	protected boolean isAcceptingCalls()
+	{
+		return m_bRun;
+	}
+
+
+	@Override
 	protected boolean canKeepAlive()
 	{
 		return true;
@@ -0,0 +1,398 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server.spi;
+
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.ChannelInputStream;
+import org.jaffre.io.ChannelOutputStream;
+import org.jaffre.server.JaffreServerException;
+import org.jaffre.util.JaffreUtil;
+import org.jaffre.util.UnixDomainSocketUtil;
+
+
+/**
+ * A connector that accepts connections on a Unix domain socket.
+ * <p>Unix domain sockets avoid the TCP/IP stack for clients on the same
+ * host. They require a Java 16 or later runtime.</p>
+ * <p>Each connection runs the simple blocking dialog of the
+ * {@link SocketJaffreConnector} on a pooled thread. At most
+ * {@link #getMaxThreadPoolSize()} connections are served at a time, further
+ * connections wait in the backlog of the socket. The binding address and the
+ * port are ignored by this connector.</p>
+ * @author Alexander Veit
+ * @see org.jaffre.client.spi.UnixDomainSocketJaffreClient
+ */
+public class UnixDomainSocketJaffreConnector extends AbstractSocketJaffreConnector
+{
+	private static final Logger ms_log =
+		LoggerFactory.getLogger(UnixDomainSocketJaffreConnector.class);
+
+	private boolean m_bRunning = false;
+
+	private final ThreadGroup m_threadGroup =
+		new ThreadGroup("UnixDomainSocketJaffreConnectorThreadGroup");
+
+	private volatile boolean m_bRun = false;
+
+	private final Set<SocketChannel> m_connections =
+		Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+
+	private ServerSocketChannel m_channel;
+
+	private ThreadPoolExecutor m_executor;
+
+	/** The number of connections that may be served in addition. */
+	private Semaphore m_permits;
+
+	private String m_strPath;
+
+
+	private int m_iBufferSize = 8192;
+
+
+	/**
+	 * The thread factory for this connector.
+	 */
+	private final class ConnectorThreadFactory implements ThreadFactory
+	{
+		private final String m_strPrefix;
+
+		private AtomicInteger m_intCount = new AtomicInteger(0);
+
+		private ConnectorThreadFactory(String p_strPrefix)
+		{
+			m_strPrefix = p_strPrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable p_runnable)
+		{
+			final Thread l_thread;
+
+			l_thread = new Thread(m_threadGroup, p_runnable, m_strPrefix + m_intCount.incrementAndGet());
+
+			l_thread.setDaemon(true);
+
+			return l_thread;
+		}
+	}
+
+
+	/**
+	 * Accepts connections and hands them to the worker threads.
+	 */
+	private final class AcceptorRunnable implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while (m_bRun)
+			{
+				try
+				{
+					final SocketChannel l_channel;
+
+					// leave further connections in the backlog
+					m_permits.acquire();
+
+					try
+					{
+						l_channel = m_channel.accept();
+					}
+					catch (Throwable l_e)
+					{
+						m_permits.release();
+
+						throw l_e;
+					}
+
+					m_connections.add(l_channel);
+
+					try
+					{
+						m_executor.execute(new ConnectionRunnable(l_channel));
+					}
+					catch (Throwable l_e)
+					{
+						m_connections.remove(l_channel);
+						m_permits.release();
+
+						JaffreUtil.close(l_channel);
+
+						throw l_e;
+					}
+				}
+				catch (ClosedChannelException l_e)
+				{
+					if (m_bRun)
+						ms_log.error("Server socket channel closed unexpectedly.", l_e);
+
+					break;
+				}
+				catch (InterruptedException l_e)
+				{
+					break;
+				}
+				catch (Throwable l_e)
+				{
+					ms_log.error("An unexpected error occurred.", l_e);
+				}
+			}
+
+			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
+		}
+	}
+
+
+	/**
+	 * Runs the dialog with a single client.
+	 */
+	private final class ConnectionRunnable implements Runnable
+	{
+		private final SocketChannel m_channel;
+
+		private ConnectionRunnable(SocketChannel p_channel)
+		{
+			m_channel = p_channel;
+		}
+
+		@Override
+		public void run()
+		{
+			try (final SocketChannel       l_channel = m_channel;
+			     final ChannelInputStream  l_in      = new ChannelInputStream(l_channel, m_iBufferSize);
+			     final ChannelOutputStream l_out     = new ChannelOutputStream(l_channel, m_iBufferSize))
+			{
+				dialog(l_in, l_out);
+			}
+			catch (ClosedChannelException l_e)
+			{
+				ms_log.debug("Channel closed.", l_e);
+			}
+			catch (Throwable l_e)
+			{
+				if (m_bRun)
+					ms_log.error("An unexpected error occurred.", l_e);
+				else
+					ms_log.debug("Connection closed while stopping.", l_e);
+			}
+			finally
+			{
+				m_connections.remove(m_channel);
+				m_permits.release();
+			}
+		}
+	}
+
+
+	public UnixDomainSocketJaffreConnector()
+	{
+	}
+
+
+	/**
+	 * Unix domain sockets have no port.
+	 * @return Always <code>-1</code>.
+	 */
+	@Override
+	public int getLocalPort()
+	{
+		return -1;
+	}
+
+
+	/**
+	 * Get the path of the socket file.
+	 * @return The path of the socket file, or <code>null</code>.
+	 */
+	public String getPath()
+	{
+		return m_strPath;
+	}
+
+
+	/**
+	 * Set the path of the socket file. An existing file is replaced when the
+	 * connector is started, and the file is deleted when the connector is
+	 * stopped.
+	 * @param p_strPath The path of the socket file.
+	 * @throws IllegalStateException If the connector is already running.
+	 */
+	public void setPath(String p_strPath)
+	{
+		if (isRunning())
+			throw new IllegalStateException();
+
+		m_strPath = p_strPath;
+	}
+
+
+	/**
+	 * Get the number of currently open client connections.
+	 * @return The number of open connections.
+	 */
+	public int getNumConnections()
+	{
+		return m_connections.size();
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#start()
+	 */
+	@Override
+	public synchronized void start()
+	{
+		final String l_strPrefix;
+
+		assert !m_bRun;
+
+		if (m_bRunning)
+			throw new IllegalStateException("The connector is already running.");
+
+		if (getServer() == null)
+			throw new JaffreConfigurationException("No Jaffre server.");
+
+		if (m_strPath == null)
+			throw new JaffreConfigurationException("No socket path.");
+
+		m_channel = UnixDomainSocketUtil.openServerSocketChannel();
+
+		try
+		{
+			// a file that was left by a previous run
+			Files.deleteIfExists(Paths.get(m_strPath));
+
+			m_channel.configureBlocking(true);
+			m_channel.bind(UnixDomainSocketUtil.newAddress(m_strPath));
+		}
+		catch (IOException l_e)
+		{
+			m_channel = JaffreUtil.close(m_channel);
+
+			throw new JaffreServerException("Cannot start connector.", l_e);
+		}
+
+		l_strPrefix = "UnixDomainSocketJaffreConnectorThread-" + m_strPath + '-';
+
+		m_permits  = new Semaphore(getMaxThreadPoolSize());
+		m_executor = new ThreadPoolExecutor(getCoreThreadPoolSize(),
+		                                    getMaxThreadPoolSize(),
+		                                    getKeepAliveTime(),
+		                                    TimeUnit.MILLISECONDS,
+		                                    new SynchronousQueue<Runnable>(),
+		                                    new ConnectorThreadFactory(l_strPrefix));
+
+		m_bRun = true;
+
+		new ConnectorThreadFactory("UnixDomainSocketJaffreConnectorAcceptor-" + m_strPath + '-')
+			.newThread(new AcceptorRunnable()).start();
+
+		m_bRunning = true;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#isRunning()
+	 */
+	@Override
+	public boolean isRunning()
+	{
+		return m_bRunning;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#stop()
+	 */
+	@Override
+	public synchronized void stop()
+	{
+		assert m_bRun;
+
+		if (!m_bRunning)
+			throw new IllegalStateException("The connector is not running.");
+
+		m_bRun = false;
+
+		try
+		{
+			m_channel = JaffreUtil.close(m_channel);
+
+			// interrupt blocking reads
+			for (final SocketChannel l_channel : m_connections)
+				JaffreUtil.close(l_channel);
+
+			m_executor.shutdown();
+
+			try
+			{
+				m_executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException l_e)
+			{
+				// don't wait any longer
+			}
+		}
+		finally
+		{
+			stopInOnlyExecutor();
+
+			m_channel  = JaffreUtil.close(m_channel);
+			m_executor = null;
+			m_bRunning = false;
+
+			try
+			{
+				Files.deleteIfExists(Paths.get(m_strPath));
+			}
+			catch (IOException l_e)
+			{
+				ms_log.debug("Cannot delete the socket file.", l_e);
+			}
+		}
+	}
+
+
+	/*
+	 * @see org.jaffre.server.spi.AbstractSocketJaffreConnector#isAcceptingCalls()
+	 */
+	@Override
+	protected boolean isAcceptingCalls()
+	{
+		return m_bRun;
+	}
+}
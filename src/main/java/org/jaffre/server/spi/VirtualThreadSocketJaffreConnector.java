@@ -0,0 +1,418 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.server.spi;
+
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+import org.jaffre.io.ChannelInputStream;
+import org.jaffre.io.ChannelOutputStream;
+import org.jaffre.server.JaffreServerException;
+import org.jaffre.util.JaffreUtil;
+
+
+/**
+ * A connector that serves every accepted connection with its own virtual thread.
+ * <p>Each connection runs the simple blocking dialog of the
+ * {@link SocketJaffreConnector}, but the number of concurrent connections is not
+ * bounded by a thread pool. The thread pool size properties are ignored by this
+ * connector.</p>
+ * <p>Virtual threads require a Java 21 or later runtime. On older runtimes
+ * the connector falls back to one platform thread per connection.</p>
+ * @author Alexander Veit
+ */
+public class VirtualThreadSocketJaffreConnector extends AbstractSocketJaffreConnector
+{
+	private static final Logger ms_log =
+		LoggerFactory.getLogger(VirtualThreadSocketJaffreConnector.class);
+
+	private boolean m_bRunning = false;
+
+	private final ThreadGroup m_threadGroup =
+		new ThreadGroup("VirtualThreadSocketJaffreConnectorThreadGroup");
+
+	private volatile boolean m_bRun = false;
+
+	private final Set<SocketChannel> m_connections =
+		Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+
+	private ThreadFactory m_threadFactory;
+
+	private boolean m_bVirtual;
+
+
+	private ServerSocketChannel m_channel;
+
+
+	private int m_iBufferSize = 8192;
+
+
+	/**
+	 * A thread factory for platform threads.
+	 */
+	private final class ConnectorThreadFactory implements ThreadFactory
+	{
+		private final String m_strPrefix;
+
+		private AtomicInteger m_intCount = new AtomicInteger(0);
+
+		private ConnectorThreadFactory(String p_strPrefix)
+		{
+			m_strPrefix = p_strPrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable p_runnable)
+		{
+			final Thread l_thread;
+
+			l_thread = new Thread(m_threadGroup, p_runnable, m_strPrefix + m_intCount.incrementAndGet());
+
+			l_thread.setDaemon(true);
+
+			return l_thread;
+		}
+	}
+
+
+	/**
+	 * Accepts connections and starts a new thread for each of them.
+	 */
+	private final class AcceptorRunnable implements Runnable
+	{
+		/** The server socket channel, which is closed but not replaced by a stop. */
+		private final ServerSocketChannel m_channel;
+
+		private AcceptorRunnable(ServerSocketChannel p_channel)
+		{
+			m_channel = p_channel;
+		}
+
+		@Override
+		public void run()
+		{
+			while (m_bRun)
+			{
+				try
+				{
+					final SocketChannel l_channel;
+
+					l_channel = m_channel.accept();
+
+					m_connections.add(l_channel);
+
+					try
+					{
+						m_threadFactory.newThread(new ConnectionRunnable(l_channel)).start();
+					}
+					catch (Throwable l_e)
+					{
+						m_connections.remove(l_channel);
+
+						JaffreUtil.close(l_channel);
+
+						throw l_e;
+					}
+				}
+				catch (ClosedChannelException l_e)
+				{
+					// includes the AsynchronousCloseException of a stop
+					if (m_bRun)
+						ms_log.error("Server socket channel closed unexpectedly.", l_e);
+
+					break;
+				}
+				catch (Throwable l_e)
+				{
+					if (!m_bRun)
+					{
+						ms_log.debug("Server socket channel closed while stopping.", l_e);
+
+						break;
+					}
+
+					ms_log.error("An unexpected error occurred.", l_e);
+				}
+			}
+
+			ms_log.debug("Exiting " + Thread.currentThread().getName() + ".");
+		}
+	}
+
+
+	/**
+	 * Runs the dialog with a single client.
+	 */
+	private final class ConnectionRunnable implements Runnable
+	{
+		private final SocketChannel m_channel;
+
+		private ConnectionRunnable(SocketChannel p_channel)
+		{
+			m_channel = p_channel;
+		}
+
+		@Override
+		public void run()
+		{
+			try (final SocketChannel       l_channel = m_channel;
+			     final ChannelInputStream  l_in      = new ChannelInputStream(l_channel, m_iBufferSize);
+			     final ChannelOutputStream l_out     = new ChannelOutputStream(l_channel, m_iBufferSize))
+			{
+				dialog(l_in, l_out);
+			}
+			catch (ClosedChannelException l_e)
+			{
+				ms_log.debug("Channel closed.", l_e);
+			}
+			catch (Throwable l_e)
+			{
+				if (m_bRun)
+					ms_log.error("An unexpected error occurred.", l_e);
+				else
+					ms_log.debug("Connection closed while stopping.", l_e);
+			}
+			finally
+			{
+				m_connections.remove(m_channel);
+			}
+		}
+	}
+
+
+	public VirtualThreadSocketJaffreConnector()
+	{
+	}
+
+
+	@Override
+	public int getLocalPort()
+	{
+		if (m_channel != null)
+			return m_channel.socket().getLocalPort();
+		else
+			return -1;
+	}
+
+
+	/**
+	 * Get the number of currently open client connections.
+	 * @return The number of open connections.
+	 */
+	public int getNumConnections()
+	{
+		return m_connections.size();
+	}
+
+
+	/**
+	 * Check if connections are served by virtual threads.
+	 * <p>The result is only meaningful while the connector is running.</p>
+	 * @return <code>true</code> if connections are served by virtual threads,
+	 *    or <code>false</code> if platform threads are used.
+	 */
+	public boolean isVirtual()
+	{
+		return m_bVirtual;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#start()
+	 */
+	@Override
+	public synchronized void start()
+	{
+		final InetAddress   l_inetAddr;
+		final int           l_iPort;
+		final String        l_strPrefix;
+		final ThreadFactory l_factory;
+
+		assert !m_bRun;
+
+		if (m_bRunning)
+			throw new IllegalStateException("The connector is already running.");
+
+		if (getServer() == null)
+			throw new JaffreConfigurationException("No Jaffre server.");
+
+		l_inetAddr = getBindingInetAddress();
+
+		if (l_inetAddr == null)
+			throw new JaffreConfigurationException("No binding address.");
+
+		l_iPort = getPort();
+
+		if (l_iPort < 0 || l_iPort > 0xFFFF)
+			throw new JaffreConfigurationException("Illegal port number " + l_iPort + ".");
+
+		try
+		{
+			m_channel = ServerSocketChannel.open();
+
+			m_channel.configureBlocking(true);
+			m_channel.socket().bind(new InetSocketAddress(l_inetAddr, l_iPort));
+		}
+		catch (IOException l_e)
+		{
+			m_channel = JaffreUtil.close(m_channel);
+
+			throw new JaffreServerException("Cannot start connector.", l_e);
+		}
+
+		l_strPrefix = "VirtualThreadSocketJaffreConnectorThread-" +
+			l_inetAddr.getHostAddress() + ':' + getLocalPort() + '-';
+
+		l_factory = _newVirtualThreadFactory(l_strPrefix);
+
+		if (l_factory != null)
+		{
+			m_threadFactory = l_factory;
+			m_bVirtual      = true;
+		}
+		else
+		{
+			ms_log.warn("Virtual threads are not available, using platform threads.");
+
+			m_threadFactory = new ConnectorThreadFactory(l_strPrefix);
+			m_bVirtual      = false;
+		}
+
+		m_bRun = true;
+
+		new ConnectorThreadFactory("VirtualThreadSocketJaffreConnectorAcceptor-" +
+			l_inetAddr.getHostAddress() + ':' + getLocalPort() + '-').newThread(new AcceptorRunnable(m_channel)).start();
+
+		m_bRunning = true;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#isRunning()
+	 */
+	@Override
+	public boolean isRunning()
+	{
+		return m_bRunning;
+	}
+
+
+	/*
+	 * @see org.jaffre.server.JaffreConnector#stop()
+	 */
+	@Override
+	public synchronized void stop()
+	{
+		assert m_bRun;
+
+		if (!m_bRunning)
+			throw new IllegalStateException("The connector is not running.");
+
+		m_bRun = false;
+
+		try
+		{
+			final long l_lTimeLimit;
+
+			m_channel = JaffreUtil.close(m_channel);
+
+			// interrupt blocking reads
+			for (final SocketChannel l_channel : m_connections)
+				JaffreUtil.close(l_channel);
+
+			l_lTimeLimit = System.currentTimeMillis() + getStopTimeout();
+
+			try
+			{
+				while (System.currentTimeMillis() < l_lTimeLimit &&
+				       (m_threadGroup.activeCount() > 0 || !m_connections.isEmpty()))
+				{
+					Thread.sleep(10);
+				}
+			}
+			catch (InterruptedException l_e)
+			{
+				// don't wait any longer
+			}
+		}
+		finally
+		{
+			stopInOnlyExecutor();
+
+			m_channel  = JaffreUtil.close(m_channel);
+			m_bRunning = false;
+		}
+	}
+
+
+	/*
+	 * @see org.jaffre.server.spi.AbstractSocketJaffreConnector#isAcceptingCalls()
+	 */
+	@Override
+	protected boolean isAcceptingCalls()
+	{
+		return m_bRun;
+	}
+
+
+	/**
+	 * Create a factory for virtual threads.
+	 * @param p_strPrefix The thread name prefix.
+	 * @return A factory for virtual threads, or <code>null</code> if the
+	 *    runtime does not support virtual threads.
+	 */
+	private static ThreadFactory _newVirtualThreadFactory(String p_strPrefix)
+	{
+		try
+		{
+			final Method   l_ofVirtual;
+			final Class<?> l_clsBuilder;
+			Object         l_builder;
+
+			// Thread.ofVirtual().name(p_strPrefix, 1L).factory()
+			l_ofVirtual  = Thread.class.getMethod("ofVirtual");
+			l_clsBuilder = Class.forName("java.lang.Thread$Builder");
+
+			l_builder = l_ofVirtual.invoke(null);
+			l_builder = l_clsBuilder.getMethod("name", String.class, long.class).invoke(l_builder, p_strPrefix, 1L);
+
+			return (ThreadFactory)l_clsBuilder.getMethod("factory").invoke(l_builder);
+		}
+		catch (Throwable l_e)
+		{
+			// not supported by the runtime, or preview features are disabled
+			ms_log.debug("Cannot create a virtual thread factory.", l_e);
+
+			return null;
+		}
+	}
+}
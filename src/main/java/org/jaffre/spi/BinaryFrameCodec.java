@@ -0,0 +1,1333 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.spi;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreSerializeException;
+
+
+/**
+ * Encoding and decoding of values for the binary frame serializers.
+ * <p>A frame is written as a varint length followed by the frame body.
+ * The body starts with the names that are interned with this frame, as a
+ * count followed by the names. Values in the body are tagged. Primitive
+ * wrappers, strings, classes, arrays and the common collection classes are
+ * written in a compact form. All other values are written with Java
+ * serialization, and so is a value in which an array or a collection
+ * occurs more than once, to retain shared references and cycles.</p>
+ * <p>Class and method names are written as a varint whose lowest bit tells
+ * whether a literal name or the id of an interned name follows. Serializers
+ * for a single connection intern the names, so each name is sent only once
+ * per connection.</p>
+ * @author Alexander Veit
+ */
+final class BinaryFrameCodec
+{
+	static final int TAG_NULL = 0;
+
+	static final int TAG_TRUE = 1;
+
+	static final int TAG_FALSE = 2;
+
+	static final int TAG_BYTE = 3;
+
+	static final int TAG_SHORT = 4;
+
+	static final int TAG_CHAR = 5;
+
+	static final int TAG_INT = 6;
+
+	static final int TAG_LONG = 7;
+
+	static final int TAG_FLOAT = 8;
+
+	static final int TAG_DOUBLE = 9;
+
+	static final int TAG_STRING = 10;
+
+	static final int TAG_CLASS = 11;
+
+	static final int TAG_BYTE_ARRAY = 12;
+
+	static final int TAG_INT_ARRAY = 13;
+
+	static final int TAG_LONG_ARRAY = 14;
+
+	static final int TAG_DOUBLE_ARRAY = 15;
+
+	static final int TAG_OBJECT_ARRAY = 16;
+
+	static final int TAG_ARRAY_LIST = 17;
+
+	static final int TAG_LINKED_LIST = 18;
+
+	static final int TAG_HASH_SET = 19;
+
+	static final int TAG_LINKED_HASH_SET = 20;
+
+	static final int TAG_HASH_MAP = 21;
+
+	static final int TAG_SERIALIZED = 22;
+
+	/** The default maximum length of a frame body in bytes. */
+	static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	/** The size of the chunks in which a frame body is read. */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/** The maximum number of interned names per connection and direction. */
+	static final int MAX_NAMES = 4096;
+
+	/** The maximum number of cached method name encodings. */
+	private static final int MAX_CACHED_STRINGS = 1024;
+
+	/** The offset of the frame body in the buffer of a writer. */
+	private static final int BODY_OFFSET = 6;
+
+	private static final Map<String, Class<?>> ms_primitives = new HashMap<>();
+
+	static
+	{
+		for (final Class<?> l_cls : new Class<?>[] {boolean.class, byte.class, short.class, char.class,
+		                                            int.class, long.class, float.class, double.class,
+		                                            void.class})
+		{
+			ms_primitives.put(l_cls.getName(), l_cls);
+		}
+	}
+
+	/** Encoded class names. The encodings are kept by the classes, so class loaders are not pinned. */
+	private static final ClassValue<byte[]> ms_classNames = new ClassValue<byte[]>()
+	{
+		@Override
+		protected byte[] computeValue(Class<?> p_cls)
+		{
+			return _encodeLiteral(p_cls.getName());
+		}
+	};
+
+	/** Encoded method names, at most {@link #MAX_CACHED_STRINGS}. */
+	private static final ConcurrentHashMap<String, byte[]> ms_strings = new ConcurrentHashMap<>();
+
+
+	private BinaryFrameCodec()
+	{
+	}
+
+
+	/**
+	 * The names that were interned in one direction of a connection.
+	 */
+	static final class Names
+	{
+		/** The ids of the names, used by writers. The keys are classes and method names. */
+		private final Map<Object, Integer> m_ids = new HashMap<>();
+
+		/** The names by id, used by readers. Class names are replaced by the resolved classes. */
+		private final ArrayList<Object> m_names = new ArrayList<>();
+	}
+
+
+	/**
+	 * The classes that were resolved by a serializer, per class loader.
+	 * <p>The cache belongs to a serializer, so classes of different
+	 * deployments are neither mixed up nor kept after the serializer was
+	 * discarded.</p>
+	 */
+	static final class ClassCache
+	{
+		private final ConcurrentHashMap<ClassLoader, ConcurrentHashMap<String, Class<?>>> m_classes =
+			new ConcurrentHashMap<>();
+
+
+		/**
+		 * Get a class by its name.
+		 * <p>The class is loaded by the context class loader of the current
+		 * thread, or by the class loader of this class.</p>
+		 * @param p_strName The class name as returned by {@link Class#getName()}.
+		 * @return The class.
+		 * @throws ClassNotFoundException If the class cannot be found.
+		 */
+		Class<?> getClass(String p_strName) throws ClassNotFoundException
+		{
+			final ClassLoader                         l_loaderContext;
+			final ClassLoader                         l_loader;
+			final ConcurrentHashMap<String, Class<?>> l_classes;
+			Class<?>                                  l_cls;
+
+			l_cls = ms_primitives.get(p_strName);
+
+			if (l_cls != null)
+				return l_cls;
+
+			l_loaderContext = Thread.currentThread().getContextClassLoader();
+			l_loader        = l_loaderContext != null ? l_loaderContext : BinaryFrameCodec.class.getClassLoader();
+
+			if (l_loader == null)
+				return Class.forName(p_strName, false, null);
+
+			l_classes = m_classes.computeIfAbsent(l_loader, l_key -> new ConcurrentHashMap<>());
+			l_cls     = l_classes.get(p_strName);
+
+			if (l_cls != null)
+				return l_cls;
+
+			try
+			{
+				l_cls = Class.forName(p_strName, false, l_loader);
+			}
+			catch (ClassNotFoundException l_e)
+			{
+				l_cls = Class.forName(p_strName, false, BinaryFrameCodec.class.getClassLoader());
+			}
+
+			l_classes.putIfAbsent(p_strName, l_cls);
+
+			return l_cls;
+		}
+	}
+
+
+	/**
+	 * A growable output buffer.
+	 */
+	static final class Writer
+	{
+		private byte[] m_buf = new byte[256];
+
+		private int m_iPos;
+
+		/** The names of the connection, or <code>null</code> if names are not interned. */
+		private final Names m_names;
+
+		/** The ids of the names that are interned with this frame, or <code>null</code>. */
+		private LinkedHashMap<Object, Integer> m_pending;
+
+		/** The containers of the value being written, or <code>null</code>. */
+		private IdentityHashMap<Object, Boolean> m_containers;
+
+
+		/**
+		 * Create a writer.
+		 * @param p_names The interned names of the connection, or
+		 *    <code>null</code> if names are not to be interned.
+		 */
+		Writer(Names p_names)
+		{
+			m_names = p_names;
+			m_iPos  = BODY_OFFSET; // reserved for the frame length and the interned names
+		}
+
+
+		private void _ensure(int p_iLen)
+		{
+			if (m_iPos + p_iLen > m_buf.length)
+				m_buf = Arrays.copyOf(m_buf, Math.max(m_buf.length * 2, m_iPos + p_iLen));
+		}
+
+
+		void writeByte(int p_iByte)
+		{
+			_ensure(1);
+
+			m_buf[m_iPos++] = (byte)p_iByte;
+		}
+
+
+		void writeBytes(byte[] p_buf)
+		{
+			_ensure(p_buf.length);
+
+			System.arraycopy(p_buf, 0, m_buf, m_iPos, p_buf.length);
+
+			m_iPos += p_buf.length;
+		}
+
+
+		void writeVarLong(long p_lValue)
+		{
+			_ensure(10);
+
+			while ((p_lValue & ~0x7FL) != 0)
+			{
+				m_buf[m_iPos++] = (byte)((p_lValue & 0x7F) | 0x80);
+
+				p_lValue >>>= 7;
+			}
+
+			m_buf[m_iPos++] = (byte)p_lValue;
+		}
+
+
+		void writeVarInt(int p_iValue)
+		{
+			writeVarLong(p_iValue & 0xFFFFFFFFL);
+		}
+
+
+		void writeZigZagLong(long p_lValue)
+		{
+			writeVarLong((p_lValue << 1) ^ (p_lValue >> 63));
+		}
+
+
+		void writeFixedLong(long p_lValue)
+		{
+			_ensure(8);
+
+			for (int i = 56; i >= 0; i -= 8)
+				m_buf[m_iPos++] = (byte)(p_lValue >>> i);
+		}
+
+
+		/**
+		 * Write a length-prefixed byte array.
+		 * @param p_buf The bytes.
+		 */
+		void writeBlock(byte[] p_buf)
+		{
+			writeVarInt(p_buf.length);
+			writeBytes(p_buf);
+		}
+
+
+		/**
+		 * Write a string.
+		 * @param p_str The string.
+		 */
+		void writeString(String p_str)
+		{
+			writeBlock(p_str.getBytes(StandardCharsets.UTF_8));
+		}
+
+
+		/**
+		 * Write a string that is likely to be written again, e.g. a method name.
+		 * @param p_str The string.
+		 */
+		void writeName(String p_str)
+		{
+			byte[] l_buf;
+
+			if (_writeId(p_str))
+				return;
+
+			l_buf = ms_strings.get(p_str);
+
+			if (l_buf == null)
+			{
+				l_buf = _encodeLiteral(p_str);
+
+				if (ms_strings.size() < MAX_CACHED_STRINGS)
+					ms_strings.putIfAbsent(p_str, l_buf);
+			}
+
+			writeBytes(l_buf);
+		}
+
+
+		/**
+		 * Write a class reference.
+		 * @param p_cls The class.
+		 */
+		void writeClass(Class<?> p_cls)
+		{
+			if (!_writeId(p_cls))
+				writeBytes(ms_classNames.get(p_cls));
+		}
+
+
+		/**
+		 * Write the id of an interned name.
+		 * @param p_key The class or the method name.
+		 * @return <code>false</code> if the name is not interned and must be
+		 *    written literally.
+		 */
+		private boolean _writeId(Object p_key)
+		{
+			Integer l_id;
+
+			if (m_names == null)
+				return false;
+
+			l_id = m_names.m_ids.get(p_key);
+
+			if (l_id == null && m_pending != null)
+				l_id = m_pending.get(p_key);
+
+			if (l_id == null)
+			{
+				final int l_iPending;
+
+				l_iPending = m_pending != null ? m_pending.size() : 0;
+
+				if (m_names.m_ids.size() + l_iPending >= MAX_NAMES)
+					return false;
+
+				if (m_pending == null)
+					m_pending = new LinkedHashMap<>();
+
+				l_id = m_names.m_ids.size() + l_iPending;
+
+				m_pending.put(p_key, l_id);
+			}
+
+			writeVarLong(((long)l_id << 1) | 1L);
+
+			return true;
+		}
+
+
+		/**
+		 * Write a tagged value.
+		 * <p>If an array, a collection or a map occurs more than once in the
+		 * value, the whole value is written with Java serialization.</p>
+		 * @param p_obj The value.
+		 * @throws IOException If the value cannot be serialized.
+		 */
+		void writeValue(Object p_obj) throws IOException
+		{
+			final int l_iStart;
+
+			l_iStart = m_iPos;
+
+			if (m_containers != null)
+				m_containers.clear();
+
+			if (!_writeValue(p_obj))
+			{
+				m_iPos = l_iStart;
+
+				_writeSerialized(p_obj);
+			}
+		}
+
+
+		/**
+		 * Write a tagged value.
+		 * @param p_obj The value.
+		 * @return <code>false</code> if a container of the value was already
+		 *    written, i.e. the value must be written with Java serialization.
+		 * @throws IOException If the value cannot be serialized.
+		 */
+		private boolean _writeValue(Object p_obj) throws IOException
+		{
+			final Class<?> l_cls;
+
+			if (p_obj == null)
+			{
+				writeByte(TAG_NULL);
+
+				return true;
+			}
+
+			l_cls = p_obj.getClass();
+
+			if (l_cls == String.class)
+			{
+				writeByte(TAG_STRING);
+				writeString((String)p_obj);
+			}
+			else if (l_cls == Integer.class)
+			{
+				writeByte(TAG_INT);
+				writeZigZagLong((Integer)p_obj);
+			}
+			else if (l_cls == Long.class)
+			{
+				writeByte(TAG_LONG);
+				writeZigZagLong((Long)p_obj);
+			}
+			else if (l_cls == Boolean.class)
+			{
+				writeByte((Boolean)p_obj ? TAG_TRUE : TAG_FALSE);
+			}
+			else if (l_cls == Double.class)
+			{
+				writeByte(TAG_DOUBLE);
+				writeFixedLong(Double.doubleToRawLongBits((Double)p_obj));
+			}
+			else if (l_cls == Float.class)
+			{
+				writeByte(TAG_FLOAT);
+				writeVarInt(Float.floatToRawIntBits((Float)p_obj));
+			}
+			else if (l_cls == Byte.class)
+			{
+				writeByte(TAG_BYTE);
+				writeByte((Byte)p_obj);
+			}
+			else if (l_cls == Short.class)
+			{
+				writeByte(TAG_SHORT);
+				writeZigZagLong((Short)p_obj);
+			}
+			else if (l_cls == Character.class)
+			{
+				writeByte(TAG_CHAR);
+				writeVarInt((Character)p_obj);
+			}
+			else if (l_cls == Class.class)
+			{
+				writeByte(TAG_CLASS);
+				writeClass((Class<?>)p_obj);
+			}
+			else if (l_cls == byte[].class)
+			{
+				writeByte(TAG_BYTE_ARRAY);
+				writeBlock((byte[])p_obj);
+			}
+			else if (l_cls == int[].class)
+			{
+				final int[] l_array = (int[])p_obj;
+
+				writeByte(TAG_INT_ARRAY);
+				writeVarInt(l_array.length);
+
+				for (final int l_iValue : l_array)
+					writeZigZagLong(l_iValue);
+			}
+			else if (l_cls == long[].class)
+			{
+				final long[] l_array = (long[])p_obj;
+
+				writeByte(TAG_LONG_ARRAY);
+				writeVarInt(l_array.length);
+
+				for (final long l_lValue : l_array)
+					writeZigZagLong(l_lValue);
+			}
+			else if (l_cls == double[].class)
+			{
+				final double[] l_array = (double[])p_obj;
+
+				writeByte(TAG_DOUBLE_ARRAY);
+				writeVarInt(l_array.length);
+
+				for (final double l_dValue : l_array)
+					writeFixedLong(Double.doubleToRawLongBits(l_dValue));
+			}
+			else if (l_cls.isArray() && !l_cls.getComponentType().isPrimitive())
+			{
+				final Object[] l_array = (Object[])p_obj;
+
+				if (!_enter(p_obj))
+					return false;
+
+				writeByte(TAG_OBJECT_ARRAY);
+				writeClass(l_cls.getComponentType());
+				writeVarInt(l_array.length);
+
+				for (final Object l_obj : l_array)
+				{
+					if (!_writeValue(l_obj))
+						return false;
+				}
+			}
+			else if (l_cls == ArrayList.class)
+			{
+				return _writeCollection(TAG_ARRAY_LIST, (Collection<?>)p_obj);
+			}
+			else if (l_cls == LinkedList.class)
+			{
+				return _writeCollection(TAG_LINKED_LIST, (Collection<?>)p_obj);
+			}
+			else if (l_cls == HashSet.class)
+			{
+				return _writeCollection(TAG_HASH_SET, (Collection<?>)p_obj);
+			}
+			else if (l_cls == LinkedHashSet.class)
+			{
+				return _writeCollection(TAG_LINKED_HASH_SET, (Collection<?>)p_obj);
+			}
+			else if (l_cls == HashMap.class)
+			{
+				return _writeMap(TAG_HASH_MAP, (Map<?, ?>)p_obj);
+			}
+			else
+			{
+				_writeSerialized(p_obj);
+			}
+
+			return true;
+		}
+
+
+		private boolean _writeCollection(int p_iTag, Collection<?> p_coll) throws IOException
+		{
+			if (!_enter(p_coll))
+				return false;
+
+			writeByte(p_iTag);
+			writeVarInt(p_coll.size());
+
+			for (final Object l_obj : p_coll)
+			{
+				if (!_writeValue(l_obj))
+					return false;
+			}
+
+			return true;
+		}
+
+
+		private boolean _writeMap(int p_iTag, Map<?, ?> p_map) throws IOException
+		{
+			if (!_enter(p_map))
+				return false;
+
+			writeByte(p_iTag);
+			writeVarInt(p_map.size());
+
+			for (final Map.Entry<?, ?> l_entry : p_map.entrySet())
+			{
+				if (!_writeValue(l_entry.getKey()) || !_writeValue(l_entry.getValue()))
+					return false;
+			}
+
+			return true;
+		}
+
+
+		/**
+		 * Record a container of the value being written.
+		 * @param p_container The array, collection or map.
+		 * @return <code>false</code> if the container was already written.
+		 */
+		private boolean _enter(Object p_container)
+		{
+			if (m_containers == null)
+				m_containers = new IdentityHashMap<>();
+
+			return m_containers.put(p_container, Boolean.TRUE) == null;
+		}
+
+
+		private void _writeSerialized(Object p_obj) throws IOException
+		{
+			final ByteArrayOutputStream l_bos;
+
+			l_bos = new ByteArrayOutputStream(256);
+
+			try (final ObjectOutputStream l_oos = new ObjectOutputStream(l_bos))
+			{
+				l_oos.writeObject(p_obj);
+			}
+
+			writeByte(TAG_SERIALIZED);
+			writeBlock(l_bos.toByteArray());
+		}
+
+
+		/**
+		 * Write the length-prefixed frame to an output stream.
+		 * <p>The names that were interned with the frame are added to the
+		 * names of the connection.</p>
+		 * @param p_out The output stream.
+		 * @param p_iMaxFrameSize The maximum length of the frame body.
+		 * @throws IOException If an I/O error occurred.
+		 * @throws JaffreSerializeException If the frame is too large.
+		 */
+		void writeTo(OutputStream p_out, int p_iMaxFrameSize) throws IOException
+		{
+			final int l_iLen;
+			final int l_iStart;
+
+			if (m_pending == null)
+			{
+				l_iLen = m_iPos - BODY_OFFSET + 1;
+
+				_checkFrameSize(l_iLen, p_iMaxFrameSize);
+
+				// no interned names
+				m_buf[BODY_OFFSET - 1] = 0;
+
+				l_iStart = _putVarIntBefore(m_buf, BODY_OFFSET - 1, l_iLen);
+
+				p_out.write(m_buf, l_iStart, m_iPos - l_iStart);
+			}
+			else
+			{
+				final Writer l_names;
+
+				l_names = new Writer(null);
+
+				l_names.writeVarInt(m_pending.size());
+
+				for (final Object l_key : m_pending.keySet())
+					l_names.writeString(l_key instanceof Class ? ((Class<?>)l_key).getName() : (String)l_key);
+
+				l_iLen = l_names.m_iPos - BODY_OFFSET + m_iPos - BODY_OFFSET;
+
+				_checkFrameSize(l_iLen, p_iMaxFrameSize);
+
+				m_names.m_ids.putAll(m_pending);
+
+				l_iStart = _putVarIntBefore(l_names.m_buf, BODY_OFFSET, l_iLen);
+
+				p_out.write(l_names.m_buf, l_iStart, l_names.m_iPos - l_iStart);
+				p_out.write(m_buf, BODY_OFFSET, m_iPos - BODY_OFFSET);
+			}
+		}
+	}
+
+
+	/**
+	 * A reader for a frame body.
+	 */
+	static final class Reader
+	{
+		private final byte[] m_buf;
+
+		private int m_iPos;
+
+		/** The names of the connection, or <code>null</code> if names are not interned. */
+		private final Names m_names;
+
+		private final ClassCache m_classes;
+
+
+		/**
+		 * Create a reader, and read the names that are interned with the frame.
+		 * @param p_buf The frame body.
+		 * @param p_names The interned names of the connection, or
+		 *    <code>null</code> if names are not interned.
+		 * @param p_classes The cache of the resolved classes.
+		 * @throws JaffreSerializeException If the frame interns names, but
+		 *    <code>p_names</code> is <code>null</code>, or if too many names
+		 *    were interned.
+		 * @throws IOException If the frame is malformed.
+		 */
+		Reader(byte[] p_buf, Names p_names, ClassCache p_classes) throws IOException
+		{
+			final int l_iCount;
+
+			m_buf     = p_buf;
+			m_names   = p_names;
+			m_classes = p_classes;
+
+			// the names are read ahead of the values, so a value that cannot
+			// be read does not affect subsequent frames
+			l_iCount = readCount();
+
+			if (l_iCount > 0)
+			{
+				if (p_names == null)
+					throw new JaffreSerializeException("Interned names require a serializer for the connection.");
+
+				if (p_names.m_names.size() + l_iCount > MAX_NAMES)
+					throw new JaffreSerializeException("Too many interned names.");
+
+				for (int i = 0; i < l_iCount; i++)
+					p_names.m_names.add(readString().intern());
+			}
+		}
+
+
+		int readByte() throws EOFException
+		{
+			if (m_iPos >= m_buf.length)
+				throw new EOFException("Truncated frame.");
+
+			return m_buf[m_iPos++] & 0xFF;
+		}
+
+
+		long readVarLong() throws IOException
+		{
+			long l_lValue;
+			int  l_iShift;
+
+			l_lValue = 0L;
+
+			for (l_iShift = 0; l_iShift < 64; l_iShift += 7)
+			{
+				final int l_iByte;
+
+				l_iByte = readByte();
+
+				l_lValue |= (long)(l_iByte & 0x7F) << l_iShift;
+
+				if ((l_iByte & 0x80) == 0)
+					return l_lValue;
+			}
+
+			throw new JaffreSerializeException("Malformed varint.");
+		}
+
+
+		int readVarInt() throws IOException
+		{
+			return (int)readVarLong();
+		}
+
+
+		long readZigZagLong() throws IOException
+		{
+			final long l_lValue;
+
+			l_lValue = readVarLong();
+
+			return (l_lValue >>> 1) ^ -(l_lValue & 1);
+		}
+
+
+		long readFixedLong() throws IOException
+		{
+			long l_lValue;
+
+			l_lValue = 0L;
+
+			for (int i = 0; i < 8; i++)
+				l_lValue = (l_lValue << 8) | readByte();
+
+			return l_lValue;
+		}
+
+
+		/**
+		 * Read a length-prefixed byte array.
+		 * @return The bytes.
+		 * @throws IOException If the frame is malformed.
+		 */
+		byte[] readBlock() throws IOException
+		{
+			final int    l_iLen;
+			final byte[] l_buf;
+
+			l_iLen = _readLength();
+			l_buf  = Arrays.copyOfRange(m_buf, m_iPos, m_iPos + l_iLen);
+
+			m_iPos += l_iLen;
+
+			return l_buf;
+		}
+
+
+		String readString() throws IOException
+		{
+			final int    l_iLen;
+			final String l_str;
+
+			l_iLen = _readLength();
+			l_str  = new String(m_buf, m_iPos, l_iLen, StandardCharsets.UTF_8);
+
+			m_iPos += l_iLen;
+
+			return l_str;
+		}
+
+
+		/**
+		 * Read a method name.
+		 * @return The name.
+		 * @throws IOException If the frame is malformed.
+		 */
+		String readName() throws IOException
+		{
+			final long   l_lValue;
+			final Object l_name;
+
+			l_lValue = readVarLong();
+
+			if ((l_lValue & 1L) == 0L)
+				return _readLiteral(l_lValue >>> 1).intern();
+
+			l_name = m_names != null ? _getName(l_lValue >>> 1) : null;
+
+			if (!(l_name instanceof String))
+				throw new JaffreSerializeException("Malformed frame.");
+
+			return (String)l_name;
+		}
+
+
+		/**
+		 * Read a class reference.
+		 * @return The class.
+		 * @throws IOException If the frame is malformed.
+		 * @throws ClassNotFoundException If the class cannot be found.
+		 */
+		Class<?> readClass() throws IOException, ClassNotFoundException
+		{
+			final long     l_lValue;
+			final int      l_iId;
+			final Object   l_name;
+			final Class<?> l_cls;
+
+			l_lValue = readVarLong();
+
+			if ((l_lValue & 1L) == 0L)
+				return m_classes.getClass(_readLiteral(l_lValue >>> 1));
+
+			if (m_names == null)
+				throw new JaffreSerializeException("Malformed frame.");
+
+			l_iId  = (int)(l_lValue >>> 1);
+			l_name = _getName(l_lValue >>> 1);
+
+			if (l_name instanceof Class)
+				return (Class<?>)l_name;
+
+			// the class is resolved once per connection
+			l_cls = m_classes.getClass((String)l_name);
+
+			m_names.m_names.set(l_iId, l_cls);
+
+			return l_cls;
+		}
+
+
+		private Object _getName(long p_lId) throws JaffreSerializeException
+		{
+			if (p_lId >= m_names.m_names.size())
+				throw new JaffreSerializeException("Unknown name id " + p_lId + ".");
+
+			return m_names.m_names.get((int)p_lId);
+		}
+
+
+		private String _readLiteral(long p_lLen) throws JaffreSerializeException
+		{
+			final String l_str;
+
+			if (p_lLen > m_buf.length - m_iPos)
+				throw new JaffreSerializeException("Malformed frame.");
+
+			l_str   = new String(m_buf, m_iPos, (int)p_lLen, StandardCharsets.UTF_8);
+			m_iPos += (int)p_lLen;
+
+			return l_str;
+		}
+
+
+		private int _readLength() throws IOException
+		{
+			final int l_iLen;
+
+			l_iLen = readVarInt();
+
+			if (l_iLen < 0 || l_iLen > m_buf.length - m_iPos)
+				throw new JaffreSerializeException("Malformed frame.");
+
+			return l_iLen;
+		}
+
+
+		/**
+		 * Read the number of elements of an array or a collection.
+		 * @return The count.
+		 * @throws JaffreSerializeException If the count is negative or
+		 *    exceeds the unread bytes of the frame.
+		 * @throws IOException If the frame is malformed.
+		 */
+		int readCount() throws IOException
+		{
+			final int l_iCount;
+
+			l_iCount = readVarInt();
+
+			// any element needs at least one byte
+			if (l_iCount < 0 || l_iCount > m_buf.length - m_iPos)
+				throw new JaffreSerializeException("Malformed frame.");
+
+			return l_iCount;
+		}
+
+
+		Object readValue() throws IOException, ClassNotFoundException
+		{
+			final int l_iTag;
+
+			l_iTag = readByte();
+
+			switch (l_iTag)
+			{
+				case TAG_NULL:
+					return null;
+
+				case TAG_TRUE:
+					return Boolean.TRUE;
+
+				case TAG_FALSE:
+					return Boolean.FALSE;
+
+				case TAG_BYTE:
+					return Byte.valueOf((byte)readByte());
+
+				case TAG_SHORT:
+					return Short.valueOf((short)readZigZagLong());
+
+				case TAG_CHAR:
+					return Character.valueOf((char)readVarInt());
+
+				case TAG_INT:
+					return Integer.valueOf((int)readZigZagLong());
+
+				case TAG_LONG:
+					return Long.valueOf(readZigZagLong());
+
+				case TAG_FLOAT:
+					return Float.valueOf(Float.intBitsToFloat(readVarInt()));
+
+				case TAG_DOUBLE:
+					return Double.valueOf(Double.longBitsToDouble(readFixedLong()));
+
+				case TAG_STRING:
+					return readString();
+
+				case TAG_CLASS:
+					return readClass();
+
+				case TAG_BYTE_ARRAY:
+					return readBlock();
+
+				case TAG_INT_ARRAY:
+				{
+					final int[] l_array = new int[readCount()];
+
+					for (int i = 0; i < l_array.length; i++)
+						l_array[i] = (int)readZigZagLong();
+
+					return l_array;
+				}
+
+				case TAG_LONG_ARRAY:
+				{
+					final long[] l_array = new long[readCount()];
+
+					for (int i = 0; i < l_array.length; i++)
+						l_array[i] = readZigZagLong();
+
+					return l_array;
+				}
+
+				case TAG_DOUBLE_ARRAY:
+				{
+					final double[] l_array = new double[readCount()];
+
+					for (int i = 0; i < l_array.length; i++)
+						l_array[i] = Double.longBitsToDouble(readFixedLong());
+
+					return l_array;
+				}
+
+				case TAG_OBJECT_ARRAY:
+				{
+					final Class<?> l_clsComponent;
+					final Object[] l_array;
+
+					l_clsComponent = readClass();
+					l_array        = (Object[])Array.newInstance(l_clsComponent, readCount());
+
+					for (int i = 0; i < l_array.length; i++)
+						l_array[i] = readValue();
+
+					return l_array;
+				}
+
+				case TAG_ARRAY_LIST:
+				{
+					final int l_iCount = readCount();
+
+					return _readCollection(new ArrayList<>(l_iCount), l_iCount);
+				}
+
+				case TAG_LINKED_LIST:
+					return _readCollection(new LinkedList<>(), readCount());
+
+				case TAG_HASH_SET:
+				{
+					final int l_iCount = readCount();
+
+					return _readCollection(new HashSet<>(_capacity(l_iCount)), l_iCount);
+				}
+
+				case TAG_LINKED_HASH_SET:
+				{
+					final int l_iCount = readCount();
+
+					return _readCollection(new LinkedHashSet<>(_capacity(l_iCount)), l_iCount);
+				}
+
+				case TAG_HASH_MAP:
+				{
+					final int l_iCount = readCount();
+
+					return _readMap(new HashMap<>(_capacity(l_iCount)), l_iCount);
+				}
+
+				case TAG_SERIALIZED:
+				{
+					final int l_iLen = _readLength();
+
+					try (final ObjectInputStream l_ois =
+						new ContextObjectInputStream(new ByteArrayInputStream(m_buf, m_iPos, l_iLen), m_classes))
+					{
+						m_iPos += l_iLen;
+
+						return l_ois.readObject();
+					}
+				}
+
+				default:
+					throw new JaffreSerializeException("Unknown value tag " + l_iTag + ".");
+			}
+		}
+
+
+		private Collection<Object> _readCollection(Collection<Object> p_coll, int p_iCount)
+			throws IOException, ClassNotFoundException
+		{
+			for (int i = 0; i < p_iCount; i++)
+				p_coll.add(readValue());
+
+			return p_coll;
+		}
+
+
+		private Map<Object, Object> _readMap(Map<Object, Object> p_map, int p_iCount)
+			throws IOException, ClassNotFoundException
+		{
+			for (int i = 0; i < p_iCount; i++)
+				p_map.put(readValue(), readValue());
+
+			return p_map;
+		}
+
+
+		/**
+		 * Check that the whole frame body was consumed.
+		 * @throws JaffreSerializeException If there are unread bytes.
+		 */
+		void checkEnd()
+		{
+			if (m_iPos != m_buf.length)
+				throw new JaffreSerializeException("Unexpected data at the end of the frame.");
+		}
+	}
+
+
+	/**
+	 * An object input stream that resolves classes like {@link ClassCache#getClass(String)}.
+	 */
+	private static final class ContextObjectInputStream extends ObjectInputStream
+	{
+		private final ClassCache m_classes;
+
+
+		private ContextObjectInputStream(InputStream p_in, ClassCache p_classes) throws IOException
+		{
+			super(p_in);
+
+			m_classes = p_classes;
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass p_desc)
+			throws IOException, ClassNotFoundException
+		{
+			try
+			{
+				return m_classes.getClass(p_desc.getName());
+			}
+			catch (ClassNotFoundException l_e)
+			{
+				return super.resolveClass(p_desc);
+			}
+		}
+	}
+
+
+	/**
+	 * Read the body of a length-prefixed frame.
+	 * <p>The body is read in chunks, so a peer cannot force the allocation
+	 * of a large buffer without sending the data.</p>
+	 * @param p_in The input stream.
+	 * @param p_iMaxFrameSize The maximum length of the frame body.
+	 * @return The frame body, or <code>null</code> if the end of the stream
+	 *    was reached before the frame.
+	 * @throws EOFException If the end of the stream was reached within the frame.
+	 * @throws JaffreSerializeException If the frame is too large. The body is
+	 *    not read in this case.
+	 * @throws IOException If an I/O error occurred.
+	 */
+	static byte[] readFrame(InputStream p_in, int p_iMaxFrameSize) throws IOException
+	{
+		int    l_iLen;
+		int    l_iByte;
+		byte[] l_buf;
+		int    l_iOffset;
+
+		l_iByte = p_in.read();
+
+		if (l_iByte == -1)
+			return null;
+
+		l_iLen = l_iByte & 0x7F;
+
+		for (int l_iShift = 7; (l_iByte & 0x80) != 0; l_iShift += 7)
+		{
+			if (l_iShift > 28)
+				throw new JaffreSerializeException("Malformed frame length.");
+
+			l_iByte = p_in.read();
+
+			if (l_iByte == -1)
+				throw new EOFException("Truncated frame length.");
+
+			l_iLen |= (l_iByte & 0x7F) << l_iShift;
+		}
+
+		_checkFrameSize(l_iLen, p_iMaxFrameSize);
+
+		l_buf     = new byte[Math.min(l_iLen, CHUNK_SIZE)];
+		l_iOffset = 0;
+
+		while (l_iOffset < l_iLen)
+		{
+			final int l_iRead;
+
+			if (l_iOffset == l_buf.length)
+				l_buf = Arrays.copyOf(l_buf, (int)Math.min(l_iLen, 2L * l_buf.length));
+
+			l_iRead = p_in.read(l_buf, l_iOffset, l_buf.length - l_iOffset);
+
+			if (l_iRead == -1)
+				throw new EOFException("Truncated frame.");
+
+			l_iOffset += l_iRead;
+		}
+
+		return l_buf;
+	}
+
+
+	/**
+	 * Check a maximum frame size parameter.
+	 * @param p_iMaxFrameSize The maximum frame size.
+	 * @throws JaffreConfigurationException If the size is not positive.
+	 */
+	static void checkMaxFrameSize(int p_iMaxFrameSize)
+	{
+		if (p_iMaxFrameSize <= 0)
+		{
+			throw new JaffreConfigurationException
+				(p_iMaxFrameSize + " is not a valid maximum frame size.");
+		}
+	}
+
+
+	private static void _checkFrameSize(int p_iLen, int p_iMaxFrameSize)
+	{
+		if (p_iLen < 0)
+			throw new JaffreSerializeException("Malformed frame length.");
+
+		if (p_iLen > p_iMaxFrameSize)
+		{
+			throw new JaffreSerializeException("The frame size " + p_iLen +
+			                                   " exceeds the maximum frame size " + p_iMaxFrameSize + ".");
+		}
+	}
+
+
+	/**
+	 * Encode a literal class or method name.
+	 */
+	private static byte[] _encodeLiteral(String p_str)
+	{
+		final byte[] l_bytes;
+		final Writer l_writer;
+
+		l_bytes  = p_str.getBytes(StandardCharsets.UTF_8);
+		l_writer = new Writer(null);
+
+		l_writer.writeVarLong((long)l_bytes.length << 1);
+		l_writer.writeBytes(l_bytes);
+
+		return Arrays.copyOfRange(l_writer.m_buf, BODY_OFFSET, l_writer.m_iPos);
+	}
+
+
+	/**
+	 * Write a varint right before a position of a buffer.
+	 * @return The position of the varint.
+	 */
+	private static int _putVarIntBefore(byte[] p_buf, int p_iEnd, int p_iValue)
+	{
+		final int l_iStart;
+		int       l_iValue;
+
+		l_iStart = p_iEnd - _varIntSize(p_iValue);
+		l_iValue = p_iValue;
+
+		for (int i = l_iStart; i < p_iEnd; i++)
+		{
+			p_buf[i] = (byte)(i < p_iEnd - 1 ? (l_iValue & 0x7F) | 0x80 : l_iValue);
+
+			l_iValue >>>= 7;
+		}
+
+		return l_iStart;
+	}
+
+
+	private static int _varIntSize(int p_iValue)
+	{
+		if ((p_iValue & ~0x7F) == 0)
+			return 1;
+		else if ((p_iValue & ~0x3FFF) == 0)
+			return 2;
+		else if ((p_iValue & ~0x1FFFFF) == 0)
+			return 3;
+		else if ((p_iValue & ~0xFFFFFFF) == 0)
+			return 4;
+		else
+			return 5;
+	}
+
+
+	private static int _capacity(int p_iCount)
+	{
+		return Math.max(16, (int)(p_iCount / 0.75f) + 1);
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.spi;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreSerializeException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+
+
+/**
+ * A serializer that writes call frames in a compact binary format.
+ * <p>Each frame is prefixed with its length. The interface and parameter
+ * types are written as class names, the flags and the correlation id as
+ * varints. Frames that identify the method by its id carry neither the
+ * interface nor the method name nor the parameter types. Arguments and
+ * user data of common types are written in a tagged binary form, other
+ * objects with Java serialization.</p>
+ * <p>Serializers that {@link #isInternNames() intern names} send each class
+ * and method name only once per connection, and refer to it by a small
+ * id in subsequent frames.</p>
+ * <p>The client and the server must both use the binary serializers.</p>
+ * @author Alexander Veit
+ */
+public class BinaryJaffreCallFrameSerializer implements JaffreCallFrameSerializer
+{
+	private static final Logger ms_log =
+		LoggerFactory.getLogger(BinaryJaffreCallFrameSerializer.class);
+
+	private volatile int m_iMaxFrameSize = BinaryFrameCodec.DEFAULT_MAX_FRAME_SIZE;
+
+	private final boolean m_bInternNames;
+
+	private final BinaryFrameCodec.ClassCache m_classes;
+
+	/** The names interned on the connection, or <code>null</code>. */
+	private final BinaryFrameCodec.Names m_namesOut;
+
+	private final BinaryFrameCodec.Names m_namesIn;
+
+
+	/**
+	 * Create a binary serializer that does not intern names.
+	 */
+	public BinaryJaffreCallFrameSerializer()
+	{
+		this(false);
+	}
+
+
+	/**
+	 * Create a binary serializer.
+	 * @param p_bInternNames <code>true</code> if class and method names are
+	 *    to be sent only once per connection. The client and the server
+	 *    must then both intern names, and both must call
+	 *    {@link #forConnection()} for each connection.
+	 */
+	public BinaryJaffreCallFrameSerializer(boolean p_bInternNames)
+	{
+		m_bInternNames = p_bInternNames;
+		m_classes      = new BinaryFrameCodec.ClassCache();
+		m_namesOut     = null;
+		m_namesIn      = null;
+	}
+
+
+	private BinaryJaffreCallFrameSerializer(BinaryJaffreCallFrameSerializer p_serializer)
+	{
+		m_iMaxFrameSize = p_serializer.m_iMaxFrameSize;
+		m_bInternNames  = true;
+		m_classes       = p_serializer.m_classes;
+		m_namesOut      = new BinaryFrameCodec.Names();
+		m_namesIn       = new BinaryFrameCodec.Names();
+	}
+
+
+	/**
+	 * Check if class and method names are interned.
+	 * @return <code>true</code> if names are sent only once per connection.
+	 */
+	public boolean isInternNames()
+	{
+		return m_bInternNames;
+	}
+
+
+	/**
+	 * Get the maximum length of a frame body. The default value is 16 MiB.
+	 * @return The maximum frame size in bytes.
+	 */
+	public int getMaxFrameSize()
+	{
+		return m_iMaxFrameSize;
+	}
+
+
+	/**
+	 * Set the maximum length of a frame body. Larger frames are neither
+	 * written nor read.
+	 * @param p_iMaxFrameSize The maximum frame size in bytes.
+	 * @throws JaffreConfigurationException If the size is not positive.
+	 */
+	public void setMaxFrameSize(int p_iMaxFrameSize)
+	{
+		BinaryFrameCodec.checkMaxFrameSize(p_iMaxFrameSize);
+
+		m_iMaxFrameSize = p_iMaxFrameSize;
+	}
+
+
+	/**
+	 * Get a serializer for a single connection. If names are interned,
+	 * the returned serializer keeps the names of the connection.
+	 */
+	@Override
+	public JaffreCallFrameSerializer forConnection()
+	{
+		if (m_bInternNames)
+			return new BinaryJaffreCallFrameSerializer(this);
+		else
+			return this;
+	}
+
+
+	@Override
+	public void serialize(JaffreCallFrame p_frame, OutputStream p_out)
+		throws IOException
+	{
+		final BinaryFrameCodec.Writer l_writer;
+		final Class<?>[]              l_types;
+		final Object[]                l_args;
+
+		if (p_frame == null)
+			throw new IllegalArgumentException("No call frame to serialize.");
+
+		if (p_out == null)
+			throw new IllegalArgumentException("No output stream.");
+
+		l_writer = new BinaryFrameCodec.Writer(m_namesOut);
+		l_types  = p_frame.getParameterTypes();
+		l_args   = p_frame.getParameters();
+
+		l_writer.writeVarInt(p_frame.getFlags());
+		l_writer.writeVarLong(p_frame.getCorrelationId());
+		l_writer.writeVarInt(p_frame.getMethodId());
+
+		if (p_frame.hasMethodId())
+		{
+			l_writer.writeVarInt(l_args.length);
+		}
+		else
+		{
+			l_writer.writeClass(p_frame.getInterface());
+			l_writer.writeName(p_frame.getMethodName());
+			l_writer.writeVarInt(l_types.length);
+
+			for (final Class<?> l_cls : l_types)
+				l_writer.writeClass(l_cls);
+		}
+
+		for (final Object l_arg : l_args)
+			l_writer.writeValue(l_arg);
+
+		l_writer.writeValue(p_frame.getUserData());
+
+		l_writer.writeTo(p_out, m_iMaxFrameSize);
+	}
+
+
+	@Override
+	public JaffreCallFrame deserialize(InputStream p_in)
+		throws IOException, ClassNotFoundException, JaffreSerializeException
+	{
+		final byte[]                  l_buf;
+		final BinaryFrameCodec.Reader l_reader;
+		final int                     l_iFlags;
+		final long                    l_lCorrelationId;
+		final int                     l_iMethodId;
+		final Class<?>                l_clsInterface;
+		final String                  l_strMethodName;
+		final Class<?>[]              l_types;
+		final Object[]                l_args;
+		final Object                  l_userData;
+		final JaffreCallFrame         l_frame;
+
+		if (p_in == null)
+			throw new IllegalArgumentException("No input stream.");
+
+		try
+		{
+			l_buf = BinaryFrameCodec.readFrame(p_in, m_iMaxFrameSize);
+		}
+		catch (ClosedChannelException l_e)
+		{
+			// no more frames available
+			if (ms_log.isDebugEnabled())
+				ms_log.debug("No more call frames to deserialize.", l_e);
+
+			return null;
+		}
+
+		if (l_buf == null)
+		{
+			// no more frames available
+			if (ms_log.isDebugEnabled())
+				ms_log.debug("No more call frames to deserialize.");
+
+			return null;
+		}
+
+		l_reader = new BinaryFrameCodec.Reader(l_buf, m_namesIn, m_classes);
+
+		l_iFlags         = l_reader.readVarInt();
+		l_lCorrelationId = l_reader.readVarLong();
+		l_iMethodId      = l_reader.readVarInt();
+
+		if (l_iMethodId != 0)
+		{
+			l_clsInterface  = null;
+			l_strMethodName = null;
+			l_types         = null;
+			l_args          = new Object[l_reader.readCount()];
+		}
+		else
+		{
+			l_clsInterface  = l_reader.readClass();
+			l_strMethodName = l_reader.readName();
+			l_types         = new Class<?>[l_reader.readCount()];
+			l_args          = new Object[l_types.length];
+
+			for (int i = 0; i < l_types.length; i++)
+				l_types[i] = l_reader.readClass();
+		}
+
+		for (int i = 0; i < l_args.length; i++)
+			l_args[i] = l_reader.readValue();
+
+		l_userData = l_reader.readValue();
+
+		l_reader.checkEnd();
+
+		try
+		{
+			if (l_iMethodId != 0)
+				l_frame = new JaffreCallFrame(l_iMethodId, l_args, l_userData);
+			else
+				l_frame = new JaffreCallFrame(l_clsInterface, l_strMethodName, l_types, l_args, l_userData);
+		}
+		catch (IllegalArgumentException l_e)
+		{
+			throw new JaffreSerializeException("Malformed call frame.", l_e);
+		}
+
+		l_frame.setFlags(l_iFlags);
+		l_frame.setCorrelationId(l_lCorrelationId);
+
+		return l_frame;
+	}
+}
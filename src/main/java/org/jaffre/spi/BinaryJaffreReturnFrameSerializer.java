@@ -0,0 +1,224 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.spi;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreSerializeException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+
+
+/**
+ * A serializer that writes return frames in a compact binary format.
+ * <p>See {@link BinaryJaffreCallFrameSerializer}.</p>
+ * @author Alexander Veit
+ */
+public class BinaryJaffreReturnFrameSerializer implements JaffreReturnFrameSerializer
+{
+	private static final Logger ms_log =
+		LoggerFactory.getLogger(BinaryJaffreReturnFrameSerializer.class);
+
+	private volatile int m_iMaxFrameSize = BinaryFrameCodec.DEFAULT_MAX_FRAME_SIZE;
+
+	private final boolean m_bInternNames;
+
+	private final BinaryFrameCodec.ClassCache m_classes;
+
+	/** The names interned on the connection, or <code>null</code>. */
+	private final BinaryFrameCodec.Names m_namesOut;
+
+	private final BinaryFrameCodec.Names m_namesIn;
+
+
+	/**
+	 * Create a binary serializer that does not intern names.
+	 */
+	public BinaryJaffreReturnFrameSerializer()
+	{
+		this(false);
+	}
+
+
+	/**
+	 * Create a binary serializer.
+	 * @param p_bInternNames <code>true</code> if class and method names are
+	 *    to be sent only once per connection. The client and the server
+	 *    must then both intern names, and both must call
+	 *    {@link #forConnection()} for each connection.
+	 */
+	public BinaryJaffreReturnFrameSerializer(boolean p_bInternNames)
+	{
+		m_bInternNames = p_bInternNames;
+		m_classes      = new BinaryFrameCodec.ClassCache();
+		m_namesOut     = null;
+		m_namesIn      = null;
+	}
+
+
+	private BinaryJaffreReturnFrameSerializer(BinaryJaffreReturnFrameSerializer p_serializer)
+	{
+		m_iMaxFrameSize = p_serializer.m_iMaxFrameSize;
+		m_bInternNames  = true;
+		m_classes       = p_serializer.m_classes;
+		m_namesOut      = new BinaryFrameCodec.Names();
+		m_namesIn       = new BinaryFrameCodec.Names();
+	}
+
+
+	/**
+	 * Check if class and method names are interned.
+	 * @return <code>true</code> if names are sent only once per connection.
+	 */
+	public boolean isInternNames()
+	{
+		return m_bInternNames;
+	}
+
+
+	/**
+	 * Get the maximum length of a frame body. The default value is 16 MiB.
+	 * @return The maximum frame size in bytes.
+	 */
+	public int getMaxFrameSize()
+	{
+		return m_iMaxFrameSize;
+	}
+
+
+	/**
+	 * Set the maximum length of a frame body. Larger frames are neither
+	 * written nor read.
+	 * @param p_iMaxFrameSize The maximum frame size in bytes.
+	 * @throws JaffreConfigurationException If the size is not positive.
+	 */
+	public void setMaxFrameSize(int p_iMaxFrameSize)
+	{
+		BinaryFrameCodec.checkMaxFrameSize(p_iMaxFrameSize);
+
+		m_iMaxFrameSize = p_iMaxFrameSize;
+	}
+
+
+	/**
+	 * Get a serializer for a single connection. If names are interned,
+	 * the returned serializer keeps the names of the connection.
+	 */
+	@Override
+	public JaffreReturnFrameSerializer forConnection()
+	{
+		if (m_bInternNames)
+			return new BinaryJaffreReturnFrameSerializer(this);
+		else
+			return this;
+	}
+
+
+	@Override
+	public void serialize(JaffreReturnFrame p_frame, OutputStream p_out)
+		throws IOException
+	{
+		final BinaryFrameCodec.Writer l_writer;
+
+		if (p_frame == null)
+			throw new IllegalArgumentException("No return frame to serialize.");
+
+		if (p_out == null)
+			throw new IllegalArgumentException("No output stream.");
+
+		l_writer = new BinaryFrameCodec.Writer(m_namesOut);
+
+		l_writer.writeByte(p_frame.isExceptionResult() ? 1 : 0);
+		l_writer.writeVarInt(p_frame.getFlags());
+		l_writer.writeVarLong(p_frame.getCorrelationId());
+		l_writer.writeVarInt(p_frame.getMethodId());
+		l_writer.writeValue(p_frame.getResult());
+		l_writer.writeValue(p_frame.getUserData());
+
+		l_writer.writeTo(p_out, m_iMaxFrameSize);
+	}
+
+
+	@Override
+	public JaffreReturnFrame deserialize(InputStream p_in)
+		throws IOException, ClassNotFoundException, JaffreSerializeException
+	{
+		final byte[]                  l_buf;
+		final BinaryFrameCodec.Reader l_reader;
+		final boolean                 l_bException;
+		final int                     l_iFlags;
+		final long                    l_lCorrelationId;
+		final int                     l_iMethodId;
+		final Object                  l_objResult;
+		final JaffreReturnFrame       l_frame;
+
+		if (p_in == null)
+			throw new IllegalArgumentException("No input stream.");
+
+		try
+		{
+			l_buf = BinaryFrameCodec.readFrame(p_in, m_iMaxFrameSize);
+		}
+		catch (ClosedChannelException l_e)
+		{
+			// no more frames available
+			if (ms_log.isDebugEnabled())
+				ms_log.debug("No more return frames to deserialize.", l_e);
+
+			return null;
+		}
+
+		if (l_buf == null)
+		{
+			// no more frames available
+			if (ms_log.isDebugEnabled())
+				ms_log.debug("No more return frames to deserialize.");
+
+			return null;
+		}
+
+		l_reader = new BinaryFrameCodec.Reader(l_buf, m_namesIn, m_classes);
+
+		l_bException     = l_reader.readByte() != 0;
+		l_iFlags         = l_reader.readVarInt();
+		l_lCorrelationId = l_reader.readVarLong();
+		l_iMethodId      = l_reader.readVarInt();
+		l_objResult      = l_reader.readValue();
+
+		if (l_bException && !(l_objResult instanceof Throwable))
+			throw new JaffreSerializeException("Unexpected exception result: " + l_objResult + ".");
+
+		l_frame = new JaffreReturnFrame(l_objResult, l_bException);
+
+		l_frame.setUserData(l_reader.readValue());
+		l_frame.setFlags(l_iFlags);
+		l_frame.setCorrelationId(l_lCorrelationId);
+		l_frame.setMethodId(l_iMethodId);
+
+		l_reader.checkEnd();
+
+		return l_frame;
+	}
+}
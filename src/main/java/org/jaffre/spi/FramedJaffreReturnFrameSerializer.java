@@ -0,0 +1,232 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.spi;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreSerializeException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+
+
+/**
+ * A serializer that writes the return frames of another serializer with an
+ * explicit frame header.
+ * <p>The header holds the length of the serialized frame and its flags. The
+ * frame boundaries are thus known without parsing the frame, so connectors
+ * can read complete frames without blocking, and frames that exceed the
+ * maximum frame size are rejected before they are read.</p>
+ * <p>The client and the server must both use framed serializers that
+ * decorate the same kind of serializer.</p>
+ * @author Alexander Veit
+ */
+public class FramedJaffreReturnFrameSerializer implements JaffreReturnFrameSerializer
+{
+	private static final Logger ms_log =
+		LoggerFactory.getLogger(FramedJaffreReturnFrameSerializer.class);
+
+	private final JaffreReturnFrameSerializer m_serializer;
+
+	private volatile int m_iMaxFrameSize = Framing.DEFAULT_MAX_FRAME_SIZE;
+
+	/** The payload buffers of a serializer for a single connection, or <code>null</code>. */
+	private final Framing.PayloadOutputStream m_out;
+
+	private final Framing.PayloadInputStream m_in;
+
+
+	/**
+	 * Create a framed serializer that decorates a
+	 * {@link DefaultJaffreReturnFrameSerializer}.
+	 */
+	public FramedJaffreReturnFrameSerializer()
+	{
+		this(new DefaultJaffreReturnFrameSerializer());
+	}
+
+
+	/**
+	 * Create a framed serializer.
+	 * @param p_serializer The serializer that writes the frames.
+	 */
+	public FramedJaffreReturnFrameSerializer(JaffreReturnFrameSerializer p_serializer)
+	{
+		if (p_serializer == null)
+			throw new IllegalArgumentException("No serializer.");
+
+		m_serializer = p_serializer;
+		m_out        = null;
+		m_in         = null;
+	}
+
+
+	private FramedJaffreReturnFrameSerializer(JaffreReturnFrameSerializer p_serializer, int p_iMaxFrameSize)
+	{
+		m_serializer    = p_serializer;
+		m_iMaxFrameSize = p_iMaxFrameSize;
+		m_out           = new Framing.PayloadOutputStream();
+		m_in            = new Framing.PayloadInputStream();
+	}
+
+
+	/**
+	 * Get the decorated serializer.
+	 * @return The serializer that writes the frames.
+	 */
+	public JaffreReturnFrameSerializer getSerializer()
+	{
+		return m_serializer;
+	}
+
+
+	/**
+	 * Get the maximum size of a frame including its header. The default
+	 * value is 16 MiB.
+	 * @return The maximum frame size in bytes.
+	 */
+	public int getMaxFrameSize()
+	{
+		return m_iMaxFrameSize;
+	}
+
+
+	/**
+	 * Set the maximum size of a frame including its header. Larger frames
+	 * are neither written nor read.
+	 * @param p_iMaxFrameSize The maximum frame size in bytes.
+	 * @throws JaffreConfigurationException If the size is not larger than
+	 *    the frame header.
+	 */
+	public void setMaxFrameSize(int p_iMaxFrameSize)
+	{
+		Framing.checkMaxFrameSize(p_iMaxFrameSize);
+
+		m_iMaxFrameSize = p_iMaxFrameSize;
+	}
+
+
+	/**
+	 * Get the size of the frame at the position of a buffer.
+	 * @param p_buf The buffer, in read mode. Its position is not changed.
+	 * @return The size of the frame including the header, or <code>-1</code>
+	 *    if the buffer does not hold the complete header.
+	 * @throws JaffreSerializeException If the frame exceeds the maximum
+	 *    frame size.
+	 */
+	public int getFrameSize(ByteBuffer p_buf)
+	{
+		return Framing.getFrameSize(p_buf, m_iMaxFrameSize);
+	}
+
+
+	/**
+	 * Get the flags of the frame at the position of a buffer.
+	 * @param p_buf The buffer, in read mode, holding at least the frame
+	 *    header, i.e. {@link #getFrameSize(ByteBuffer)} did not return
+	 *    <code>-1</code>. Its position is not changed.
+	 * @return The flags of the Jaffre frame.
+	 */
+	public int getFrameFlags(ByteBuffer p_buf)
+	{
+		return Framing.getFrameFlags(p_buf);
+	}
+
+
+	/**
+	 * Get a framed serializer for a single connection. If the decorated
+	 * serializer keeps state between frames, the returned serializer
+	 * decorates the decorated serializer's connection instance, and reuses
+	 * its payload buffers.
+	 */
+	@Override
+	public JaffreReturnFrameSerializer forConnection()
+	{
+		final JaffreReturnFrameSerializer l_serializer;
+
+		l_serializer = m_serializer.forConnection();
+
+		if (l_serializer == m_serializer)
+			return this;
+		else
+			return new FramedJaffreReturnFrameSerializer(l_serializer, m_iMaxFrameSize);
+	}
+
+
+	@Override
+	public void serialize(JaffreReturnFrame p_frame, OutputStream p_out)
+		throws IOException
+	{
+		final Framing.PayloadOutputStream l_payload;
+
+		if (p_frame == null)
+			throw new IllegalArgumentException("No return frame to serialize.");
+
+		if (p_out == null)
+			throw new IllegalArgumentException("No output stream.");
+
+		if (m_out != null)
+		{
+			l_payload = m_out;
+			l_payload.reset();
+		}
+		else
+		{
+			l_payload = new Framing.PayloadOutputStream();
+		}
+
+		m_serializer.serialize(p_frame, l_payload);
+
+		Framing.writeFrame(p_out, p_frame.getFlags(), l_payload, m_iMaxFrameSize);
+	}
+
+
+	@Override
+	public JaffreReturnFrame deserialize(InputStream p_in)
+		throws IOException, ClassNotFoundException, JaffreSerializeException
+	{
+		final Framing.PayloadInputStream l_payload;
+		final JaffreReturnFrame          l_frame;
+
+		if (p_in == null)
+			throw new IllegalArgumentException("No input stream.");
+
+		l_payload = m_in != null ? m_in : new Framing.PayloadInputStream();
+
+		if (!Framing.readPayload(p_in, l_payload, m_iMaxFrameSize))
+		{
+			// no more frames available
+			if (ms_log.isDebugEnabled())
+				ms_log.debug("No more return frames to deserialize.");
+
+			return null;
+		}
+
+		l_frame = m_serializer.deserialize(l_payload);
+
+		if (l_frame == null)
+			throw new JaffreSerializeException("Empty return frame.");
+
+		return l_frame;
+	}
+}
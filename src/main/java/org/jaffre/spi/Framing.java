@@ -0,0 +1,282 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.spi;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.jaffre.JaffreConfigurationException;
+import org.jaffre.JaffreSerializeException;
+
+
+/**
+ * The framing layer of the framed serializers.
+ * <p>A frame consists of an 8 byte header and the payload. The header holds
+ * the length of the payload and the flags of the Jaffre frame as big-endian
+ * 32 bit integers. The payload is written by the decorated serializer.</p>
+ * @author Alexander Veit
+ */
+final class Framing
+{
+	/** The size of the frame header in bytes. */
+	static final int HEADER_SIZE = 8;
+
+	/** The default maximum size of a frame in bytes. */
+	static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+
+	/** The maximum size of a payload buffer that is kept for the next frame. */
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+
+	/**
+	 * A reusable buffer for the payload of frames that are written.
+	 */
+	static final class PayloadOutputStream extends ByteArrayOutputStream
+	{
+		private final byte[] m_header = new byte[HEADER_SIZE];
+
+		PayloadOutputStream()
+		{
+			super(512);
+		}
+	}
+
+
+	/**
+	 * A reusable stream over the payload of frames that are read.
+	 */
+	static final class PayloadInputStream extends ByteArrayInputStream
+	{
+		private final byte[] m_header = new byte[HEADER_SIZE];
+
+		PayloadInputStream()
+		{
+			super(new byte[0]);
+		}
+
+
+		/**
+		 * Prepare the stream for a payload. The buffer of the previous
+		 * payload is reused unless it is too small, or larger than needed
+		 * and too large to be kept.
+		 * @param p_iLength The length of the payload.
+		 * @return The buffer to read the payload into.
+		 */
+		private byte[] _reset(int p_iLength)
+		{
+			if (buf.length < p_iLength ||
+			    (buf.length > MAX_RETAINED_SIZE && p_iLength <= MAX_RETAINED_SIZE))
+			{
+				buf = new byte[p_iLength];
+			}
+
+			pos   = 0;
+			mark  = 0;
+			count = p_iLength;
+
+			return buf;
+		}
+	}
+
+
+	private Framing()
+	{
+	}
+
+
+	/**
+	 * Write a frame.
+	 * @param p_out The output stream.
+	 * @param p_iFlags The flags of the Jaffre frame.
+	 * @param p_payload The payload.
+	 * @param p_iMaxFrameSize The maximum frame size.
+	 * @throws IOException If an I/O error occurred.
+	 * @throws JaffreSerializeException If the frame is too large.
+	 */
+	static void writeFrame(OutputStream        p_out,
+	                       int                 p_iFlags,
+	                       PayloadOutputStream p_payload,
+	                       int                 p_iMaxFrameSize)
+		throws IOException
+	{
+		final int    l_iLength;
+		final byte[] l_header;
+
+		l_iLength = p_payload.size();
+
+		_checkLength(l_iLength, p_iMaxFrameSize);
+
+		l_header = p_payload.m_header;
+
+		_putInt(l_header, 0, l_iLength);
+		_putInt(l_header, 4, p_iFlags);
+
+		p_out.write(l_header);
+
+		p_payload.writeTo(p_out);
+	}
+
+
+	/**
+	 * Read the payload of a frame.
+	 * @param p_in The input stream.
+	 * @param p_payload The stream that receives the payload.
+	 * @param p_iMaxFrameSize The maximum frame size.
+	 * @return <code>false</code> if the stream ended before a frame.
+	 * @throws IOException If an I/O error occurred, or if the stream ended
+	 *    within a frame.
+	 * @throws JaffreSerializeException If the frame is too large. The payload
+	 *    is not read in this case.
+	 */
+	static boolean readPayload(InputStream        p_in,
+	                           PayloadInputStream p_payload,
+	                           int                p_iMaxFrameSize)
+		throws IOException
+	{
+		final byte[] l_header;
+		final int    l_iFirst;
+		final int    l_iLength;
+
+		l_iFirst = p_in.read();
+
+		if (l_iFirst == -1)
+			return false;
+
+		l_header = p_payload.m_header;
+
+		l_header[0] = (byte)l_iFirst;
+
+		_readFully(p_in, l_header, 1, HEADER_SIZE - 1);
+
+		l_iLength = _getInt(l_header, 0);
+
+		_checkLength(l_iLength, p_iMaxFrameSize);
+
+		_readFully(p_in, p_payload._reset(l_iLength), 0, l_iLength);
+
+		return true;
+	}
+
+
+	/**
+	 * Get the size of the frame at the position of a buffer.
+	 * @param p_buf The buffer, in read mode. Its position is not changed.
+	 * @param p_iMaxFrameSize The maximum frame size.
+	 * @return The size of the frame including the header, or <code>-1</code>
+	 *    if the buffer does not hold the complete header.
+	 * @throws JaffreSerializeException If the frame is too large.
+	 */
+	static int getFrameSize(ByteBuffer p_buf, int p_iMaxFrameSize)
+	{
+		final int l_iLength;
+
+		if (p_buf.remaining() < HEADER_SIZE)
+			return -1;
+
+		l_iLength = p_buf.getInt(p_buf.position());
+
+		_checkLength(l_iLength, p_iMaxFrameSize);
+
+		return HEADER_SIZE + l_iLength;
+	}
+
+
+	/**
+	 * Get the flags of the frame at the position of a buffer.
+	 * @param p_buf The buffer, in read mode, holding at least the frame
+	 *    header. Its position is not changed.
+	 * @return The flags of the Jaffre frame.
+	 */
+	static int getFrameFlags(ByteBuffer p_buf)
+	{
+		return p_buf.getInt(p_buf.position() + 4);
+	}
+
+
+	/**
+	 * Check a maximum frame size parameter.
+	 * @param p_iMaxFrameSize The maximum frame size.
+	 * @throws JaffreConfigurationException If the size is too small.
+	 */
+	static void checkMaxFrameSize(int p_iMaxFrameSize)
+	{
+		if (p_iMaxFrameSize <= HEADER_SIZE)
+		{
+			throw new JaffreConfigurationException
+				(p_iMaxFrameSize + " is not a valid maximum frame size.");
+		}
+	}
+
+
+	private static void _checkLength(int p_iLength, int p_iMaxFrameSize)
+	{
+		if (p_iLength < 0)
+			throw new JaffreSerializeException("Illegal frame length " + p_iLength + ".");
+
+		if (p_iLength > p_iMaxFrameSize - HEADER_SIZE)
+		{
+			throw new JaffreSerializeException("The frame size " + ((long)p_iLength + HEADER_SIZE) +
+			                                   " exceeds the maximum frame size " + p_iMaxFrameSize + ".");
+		}
+	}
+
+
+	private static void _readFully(InputStream p_in, byte[] p_buf, int p_iOff, int p_iLen)
+		throws IOException
+	{
+		int l_iOff;
+
+		l_iOff = p_iOff;
+
+		while (l_iOff < p_iOff + p_iLen)
+		{
+			final int l_iRead;
+
+			l_iRead = p_in.read(p_buf, l_iOff, p_iOff + p_iLen - l_iOff);
+
+			if (l_iRead == -1)
+				throw new EOFException("Truncated frame.");
+
+			l_iOff += l_iRead;
+		}
+	}
+
+
+	private static void _putInt(byte[] p_buf, int p_iOff, int p_iValue)
+	{
+		p_buf[p_iOff]     = (byte)(p_iValue >>> 24);
+		p_buf[p_iOff + 1] = (byte)(p_iValue >>> 16);
+		p_buf[p_iOff + 2] = (byte)(p_iValue >>> 8);
+		p_buf[p_iOff + 3] = (byte)p_iValue;
+	}
+
+
+	private static int _getInt(byte[] p_buf, int p_iOff)
+	{
+		return ((p_buf[p_iOff] & 0xFF) << 24) |
+		       ((p_buf[p_iOff + 1] & 0xFF) << 16) |
+		       ((p_buf[p_iOff + 2] & 0xFF) << 8) |
+		       (p_buf[p_iOff + 3] & 0xFF);
+	}
+}
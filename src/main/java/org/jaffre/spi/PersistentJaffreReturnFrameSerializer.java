@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.spi;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreSerializeException;
+import org.jaffre.Logger;
+import org.jaffre.LoggerFactory;
+
+
+/**
+ * A serializer that keeps one object stream for all return frames of a
+ * connection.
+ * <p>Unlike the {@link DefaultJaffreReturnFrameSerializer} the stream header is
+ * written only once per connection, and each class descriptor only with the
+ * first frame that needs it. Objects are never shared between frames.</p>
+ * <p>The client and the server must both use persistent serializers, and
+ * both must call {@link #forConnection()} for each connection.</p>
+ * @author Alexander Veit
+ */
+public class PersistentJaffreReturnFrameSerializer implements JaffreReturnFrameSerializer
+{
+	private static final Logger ms_log =
+		LoggerFactory.getLogger(PersistentJaffreReturnFrameSerializer.class);
+
+	private final PersistentObjectStreams m_streams = new PersistentObjectStreams();
+
+
+	public PersistentJaffreReturnFrameSerializer()
+	{
+	}
+
+
+	@Override
+	public JaffreReturnFrameSerializer forConnection()
+	{
+		return new PersistentJaffreReturnFrameSerializer();
+	}
+
+
+	@Override
+	public void serialize(JaffreReturnFrame p_frame, OutputStream p_out)
+		throws IOException
+	{
+		if (p_frame == null)
+			throw new IllegalArgumentException("No return frame to serialize.");
+
+		if (p_out == null)
+			throw new IllegalArgumentException("No output stream.");
+
+		m_streams.write(p_frame, p_out);
+	}
+
+
+	@Override
+	public JaffreReturnFrame deserialize(InputStream p_in)
+		throws IOException, ClassNotFoundException, JaffreSerializeException
+	{
+		final Object l_obj;
+
+		if (p_in == null)
+			throw new IllegalArgumentException("No input stream.");
+
+		l_obj = m_streams.read(p_in);
+
+		if (l_obj == null)
+		{
+			// no more frames available
+			if (ms_log.isDebugEnabled())
+				ms_log.debug("No more return frames to deserialize.");
+
+			return null;
+		}
+
+		if (!(l_obj instanceof JaffreReturnFrame))
+			throw new JaffreSerializeException("Unexpected object deserialized: " + l_obj + ".");
+
+		return (JaffreReturnFrame)l_obj;
+	}
+}
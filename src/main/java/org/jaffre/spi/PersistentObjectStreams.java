@@ -0,0 +1,220 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.spi;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * An object stream pair that lives as long as a single connection.
+ * <p>The handle table of the output stream is reset before each frame, so
+ * objects are never shared between frames. Class descriptors survive the
+ * reset in a separate table, so that a class descriptor is only written with
+ * the first frame that needs it. Subsequent frames refer to it by its index
+ * in the table.</p>
+ * @author Alexander Veit
+ */
+final class PersistentObjectStreams
+{
+	private OutputStream m_out;
+
+	private DescriptorTableOutputStream m_oos;
+
+	private InputStream m_in;
+
+	private DescriptorTableInputStream m_ois;
+
+
+	/**
+	 * An object output stream that writes each class descriptor only once.
+	 */
+	private static final class DescriptorTableOutputStream extends ObjectOutputStream
+	{
+		private final Map<Class<?>, Integer> m_descs = new HashMap<>();
+
+
+		private DescriptorTableOutputStream(OutputStream p_out) throws IOException
+		{
+			super(p_out);
+		}
+
+
+		@Override
+		protected void writeClassDescriptor(ObjectStreamClass p_desc) throws IOException
+		{
+			final Integer l_index;
+
+			l_index = m_descs.get(p_desc.forClass());
+
+			if (l_index != null)
+			{
+				writeInt(l_index.intValue());
+			}
+			else
+			{
+				m_descs.put(p_desc.forClass(), m_descs.size());
+
+				writeInt(-1);
+
+				super.writeClassDescriptor(p_desc);
+			}
+		}
+	}
+
+
+	/**
+	 * An object input stream that reads the class descriptors written by a
+	 * {@link DescriptorTableOutputStream}.
+	 */
+	private static final class DescriptorTableInputStream extends ObjectInputStream
+	{
+		private final List<ObjectStreamClass> m_descs = new ArrayList<>();
+
+		private final Map<String, Class<?>> m_classes = new HashMap<>();
+
+
+		private DescriptorTableInputStream(InputStream p_in) throws IOException
+		{
+			super(p_in);
+		}
+
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor()
+			throws IOException, ClassNotFoundException
+		{
+			final int               l_iIndex;
+			final ObjectStreamClass l_desc;
+
+			l_iIndex = readInt();
+
+			if (l_iIndex < 0)
+			{
+				l_desc = super.readClassDescriptor();
+
+				m_descs.add(l_desc);
+
+				return l_desc;
+			}
+
+			if (l_iIndex >= m_descs.size())
+				throw new StreamCorruptedException("Unknown class descriptor " + l_iIndex + ".");
+
+			return m_descs.get(l_iIndex);
+		}
+
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass p_desc)
+			throws IOException, ClassNotFoundException
+		{
+			Class<?> l_class;
+
+			l_class = m_classes.get(p_desc.getName());
+
+			if (l_class == null)
+			{
+				l_class = super.resolveClass(p_desc);
+
+				m_classes.put(p_desc.getName(), l_class);
+			}
+
+			return l_class;
+		}
+	}
+
+
+	PersistentObjectStreams()
+	{
+	}
+
+
+	/**
+	 * Write an object.
+	 * @param p_obj The object.
+	 * @param p_out The output stream of the connection.
+	 * @throws IOException If an I/O error occurred.
+	 * @throws IllegalStateException If the streams are bound to the output
+	 *    stream of another connection.
+	 */
+	synchronized void write(Object p_obj, OutputStream p_out) throws IOException
+	{
+		if (m_oos == null)
+		{
+			m_oos = new DescriptorTableOutputStream(p_out);
+			m_out = p_out;
+		}
+		else if (m_out == p_out)
+		{
+			m_oos.reset();
+		}
+		else
+		{
+			throw new IllegalStateException("The serializer is bound to another output stream.");
+		}
+
+		m_oos.writeObject(p_obj);
+	}
+
+
+	/**
+	 * Read an object.
+	 * @param p_in The input stream of the connection.
+	 * @return The object, or <code>null</code> if no more objects are
+	 *    available.
+	 * @throws IOException If an I/O error occurred.
+	 * @throws ClassNotFoundException If the class of a serialized object
+	 *    cannot be found.
+	 * @throws IllegalStateException If the streams are bound to the input
+	 *    stream of another connection.
+	 */
+	synchronized Object read(InputStream p_in) throws IOException, ClassNotFoundException
+	{
+		try
+		{
+			if (m_ois == null)
+			{
+				m_ois = new DescriptorTableInputStream(p_in);
+				m_in  = p_in;
+			}
+			else if (m_in != p_in)
+			{
+				throw new IllegalStateException("The serializer is bound to another input stream.");
+			}
+
+			return m_ois.readObject();
+		}
+		catch (EOFException | ClosedChannelException l_e)
+		{
+			// no more objects available
+			return null;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.ssl;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * A byte channel on top of a blocking socket channel.
+ * <p>The calling thread blocks in the socket until the peer is ready, so a
+ * connection costs no CPU while it waits for the peer, and needs no file
+ * descriptors besides the socket. Unlike a plain socket channel, reads
+ * observe a timeout.</p>
+ * <p>If the waiting thread is interrupted, the channel is closed and a
+ * {@link ClosedByInterruptException} is thrown.</p>
+ * <p>Instances of this class are not thread-safe. A channel must not be
+ * read by different threads at the same time.</p>
+ * @author Alexander Veit
+ */
+public final class BlockingChannel implements ByteChannel
+{
+	private final SocketChannel m_channel;
+
+	private final int m_iTimeout;
+
+	/** The byte that was read while waiting for the peer, or <code>-1</code>. */
+	private int m_iPeeked = -1;
+
+	/** The buffer of timed reads. */
+	private byte[] m_buf;
+
+
+	/**
+	 * Put the given socket channel into blocking mode.
+	 * @param p_channel The socket channel.
+	 * @param p_iTimeout The maximum time to wait for the peer in
+	 *    milliseconds, or <code>0</code> to wait forever.
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public BlockingChannel(SocketChannel p_channel, int p_iTimeout) throws IOException
+	{
+		if (p_iTimeout < 0)
+			throw new IllegalArgumentException("Negative timeout value.");
+
+		m_channel  = p_channel;
+		m_iTimeout = p_iTimeout;
+
+		m_channel.configureBlocking(true);
+
+		// a socket channel ignores SO_TIMEOUT, the stream of its socket does not
+		m_channel.socket().setSoTimeout(p_iTimeout);
+	}
+
+
+	/**
+	 * Get the underlying socket channel.
+	 * @return The socket channel.
+	 */
+	public SocketChannel getChannel()
+	{
+		return m_channel;
+	}
+
+
+	/**
+	 * Connect the underlying socket channel.
+	 * @param p_address The remote address.
+	 * @throws SocketTimeoutException If the timeout elapsed.
+	 * @throws IOException If another I/O error occurred.
+	 */
+	public void connect(SocketAddress p_address) throws IOException
+	{
+		m_channel.socket().connect(p_address, m_iTimeout);
+	}
+
+
+	/**
+	 * Read a sequence of bytes. Waits until at least one byte was read
+	 * or the end of the stream was reached.
+	 * @throws SocketTimeoutException If the timeout elapsed.
+	 * @see java.nio.channels.ReadableByteChannel#read(java.nio.ByteBuffer)
+	 */
+	@Override
+	public int read(ByteBuffer p_buffer) throws IOException
+	{
+		if (!p_buffer.hasRemaining())
+			return 0;
+
+		if (m_iPeeked >= 0)
+		{
+			p_buffer.put((byte)m_iPeeked);
+
+			m_iPeeked = -1;
+
+			// more bytes may not be available yet
+			return 1;
+		}
+
+		if (m_iTimeout == 0)
+			return m_channel.read(p_buffer);
+		else
+			return _readTimed(p_buffer);
+	}
+
+
+	/**
+	 * Wait until data can be read from the socket channel, or until the
+	 * peer closed the connection. The first byte is kept by this channel
+	 * until the next read.
+	 * @throws SocketTimeoutException If the timeout elapsed.
+	 * @throws ClosedByInterruptException If the thread was interrupted.
+	 * @throws IOException If another I/O error occurred.
+	 */
+	public void awaitReadable() throws IOException
+	{
+		final ByteBuffer l_buf;
+
+		if (m_iPeeked >= 0)
+			return;
+
+		l_buf = ByteBuffer.allocate(1);
+
+		if (read(l_buf) > 0)
+			m_iPeeked = l_buf.get(0) & 0xFF;
+	}
+
+
+	/**
+	 * Write all remaining bytes of the buffer.
+	 * @see java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)
+	 */
+	@Override
+	public int write(ByteBuffer p_buffer) throws IOException
+	{
+		final int l_iRemaining;
+
+		l_iRemaining = p_buffer.remaining();
+
+		while (p_buffer.hasRemaining())
+			m_channel.write(p_buffer);
+
+		return l_iRemaining;
+	}
+
+
+	@Override
+	public boolean isOpen()
+	{
+		return m_channel.isOpen();
+	}
+
+
+	/**
+	 * Close the underlying socket channel.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		m_channel.close();
+	}
+
+
+	private int _readTimed(ByteBuffer p_buffer) throws IOException
+	{
+		final InputStream l_in;
+		final int         l_iRead;
+
+		l_in = m_channel.socket().getInputStream();
+
+		if (p_buffer.hasArray())
+		{
+			l_iRead = l_in.read(p_buffer.array(), p_buffer.arrayOffset() + p_buffer.position(), p_buffer.remaining());
+
+			if (l_iRead > 0)
+				p_buffer.position(p_buffer.position() + l_iRead);
+		}
+		else
+		{
+			if (m_buf == null)
+				m_buf = new byte[8192];
+
+			l_iRead = l_in.read(m_buf, 0, Math.min(m_buf.length, p_buffer.remaining()));
+
+			if (l_iRead > 0)
+				p_buffer.put(m_buf, 0, l_iRead);
+		}
+
+		return l_iRead;
+	}
+}
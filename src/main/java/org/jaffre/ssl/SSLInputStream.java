@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.ssl;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+
+import org.jaffre.io.AbstractByteBufferInputStream;
+import org.jaffre.io.ByteBufferPool;
+
+
+/**
+ * An input stream that decrypts the data read from a SSL connection.
+ * <p>The application and network buffers are acquired from the
+ * {@link ByteBufferPool#getHeapPool() heap buffer pool} and the
+ * {@link ByteBufferPool#getDirectPool() direct buffer pool}. When all
+ * received data were consumed, the buffers are released to the pools while
+ * the stream waits for the peer. Thus an idle connection holds no buffers,
+ * only the state of the SSL engine.</p>
+ * <p>The buffers are released to the global caches of the pools, not to
+ * the cache of the current thread, so that they can be used by other
+ * connections while the thread waits.</p>
+ * <p>This class is not synchronized.</p>
+ * @author Alexander Veit
+ */
+public final class SSLInputStream extends AbstractByteBufferInputStream
+{
+	/** The buffer of idle streams. */
+	private static final ByteBuffer ms_bufIdle = ByteBuffer.allocate(0);
+
+	private final BlockingChannel m_channel;
+
+	private final SSLEngine m_sslEngine;
+
+	/** The network input buffer, or <code>null</code> if the stream is idle. */
+	private ByteBuffer m_inNetBuf;
+
+	private boolean m_bClosed;
+
+
+	/**
+	 * Create a SSL input stream.
+	 * <p>The stream takes the ownership of the buffers. They should be
+	 * acquired from the heap and the direct buffer pool, respectively.</p>
+	 * @param p_channel The channel.
+	 * @param p_sslEngine The SSL engine, after the initial handshake.
+	 * @param p_inAppBuf The application input buffer. Its content is
+	 *    discarded.
+	 * @param p_inNetBuf The compacted network input buffer, that may
+	 *    contain data received after the handshake.
+	 */
+	public SSLInputStream(BlockingChannel p_channel,
+	                      SSLEngine          p_sslEngine,
+	                      ByteBuffer         p_inAppBuf,
+	                      ByteBuffer         p_inNetBuf)
+	{
+		super(p_inAppBuf, false);
+
+		m_channel   = p_channel;
+		m_sslEngine = p_sslEngine;
+		m_inNetBuf  = p_inNetBuf;
+	}
+
+
+	@Override
+	public int read(ByteBuffer p_buffer) throws IOException
+	{
+		assert p_buffer == m_buffer;
+
+		if (m_bClosed)
+			throw new IOException("Stream closed.");
+
+		// release the buffers while waiting for the peer
+		if (p_buffer.position() == 0 && (m_inNetBuf == null || m_inNetBuf.position() == 0))
+		{
+			_release();
+
+			m_channel.awaitReadable();
+
+			_acquire();
+		}
+
+		return SSLUtil.read(m_channel, m_sslEngine, m_buffer, m_inNetBuf);
+	}
+
+
+	/**
+	 * Receive a SSL close message from the peer. Pending input data are
+	 * discarded.
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public void readClosingMessage() throws IOException
+	{
+		if (m_bClosed)
+			throw new IOException("Stream closed.");
+
+		_acquire();
+
+		m_buffer.clear();
+
+		SSLUtil.readClosingMessage(m_channel, m_sslEngine, m_buffer, m_inNetBuf);
+
+		m_buffer.flip();
+	}
+
+
+	/**
+	 * Check if the stream holds no buffers.
+	 * @return <code>true</code> if the buffers are released.
+	 */
+	public boolean isIdle()
+	{
+		return m_inNetBuf == null;
+	}
+
+
+	/**
+	 * Release the buffers. The channel is not closed.
+	 */
+	@Override
+	public void close()
+	{
+		_release();
+
+		m_bClosed = true;
+	}
+
+
+	private void _acquire()
+	{
+		if (m_inNetBuf == null)
+		{
+			m_buffer   = ByteBufferPool.getHeapPool().acquire(m_sslEngine.getSession().getApplicationBufferSize());
+			m_inNetBuf = ByteBufferPool.getDirectPool().acquire(m_sslEngine.getSession().getPacketBufferSize());
+		}
+	}
+
+
+	private void _release()
+	{
+		if (m_inNetBuf != null)
+		{
+			ByteBufferPool.getHeapPool().release(m_buffer, false);
+			ByteBufferPool.getDirectPool().release(m_inNetBuf, false);
+
+			m_buffer   = ms_bufIdle;
+			m_inNetBuf = null;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.ssl;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+
+import org.jaffre.io.AbstractByteBufferOutputStream;
+import org.jaffre.io.ByteBufferPool;
+
+
+/**
+ * An output stream that encrypts the data written to a SSL connection.
+ * <p>The application buffer is acquired from the
+ * {@link ByteBufferPool#getHeapPool() heap buffer pool} when data are
+ * written, and released when the stream is flushed. The network buffer is
+ * acquired from the {@link ByteBufferPool#getDirectPool() direct buffer pool}
+ * only while encrypted data are sent. Thus an idle connection holds no
+ * buffers, only the state of the SSL engine.</p>
+ * <p>Released buffers bypass the cache of the writing thread. A thread
+ * that serves a single connection would otherwise keep them while the
+ * connection is idle.</p>
+ * <p>The buffers take several SSL records, so that large frames are
+ * sent with few writes.</p>
+ * <p>This class is not synchronized.</p>
+ * @author Alexander Veit
+ */
+public final class SSLOutputStream extends AbstractByteBufferOutputStream
+{
+	/** The buffer of idle streams. */
+	private static final ByteBuffer ms_bufIdle = ByteBuffer.allocate(0);
+
+	/** The number of SSL records that are sent with a single write. */
+	private static final int ms_iRecordsPerWrite = 4;
+
+	private final BlockingChannel m_channel;
+
+	private final SSLEngine m_sslEngine;
+
+
+	/**
+	 * Create a SSL output stream.
+	 * @param p_channel The channel.
+	 * @param p_sslEngine The SSL engine, after the initial handshake.
+	 */
+	public SSLOutputStream(BlockingChannel p_channel, SSLEngine p_sslEngine)
+	{
+		super(ms_bufIdle);
+
+		m_channel   = p_channel;
+		m_sslEngine = p_sslEngine;
+	}
+
+
+	@Override
+	public void write(byte[] p_buf, int p_iOffs, int p_iLen) throws IOException
+	{
+		if (m_buffer == ms_bufIdle && p_iLen > 0)
+		{
+			m_buffer = ByteBufferPool.getHeapPool().acquire
+				(ms_iRecordsPerWrite * m_sslEngine.getSession().getApplicationBufferSize());
+		}
+
+		super.write(p_buf, p_iOffs, p_iLen);
+	}
+
+
+	@Override
+	public void write(ByteBuffer p_buffer, WRITE_MODE p_mode) throws IOException
+	{
+		final ByteBuffer l_outNetBuf;
+
+		assert p_buffer == m_buffer;
+
+		if (!p_buffer.hasRemaining())
+			return;
+
+		// the application buffer may be encrypted into an additional record
+		l_outNetBuf = ByteBufferPool.getDirectPool().acquire
+			((ms_iRecordsPerWrite + 1) * m_sslEngine.getSession().getPacketBufferSize());
+
+		try
+		{
+			SSLUtil.write(m_channel, m_sslEngine, p_buffer, l_outNetBuf);
+		}
+		finally
+		{
+			ByteBufferPool.getDirectPool().release(l_outNetBuf, false);
+		}
+	}
+
+
+	/**
+	 * Send the buffered data and release the buffer.
+	 * @see org.jaffre.io.AbstractByteBufferOutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		if (m_buffer == ms_bufIdle)
+			return;
+
+		super.flush();
+
+		_release();
+	}
+
+
+	/**
+	 * Send a SSL close message to the peer. Buffered data are discarded.
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public void writeClosingMessage() throws IOException
+	{
+		final ByteBuffer l_outNetBuf;
+
+		if (m_buffer == null)
+			throw new IOException("Stream closed.");
+
+		_release();
+
+		l_outNetBuf = ByteBufferPool.getDirectPool().acquire(m_sslEngine.getSession().getPacketBufferSize());
+
+		try
+		{
+			SSLUtil.writeClosingMessage(m_channel, m_sslEngine, ByteBuffer.allocate(0), l_outNetBuf);
+		}
+		finally
+		{
+			ByteBufferPool.getDirectPool().release(l_outNetBuf, false);
+		}
+	}
+
+
+	/**
+	 * Check if the stream holds no buffer.
+	 * @return <code>true</code> if the buffer is released.
+	 */
+	public boolean isIdle()
+	{
+		return m_buffer == ms_bufIdle;
+	}
+
+
+	/**
+	 * Send the buffered data and release the buffer. The channel is not
+	 * closed.
+	 * @see org.jaffre.io.AbstractByteBufferOutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			if (m_buffer != ms_bufIdle)
+				super.close();
+		}
+		finally
+		{
+			_release();
+
+			m_buffer = null;
+		}
+	}
+
+
+	private void _release()
+	{
+		if (m_buffer != null && m_buffer != ms_bufIdle)
+		{
+			ByteBufferPool.getHeapPool().release(m_buffer, false);
+
+			m_buffer = ms_bufIdle;
+		}
+	}
+}
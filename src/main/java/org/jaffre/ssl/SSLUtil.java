@@ -22,18 +22,29 @@ import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.SocketChannel;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLSession;
 
 import org.jaffre.Logger;
 import org.jaffre.LoggerFactory;
@@ -46,6 +57,13 @@ public final class SSLUtil
 {
 	private static final Logger ms_log = LoggerFactory.getLogger(SSLUtil.class);
 
+	/**
+	 * The sessions that were established by a handshake. A session is
+	 * only held as long as it is cached.
+	 */
+	private static final Map<SSLSession, Boolean> ms_sessions =
+		Collections.synchronizedMap(new WeakHashMap<SSLSession, Boolean>());
+
 	private SSLUtil()
 	{
 	}
@@ -93,39 +111,71 @@ public final class SSLUtil
 	 * <code>p_inAppBuf</code> are clear when this method returns.</p>
 	 * <p>The buffer <code>p_inNetBuf</code> is compacted and may contain
 	 * input data that are not handshake but payload data.</p>
-	 * @param p_channel The socket channel.
+	 * @param p_channel The channel.
 	 * @param p_sslEngine The SSL engine to be used.
 	 * @param p_outAppBuf The application output buffer.
 	 * @param p_outNetBuf The network output buffer.
 	 * @param p_inAppBuf The application input buffer.
 	 * @param p_inNetBuf The network input buffer.
+	 * @return <code>true</code> if a cached session was resumed,
+	 *    <code>false</code> if a full handshake was performed.
 	 * @throws IOException If an I/O error occurred.
 	 */
-	public static void doHandshake(SocketChannel p_channel,
-	                               SSLEngine     p_sslEngine,
-	                               ByteBuffer    p_outAppBuf,
-	                               ByteBuffer    p_outNetBuf,
-	                               ByteBuffer    p_inAppBuf,
-	                               ByteBuffer    p_inNetBuf)
+	public static boolean doHandshake(ByteChannel p_channel,
+	                                  SSLEngine   p_sslEngine,
+	                                  ByteBuffer  p_outAppBuf,
+	                                  ByteBuffer  p_outNetBuf,
+	                                  ByteBuffer  p_inAppBuf,
+	                                  ByteBuffer  p_inNetBuf)
+		throws IOException
+	{
+		return doHandshake(p_channel, p_sslEngine, null, p_outAppBuf, p_outNetBuf, p_inAppBuf, p_inNetBuf);
+	}
+
+
+	/**
+	 * Perform a SSL handshake.
+	 * <p>The delegated tasks of the SSL engine, i.e. the expensive key
+	 * exchange and signature operations, are run by the given executor.
+	 * The calling thread waits for them without using CPU. Thus an executor
+	 * with a bounded number of threads bounds the CPU used for handshakes.</p>
+	 * <p>See {@link #doHandshake(ByteChannel, SSLEngine, ByteBuffer, ByteBuffer, ByteBuffer, ByteBuffer)}
+	 * for the state of the buffers.</p>
+	 * @param p_channel The channel.
+	 * @param p_sslEngine The SSL engine to be used.
+	 * @param p_executor The executor for the delegated tasks, or
+	 *    <code>null</code> if the tasks should be run by the calling thread.
+	 * @param p_outAppBuf The application output buffer.
+	 * @param p_outNetBuf The network output buffer.
+	 * @param p_inAppBuf The application input buffer.
+	 * @param p_inNetBuf The network input buffer.
+	 * @return <code>true</code> if a cached session was resumed,
+	 *    <code>false</code> if a full handshake was performed.
+	 * @throws InterruptedIOException If the calling thread was interrupted
+	 *    while waiting for a delegated task.
+	 * @throws IOException If another I/O error occurred.
+	 */
+	public static boolean doHandshake(ByteChannel p_channel,
+	                                  SSLEngine   p_sslEngine,
+	                                  Executor    p_executor,
+	                                  ByteBuffer  p_outAppBuf,
+	                                  ByteBuffer  p_outNetBuf,
+	                                  ByteBuffer  p_inAppBuf,
+	                                  ByteBuffer  p_inNetBuf)
 		throws IOException
 	{
-		final long l_lTimeStart;
+		final long       l_lTimeStart;
+		final SSLSession l_session;
+		final boolean    l_bResumed;
 
 		assert p_outAppBuf.position() == 0 && p_outAppBuf.limit() == p_outAppBuf.capacity();
 		assert p_outNetBuf.position() == 0 && p_outNetBuf.limit() == p_outNetBuf.capacity();
 		assert p_inAppBuf.position() == 0 && p_inAppBuf.limit() == p_inAppBuf.capacity();
 		assert p_inNetBuf.position() == 0 && p_inNetBuf.limit() == p_inNetBuf.capacity();
 
-		if (ms_log.isDebugEnabled())
-		{
-			ms_log.debug("Begin SSL handshake.");
+		ms_log.debug("Begin SSL handshake.");
 
-			l_lTimeStart = System.currentTimeMillis();
-		}
-		else
-		{
-			l_lTimeStart = 0;
-		}
+		l_lTimeStart = System.currentTimeMillis();
 
 		assert p_sslEngine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING :
 			p_sslEngine.getHandshakeStatus().toString();
@@ -161,7 +211,7 @@ public final class SSLUtil
 
 			case NEED_TASK:
 				ms_log.debug("SSL handshake status NEED_TASK.");
-				p_sslEngine.getDelegatedTask().run();
+				_runDelegatedTasks(p_sslEngine, p_executor);
 				break;
 
 			default:
@@ -176,21 +226,80 @@ public final class SSLUtil
 		p_outNetBuf.clear();
 		p_inAppBuf.clear();
 
+		// a TLS 1.2 session is resumed as is, whereas a resumed TLS 1.3
+		// session is a copy that keeps the creation time of the original
+		// session only; session values cannot be used as a mark because
+		// setting one makes the engine issue a new session ticket, and
+		// sessions are compared by their id, which may be empty
+		l_session  = p_sslEngine.getSession();
+		l_bResumed = l_session.getId().length > 0 && ms_sessions.put(l_session, Boolean.TRUE) != null ||
+		             l_session.getCreationTime() < l_lTimeStart;
+
 		if (ms_log.isDebugEnabled())
 		{
 			final long l_lDiff;
 
 			l_lDiff = System.currentTimeMillis() - l_lTimeStart;
 
-			ms_log.debug("Finished SSL handshake in " + l_lDiff + " ms.");
+			ms_log.debug("Finished " + (l_bResumed ? "abbreviated" : "full") +
+			             " SSL handshake in " + l_lDiff + " ms.");
 		}
+
+		return l_bResumed;
 	}
 
 
-	private static SSLEngineResult _handshakeWrap(SocketChannel p_channel,
-	                                              SSLEngine     p_sslEngine,
-	                                              ByteBuffer    p_outAppBuf,
-	                                              ByteBuffer    p_outNetBuf)
+	/**
+	 * Run the pending delegated tasks of the SSL engine and wait until
+	 * they are finished.
+	 * @param p_sslEngine The SSL engine.
+	 * @param p_executor The executor, or <code>null</code>.
+	 * @throws IOException If a task failed or the thread was interrupted.
+	 */
+	private static void _runDelegatedTasks(SSLEngine p_sslEngine, Executor p_executor)
+		throws IOException
+	{
+		final List<CompletableFuture<Void>> l_futures;
+		Runnable                            l_task;
+
+		if (p_executor == null)
+		{
+			while ((l_task = p_sslEngine.getDelegatedTask()) != null)
+				l_task.run();
+
+			return;
+		}
+
+		l_futures = new ArrayList<>(2);
+
+		try
+		{
+			while ((l_task = p_sslEngine.getDelegatedTask()) != null)
+				l_futures.add(CompletableFuture.runAsync(l_task, p_executor));
+
+			CompletableFuture.allOf(l_futures.toArray(new CompletableFuture<?>[l_futures.size()])).get();
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException("Interrupted while waiting for a delegated SSL task.");
+		}
+		catch (ExecutionException l_e)
+		{
+			throw new IOException("A delegated SSL task failed.", l_e.getCause());
+		}
+		catch (RejectedExecutionException l_e)
+		{
+			throw new IOException("A delegated SSL task was rejected.", l_e);
+		}
+	}
+
+
+	private static SSLEngineResult _handshakeWrap(ByteChannel p_channel,
+	                                              SSLEngine   p_sslEngine,
+	                                              ByteBuffer  p_outAppBuf,
+	                                              ByteBuffer  p_outNetBuf)
 		throws IOException
 	{
 		final SSLEngineResult l_res;
@@ -207,13 +316,8 @@ public final class SSLUtil
 
 			// send the handshaking data to the peer
 			while (p_outNetBuf.hasRemaining())
-			{
 				p_channel.write(p_outNetBuf);
 
-				if (p_outNetBuf.hasRemaining()) // TODO really useful?
-					Thread.yield();
-			}
-
 			p_outNetBuf.clear();
 			break;
 
@@ -248,69 +352,84 @@ public final class SSLUtil
 	 * @param p_inNetBuf The network input buffer.
 	 * @throws IOException If an I/O error occurred.
 	 */
-	private static void _handshakeUnwrap(SocketChannel p_channel,
-	                                     SSLEngine     p_sslEngine,
-	                                     ByteBuffer    p_inAppBuf,
-	                                     ByteBuffer    p_inNetBuf)
+	private static void _handshakeUnwrap(ByteChannel p_channel,
+	                                     SSLEngine   p_sslEngine,
+	                                     ByteBuffer  p_inAppBuf,
+	                                     ByteBuffer  p_inNetBuf)
 		throws IOException
 	{
+		if (p_inNetBuf.position() == 0)
+			_handshakeRead(p_channel, p_inNetBuf);
+
 		while (true)
 		{
-			if (p_inNetBuf.position() == 0)
-			{
-				final int l_iRead;
-
-				l_iRead = p_channel.read(p_inNetBuf);
+			final SSLEngineResult l_res;
 
-				if (l_iRead == -1)
-					throw new ClosedChannelException();
+			p_inNetBuf.flip();
+			p_inAppBuf.clear();
 
-				if (l_iRead == 0)
-					throw new AssertionError("Unexpected 0 byte read in blocking channel mode.");
-			}
-			else
-			{
-				final SSLEngineResult l_res;
+			l_res = p_sslEngine.unwrap(p_inNetBuf, p_inAppBuf);
 
-				p_inNetBuf.flip();
-				p_inAppBuf.clear();
+			p_inNetBuf.compact();
+			p_inAppBuf.clear();
 
-				l_res = p_sslEngine.unwrap(p_inNetBuf, p_inAppBuf);
+			// check status
+			switch (l_res.getStatus())
+			{
+			case OK:
+				ms_log.debug("SSL handshake read status OK.");
+				return;
 
-				p_inNetBuf.compact();
-				p_inAppBuf.clear();
+			case BUFFER_UNDERFLOW:
+				ms_log.debug("SSL handshake read status BUFFER_UNDERFLOW.");
 
-				// check status
-				switch (l_res.getStatus())
-				{
-				case OK:
-					ms_log.debug("SSL handshake read status OK.");
-					return;
+				// incomplete record, wait for more data to arrive
+				if (!p_inNetBuf.hasRemaining())
+					throw new AssertionError("SSL handshake read: network buffer too small.");
 
-				case BUFFER_UNDERFLOW:
-					ms_log.debug("SSL handshake read status BUFFER_UNDERFLOW.");
-					Thread.yield(); // wait for more data to arrive
-					break;
+				_handshakeRead(p_channel, p_inNetBuf);
+				break;
 
-				case BUFFER_OVERFLOW:
-					ms_log.error("SSL handshake read status BUFFER_OVERFLOW.");
-					throw new AssertionError("SSL read status BUFFER_OVERFLOW.");
+			case BUFFER_OVERFLOW:
+				ms_log.error("SSL handshake read status BUFFER_OVERFLOW.");
+				throw new AssertionError("SSL read status BUFFER_OVERFLOW.");
 
-				case CLOSED:
-					ms_log.error("SSL handshake read status CLOSED.");
-					throw new AssertionError("SSL read status CLOSED.");
+			case CLOSED:
+				ms_log.error("SSL handshake read status CLOSED.");
+				throw new AssertionError("SSL read status CLOSED.");
 
-				default:
-					ms_log.error("SSL handshake read: unexpected status " + l_res.getStatus() + ".");
+			default:
+				ms_log.error("SSL handshake read: unexpected status " + l_res.getStatus() + ".");
 
-					throw new AssertionError
-						("SSL handshake read: unexpected status " + l_res.getStatus() + ".");
-				}
+				throw new AssertionError
+					("SSL handshake read: unexpected status " + l_res.getStatus() + ".");
 			}
 		}
 	}
 
 
+	/**
+	 * Read handshake data. Waits until at least one byte was read.
+	 * @param p_channel The channel.
+	 * @param p_inNetBuf The network input buffer.
+	 * @throws ClosedChannelException If the peer closed the connection.
+	 * @throws IOException If another I/O error occurred.
+	 */
+	private static void _handshakeRead(ByteChannel p_channel, ByteBuffer p_inNetBuf)
+		throws IOException
+	{
+		final int l_iRead;
+
+		l_iRead = p_channel.read(p_inNetBuf);
+
+		if (l_iRead == -1)
+			throw new ClosedChannelException();
+
+		if (l_iRead == 0)
+			throw new AssertionError("Unexpected 0 byte read.");
+	}
+
+
 	/**
 	 * Read data from the socket.
 	 * <p>The buffer <code>p_inAppBuf</code> is flipped and contains
@@ -318,17 +437,17 @@ public final class SSLUtil
 	 * <p>The buffer <code>p_inNetBuf</code> is compacted when this
 	 * method returns. The caller must not modify the contents of this
 	 * buffer between two subsequent calls of this method</p>
-	 * @param p_channel The socket channel.
+	 * @param p_channel The channel.
 	 * @param p_sslEngine The SSL engine to be used.
 	 * @param p_inAppBuf A compacted buffer that will receive decrypted data.
 	 * @param p_inNetBuf An buffer that will receive network data.
 	 * @throws IOException If an I/O error occurred.
 	 * @return The number of bytes read, or -1 if no more input is available.
 	 */
-	public static int read(SocketChannel p_channel,
-	                       SSLEngine     p_sslEngine,
-	                       ByteBuffer    p_inAppBuf,
-	                       ByteBuffer    p_inNetBuf)
+	public static int read(ByteChannel p_channel,
+	                       SSLEngine   p_sslEngine,
+	                       ByteBuffer  p_inAppBuf,
+	                       ByteBuffer  p_inNetBuf)
 		throws IOException
 	{
 		final int l_iBytesBefore;
@@ -390,16 +509,21 @@ public final class SSLUtil
 
 	/**
 	 * Write data to the socket.
-	 * @param p_channel The socket channel.
+	 * <p>The SSL records are collected in the network output buffer, and
+	 * are sent with a single write when the buffer is full, or when all
+	 * data were encrypted. So a network buffer that can take several
+	 * records reduces the number of system calls.</p>
+	 * @param p_channel The channel.
 	 * @param p_sslEngine The SSL engine to be used.
 	 * @param p_outAppBuf The application output buffer.
-	 * @param p_outNetBuf The network output buffer.
+	 * @param p_outNetBuf The cleared network output buffer. It is at least
+	 *    as large as the packet buffer size of the SSL session.
 	 * @throws IOException If an I/O error occurred.
 	 */
-	public static void write(SocketChannel p_channel,
-	                         SSLEngine     p_sslEngine,
-	                         ByteBuffer    p_outAppBuf,
-	                         ByteBuffer    p_outNetBuf)
+	public static void write(ByteChannel p_channel,
+	                         SSLEngine   p_sslEngine,
+	                         ByteBuffer  p_outAppBuf,
+	                         ByteBuffer  p_outNetBuf)
 		throws IOException
 	{
 		assert p_outNetBuf.limit() == p_outNetBuf.capacity();
@@ -414,19 +538,14 @@ public final class SSLUtil
 			switch (l_res.getStatus())
 			{
 			case OK:
-			case BUFFER_OVERFLOW:
-				p_outNetBuf.flip();
-
-				// send the encrypted data to the peer
-				while (p_outNetBuf.hasRemaining()) // coward loop
-				{
-					p_channel.write(p_outNetBuf);
+				// collect the next record
+				break;
 
-					if (p_outNetBuf.hasRemaining())
-						Thread.yield(); // should not occur in blocking mode
-				}
+			case BUFFER_OVERFLOW:
+				if (p_outNetBuf.position() == 0)
+					throw new AssertionError("SSL write status BUFFER_OVERFLOW.");
 
-				p_outNetBuf.clear();
+				_write(p_channel, p_outNetBuf);
 				break;
 
 			case BUFFER_UNDERFLOW:
@@ -440,22 +559,39 @@ public final class SSLUtil
 					("SSL write: unexpected status " + l_res.getStatus() + ".");
 			}
 		}
+
+		_write(p_channel, p_outNetBuf);
+	}
+
+
+	/**
+	 * Send the encrypted data to the peer and clear the network buffer.
+	 */
+	private static void _write(ByteChannel p_channel, ByteBuffer p_outNetBuf)
+		throws IOException
+	{
+		p_outNetBuf.flip();
+
+		while (p_outNetBuf.hasRemaining())
+			p_channel.write(p_outNetBuf);
+
+		p_outNetBuf.clear();
 	}
 
 
 	/**
 	 * Clear the output buffers and send a SSL close message to the peer.
 	 * <p>The output buffers are cleared when this method returns.</p>
-	 * @param p_channel The socket channel to write to.
+	 * @param p_channel The channel to write to.
 	 * @param p_sslEngine The SSL engine to be used.
 	 * @param p_outAppBuf The application output buffer.
 	 * @param p_outNetBuf The network output buffer.
 	 * @throws IOException If an I/O error occurred.
 	 */
-	public static void writeClosingMessage(SocketChannel p_channel,
-                                           SSLEngine     p_sslEngine,
-                                           ByteBuffer    p_outAppBuf,
-                                           ByteBuffer    p_outNetBuf)
+	public static void writeClosingMessage(ByteChannel p_channel,
+                                           SSLEngine   p_sslEngine,
+                                           ByteBuffer  p_outAppBuf,
+                                           ByteBuffer  p_outNetBuf)
 		throws IOException
 	{
 		assert !p_sslEngine.isOutboundDone();
@@ -479,13 +615,8 @@ public final class SSLUtil
 			p_outNetBuf.flip();
 
 			while (p_outNetBuf.hasRemaining())
-			{
 				p_channel.write(p_outNetBuf);
 
-				if (p_outNetBuf.hasRemaining())
-					Thread.yield(); // should not occur in blocking mode
-			}
-
 			p_outNetBuf.clear();
 		}
 
@@ -496,16 +627,16 @@ public final class SSLUtil
 	/**
 	 * Receive a SSL close message from the peer.
 	 * <p>The input buffers are cleared when this method returns.</p>
-	 * @param p_channel The socket channel to read from.
+	 * @param p_channel The channel to read from.
 	 * @param p_sslEngine The SSL engine to be used.
 	 * @param p_inAppBuf The application input buffer.
 	 * @param p_inNetBuf The network input buffer.
 	 * @throws IOException If an I/O error occurred.
 	 */
-	public static void readClosingMessage(SocketChannel p_channel,
-	                                      SSLEngine     p_sslEngine,
-	                                      ByteBuffer    p_inAppBuf,
-	                                      ByteBuffer    p_inNetBuf)
+	public static void readClosingMessage(ByteChannel p_channel,
+	                                      SSLEngine   p_sslEngine,
+	                                      ByteBuffer  p_inAppBuf,
+	                                      ByteBuffer  p_inNetBuf)
 		throws IOException
 	{
 		ms_log.debug("SSL read closing message.");
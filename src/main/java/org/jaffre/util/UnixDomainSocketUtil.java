@@ -0,0 +1,155 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.util;
+
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.jaffre.JaffreConfigurationException;
+
+
+/**
+ * Access to Unix domain sockets.
+ * <p>Unix domain socket channels require a Java 16 or later runtime. They are
+ * accessed by reflection, so this class can be loaded on older runtimes.</p>
+ * @author Alexander Veit
+ */
+public final class UnixDomainSocketUtil
+{
+	/** <code>StandardProtocolFamily.UNIX</code>, or <code>null</code>. */
+	private static final ProtocolFamily ms_family;
+
+	/** <code>UnixDomainSocketAddress.of(String)</code>. */
+	private static final Method ms_ofAddress;
+
+	/** <code>SocketChannel.open(ProtocolFamily)</code>. */
+	private static final Method ms_openChannel;
+
+	/** <code>ServerSocketChannel.open(ProtocolFamily)</code>. */
+	private static final Method ms_openServerChannel;
+
+	static
+	{
+		ProtocolFamily l_family;
+		Method         l_ofAddress;
+		Method         l_openChannel;
+		Method         l_openServerChannel;
+
+		try
+		{
+			l_family            = StandardProtocolFamily.valueOf("UNIX");
+			l_ofAddress         = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+			l_openChannel       = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+			l_openServerChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+		}
+		catch (Throwable l_e)
+		{
+			// not supported by the runtime
+			l_family            = null;
+			l_ofAddress         = null;
+			l_openChannel       = null;
+			l_openServerChannel = null;
+		}
+
+		ms_family            = l_family;
+		ms_ofAddress         = l_ofAddress;
+		ms_openChannel       = l_openChannel;
+		ms_openServerChannel = l_openServerChannel;
+	}
+
+
+	private UnixDomainSocketUtil()
+	{
+	}
+
+
+	/**
+	 * Check if the runtime supports Unix domain socket channels.
+	 * @return <code>true</code> if Unix domain sockets are supported,
+	 *    or <code>false</code> otherwise.
+	 */
+	public static boolean isSupported()
+	{
+		return ms_family != null;
+	}
+
+
+	/**
+	 * Create the address of a Unix domain socket.
+	 * @param p_strPath The path of the socket file.
+	 * @return The socket address.
+	 * @throws JaffreConfigurationException If Unix domain sockets are not
+	 *    supported, or the path is invalid.
+	 */
+	public static SocketAddress newAddress(String p_strPath)
+	{
+		return (SocketAddress)_invoke(ms_ofAddress, p_strPath);
+	}
+
+
+	/**
+	 * Open an unconnected Unix domain socket channel.
+	 * @return The socket channel.
+	 * @throws JaffreConfigurationException If Unix domain sockets are not
+	 *    supported, or the channel cannot be opened.
+	 */
+	public static SocketChannel openSocketChannel()
+	{
+		return (SocketChannel)_invoke(ms_openChannel, ms_family);
+	}
+
+
+	/**
+	 * Open an unbound Unix domain server socket channel.
+	 * @return The server socket channel.
+	 * @throws JaffreConfigurationException If Unix domain sockets are not
+	 *    supported, or the channel cannot be opened.
+	 */
+	public static ServerSocketChannel openServerSocketChannel()
+	{
+		return (ServerSocketChannel)_invoke(ms_openServerChannel, ms_family);
+	}
+
+
+	private static Object _invoke(Method p_method, Object p_arg)
+	{
+		if (!isSupported())
+		{
+			throw new JaffreConfigurationException
+				("Unix domain sockets are not supported by the runtime.");
+		}
+
+		try
+		{
+			return p_method.invoke(null, p_arg);
+		}
+		catch (InvocationTargetException l_e)
+		{
+			throw new JaffreConfigurationException("Cannot access a Unix domain socket.", l_e.getCause());
+		}
+		catch (IllegalAccessException l_e)
+		{
+			throw new JaffreConfigurationException("Cannot access a Unix domain socket.", l_e);
+		}
+	}
+}
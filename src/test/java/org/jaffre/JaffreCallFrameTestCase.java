@@ -47,6 +47,44 @@ public final class JaffreCallFrameTestCase extends JaffreTestCaseBase
 		assertIAE(
 			() -> new JaffreCallFrame(IntFunction.class, "apply", new Class[] {int.class}, new Object[0]),
 			"The number of parameters does not match the number of arguments.");
+
+		assertIAE(
+			() -> new JaffreCallFrame(0, null, null),
+			"0 is not a valid method id.");
+	}
+
+
+	public void testMethodId()
+	{
+		final JaffreCallFrame l_frame1;
+		final JaffreCallFrame l_frame2;
+
+		l_frame1 = new JaffreCallFrame
+			(IntFunction.class, "apply", new Class[] {int.class}, new Object[] {785});
+
+		assertFalse(l_frame1.hasMethodId());
+		assertEquals(0, l_frame1.getMethodId());
+
+		assertFalse(l_frame1.isMethodIdRequest());
+		l_frame1.setMethodIdRequest(true);
+		assertTrue(l_frame1.isMethodIdRequest());
+		assertEquals(JAFFRE_FLAG.METHOD_ID_REQUEST, l_frame1.getFlags());
+		l_frame1.setMethodIdRequest(false);
+		assertFalse(l_frame1.isMethodIdRequest());
+
+		l_frame2 = new JaffreCallFrame(7, new Object[] {785}, null);
+
+		assertTrue(l_frame2.hasMethodId());
+		assertEquals(7, l_frame2.getMethodId());
+		assertNull(l_frame2.getInterface());
+		assertNull(l_frame2.getMethodName());
+		assertNull(l_frame2.getParameterTypes());
+		assertTrue(l_frame2.hasParameters());
+
+		assertFalse(l_frame1.equals(l_frame2));
+		assertTrue(l_frame2.equals(new JaffreCallFrame(7, new Object[] {785}, null)));
+		assertFalse(l_frame2.equals(new JaffreCallFrame(8, new Object[] {785}, null)));
+		assertEquals(l_frame2.hashCode(), new JaffreCallFrame(7, new Object[] {785}, null).hashCode());
 	}
 
 
@@ -89,6 +127,10 @@ public final class JaffreCallFrameTestCase extends JaffreTestCaseBase
 		l_frame.setUserData("test");
 		assertTrue(l_frame.hasUserData());
 		assertEquals("test", l_frame.getUserData());
+
+		assertEquals(0L, l_frame.getCorrelationId());
+		l_frame.setCorrelationId(0x100000001L);
+		assertEquals(0x100000001L, l_frame.getCorrelationId());
 	}
 
 
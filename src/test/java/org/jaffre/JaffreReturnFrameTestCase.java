@@ -51,6 +51,14 @@ public final class JaffreReturnFrameTestCase extends JaffreTestCaseBase
 		l_frame.setUserData("test");
 		assertTrue(l_frame.hasUserData());
 		assertEquals("test", l_frame.getUserData());
+
+		assertEquals(0L, l_frame.getCorrelationId());
+		l_frame.setCorrelationId(0x100000001L);
+		assertEquals(0x100000001L, l_frame.getCorrelationId());
+
+		assertEquals(0, l_frame.getMethodId());
+		l_frame.setMethodId(17);
+		assertEquals(17, l_frame.getMethodId());
 	}
 
 
@@ -20,9 +20,13 @@ package org.jaffre.client;
 
 import java.net.UnknownHostException;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+
 import org.example.services.SomeTestMethods;
 import org.example.services.SomeTestMethodsService;
 import org.jaffre.client.spi.SSLSocketJaffreClient;
+import org.jaffre.io.ByteBufferPool;
 import org.jaffre.server.JaffreServer;
 import org.jaffre.server.spi.DefaultJaffreServer;
 import org.jaffre.server.spi.SSLSocketJaffreConnector;
@@ -152,4 +156,209 @@ public final class SSLClientTestCase extends JaffreTestCaseBase
 
 		m_client.dispose();
 	}
+
+
+	public void testPooledBuffers() throws Exception
+	{
+		final SomeTestMethods l_interface;
+		final String          l_strIn;
+		final long            l_lHeapAllocations;
+		final long            l_lDirectAllocations;
+
+		setUpClientAndServer();
+
+		l_interface = m_client.getProxy(SomeTestMethods.class);
+		l_strIn     = new String(new char[50000]).replace('\0', 'x');
+
+		for (int i = 0; i < 5; i++)
+			assertEquals(l_strIn, l_interface.echo(l_strIn));
+
+		// idle keep-alive connections hold no buffers, so the calls reuse them
+		l_lHeapAllocations   = ByteBufferPool.getHeapPool().getNumAllocations();
+		l_lDirectAllocations = ByteBufferPool.getDirectPool().getNumAllocations();
+
+		for (int i = 0; i < 100; i++)
+			assertEquals(l_strIn, l_interface.echo(l_strIn));
+
+		assertEquals(l_lHeapAllocations, ByteBufferPool.getHeapPool().getNumAllocations());
+		assertEquals(l_lDirectAllocations, ByteBufferPool.getDirectPool().getNumAllocations());
+		assertEquals(1L, m_connector.getNumFullHandshakes() + m_connector.getNumResumedHandshakes());
+
+		// the buffers of the idle connection can be used by other threads
+		_testAcquireIdleBuffers(l_strIn);
+	}
+
+
+	private void _testAcquireIdleBuffers(String p_strIn) throws Exception
+	{
+		final SomeTestMethods l_interface;
+		final SSLSession      l_session;
+		final int             l_iAppBufSize;
+		final int             l_iNetBufSize;
+		final long[]          l_allocations;
+		final Thread          l_thread;
+
+		l_interface = m_client.getProxy(SomeTestMethods.class);
+
+		assertEquals(p_strIn, l_interface.echo(p_strIn));
+
+		// the connector waits for the next call, both ends are idle
+		Thread.sleep(100L);
+
+		l_session     = SSLContext.getDefault().createSSLEngine().getSession();
+		l_iAppBufSize = l_session.getApplicationBufferSize();
+		l_iNetBufSize = l_session.getPacketBufferSize();
+		l_allocations = new long[2];
+		l_thread      = new Thread(() ->
+		{
+			final long l_lHeapAllocations;
+			final long l_lDirectAllocations;
+
+			l_lHeapAllocations   = ByteBufferPool.getHeapPool().getNumAllocations();
+			l_lDirectAllocations = ByteBufferPool.getDirectPool().getNumAllocations();
+
+			// the input buffers of the client and of the connector
+			for (int i = 0; i < 2; i++)
+			{
+				ByteBufferPool.getHeapPool().acquire(l_iAppBufSize);
+				ByteBufferPool.getDirectPool().acquire(l_iNetBufSize);
+			}
+
+			l_allocations[0] = ByteBufferPool.getHeapPool().getNumAllocations() - l_lHeapAllocations;
+			l_allocations[1] = ByteBufferPool.getDirectPool().getNumAllocations() - l_lDirectAllocations;
+		});
+
+		l_thread.start();
+		l_thread.join();
+
+		assertEquals(0L, l_allocations[0]);
+		assertEquals(0L, l_allocations[1]);
+	}
+
+
+	public void testLargeFrames() throws Exception
+	{
+		final SomeTestMethods l_interface;
+
+		setUpClientAndServer();
+
+		l_interface = m_client.getProxy(SomeTestMethods.class);
+
+		// frames that take many SSL records
+		for (int l_iLen = 1; l_iLen <= 1000000; l_iLen *= 10)
+		{
+			final String l_strIn;
+
+			l_strIn = new String(new char[l_iLen]).replace('\0', 'x');
+
+			assertEquals(l_strIn, l_interface.echo(l_strIn));
+		}
+	}
+
+
+	public void testSessionResumption() throws Exception
+	{
+		_testSessionResumption("TLSv1.2");
+	}
+
+
+	public void testSessionResumptionTLS13() throws Exception
+	{
+		_testSessionResumption("TLSv1.3");
+	}
+
+
+	private void _testSessionResumption(String p_strProtocol) throws Exception
+	{
+		final SomeTestMethods l_interface;
+
+		setUpClientAndServer();
+
+		m_connector.stop();
+		m_connector.setProtocol(p_strProtocol);
+		m_connector.setSessionCacheSize(100);
+		m_connector.setSessionTimeout(3600);
+		m_connector.start();
+
+		m_client.setServicePort(m_connector.getLocalPort());
+		m_client.setSessionCacheSize(100);
+		m_client.setSessionTimeout(3600);
+		m_client.setKeepAlive(false);
+
+		assertEquals(100, m_client.getSessionCacheSize());
+		assertEquals(3600, m_client.getSessionTimeout());
+
+		l_interface = m_client.getProxy(SomeTestMethods.class);
+
+		for (int i = 0; i < 5; i++)
+			assertEquals("echo" + i, l_interface.echo("echo" + i));
+
+		// the context is kept across dispose
+		m_client.dispose();
+
+		assertEquals("echo", l_interface.echo("echo"));
+
+		assertEquals(1L, m_client.getNumFullHandshakes());
+		assertEquals(5L, m_client.getNumResumedHandshakes());
+		assertEquals(1L, m_connector.getNumFullHandshakes());
+		assertEquals(5L, m_connector.getNumResumedHandshakes());
+
+		// the timeout applies to the existing context
+		m_client.setSessionTimeout(1);
+
+		Thread.sleep(1100L);
+
+		assertEquals("echo", l_interface.echo("echo"));
+
+		assertEquals(2L, m_client.getNumFullHandshakes());
+		assertEquals(5L, m_client.getNumResumedHandshakes());
+
+		assertJCE(() -> m_client.setSessionCacheSize(-1), "-1 is not a valid session cache size.");
+		assertJCE(() -> m_client.setSessionTimeout(-1), "Negative timeout value.");
+	}
+
+
+	public void testHandshakeExecutor() throws Exception
+	{
+		final SomeTestMethods l_interface;
+		final long            l_lTimeStart;
+
+		setUpClientAndServer();
+
+		assertEquals(Runtime.getRuntime().availableProcessors(), m_connector.getHandshakeThreadPoolSize());
+		assertEquals(0, m_connector.getMaxHandshakeRate());
+
+		m_connector.stop();
+		m_connector.setHandshakeThreadPoolSize(1);
+		m_connector.setMaxHandshakeRate(20);
+		m_connector.start();
+
+		assertISE(() -> m_connector.setMaxHandshakeRate(10));
+
+		m_client.setServicePort(m_connector.getLocalPort());
+		m_client.setKeepAlive(false);
+
+		l_interface  = m_client.getProxy(SomeTestMethods.class);
+		l_lTimeStart = System.currentTimeMillis();
+
+		for (int i = 0; i < 5; i++)
+			assertEquals("echo" + i, l_interface.echo("echo" + i));
+
+		// at most 20 handshakes per second
+		assertTrue(System.currentTimeMillis() - l_lTimeStart >= 190L);
+		assertEquals(5L, m_connector.getNumFullHandshakes() + m_connector.getNumResumedHandshakes());
+
+		m_connector.stop();
+
+		assertJCE(() -> m_connector.setHandshakeThreadPoolSize(-1), "-1 is not a valid handshake thread pool size.");
+		assertJCE(() -> m_connector.setMaxHandshakeRate(-1), "-1 is not a valid handshake rate.");
+
+		m_connector.setHandshakeThreadPoolSize(0);
+		m_connector.setMaxHandshakeRate(0);
+		m_connector.start();
+
+		m_client.setServicePort(m_connector.getLocalPort());
+
+		assertEquals("echo", l_interface.echo("echo"));
+	}
 }
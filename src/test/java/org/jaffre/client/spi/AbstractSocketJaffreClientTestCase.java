@@ -21,8 +21,15 @@ package org.jaffre.client.spi;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
+import org.example.services.AsyncEcho;
+import org.example.services.Audit;
+
+import org.jaffre.JaffreInOnly;
 import org.jaffre.spi.DefaultJaffreCallFrameSerializer;
 import org.jaffre.spi.DefaultJaffreReturnFrameSerializer;
 import org.test.JaffreTestCaseBase;
@@ -35,6 +42,13 @@ import junit.framework.AssertionFailedError;
  */
 public final class AbstractSocketJaffreClientTestCase extends JaffreTestCaseBase
 {
+	public interface BadInOnly
+	{
+		@JaffreInOnly
+		public int count();
+	}
+
+
 	public void testConfigure()
 		throws UnknownHostException
 	{
@@ -124,4 +138,74 @@ public final class AbstractSocketJaffreClientTestCase extends JaffreTestCaseBase
 
 		l_client.dispose();
 	}
+
+
+	public void testGetProxyAsync() throws Exception
+	{
+		final AbstractSocketJaffreClient l_client;
+		final AsyncEcho                  l_proxy;
+		final CompletableFuture<String>  l_future;
+
+		l_client = new AbstractSocketJaffreClient()
+		{
+			@Override
+			protected Object invokeImpl(Class<?> p_interface, Object p_proxy, Method p_method, Object[] p_args)
+			{
+				return p_args[0];
+			}
+		};
+
+		l_proxy = l_client.getProxy(AsyncEcho.class);
+
+		l_future = l_proxy.echo("testGetProxyAsync:returnValue");
+
+		assertTrue(l_future.isDone());
+		assertEquals("testGetProxyAsync:returnValue", l_future.get());
+
+		l_client.dispose();
+	}
+
+
+	public void testGetProxyInOnly()
+	{
+		final List<Object>               l_calls;
+		final AbstractSocketJaffreClient l_client;
+		final Audit                      l_proxy;
+
+		l_calls = new ArrayList<>();
+
+		l_client = new AbstractSocketJaffreClient()
+		{
+			@Override
+			protected Object invokeImpl(Class<?> p_interface, Object p_proxy, Method p_method, Object[] p_args)
+			{
+				return 7;
+			}
+
+			@Override
+			protected void invokeInOnlyImpl(Class<?> p_interface, Object p_proxy, Method p_method, Object[] p_args)
+			{
+				l_calls.add(p_args[0]);
+			}
+		};
+
+		assertEquals(1024, l_client.getInOnlyQueueCapacity());
+		l_client.setInOnlyQueueCapacity(16);
+		assertEquals(16, l_client.getInOnlyQueueCapacity());
+		assertJCE(() -> l_client.setInOnlyQueueCapacity(0), "0 is not a valid queue capacity.");
+
+		assertIAE(() -> l_client.getProxy(BadInOnly.class),
+		          "The in-only method public abstract int " + BadInOnly.class.getName() + ".count() does not return void.");
+
+		l_proxy = l_client.getProxy(Audit.class);
+
+		l_proxy.record("event");
+
+		assertEquals(7, l_proxy.getNumEvents());
+		assertEquals(1, l_calls.size());
+		assertEquals("event", l_calls.get(0));
+		assertEquals(0, l_client.getNumQueuedInOnlyCalls());
+
+		l_client.dispose();
+	}
 }
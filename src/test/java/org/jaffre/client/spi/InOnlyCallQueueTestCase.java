@@ -0,0 +1,225 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.example.services.Audit;
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.server.JaffreServer;
+import org.jaffre.server.spi.AbstractSocketJaffreConnector;
+import org.jaffre.server.spi.DefaultJaffreServer;
+import org.jaffre.server.spi.MultiplexSocketJaffreConnector;
+import org.jaffre.server.spi.SocketJaffreConnector;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class InOnlyCallQueueTestCase extends JaffreTestCaseBase
+{
+	private static final class AuditService implements Audit
+	{
+		private final List<String> m_events = Collections.synchronizedList(new ArrayList<>());
+
+		private final CountDownLatch m_latch = new CountDownLatch(1);
+
+		@Override
+		public void record(String p_strEvent)
+		{
+			if (p_strEvent.equals("slow"))
+			{
+				try
+				{
+					m_latch.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException l_e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			m_events.add(p_strEvent);
+		}
+
+		@Override
+		public int getNumEvents()
+		{
+			return m_events.size();
+		}
+	}
+
+
+	public void testSocketClient() throws Exception
+	{
+		_test(new SocketJaffreClient(), new SocketJaffreConnector());
+	}
+
+
+	public void testPooledClient() throws Exception
+	{
+		_test(new PooledSocketJaffreClient(), new SocketJaffreConnector());
+	}
+
+
+	public void testMultiplexClient() throws Exception
+	{
+		_test(new MultiplexSocketJaffreClient(), new MultiplexSocketJaffreConnector());
+	}
+
+
+	public void testCloseWhilePutting() throws Exception
+	{
+		final AtomicInteger      l_intSent;
+		final SocketJaffreClient l_client;
+		final JaffreCallFrame    l_frame;
+
+		l_intSent = new AtomicInteger();
+		l_client  = new SocketJaffreClient()
+		{
+			@Override
+			protected void sendInOnlyFrames(List<JaffreCallFrame> p_frames)
+			{
+				l_intSent.addAndGet(p_frames.size());
+			}
+
+			@Override
+			protected void closeInOnlyConnection()
+			{
+			}
+		};
+
+		l_frame = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		l_frame.setInOnly();
+
+		for (int i = 0; i < 100; i++)
+		{
+			final InOnlyCallQueue l_queue;
+			final Thread[]        l_threads;
+
+			l_queue   = new InOnlyCallQueue(l_client, 4);
+			l_threads = new Thread[4];
+
+			for (int j = 0; j < l_threads.length; j++)
+			{
+				l_threads[j] = new Thread(() ->
+				{
+					try
+					{
+						while (true)
+							l_queue.put(l_frame);
+					}
+					catch (IllegalStateException | InterruptedException l_e)
+					{
+						// closed
+					}
+				});
+
+				l_threads[j].start();
+			}
+
+			l_queue.close(10000L);
+
+			for (final Thread l_thread : l_threads)
+				l_thread.join(10000L);
+
+			// frames queued after the sender thread exited are discarded
+			assertEquals(0, l_queue.size());
+		}
+
+		assertTrue(l_intSent.get() > 0);
+	}
+
+
+	private static void _test(AbstractSocketJaffreClient p_client, AbstractSocketJaffreConnector p_connector)
+		throws Exception
+	{
+		final AuditService l_service;
+		final JaffreServer l_server;
+		final Audit        l_audit;
+
+		l_service = new AuditService();
+		l_server  = new DefaultJaffreServer();
+
+		l_server.registerInterface(Audit.class, l_service);
+
+		p_connector.setServer(l_server);
+		p_connector.setBindingAddress("localhost");
+		p_connector.setPort(0);
+		p_connector.setAsyncInOnly(true);
+
+		p_connector.start();
+
+		p_client.setServiceAddress("localhost");
+		p_client.setServicePort(p_connector.getLocalPort());
+
+		l_audit = p_client.getProxy(Audit.class);
+
+		try
+		{
+			// the caller does not wait for the slow call
+			l_audit.record("slow");
+
+			for (int i = 0; i < 100; i++)
+				l_audit.record("event" + i);
+
+			p_client.flushInOnlyCalls();
+
+			assertEquals(0, p_client.getNumQueuedInOnlyCalls());
+
+			// in-out calls are not blocked by the in-only call
+			assertEquals(0, l_audit.getNumEvents());
+
+			l_service.m_latch.countDown();
+
+			for (int i = 0; i < 1000 && l_audit.getNumEvents() < 101; i++)
+				Thread.sleep(10);
+
+			assertEquals(101, l_audit.getNumEvents());
+
+			// the in-only calls are processed in order by a single thread
+			for (int i = 0; i < 100; i++)
+				assertEquals("event" + i, l_service.m_events.get(i + 1));
+
+			// queued calls are sent when the client is disposed
+			l_audit.record("last");
+
+			p_client.dispose();
+
+			for (int i = 0; i < 1000 && l_audit.getNumEvents() < 102; i++)
+				Thread.sleep(10);
+
+			assertEquals("last", l_service.m_events.get(101));
+		}
+		finally
+		{
+			l_service.m_latch.countDown();
+
+			p_client.dispose();
+
+			p_connector.stop();
+		}
+	}
+}
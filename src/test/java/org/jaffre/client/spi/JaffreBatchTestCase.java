@@ -0,0 +1,265 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.example.services.AsyncEcho;
+import org.example.services.Echo;
+import org.example.services.SomeTestMethods;
+import org.example.services.SomeTestMethodsService;
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.server.spi.AbstractSocketJaffreConnector;
+import org.jaffre.server.spi.DefaultJaffreServer;
+import org.jaffre.server.spi.MultiplexSocketJaffreConnector;
+import org.jaffre.server.spi.NioSocketJaffreConnector;
+import org.jaffre.server.spi.SocketJaffreConnector;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class JaffreBatchTestCase extends JaffreTestCaseBase
+{
+	private final List<JaffreCallFrame> m_frames = Collections.synchronizedList(new ArrayList<>());
+
+
+	public void testProxy()
+	{
+		final JaffreBatch     l_batch;
+		final SomeTestMethods l_proxy;
+
+		l_batch = new SocketJaffreClient().newBatch();
+		l_proxy = l_batch.getProxy(SomeTestMethods.class);
+
+		assertEquals(0, l_batch.size());
+
+		// the methods return default values until the batch is flushed
+		assertNull(l_proxy.echo("a"));
+		assertEquals(0, l_proxy.add(1, 2));
+		assertFalse(l_batch.getProxy(AsyncEcho.class).echo("b").isDone());
+
+		assertEquals(3, l_batch.size());
+
+		assertIAE(() -> l_batch.getProxy(String.class), "java.lang.String is not an interface.");
+	}
+
+
+	public void testSocketClient() throws Exception
+	{
+		_testBatch(new SocketJaffreClient(), new SocketJaffreConnector());
+	}
+
+
+	public void testPooledClient() throws Exception
+	{
+		_testBatch(new PooledSocketJaffreClient(), new NioSocketJaffreConnector());
+	}
+
+
+	public void testMultiplexClient() throws Exception
+	{
+		_testBatch(new MultiplexSocketJaffreClient(), new MultiplexSocketJaffreConnector());
+	}
+
+
+	public void testMultiplexBatchWithLongCall() throws Exception
+	{
+		final CountDownLatch                 l_latch;
+		final DefaultJaffreServer            l_server;
+		final MultiplexSocketJaffreConnector l_connector;
+		final MultiplexSocketJaffreClient    l_client;
+
+		l_latch  = new CountDownLatch(1);
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new Echo()
+		{
+			@Override
+			public String echo(String p_strIn)
+			{
+				try
+				{
+					if ("long".equals(p_strIn))
+						l_latch.await(10, TimeUnit.SECONDS);
+					else if ("late".equals(p_strIn))
+						Thread.sleep(100);
+				}
+				catch (InterruptedException l_e)
+				{
+					Thread.currentThread().interrupt();
+				}
+
+				return p_strIn;
+			}
+		});
+
+		l_connector = new MultiplexSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(4);
+		l_connector.setMaxThreadPoolSize(4);
+
+		l_connector.start();
+
+		l_client = new MultiplexSocketJaffreClient();
+
+		try
+		{
+			final Echo                            l_echo;
+			final CompletableFuture<String>       l_long;
+			final JaffreBatch                     l_batch;
+			final List<CompletableFuture<Object>> l_results;
+
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(l_connector.getLocalPort());
+
+			l_echo = l_client.getProxy(Echo.class);
+			l_long = CompletableFuture.supplyAsync(() -> l_echo.echo("long"));
+
+			while (l_client.getNumPendingCalls() == 0)
+				Thread.sleep(1);
+
+			// the first frame of the batch completes after the last one,
+			// while an unrelated call is still being processed
+			l_batch = l_client.newBatch();
+
+			l_batch.getProxy(Echo.class).echo("late");
+			l_batch.getProxy(Echo.class).echo("early");
+
+			l_results = l_batch.flush();
+
+			assertEquals("late", l_results.get(0).get(5, TimeUnit.SECONDS));
+			assertEquals("early", l_results.get(1).get(5, TimeUnit.SECONDS));
+			assertFalse(l_long.isDone());
+
+			l_latch.countDown();
+
+			assertEquals("long", l_long.get(10, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			l_latch.countDown();
+
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+
+
+	private void _testBatch(AbstractSocketJaffreClient p_client, AbstractSocketJaffreConnector p_connector)
+		throws Exception
+	{
+		final DefaultJaffreServer l_server;
+
+		l_server = new DefaultJaffreServer()
+		{
+			@Override
+			public JaffreReturnFrame process(JaffreCallFrame p_call, Object p_extParam)
+			{
+				m_frames.add(p_call);
+
+				return super.process(p_call, p_extParam);
+			}
+
+			@Override
+			public CompletionStage<JaffreReturnFrame> processAsync(JaffreCallFrame p_call, Object p_extParam)
+			{
+				m_frames.add(p_call);
+
+				return super.processAsync(p_call, p_extParam);
+			}
+		};
+
+		l_server.registerInterface(SomeTestMethods.class, new SomeTestMethodsService());
+
+		p_connector.setServer(l_server);
+		p_connector.setBindingAddress("localhost");
+		p_connector.setPort(0);
+
+		p_connector.start();
+
+		try
+		{
+			final JaffreBatch                     l_batch;
+			final SomeTestMethods                 l_proxy;
+			final List<CompletableFuture<Object>> l_results;
+
+			p_client.setServiceAddress("localhost");
+			p_client.setServicePort(p_connector.getLocalPort());
+			p_client.setCallFrameSerializer(p_connector.getCallFrameSerializer());
+
+			l_batch = p_client.newBatch();
+			l_proxy = l_batch.getProxy(SomeTestMethods.class);
+
+			for (int i = 0; i < 20; i++)
+				l_proxy.add(i, i);
+
+			l_proxy.throwException(IOException.class.getName());
+
+			l_results = l_batch.flush();
+
+			assertEquals(0, l_batch.size());
+			assertEquals(21, l_results.size());
+
+			for (int i = 0; i < 20; i++)
+				assertEquals(2 * i, l_results.get(i).get());
+
+			try
+			{
+				l_results.get(20).get();
+
+				fail("An ExecutionException must occur.");
+			}
+			catch (ExecutionException l_e)
+			{
+				assertTrue(l_e.getCause() instanceof IOException);
+			}
+
+			// all frames but the last announce further frames
+			assertEquals(21, m_frames.size());
+
+			for (final JaffreCallFrame l_frame : m_frames)
+				assertEquals(l_frame.getParameters().length == 2, l_frame.isBatchContinue());
+
+			// the connection is still usable
+			assertEquals(3, p_client.getProxy(SomeTestMethods.class).add(1, 2));
+
+			assertTrue(l_batch.flush().isEmpty());
+		}
+		finally
+		{
+			p_client.dispose();
+
+			p_connector.stop();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.client.spi;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.example.services.AsyncEcho;
+import org.example.services.Echo;
+import org.jaffre.server.JaffreServer;
+import org.jaffre.server.spi.DefaultJaffreServer;
+import org.jaffre.server.spi.SocketJaffreConnector;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class PipeliningSocketJaffreClientTestCase extends JaffreTestCaseBase
+{
+	public void testGetterSetter()
+	{
+		final PipeliningSocketJaffreClient l_client;
+
+		l_client = new PipeliningSocketJaffreClient();
+
+		assertEquals(16, l_client.getPipelineDepth());
+		l_client.setPipelineDepth(4);
+		assertEquals(4, l_client.getPipelineDepth());
+
+		assertEquals(0, l_client.getNumPendingCalls());
+
+		assertJCE(() -> l_client.setPipelineDepth(0), "0 is not a valid pipeline depth.");
+	}
+
+
+	public void testPipelinedCalls() throws Exception
+	{
+		final CountDownLatch l_latch;
+
+		l_latch = new CountDownLatch(1);
+
+		// setup the server
+		final JaffreServer l_server;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new Echo()
+		{
+			@Override
+			public String echo(String p_strIn)
+			{
+				if (p_strIn.startsWith("slow"))
+				{
+					try
+					{
+						l_latch.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException l_e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				return p_strIn;
+			}
+		});
+
+		l_server.registerInterface(AsyncEcho.class, (AsyncEcho)p_strIn -> CompletableFuture.completedFuture(p_strIn));
+
+		// start the connector
+		final SocketJaffreConnector l_connector;
+
+		l_connector = new SocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+
+		l_connector.start();
+
+		// setup the client
+		final PipeliningSocketJaffreClient l_client;
+		final Echo                         l_echo;
+
+		l_client = new PipeliningSocketJaffreClient();
+
+		l_client.setServiceAddress("localhost");
+		l_client.setServicePort(l_connector.getLocalPort());
+		l_client.setPipelineDepth(8);
+
+		l_echo = l_client.getProxy(Echo.class);
+
+		try
+		{
+			final CompletableFuture<String>       l_slow;
+			final List<CompletableFuture<String>> l_fast;
+
+			l_slow = CompletableFuture.supplyAsync(() -> l_echo.echo("slow"));
+
+			while (l_client.getNumPendingCalls() < 1)
+				Thread.sleep(1);
+
+			l_fast = new ArrayList<>();
+
+			for (int i = 0; i < 20; i++)
+			{
+				final String l_str = "fast" + i;
+
+				l_fast.add(CompletableFuture.supplyAsync(() -> l_echo.echo(l_str)));
+			}
+
+			// the call frames are written without waiting for the slow call,
+			// but not beyond the pipeline depth
+			while (l_client.getNumPendingCalls() < 8)
+				Thread.sleep(1);
+
+			Thread.sleep(20);
+
+			assertEquals(8, l_client.getNumPendingCalls());
+			assertFalse(l_slow.isDone());
+
+			l_latch.countDown();
+
+			assertEquals("slow", l_slow.get(10, TimeUnit.SECONDS));
+
+			for (int i = 0; i < 20; i++)
+				assertEquals("fast" + i, l_fast.get(i).get(10, TimeUnit.SECONDS));
+
+			assertEquals(0, l_client.getNumPendingCalls());
+
+			// asynchronous calls
+			l_client.setUseMethodIds(true);
+
+			assertEquals("async", l_client.getProxy(AsyncEcho.class).echo("async").get(10, TimeUnit.SECONDS));
+			assertEquals("async", l_client.getProxy(AsyncEcho.class).echo("async").get(10, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			l_latch.countDown();
+
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+}
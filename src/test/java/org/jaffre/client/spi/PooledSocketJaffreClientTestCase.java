@@ -0,0 +1,185 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.client.spi;
+
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.example.services.Echo;
+import org.jaffre.JaffreUncheckedException;
+import org.jaffre.server.JaffreServer;
+import org.jaffre.server.spi.DefaultJaffreServer;
+import org.jaffre.server.spi.SocketJaffreConnector;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class PooledSocketJaffreClientTestCase extends JaffreTestCaseBase
+{
+	public void testGetterSetter()
+	{
+		final PooledSocketJaffreClient l_client;
+
+		l_client = new PooledSocketJaffreClient();
+
+		assertEquals(0, l_client.getMinConnections());
+		l_client.setMinConnections(2);
+		assertEquals(2, l_client.getMinConnections());
+
+		assertEquals(8, l_client.getMaxConnections());
+		l_client.setMaxConnections(3);
+		assertEquals(3, l_client.getMaxConnections());
+
+		assertEquals(60000L, l_client.getIdleTimeout());
+		l_client.setIdleTimeout(10L);
+		assertEquals(10L, l_client.getIdleTimeout());
+
+		assertEquals(10000L, l_client.getBorrowTimeout());
+		l_client.setBorrowTimeout(20L);
+		assertEquals(20L, l_client.getBorrowTimeout());
+
+		assertEquals(0, l_client.getNumOpenConnections());
+		assertEquals(0, l_client.getNumIdleConnections());
+
+		assertJCE(() -> l_client.setMinConnections(-1), "-1 is not a valid minimum number of connections.");
+		assertJCE(() -> l_client.setMaxConnections(0), "0 is not a valid maximum number of connections.");
+		assertJCE(() -> l_client.setIdleTimeout(-1L), "Negative timeout value.");
+		assertJCE(() -> l_client.setBorrowTimeout(-1L), "Negative timeout value.");
+	}
+
+
+	public void testConcurrentCalls() throws Exception
+	{
+		final CountDownLatch l_latch;
+
+		l_latch = new CountDownLatch(1);
+
+		// setup the server
+		final JaffreServer l_server;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new Echo()
+		{
+			@Override
+			public String echo(String p_strIn)
+			{
+				if (p_strIn.startsWith("slow"))
+				{
+					try
+					{
+						l_latch.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException l_e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				return p_strIn;
+			}
+		});
+
+		// start the connector
+		final SocketJaffreConnector l_connector;
+
+		l_connector = new SocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(4);
+		l_connector.setMaxThreadPoolSize(4);
+
+		l_connector.start();
+
+		// setup the client
+		final PooledSocketJaffreClient l_client;
+		final Echo                     l_echo;
+
+		l_client = new PooledSocketJaffreClient();
+
+		l_client.setServiceAddress("localhost");
+		l_client.setServicePort(l_connector.getLocalPort());
+		l_client.setMaxConnections(2);
+		l_client.setBorrowTimeout(100L);
+
+		l_echo = l_client.getProxy(Echo.class);
+
+		try
+		{
+			final CompletableFuture<String> l_slow1;
+			final CompletableFuture<String> l_slow2;
+
+			l_slow1 = CompletableFuture.supplyAsync(() -> l_echo.echo("slow1"));
+			l_slow2 = CompletableFuture.supplyAsync(() -> l_echo.echo("slow2"));
+
+			while (l_client.getNumOpenConnections() < 2)
+				Thread.sleep(1);
+
+			// both connections are in use
+			assertEquals(0, l_client.getNumIdleConnections());
+
+			try
+			{
+				l_echo.echo("fast");
+
+				fail("A JaffreUncheckedException must occur.");
+			}
+			catch (JaffreUncheckedException l_e)
+			{
+				assertEquals("No connection available within 100 milliseconds.", l_e.getMessage());
+			}
+
+			l_latch.countDown();
+
+			assertEquals("slow1", l_slow1.get(10, TimeUnit.SECONDS));
+			assertEquals("slow2", l_slow2.get(10, TimeUnit.SECONDS));
+
+			// the connections are reused
+			assertEquals("fast", l_echo.echo("fast"));
+			assertEquals(2, l_client.getNumOpenConnections());
+			assertEquals(2, l_client.getNumIdleConnections());
+
+			// idle connections are evicted
+			l_client.setMinConnections(1);
+			l_client.setIdleTimeout(0L);
+
+			Thread.sleep(5);
+
+			assertEquals("fast", l_echo.echo("fast"));
+			assertEquals(1, l_client.getNumOpenConnections());
+
+			l_client.dispose();
+
+			assertEquals(0, l_client.getNumOpenConnections());
+		}
+		finally
+		{
+			l_latch.countDown();
+
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.io;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class ByteBufferPoolTestCase extends JaffreTestCaseBase
+{
+	public void testCtor()
+	{
+		assertIAE(() -> new ByteBufferPool(false, -1, 0));
+		assertIAE(() -> new ByteBufferPool(false, 0, -1));
+		assertIAE(() -> new ByteBufferPool(false, 0, -1L, 0), "-1 is not a valid cache size.");
+
+		assertFalse(ByteBufferPool.getHeapPool().isDirect());
+		assertTrue(ByteBufferPool.getDirectPool().isDirect());
+	}
+
+
+	public void testAcquire()
+	{
+		final ByteBufferPool l_pool;
+
+		l_pool = new ByteBufferPool(false, 4, 4);
+
+		assertIAE(() -> l_pool.acquire(-1));
+
+		assertEquals(512, l_pool.acquire(0).capacity());
+		assertEquals(512, l_pool.acquire(1).capacity());
+		assertEquals(512, l_pool.acquire(512).capacity());
+		assertEquals(768, l_pool.acquire(513).capacity());
+		assertEquals(1024, l_pool.acquire(769).capacity());
+		assertEquals(8192, l_pool.acquire(8192).capacity());
+		assertEquals(12288, l_pool.acquire(8193).capacity());
+		assertEquals(4 * 1024 * 1024, l_pool.acquire(3 * 1024 * 1024 + 1).capacity());
+		assertEquals(4 * 1024 * 1024 + 1, l_pool.acquire(4 * 1024 * 1024 + 1).capacity());
+
+		assertEquals(9, l_pool.getNumAllocations());
+	}
+
+
+	public void testReuse()
+	{
+		final ByteBufferPool l_pool;
+		final ByteBuffer     l_buf;
+
+		l_pool = new ByteBufferPool(false, 1, 1);
+		l_buf  = l_pool.acquire(1000);
+
+		l_buf.put((byte)1).flip();
+
+		l_pool.release(l_buf);
+
+		assertSame(l_buf, l_pool.acquire(1000));
+		assertEquals(0, l_buf.position());
+		assertEquals(l_buf.capacity(), l_buf.limit());
+		assertEquals(1, l_pool.getNumAllocations());
+
+		// a buffer of another size class
+		assertNotSame(l_buf, l_pool.acquire(100));
+		assertEquals(2, l_pool.getNumAllocations());
+	}
+
+
+	public void testGlobalCache() throws Exception
+	{
+		final ByteBufferPool l_pool;
+		final ByteBuffer[]   l_bufs;
+		final ByteBuffer[]   l_acquired;
+		final Thread         l_thread;
+
+		l_pool = new ByteBufferPool(false, 1, 1);
+		l_bufs = new ByteBuffer[] {l_pool.acquire(512), l_pool.acquire(512), l_pool.acquire(512)};
+
+		// the first buffer goes to the thread's cache, the second to the
+		// global cache, the third is dropped
+		for (ByteBuffer l_buf : l_bufs)
+			l_pool.release(l_buf);
+
+		l_acquired = new ByteBuffer[2];
+		l_thread   = new Thread(() ->
+		{
+			l_acquired[0] = l_pool.acquire(512);
+			l_acquired[1] = l_pool.acquire(512);
+		});
+
+		l_thread.start();
+		l_thread.join();
+
+		assertSame(l_bufs[1], l_acquired[0]);
+		assertNotSame(l_bufs[0], l_acquired[1]);
+
+		assertSame(l_bufs[0], l_pool.acquire(512));
+		assertEquals(4, l_pool.getNumAllocations());
+	}
+
+
+	public void testReleaseBypassThreadCache() throws Exception
+	{
+		final ByteBufferPool l_pool;
+		final ByteBuffer     l_buf;
+		final ByteBuffer[]   l_acquired;
+		final Thread         l_thread;
+
+		l_pool = new ByteBufferPool(false, 4, 4);
+		l_buf  = l_pool.acquire(512);
+
+		// the thread's cache is empty, but the buffer goes to the global cache
+		l_pool.release(l_buf, false);
+
+		l_acquired = new ByteBuffer[1];
+		l_thread   = new Thread(() -> l_acquired[0] = l_pool.acquire(512));
+
+		l_thread.start();
+		l_thread.join();
+
+		assertSame(l_buf, l_acquired[0]);
+		assertEquals(1, l_pool.getNumAllocations());
+	}
+
+
+	public void testThreadCacheSize()
+	{
+		final ByteBufferPool l_pool;
+		final ByteBuffer     l_buf1;
+		final ByteBuffer     l_buf2;
+		final ByteBuffer     l_buf3;
+
+		// the thread's cache holds 2 KiB, there is no global cache
+		l_pool = new ByteBufferPool(false, 4, 2048L, 0);
+		l_buf1 = l_pool.acquire(1024);
+		l_buf2 = l_pool.acquire(1024);
+		l_buf3 = l_pool.acquire(1024);
+
+		l_pool.release(l_buf1);
+		l_pool.release(l_buf2);
+		l_pool.release(l_buf3);
+
+		assertSame(l_buf2, l_pool.acquire(1024));
+		assertSame(l_buf1, l_pool.acquire(1024));
+		assertNotSame(l_buf3, l_pool.acquire(1024));
+		assertEquals(4, l_pool.getNumAllocations());
+
+		// the acquired buffers no longer count
+		l_pool.release(l_buf3);
+
+		assertSame(l_buf3, l_pool.acquire(1024));
+	}
+
+
+	public void testReleaseForeign()
+	{
+		final ByteBufferPool l_pool;
+		final ByteBuffer     l_buf;
+
+		l_pool = new ByteBufferPool(false, 4, 4);
+
+		l_pool.release(null);
+		l_pool.release(ByteBuffer.allocate(1000));
+		l_pool.release(ByteBuffer.allocateDirect(512));
+		l_pool.release(ByteBuffer.allocate(512).asReadOnlyBuffer());
+
+		l_buf = ByteBuffer.allocate(1024);
+		l_buf.position(512);
+		l_pool.release(l_buf.slice());
+
+		assertEquals(0, l_pool.getNumAllocations());
+
+		l_pool.acquire(512);
+		l_pool.acquire(512);
+
+		assertEquals(2, l_pool.getNumAllocations());
+	}
+
+
+	public void testDirect()
+	{
+		final ByteBufferPool l_pool;
+		final ByteBuffer     l_buf;
+
+		l_pool = new ByteBufferPool(true, 1, 0);
+		l_buf  = l_pool.acquire(2000);
+
+		assertTrue(l_buf.isDirect());
+		assertEquals(2048, l_buf.capacity());
+
+		l_pool.release(ByteBuffer.allocate(2048));
+		l_pool.release(l_buf);
+
+		assertSame(l_buf, l_pool.acquire(2048));
+		assertEquals(1, l_pool.getNumAllocations());
+	}
+
+
+	public void testPooledBufferedStreams() throws Exception
+	{
+		final byte[]                     l_data;
+		final ByteArrayOutputStream      l_bytes;
+		final PooledBufferedOutputStream l_out;
+		final PooledBufferedInputStream  l_in;
+		final byte[]                     l_buf;
+		int                              l_iPos;
+
+		l_data  = new byte[10000];
+		l_bytes = new ByteArrayOutputStream();
+		l_out   = new PooledBufferedOutputStream(l_bytes, 1000);
+
+		for (int i = 0; i < l_data.length; i++)
+			l_data[i] = (byte)i;
+
+		l_out.write(l_data, 0, 10);
+		l_out.write(l_data[10]);
+		l_out.write(l_data, 11, 4000);
+		l_out.write(l_data, 4011, l_data.length - 4011);
+
+		// large writes bypass the buffer
+		assertEquals(l_data.length, l_bytes.size());
+
+		l_out.close();
+
+		assertIOE(() -> l_out.write(0));
+		assertTrue(Arrays.equals(l_data, l_bytes.toByteArray()));
+
+		l_in  = new PooledBufferedInputStream(new ByteArrayInputStream(l_bytes.toByteArray()), 1000);
+		l_buf = new byte[l_data.length];
+
+		l_buf[0] = (byte)l_in.read();
+
+		assertEquals(9, l_in.read(l_buf, 1, 9));
+
+		l_iPos = 10;
+
+		while (l_iPos < l_buf.length)
+		{
+			final int l_iRead;
+
+			l_iRead = l_in.read(l_buf, l_iPos, Math.min(3000, l_buf.length - l_iPos));
+
+			assertTrue(l_iRead > 0);
+
+			l_iPos += l_iRead;
+		}
+
+		assertTrue(Arrays.equals(l_data, l_buf));
+		assertEquals(-1, l_in.read());
+
+		l_in.close();
+
+		assertIOE(() -> l_in.read());
+	}
+}
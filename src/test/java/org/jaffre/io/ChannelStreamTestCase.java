@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.io;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class ChannelStreamTestCase extends JaffreTestCaseBase
+{
+	public void testWriteRead() throws Exception
+	{
+		final File   l_file;
+		final byte[] l_data;
+
+		l_file = File.createTempFile("jaffre", ".bin");
+		l_data = new byte[20000];
+
+		for (int i = 0; i < l_data.length; i++)
+			l_data[i] = (byte)(i * 7);
+
+		try
+		{
+			final ChannelOutputStream l_out;
+			final ChannelInputStream  l_in;
+			final byte[]              l_buf;
+			final ByteBuffer          l_direct;
+			int                       l_iPos;
+
+			l_out = new ChannelOutputStream(FileChannel.open
+				(l_file.toPath(), StandardOpenOption.WRITE), 1000);
+
+			l_direct = ByteBuffer.allocateDirect(5000);
+			l_direct.put(l_data, 15000, 5000).flip();
+
+			l_out.write(l_data[0]);
+			l_out.write(l_data, 1, 99);
+			l_out.write(l_data, 100, 4900);  // bypasses the buffer
+			l_out.write(l_data, 5000, 5000); // bypasses the buffer
+			l_out.write(l_data, 10000, 10);
+			l_out.write(new ByteBuffer[] {ByteBuffer.wrap(l_data, 10010, 4990), l_direct});
+
+			assertFalse(l_direct.hasRemaining());
+
+			l_out.close();
+
+			assertIOE(() -> l_out.write(0));
+			assertIOE(() -> l_out.write(new ByteBuffer[0]));
+			assertTrue(Arrays.equals(l_data, Files.readAllBytes(l_file.toPath())));
+
+			l_in = new ChannelInputStream(FileChannel.open
+				(l_file.toPath(), StandardOpenOption.READ), 1000);
+
+			l_buf = new byte[l_data.length];
+
+			l_buf[0] = (byte)l_in.read();
+
+			assertEquals(9, l_in.read(l_buf, 1, 9));
+
+			l_iPos = 10;
+
+			while (l_iPos < l_buf.length)
+			{
+				final int l_iRead;
+
+				l_iRead = l_in.read(l_buf, l_iPos, Math.min(3000, l_buf.length - l_iPos));
+
+				assertTrue(l_iRead > 0);
+
+				l_iPos += l_iRead;
+			}
+
+			assertTrue(Arrays.equals(l_data, l_buf));
+			assertEquals(-1, l_in.read());
+			assertEquals(-1, l_in.read(new byte[5000]));
+
+			l_in.close();
+
+			assertFalse(l_in.getChannel().isOpen());
+			assertIOE(() -> l_in.read());
+		}
+		finally
+		{
+			l_file.delete();
+		}
+	}
+
+
+	public void testBufferReuseAcrossThreads() throws Exception
+	{
+		// a size class no other test uses
+		final int            l_iSize = 384 * 1024;
+		final ByteBufferPool l_pool;
+		final Pipe           l_pipe;
+		final Thread         l_thread;
+		final long           l_lngAllocations;
+		final ByteBuffer     l_buf1;
+		final ByteBuffer     l_buf2;
+
+		l_pool = ByteBufferPool.getDirectPool();
+		l_pipe = Pipe.open();
+
+		// a connection served by its own thread
+		l_thread = new Thread(() ->
+		{
+			try
+			{
+				final ChannelInputStream  l_in;
+				final ChannelOutputStream l_out;
+
+				l_in  = new ChannelInputStream(l_pipe.source(), l_iSize);
+				l_out = new ChannelOutputStream(l_pipe.sink(), l_iSize);
+
+				l_out.close();
+				l_in.close();
+			}
+			catch (IOException l_e)
+			{
+				throw new UncheckedIOException(l_e);
+			}
+		});
+
+		l_thread.start();
+		l_thread.join();
+
+		l_lngAllocations = l_pool.getNumAllocations();
+
+		// the buffers were not left in the cache of the ended thread
+		l_buf1 = l_pool.acquire(l_iSize);
+		l_buf2 = l_pool.acquire(l_iSize);
+
+		assertNotSame(l_buf1, l_buf2);
+		assertEquals(l_lngAllocations, l_pool.getNumAllocations());
+
+		l_pool.release(l_buf1, false);
+		l_pool.release(l_buf2, false);
+	}
+}
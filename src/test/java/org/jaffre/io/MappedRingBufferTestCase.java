@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.io;
+
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class MappedRingBufferTestCase extends JaffreTestCaseBase
+{
+	public void testCtor()
+	{
+		assertIAE(() -> new MappedRingBuffer(ByteBuffer.allocate(MappedRingBuffer.getSize(1024)), 0, null));
+		assertIAE(() -> new MappedRingBuffer(ByteBuffer.allocateDirect(MappedRingBuffer.getSize(1000)), 0, null));
+		assertIAE(() -> new MappedRingBuffer(ByteBuffer.allocateDirect(MappedRingBuffer.HEADER_SIZE), 0, null));
+		assertIAE(() -> new MappedRingBuffer(ByteBuffer.allocateDirect(MappedRingBuffer.getSize(1024)), -1, null));
+
+		assertEquals(1024, new MappedRingBuffer(ByteBuffer.allocateDirect(MappedRingBuffer.getSize(1024)), 0, null).getCapacity());
+
+		// the shared buffer is accessed with real fences
+		assertTrue(MappedRingBuffer.hasFences());
+	}
+
+
+	public void testTransfer() throws Exception
+	{
+		final ByteBuffer l_buf;
+		final byte[]     l_data;
+		final byte[]     l_received;
+		final Thread     l_producer;
+		final Random     l_random;
+		int              l_iPos;
+
+		l_buf      = ByteBuffer.allocateDirect(MappedRingBuffer.getSize(1024));
+		l_data     = new byte[1000000];
+		l_received = new byte[l_data.length];
+		l_random   = new Random(42L);
+
+		l_random.nextBytes(l_data);
+
+		// each end has its own view of the shared memory
+		l_producer = new Thread(() ->
+		{
+			final Random l_rnd;
+			int          l_iOffs;
+
+			l_rnd   = new Random(43L);
+			l_iOffs = 0;
+
+			try (final OutputStream l_out = new MappedRingBuffer(l_buf, 10, null).getOutputStream())
+			{
+				while (l_iOffs < l_data.length)
+				{
+					final int l_iLen;
+
+					l_iLen = Math.min(l_rnd.nextInt(3000), l_data.length - l_iOffs);
+
+					l_out.write(l_data, l_iOffs, l_iLen);
+					l_out.flush();
+
+					l_iOffs += l_iLen;
+				}
+			}
+			catch (Exception l_e)
+			{
+				throw new RuntimeException(l_e);
+			}
+		});
+
+		l_producer.start();
+
+		try (final InputStream l_in = new MappedRingBuffer(l_buf, 10, null).getInputStream())
+		{
+			l_received[0] = (byte)l_in.read();
+
+			l_iPos = 1;
+
+			while (true)
+			{
+				final int l_iRead;
+
+				l_iRead = l_in.read(l_received, l_iPos, Math.min(l_random.nextInt(2000) + 1, l_received.length - l_iPos));
+
+				if (l_iRead == -1)
+					break;
+
+				l_iPos += l_iRead;
+
+				if (l_iPos == l_received.length)
+				{
+					assertEquals(-1, l_in.read()); // the producer closes its end
+
+					break;
+				}
+			}
+		}
+
+		l_producer.join();
+
+		assertEquals(l_data.length, l_iPos);
+		assertTrue(Arrays.equals(l_data, l_received));
+	}
+
+
+	public void testClose() throws Exception
+	{
+		final ByteBuffer   l_buf;
+		final OutputStream l_out;
+		final InputStream  l_in;
+
+		l_buf = ByteBuffer.allocateDirect(MappedRingBuffer.getSize(1024));
+		l_out = new MappedRingBuffer(l_buf, 0, null).getOutputStream();
+		l_in  = new MappedRingBuffer(l_buf, 0, null).getInputStream();
+
+		l_out.write(new byte[] {1, 2, 3});
+
+		// not yet flushed
+		assertEquals(0, l_in.available());
+
+		l_out.flush();
+
+		assertEquals(3, l_in.available());
+		assertEquals(1, l_in.read());
+
+		l_in.close();
+
+		assertIOE(() -> l_in.read());
+		assertIOE(() -> l_out.write(4), "Connection closed.");
+
+		// nothing to flush
+		l_out.flush();
+
+		l_out.close();
+
+		assertIOE(() -> l_out.write(4), "Stream closed.");
+	}
+
+
+	public void testPeerGone() throws Exception
+	{
+		final ByteBuffer       l_buf;
+		final MappedRingBuffer l_ring;
+		final InputStream      l_in;
+
+		l_buf  = ByteBuffer.allocateDirect(MappedRingBuffer.getSize(1024));
+		l_ring = new MappedRingBuffer(l_buf, 0, () -> false);
+		l_in   = l_ring.getInputStream();
+
+		assertFalse(l_ring.isClosed());
+		assertEquals(-1, l_in.read());
+		assertTrue(l_ring.isClosed());
+	}
+
+
+	public void testCloseWhileWaiting() throws Exception
+	{
+		final ByteBuffer       l_buf;
+		final MappedRingBuffer l_ring;
+		final Thread           l_consumer;
+		final int[]            l_result;
+
+		l_buf      = ByteBuffer.allocateDirect(MappedRingBuffer.getSize(1024));
+		l_ring     = new MappedRingBuffer(l_buf, 100, null);
+		l_result   = new int[] {0};
+		l_consumer = new Thread(() ->
+		{
+			try
+			{
+				l_result[0] = l_ring.getInputStream().read();
+			}
+			catch (Exception l_e)
+			{
+				l_result[0] = -2;
+			}
+		});
+
+		l_consumer.start();
+
+		Thread.sleep(100);
+
+		assertTrue(l_consumer.isAlive());
+
+		l_ring.close();
+		l_consumer.join(5000);
+
+		assertFalse(l_consumer.isAlive());
+		assertEquals(-1, l_result[0]);
+	}
+}
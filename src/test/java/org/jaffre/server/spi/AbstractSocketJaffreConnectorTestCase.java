@@ -21,6 +21,13 @@ package org.jaffre.server.spi;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jaffre.JaffreCallFrame;
 import org.jaffre.JaffreCallFrameSerializer;
@@ -123,6 +130,10 @@ public final class AbstractSocketJaffreConnectorTestCase extends JaffreTestCaseB
 		l_connector.setMaxThreadPoolSize(11);
 		assertEquals(11, l_connector.getMaxThreadPoolSize());
 
+		assertFalse(l_connector.isAsyncInOnly());
+		l_connector.setAsyncInOnly(true);
+		assertTrue(l_connector.isAsyncInOnly());
+
 		assertNull(l_connector.getServer());
 		l_connector.setServer(new DefaultJaffreServer());
 		assertNotNull(l_connector.getServer());
@@ -176,6 +187,209 @@ public final class AbstractSocketJaffreConnectorTestCase extends JaffreTestCaseB
 		assertISE(() -> l_connector.setCoreThreadPoolSize(101));
 		assertISE(() -> l_connector.setMaxThreadPoolSize(1331));
 		assertISE(() -> l_connector.setServer(new DefaultJaffreServer()));
+		assertISE(() -> l_connector.setAsyncInOnly(true));
+	}
+
+
+	public void testExecuteInOnly() throws Exception
+	{
+		final List<Thread>                  l_threads;
+		final CountDownLatch                l_latch;
+		final DefaultJaffreServer           l_server;
+		final AbstractSocketJaffreConnector l_connector;
+		final JaffreCallFrame               l_frame;
+		final Thread                        l_thread;
+
+		l_threads = Collections.synchronizedList(new ArrayList<>());
+		l_latch   = new CountDownLatch(1);
+		l_server  = new DefaultJaffreServer();
+
+		l_server.registerInterface(Runnable.class, (Runnable)() ->
+		{
+			l_threads.add(Thread.currentThread());
+
+			try
+			{
+				l_latch.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException l_e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		l_connector = new AbstractSocketJaffreConnector()
+		{
+			@Override
+			public void start()
+			{
+				fail();
+			}
+
+			@Override
+			public boolean isRunning()
+			{
+				return false;
+			}
+
+			@Override
+			public void stop()
+			{
+				fail();
+			}
+
+			@Override
+			public int getLocalPort()
+			{
+				return -1;
+			}
+		};
+
+		l_connector.setServer(l_server);
+
+		l_frame = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		l_frame.setInOnly();
+
+		// a full queue makes the calling thread wait instead of processing the call
+		l_connector.setAsyncInOnly(true);
+		l_connector.setInOnlyQueueCapacity(1);
+
+		l_thread = new Thread(() ->
+		{
+			for (int i = 0; i < 3; i++)
+				l_connector.executeInOnly(l_frame);
+		});
+
+		try
+		{
+			l_thread.start();
+
+			l_thread.join(200L);
+
+			assertTrue(l_thread.isAlive());
+		}
+		finally
+		{
+			l_latch.countDown();
+		}
+
+		l_thread.join(10000L);
+
+		assertFalse(l_thread.isAlive());
+
+		l_connector.setStopTimeout(10000L);
+		l_connector.stopInOnlyExecutor();
+
+		assertEquals(3, l_threads.size());
+		assertFalse(l_threads.contains(l_thread));
+
+		// in-only calls are processed in order by the calling thread by default
+		l_threads.clear();
+
+		l_connector.setAsyncInOnly(false);
+		l_connector.executeInOnly(l_frame);
+
+		assertEquals(Collections.singletonList(Thread.currentThread()), l_threads);
+	}
+
+
+	public void testExecuteInOnlyStopped() throws Exception
+	{
+		final CountDownLatch                    l_latch;
+		final DefaultJaffreServer               l_server;
+		final AbstractSocketJaffreConnector     l_connector;
+		final JaffreCallFrame                   l_frame;
+		final AtomicReference<RuntimeException> l_exception;
+		final Thread                            l_thread;
+
+		l_latch     = new CountDownLatch(1);
+		l_server    = new DefaultJaffreServer();
+		l_exception = new AtomicReference<>();
+
+		l_server.registerInterface(Runnable.class, (Runnable)() ->
+		{
+			try
+			{
+				l_latch.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException l_e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		l_connector = new AbstractSocketJaffreConnector()
+		{
+			@Override
+			public void start()
+			{
+				fail();
+			}
+
+			@Override
+			public boolean isRunning()
+			{
+				return false;
+			}
+
+			@Override
+			public void stop()
+			{
+				fail();
+			}
+
+			@Override
+			public int getLocalPort()
+			{
+				return -1;
+			}
+		};
+
+		l_connector.setServer(l_server);
+		l_connector.setAsyncInOnly(true);
+		l_connector.setInOnlyQueueCapacity(1);
+		l_connector.setStopTimeout(100L);
+
+		l_frame = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		l_frame.setInOnly();
+
+		l_thread = new Thread(() ->
+		{
+			try
+			{
+				for (int i = 0; i < 3; i++)
+					l_connector.executeInOnly(l_frame);
+			}
+			catch (RuntimeException l_e)
+			{
+				l_exception.set(l_e);
+			}
+		});
+
+		try
+		{
+			l_thread.start();
+
+			l_thread.join(200L);
+
+			assertTrue(l_thread.isAlive());
+
+			// the thread that waits for the full queue is released by the stop
+			l_connector.stopInOnlyExecutor();
+
+			l_thread.join(5000L);
+
+			assertFalse(l_thread.isAlive());
+		}
+		finally
+		{
+			l_latch.countDown();
+		}
+
+		assertTrue(l_exception.get() instanceof RejectedExecutionException);
+		assertEquals("The in-only executor is shut down.", l_exception.get().getMessage());
 	}
 
 
@@ -215,5 +429,8 @@ public final class AbstractSocketJaffreConnectorTestCase extends JaffreTestCaseB
 		assertJCE(() -> l_connector.setCoreThreadPoolSize(0), "0 is not a valid thread pool size.");
 		assertJCE(() -> l_connector.setMaxThreadPoolSize(0), "0 is not a valid maximum thread pool size.");
 		assertJCE(() -> l_connector.setStopTimeout(-1L), "Negative timeout value.");
+		assertJCE(() -> l_connector.setNumAcceptorThreads(0), "0 is not a valid number of acceptor threads.");
+		assertJCE(() -> l_connector.setKeepAliveTime(-1L), "Negative keep-alive time.");
+		assertJCE(() -> l_connector.setAcceptQueueCapacity(0), "0 is not a valid accept queue capacity.");
 	}
 }
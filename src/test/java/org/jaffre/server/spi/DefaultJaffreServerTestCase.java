@@ -18,12 +18,16 @@
 package org.jaffre.server.spi;
 
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jaffre.JAFFRE_FLAG;
 import org.jaffre.JaffreCallFrame;
 import org.jaffre.JaffreNoInterfaceException;
 import org.jaffre.JaffreReturnFrame;
+import org.jaffre.server.EndpointRegistry;
 import org.test.JaffreTestCaseBase;
 
 
@@ -74,6 +78,22 @@ public final class DefaultJaffreServerTestCase extends JaffreTestCaseBase
 	}
 
 
+	public void testNoSuchMethod()
+	{
+		final DefaultJaffreServer   l_server;
+		final JaffreReturnFrame     l_return;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface((Runnable)() -> {});
+
+		l_return = l_server.process(new JaffreCallFrame(Runnable.class, "walk", null, null), null);
+
+		assertTrue(l_return.isExceptionResult());
+		assertTrue(l_return.getResult() instanceof NoSuchMethodException);
+	}
+
+
 	public void testCallRunnable()
 	{
 		final DefaultJaffreServer   l_server;
@@ -99,4 +119,104 @@ public final class DefaultJaffreServerTestCase extends JaffreTestCaseBase
 		assertNull(l_return.getResult());
 		assertEquals(JAFFRE_FLAG.NO_FLAGS, l_return.getFlags());
 	}
+
+
+	public void testCallByMethodId()
+	{
+		final DefaultJaffreServer   l_server;
+		final AtomicInteger         l_iCount;
+		final JaffreCallFrame       l_call;
+		JaffreReturnFrame           l_return;
+
+		l_server = new DefaultJaffreServer();
+
+		l_iCount = new AtomicInteger(0);
+
+		l_server.registerInterface((Runnable)() -> l_iCount.incrementAndGet());
+
+		// no id without a request
+		l_return = l_server.process(new JaffreCallFrame(Runnable.class, "run", null, null), null);
+
+		assertEquals(0, l_return.getMethodId());
+
+		l_call = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		l_call.setMethodIdRequest(true);
+
+		l_return = l_server.process(l_call, null);
+
+		assertTrue(l_return.getMethodId() > 0);
+
+		l_return = l_server.process(new JaffreCallFrame(l_return.getMethodId(), null, null), null);
+
+		assertFalse(l_return.isExceptionResult());
+		assertEquals(3, l_iCount.get());
+
+		// unknown ids
+		l_return = l_server.process(new JaffreCallFrame(1000, null, null), null);
+
+		assertTrue(l_return.isExceptionResult());
+		assertTrue(l_return.getResult() instanceof JaffreNoInterfaceException);
+	}
+
+
+	public void testRegistryWithoutMethodTables()
+	{
+		final Map<Class<?>, Object> l_map;
+		final DefaultJaffreServer   l_server;
+		final AtomicInteger         l_iCount;
+		final JaffreCallFrame       l_call;
+		JaffreReturnFrame           l_return;
+
+		l_map = new HashMap<>();
+
+		// a registry that implements only the methods that predate method ids
+		l_server = new DefaultJaffreServer()
+		{
+			{
+				m_epr = new EndpointRegistry()
+				{
+					@Override
+					public void registerEndpoint(Object p_obj)
+					{
+						throw new UnsupportedOperationException();
+					}
+
+					@Override
+					public void registerEndpoint(Class<?> p_interface, Object p_obj)
+					{
+						l_map.put(p_interface, p_obj);
+					}
+
+					@Override
+					public <T> T getStub(Class<T> p_interface)
+					{
+						return p_interface.cast(l_map.get(p_interface));
+					}
+				};
+			}
+		};
+
+		l_iCount = new AtomicInteger(0);
+
+		l_server.registerInterface(Runnable.class, (Runnable)() -> l_iCount.incrementAndGet());
+
+		l_call = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		l_call.setMethodIdRequest(true);
+
+		l_return = l_server.process(l_call, null);
+
+		assertFalse(l_return.isExceptionResult());
+		assertEquals(0, l_return.getMethodId());
+		assertEquals(1, l_iCount.get());
+
+		l_return = l_server.process(new JaffreCallFrame(Runnable.class, "walk", null, null), null);
+
+		assertTrue(l_return.getResult() instanceof NoSuchMethodException);
+
+		l_return = l_server.process(new JaffreCallFrame(1, null, null), null);
+
+		assertTrue(l_return.getResult() instanceof JaffreNoInterfaceException);
+	}
 }
@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server.spi;
+
+
+import java.io.IOException;
+
+import org.example.services.SomeTestMethods;
+import org.example.services.SomeTestMethodsService;
+import org.jaffre.server.EndpointInvoker;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class EndpointInvokersTestCase extends JaffreTestCaseBase
+{
+	public void testInvoke() throws Throwable
+	{
+		final SomeTestMethods l_service;
+
+		l_service = new SomeTestMethodsService();
+
+		assertEquals("x", _create(l_service, "echo", String.class).invoke(new Object[] {"x"}));
+		assertEquals(3, _create(l_service, "add", int.class, int.class).invoke(new Object[] {1, 2}));
+		assertNull(_create(l_service, "log", String.class).invoke(new Object[] {"log"}));
+	}
+
+
+	public void testInvokerPerMethod() throws Throwable
+	{
+		final SomeTestMethods l_service;
+		final EndpointInvoker l_echo1;
+		final EndpointInvoker l_echo2;
+		final EndpointInvoker l_add;
+
+		l_service = new SomeTestMethodsService();
+		l_echo1   = _create(l_service, "echo", String.class);
+		l_echo2   = _create(l_service, "echo", String.class);
+		l_add     = _create(l_service, "add", int.class, int.class);
+
+		// Java 16 and later
+		if (EndpointInvokers.hasHiddenClasses())
+		{
+			assertNotSame(l_echo1.getClass(), l_echo2.getClass());
+			assertNotSame(l_echo1.getClass(), l_add.getClass());
+		}
+
+		// the invokers do not interfere
+		for (int i = 0; i < 1000; i++)
+		{
+			assertEquals("x" + i, l_echo1.invoke(new Object[] {"x" + i}));
+			assertEquals("y" + i, l_echo2.invoke(new Object[] {"y" + i}));
+			assertEquals(2 * i, l_add.invoke(new Object[] {i, i}));
+		}
+
+		try
+		{
+			l_add.invoke(new Object[] {1});
+
+			fail("An IllegalArgumentException must occur.");
+		}
+		catch (IllegalArgumentException l_e)
+		{
+			// expected
+		}
+	}
+
+
+	public void testExceptionIsNotWrapped() throws Throwable
+	{
+		final EndpointInvoker l_invoker;
+
+		l_invoker = _create(new SomeTestMethodsService(), "throwException", String.class);
+
+		try
+		{
+			l_invoker.invoke(new Object[] {IOException.class.getName()});
+
+			fail("An IOException must occur.");
+		}
+		catch (IOException l_e)
+		{
+			// expected
+		}
+	}
+
+
+	private static EndpointInvoker _create(SomeTestMethods p_service, String p_strName, Class<?>... p_types)
+		throws NoSuchMethodException
+	{
+		final EndpointInvoker l_invoker;
+
+		l_invoker = EndpointInvokers.create(SomeTestMethods.class.getMethod(p_strName, p_types), p_service);
+
+		assertNotNull(l_invoker);
+
+		return l_invoker;
+	}
+}
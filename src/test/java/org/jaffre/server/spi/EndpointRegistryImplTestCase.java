@@ -18,9 +18,12 @@
 package org.jaffre.server.spi;
 
 
+import java.lang.reflect.Method;
+
 import org.example.services.DerivedEchoService;
 import org.example.services.Echo;
 import org.example.services.EchoService;
+import org.jaffre.server.EndpointMethod;
 import org.test.JaffreTestCaseBase;
 
 
@@ -55,4 +58,60 @@ public final class EndpointRegistryImplTestCase extends JaffreTestCaseBase
 
 		assertSame(l_service, l_registry.getStub(Echo.class));
 	}
+
+
+	public void testMethodIds() throws Exception
+	{
+		final EndpointRegistryImpl l_registry;
+		final Echo                 l_service;
+		final Method               l_method;
+		final EndpointMethod       l_epm;
+
+		l_registry = new EndpointRegistryImpl();
+		l_service  = new EchoService();
+		l_method   = Echo.class.getMethod("echo", String.class);
+
+		assertNull(l_registry.getEndpointMethod(Echo.class, l_method));
+		assertNull(l_registry.getEndpointMethod(1));
+
+		l_registry.registerEndpoint(l_service);
+		l_registry.registerEndpoint(Runnable.class, (Runnable)() -> {});
+
+		l_epm = l_registry.getEndpointMethod(Echo.class, l_method);
+
+		assertNotNull(l_epm);
+		assertSame(l_epm, l_registry.getEndpointMethod(l_epm.getId()));
+		assertSame(Echo.class, l_epm.getInterface());
+		assertEquals(l_method, l_epm.getMethod());
+		assertSame(l_service, l_epm.getEndpoint());
+
+		assertNotSame(l_epm, l_registry.getEndpointMethod(Runnable.class, Runnable.class.getMethod("run")));
+		assertNull(l_registry.getEndpointMethod(0));
+		assertNull(l_registry.getEndpointMethod(-1));
+		assertNull(l_registry.getEndpointMethod(1000));
+	}
+
+
+	public void testSignatureLookup() throws Throwable
+	{
+		final EndpointRegistryImpl l_registry;
+		final EndpointMethod       l_epm;
+
+		l_registry = new EndpointRegistryImpl();
+
+		l_registry.registerEndpoint(new EchoService());
+
+		l_epm = l_registry.getEndpointMethod(Echo.class, "echo", new Class<?>[] {String.class});
+
+		assertNotNull(l_epm);
+		assertEquals(Echo.class.getMethod("echo", String.class), l_epm.getMethod());
+		assertEquals("x", l_epm.invoke(new Object[] {"x"}));
+
+		assertNull(l_registry.getEndpointMethod(Echo.class, "echo", new Class<?>[] {Object.class}));
+		assertNull(l_registry.getEndpointMethod(Echo.class, "echo", null));
+		assertNull(l_registry.getEndpointMethod(Runnable.class, "run", null));
+
+		assertIAE(() -> l_registry.getEndpointMethod(null, "echo", null), "No interface.");
+		assertIAE(() -> l_registry.getEndpointMethod(Echo.class, null, null), "No method name.");
+	}
 }
@@ -0,0 +1,331 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.server.spi;
+
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.example.services.AsyncEcho;
+import org.example.services.Echo;
+import org.jaffre.client.spi.MultiplexSocketJaffreClient;
+import org.jaffre.server.JaffreServer;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class MultiplexSocketJaffreConnectorTestCase extends JaffreTestCaseBase
+{
+	public void testGetterSetter()
+	{
+		final MultiplexSocketJaffreConnector l_connector;
+
+		l_connector = new MultiplexSocketJaffreConnector();
+
+		assertEquals(64, l_connector.getMaxConcurrentCalls());
+		l_connector.setMaxConcurrentCalls(3);
+		assertEquals(3, l_connector.getMaxConcurrentCalls());
+
+		assertJCE(() -> l_connector.setMaxConcurrentCalls(0), "0 is not a valid number of concurrent calls.");
+	}
+
+
+	public void testOutOfOrderReturnFrames() throws Exception
+	{
+		final CountDownLatch l_latch;
+
+		l_latch = new CountDownLatch(1);
+
+		// setup the server
+		final JaffreServer l_server;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new Echo()
+		{
+			@Override
+			public String echo(String p_strIn)
+			{
+				if ("slow".equals(p_strIn))
+				{
+					try
+					{
+						l_latch.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException l_e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				return p_strIn;
+			}
+		});
+
+		// start the connector
+		final MultiplexSocketJaffreConnector l_connector;
+
+		l_connector = new MultiplexSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(2);
+		l_connector.setMaxThreadPoolSize(4);
+
+		l_connector.start();
+
+		// setup the client
+		final MultiplexSocketJaffreClient l_client;
+		final Echo                        l_echo;
+
+		l_client = new MultiplexSocketJaffreClient();
+
+		l_client.setServiceAddress("localhost");
+		l_client.setServicePort(l_connector.getLocalPort());
+
+		l_echo = l_client.getProxy(Echo.class);
+
+		try
+		{
+			final CompletableFuture<String> l_slow;
+
+			l_slow = CompletableFuture.supplyAsync(() -> l_echo.echo("slow"));
+
+			while (l_client.getNumPendingCalls() == 0)
+				Thread.sleep(1);
+
+			// the slow call does not block other calls on the same connection
+			for (int i = 0; i < 10; i++)
+				assertEquals("fast" + i, l_echo.echo("fast" + i));
+
+			assertFalse(l_slow.isDone());
+			assertEquals(1, l_connector.getNumConnections());
+
+			l_latch.countDown();
+
+			assertEquals("slow", l_slow.get(10, TimeUnit.SECONDS));
+			assertEquals(0, l_client.getNumPendingCalls());
+		}
+		finally
+		{
+			l_latch.countDown();
+
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	public void testAsyncCalls() throws Exception
+	{
+		final int            l_iNumCalls = 100;
+		final CountDownLatch l_latch;
+
+		l_latch = new CountDownLatch(1);
+
+		// setup the server
+		final JaffreServer l_server;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(AsyncEcho.class, new AsyncEcho()
+		{
+			@Override
+			public CompletableFuture<String> echo(String p_strIn)
+			{
+				return CompletableFuture.supplyAsync(() ->
+				{
+					try
+					{
+						l_latch.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException l_e)
+					{
+						Thread.currentThread().interrupt();
+					}
+
+					return p_strIn;
+				});
+			}
+		});
+
+		// start the connector
+		final MultiplexSocketJaffreConnector l_connector;
+
+		l_connector = new MultiplexSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(2);
+		l_connector.setMaxThreadPoolSize(4);
+
+		l_connector.start();
+
+		// setup the client
+		final MultiplexSocketJaffreClient l_client;
+		final AsyncEcho                   l_echo;
+
+		l_client = new MultiplexSocketJaffreClient();
+
+		l_client.setServiceAddress("localhost");
+		l_client.setServicePort(l_connector.getLocalPort());
+
+		l_echo = l_client.getProxy(AsyncEcho.class);
+
+		try
+		{
+			final CompletableFuture<String>[] l_futures;
+
+			l_futures = new CompletableFuture[l_iNumCalls];
+
+			// the calling thread is not blocked
+			for (int i = 0; i < l_iNumCalls; i++)
+				l_futures[i] = l_echo.echo("async" + i);
+
+			assertEquals(l_iNumCalls, l_client.getNumPendingCalls());
+
+			for (final CompletableFuture<String> l_future : l_futures)
+				assertFalse(l_future.isDone());
+
+			l_latch.countDown();
+
+			for (int i = 0; i < l_iNumCalls; i++)
+				assertEquals("async" + i, l_futures[i].get(10, TimeUnit.SECONDS));
+
+			assertEquals(0, l_client.getNumPendingCalls());
+		}
+		finally
+		{
+			l_latch.countDown();
+
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	public void testAsyncCallsDoNotBlockWorkers() throws Exception
+	{
+		final int                             l_iNumCalls = 10;
+		final List<CompletableFuture<String>> l_pending;
+
+		l_pending = new CopyOnWriteArrayList<>();
+
+		// setup the server
+		final JaffreServer l_server;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(AsyncEcho.class, new AsyncEcho()
+		{
+			@Override
+			public CompletableFuture<String> echo(String p_strIn)
+			{
+				final CompletableFuture<String> l_future;
+
+				l_future = new CompletableFuture<>();
+
+				l_pending.add(l_future);
+
+				return l_future.thenApply(l_str -> p_strIn);
+			}
+		});
+
+		l_server.registerInterface(Echo.class, new Echo()
+		{
+			@Override
+			public String echo(String p_strIn)
+			{
+				return p_strIn;
+			}
+		});
+
+		// start the connector with a single worker thread
+		final MultiplexSocketJaffreConnector l_connector;
+
+		l_connector = new MultiplexSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(1);
+		l_connector.setMaxThreadPoolSize(1);
+
+		l_connector.start();
+
+		// setup the client
+		final MultiplexSocketJaffreClient l_client;
+		final AsyncEcho                   l_asyncEcho;
+		final Echo                        l_echo;
+
+		l_client = new MultiplexSocketJaffreClient();
+
+		l_client.setServiceAddress("localhost");
+		l_client.setServicePort(l_connector.getLocalPort());
+
+		l_asyncEcho = l_client.getProxy(AsyncEcho.class);
+		l_echo      = l_client.getProxy(Echo.class);
+
+		try
+		{
+			final CompletableFuture<String>[] l_futures;
+
+			l_futures = new CompletableFuture[l_iNumCalls];
+
+			for (int i = 0; i < l_iNumCalls; i++)
+				l_futures[i] = l_asyncEcho.echo("async" + i);
+
+			while (l_pending.size() < l_iNumCalls)
+				Thread.sleep(1);
+
+			// the pending calls do not occupy the worker thread
+			assertEquals("sync", l_echo.echo("sync"));
+
+			for (final CompletableFuture<String> l_future : l_futures)
+				assertFalse(l_future.isDone());
+
+			for (final CompletableFuture<String> l_future : l_pending)
+				l_future.complete(null);
+
+			for (int i = 0; i < l_iNumCalls; i++)
+				assertEquals("async" + i, l_futures[i].get(10, TimeUnit.SECONDS));
+
+			assertEquals(0, l_client.getNumPendingCalls());
+		}
+		finally
+		{
+			for (final CompletableFuture<String> l_future : l_pending)
+				l_future.complete(null);
+
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.server.spi;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.UUID;
+
+import org.example.services.Echo;
+import org.example.services.EchoService;
+import org.example.services.Greeting;
+import org.jaffre.JAFFRE_FLAG;
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.client.spi.SocketJaffreClient;
+import org.jaffre.server.JaffreServer;
+import org.jaffre.spi.BinaryJaffreCallFrameSerializer;
+import org.jaffre.spi.BinaryJaffreReturnFrameSerializer;
+import org.jaffre.spi.FramedJaffreCallFrameSerializer;
+import org.jaffre.spi.FramedJaffreReturnFrameSerializer;
+import org.jaffre.spi.PersistentJaffreCallFrameSerializer;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class NioSocketJaffreConnectorTestCase extends JaffreTestCaseBase
+{
+	public void testGetterSetter()
+	{
+		final NioSocketJaffreConnector l_connector;
+
+		l_connector = new NioSocketJaffreConnector();
+
+		assertEquals(0, l_connector.getNumRunningThreads());
+		assertEquals(0, l_connector.getNumConnections());
+		assertEquals(-1, l_connector.getLocalPort());
+
+		assertEquals(1, l_connector.getSelectorThreadCount());
+		l_connector.setSelectorThreadCount(3);
+		assertEquals(3, l_connector.getSelectorThreadCount());
+
+		assertJCE(() -> l_connector.setSelectorThreadCount(0), "0 is not a valid number of selector threads.");
+
+		assertEquals(16 * 1024 * 1024, l_connector.getMaxReceiveBufferSize());
+		l_connector.setMaxReceiveBufferSize(8192);
+		assertEquals(8192, l_connector.getMaxReceiveBufferSize());
+
+		assertJCE(() -> l_connector.setMaxReceiveBufferSize(8191), "8191 is not a valid maximum receive buffer size.");
+	}
+
+
+	public void testUnsupportedSerializers() throws Exception
+	{
+		final NioSocketJaffreConnector l_connector;
+
+		l_connector = new NioSocketJaffreConnector();
+
+		l_connector.setServer(new DefaultJaffreServer());
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+
+		assertTrue(l_connector.getCallFrameSerializer() instanceof FramedJaffreCallFrameSerializer);
+
+		l_connector.setCallFrameSerializer(new PersistentJaffreCallFrameSerializer());
+
+		assertJCE(l_connector::start, "The call frame serializer must be a framed serializer.");
+
+		l_connector.setCallFrameSerializer(new FramedJaffreCallFrameSerializer(new PersistentJaffreCallFrameSerializer()));
+
+		assertJCE(l_connector::start, "Serializers that keep state between frames are not supported.");
+
+		assertFalse(l_connector.isRunning());
+	}
+
+
+	public void testSimpleRemoteCall() throws Exception
+	{
+		final String l_strGreeting;
+
+		l_strGreeting = UUID.randomUUID().toString();
+
+		// setup the server
+		final JaffreServer l_server;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Greeting.class, new Greeting()
+		{
+			@Override
+			public String greet()
+			{
+				return l_strGreeting;
+			}
+		});
+
+		// start the connector
+		final NioSocketJaffreConnector l_connector;
+
+		l_connector = new NioSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(1);
+		l_connector.setMaxThreadPoolSize(1);
+
+		l_connector.start();
+
+		try
+		{
+			assertTrue(l_connector.getLocalPort() > 0);
+			assertISE(() -> l_connector.setSelectorThreadCount(2));
+
+			// setup the clients
+			for (final boolean l_bKeepAlive : new boolean[] {true, false})
+			{
+				final SocketJaffreClient l_client;
+				final Greeting           l_greeting;
+
+				l_client = new SocketJaffreClient();
+
+				l_client.setServiceAddress("localhost");
+				l_client.setServicePort(l_connector.getLocalPort());
+				l_client.setCallFrameSerializer(new FramedJaffreCallFrameSerializer());
+				l_client.setKeepAlive(l_bKeepAlive);
+
+				l_greeting = l_client.getProxy(Greeting.class);
+
+				try
+				{
+					assertEquals(l_strGreeting, l_greeting.greet());
+					assertEquals(l_strGreeting, l_greeting.greet());
+				}
+				finally
+				{
+					l_client.dispose();
+				}
+			}
+		}
+		finally
+		{
+			l_connector.stop();
+		}
+	}
+
+
+	public void testMaxReceiveBufferSize() throws Exception
+	{
+		final JaffreServer             l_server;
+		final NioSocketJaffreConnector l_connector;
+		final JaffreCallFrame          l_frame;
+		final ByteArrayOutputStream    l_baos;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new NioSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setMaxReceiveBufferSize(8192);
+
+		l_frame = new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {String.class},
+		                              new Object[] {new String(new char[100000]).replace('\0', 'x')});
+		l_baos  = new ByteArrayOutputStream();
+
+		l_frame.setInOut();
+		l_frame.setKeepAlive(true);
+
+		new FramedJaffreCallFrameSerializer().serialize(l_frame, l_baos);
+
+		l_connector.start();
+
+		try (final Socket l_socket = new Socket("localhost", l_connector.getLocalPort()))
+		{
+			l_socket.setSoTimeout(10000);
+
+			try
+			{
+				// half of a call frame that does not fit into the receive buffer
+				l_socket.getOutputStream().write(l_baos.toByteArray(), 0, l_baos.size() / 2);
+				l_socket.getOutputStream().flush();
+
+				assertEquals(-1, l_socket.getInputStream().read());
+			}
+			catch (SocketException l_e)
+			{
+				// the connection was reset while data were pending
+			}
+
+			for (int i = 0; i < 100 && l_connector.getNumConnections() > 0; i++)
+				Thread.sleep(10);
+
+			assertEquals(0, l_connector.getNumConnections());
+		}
+		finally
+		{
+			l_connector.stop();
+		}
+	}
+
+
+	public void testMalformedFramedFrames() throws Exception
+	{
+		final JaffreServer                      l_server;
+		final NioSocketJaffreConnector          l_connector;
+		final FramedJaffreCallFrameSerializer   l_serCall;
+		final FramedJaffreReturnFrameSerializer l_serRtrn;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_serCall = new FramedJaffreCallFrameSerializer(new BinaryJaffreCallFrameSerializer());
+		l_serRtrn = new FramedJaffreReturnFrameSerializer(new BinaryJaffreReturnFrameSerializer());
+
+		l_connector = new NioSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCallFrameSerializer(l_serCall);
+		l_connector.setReturnFrameSerializer(l_serRtrn);
+
+		l_connector.start();
+
+		try (final Socket l_socket = new Socket("localhost", l_connector.getLocalPort()))
+		{
+			final OutputStream    l_out;
+			final InputStream     l_in;
+			final JaffreCallFrame l_frame;
+
+			l_socket.setSoTimeout(10000);
+
+			l_out = l_socket.getOutputStream();
+			l_in  = l_socket.getInputStream();
+
+			// a malformed in-only frame is skipped
+			_writeMalformedFrame(l_out, JAFFRE_FLAG.MEP_IN_ONLY | JAFFRE_FLAG.CONNECTION_KEEP_ALIVE);
+
+			l_frame = new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {String.class}, new Object[] {"echo"});
+
+			l_frame.setInOut();
+			l_frame.setKeepAlive(true);
+
+			l_serCall.serialize(l_frame, l_out);
+			l_out.flush();
+
+			assertEquals("echo", l_serRtrn.deserialize(l_in).getResult());
+
+			// a malformed in-out frame closes the connection
+			_writeMalformedFrame(l_out, JAFFRE_FLAG.MEP_IN_OUT | JAFFRE_FLAG.CONNECTION_KEEP_ALIVE);
+
+			assertEquals(-1, l_in.read());
+		}
+		finally
+		{
+			l_connector.stop();
+		}
+	}
+
+
+	private static void _writeMalformedFrame(OutputStream p_out, int p_iFlags) throws IOException
+	{
+		final DataOutputStream l_out;
+
+		l_out = new DataOutputStream(p_out);
+
+		l_out.writeInt(3);
+		l_out.writeInt(p_iFlags);
+		l_out.write(new byte[] {(byte)0xFF, (byte)0xFF, (byte)0xFF});
+		l_out.flush();
+	}
+
+
+	public void testManyKeepAliveConnections() throws Exception
+	{
+		final int l_iNumClients = 50;
+
+		// setup the server
+		final JaffreServer l_server;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		// start the connector with less worker threads than clients
+		final NioSocketJaffreConnector l_connector;
+
+		l_connector = new NioSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(1);
+		l_connector.setMaxThreadPoolSize(2);
+		l_connector.setSelectorThreadCount(2);
+
+		l_connector.start();
+
+		final SocketJaffreClient[] l_clients;
+
+		l_clients = new SocketJaffreClient[l_iNumClients];
+
+		try
+		{
+			// open connections that are kept alive
+			for (int i = 0; i < l_iNumClients; i++)
+			{
+				l_clients[i] = new SocketJaffreClient();
+
+				l_clients[i].setServiceAddress("localhost");
+				l_clients[i].setServicePort(l_connector.getLocalPort());
+				l_clients[i].setCallFrameSerializer(new FramedJaffreCallFrameSerializer());
+
+				assertEquals("first" + i, l_clients[i].getProxy(Echo.class).echo("first" + i));
+			}
+
+			assertEquals(l_iNumClients, l_connector.getNumConnections());
+			assertTrue(l_connector.getNumRunningThreads() <= 2);
+
+			// all connections are still served
+			for (int i = l_iNumClients - 1; i >= 0; i--)
+				assertEquals("second" + i, l_clients[i].getProxy(Echo.class).echo("second" + i));
+		}
+		finally
+		{
+			for (final SocketJaffreClient l_client : l_clients)
+			{
+				if (l_client != null)
+					l_client.dispose();
+			}
+
+			l_connector.stop();
+		}
+	}
+}
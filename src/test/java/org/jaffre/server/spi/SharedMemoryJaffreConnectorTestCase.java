@@ -0,0 +1,339 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server.spi;
+
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.example.services.Audit;
+import org.example.services.Echo;
+import org.example.services.EchoService;
+import org.jaffre.JaffreUncheckedException;
+import org.jaffre.client.spi.SharedMemoryJaffreClient;
+import org.jaffre.server.JaffreServer;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class SharedMemoryJaffreConnectorTestCase extends JaffreTestCaseBase
+{
+	public void testGetterSetter()
+	{
+		final SharedMemoryJaffreConnector l_connector;
+
+		l_connector = new SharedMemoryJaffreConnector();
+
+		assertNull(l_connector.getDirectory());
+		assertEquals(65536, l_connector.getRingCapacity());
+		assertEquals(1000, l_connector.getSpinCount());
+		assertEquals(64, l_connector.getMaxConnections());
+		assertEquals(10000, l_connector.getHandshakeTimeout());
+		assertEquals(0, l_connector.getNumConnections());
+		assertEquals(-1, l_connector.getLocalPort());
+		assertFalse(l_connector.isRunning());
+
+		l_connector.setRingCapacity(1024);
+		l_connector.setSpinCount(0);
+		l_connector.setMaxConnections(1);
+		l_connector.setHandshakeTimeout(1);
+
+		assertEquals(1024, l_connector.getRingCapacity());
+		assertEquals(0, l_connector.getSpinCount());
+		assertEquals(1, l_connector.getMaxConnections());
+		assertEquals(1, l_connector.getHandshakeTimeout());
+
+		assertJCE(() -> l_connector.setRingCapacity(512), "512 is not a valid ring capacity.");
+		assertJCE(() -> l_connector.setRingCapacity(3000), "3000 is not a valid ring capacity.");
+		assertJCE(() -> l_connector.setSpinCount(-1), "-1 is not a valid spin count.");
+		assertJCE(() -> l_connector.setMaxConnections(0), "0 is not a valid maximum number of connections.");
+		assertJCE(() -> l_connector.setHandshakeTimeout(0), "0 is not a valid handshake timeout.");
+		assertJCE(() -> new SharedMemoryJaffreClient().setSpinCount(-1), "-1 is not a valid spin count.");
+	}
+
+
+	public void testRemoteCalls() throws Exception
+	{
+		final File                        l_dir;
+		final JaffreServer                l_server;
+		final SharedMemoryJaffreConnector l_connector;
+		final SharedMemoryJaffreClient    l_client;
+		final SharedMemoryJaffreClient    l_clientNoKeepAlive;
+		final AtomicInteger               l_intEvents;
+		final CountDownLatch              l_latch;
+		final char[]                      l_large;
+
+		l_dir       = Files.createTempDirectory("jaffre").toFile();
+		l_intEvents = new AtomicInteger();
+		l_latch     = new CountDownLatch(100);
+		l_server    = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+		l_server.registerInterface(Audit.class, new Audit()
+		{
+			@Override
+			public void record(String p_strEvent)
+			{
+				l_intEvents.incrementAndGet();
+				l_latch.countDown();
+			}
+
+			@Override
+			public int getNumEvents()
+			{
+				return l_intEvents.get();
+			}
+		});
+
+		l_connector = new SharedMemoryJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setDirectory(l_dir.getPath());
+		l_connector.setRingCapacity(1024);
+
+		l_connector.start();
+
+		l_client            = new SharedMemoryJaffreClient();
+		l_clientNoKeepAlive = new SharedMemoryJaffreClient();
+
+		try
+		{
+			final Audit l_audit;
+
+			assertTrue(l_connector.isRunning());
+			assertTrue(l_connector.getLocalPort() > 0);
+
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(l_connector.getLocalPort());
+
+			for (int i = 0; i < 1000; i++)
+				assertEquals("echo" + i, l_client.getProxy(Echo.class).echo("echo" + i));
+
+			assertEquals(1, l_connector.getNumConnections());
+
+			// the shared memory file is deleted when both sides mapped it
+			assertEquals(0, l_dir.list().length);
+
+			// frames that do not fit into the ring buffers
+			l_large = new char[100000];
+
+			Arrays.fill(l_large, 'x');
+
+			assertEquals(new String(l_large), l_client.getProxy(Echo.class).echo(new String(l_large)));
+
+			// in-only calls share the connection
+			l_audit = l_client.getProxy(Audit.class);
+
+			for (int i = 0; i < 100; i++)
+				l_audit.record("event" + i);
+
+			l_client.flushInOnlyCalls();
+
+			// the calls are processed asynchronously
+			assertTrue(l_latch.await(10, TimeUnit.SECONDS));
+			assertEquals(100, l_audit.getNumEvents());
+			assertEquals(1, l_connector.getNumConnections());
+
+			// a new connection for every call
+			l_clientNoKeepAlive.setServiceAddress("localhost");
+			l_clientNoKeepAlive.setServicePort(l_connector.getLocalPort());
+			l_clientNoKeepAlive.setKeepAlive(false);
+
+			for (int i = 0; i < 10; i++)
+				assertEquals("echo" + i, l_clientNoKeepAlive.getProxy(Echo.class).echo("echo" + i));
+
+			l_client.dispose();
+
+			for (int i = 0; i < 100 && l_connector.getNumConnections() > 0; i++)
+				Thread.sleep(10);
+
+			assertEquals(0, l_connector.getNumConnections());
+
+			// the connection is opened again
+			assertEquals("again", l_client.getProxy(Echo.class).echo("again"));
+		}
+		finally
+		{
+			l_client.dispose();
+			l_clientNoKeepAlive.dispose();
+
+			l_connector.stop();
+
+			l_dir.delete();
+		}
+
+		assertFalse(l_connector.isRunning());
+	}
+
+
+	public void testMaxConnections() throws Exception
+	{
+		final JaffreServer                l_server;
+		final SharedMemoryJaffreConnector l_connector;
+		final SharedMemoryJaffreClient    l_client;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SharedMemoryJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setMaxConnections(1);
+
+		l_connector.start();
+
+		l_client = new SharedMemoryJaffreClient();
+
+		try
+		{
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(l_connector.getLocalPort());
+
+			assertEquals("echo", l_client.getProxy(Echo.class).echo("echo"));
+			assertEquals(1, l_connector.getNumConnections());
+
+			// the connector closes further connections at once
+			try (final Socket l_socket = new Socket("localhost", l_connector.getLocalPort()))
+			{
+				l_socket.setSoTimeout(10000);
+
+				assertEquals(-1, l_socket.getInputStream().read());
+			}
+
+			assertEquals(1, l_connector.getNumConnections());
+			assertEquals("echo", l_client.getProxy(Echo.class).echo("echo"));
+		}
+		finally
+		{
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+
+
+	public void testHandshakeTimeout() throws Exception
+	{
+		final File                        l_dir;
+		final JaffreServer                l_server;
+		final SharedMemoryJaffreConnector l_connector;
+
+		l_dir    = Files.createTempDirectory("jaffre").toFile();
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SharedMemoryJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setDirectory(l_dir.getPath());
+		l_connector.setHandshakeTimeout(100);
+
+		l_connector.start();
+
+		try (final Socket l_socket = new Socket("localhost", l_connector.getLocalPort()))
+		{
+			final DataInputStream l_in;
+
+			l_socket.setSoTimeout(10000);
+
+			l_in = new DataInputStream(l_socket.getInputStream());
+
+			// read the handshake but never acknowledge the mapping
+			assertTrue(l_in.readUTF().endsWith(".shm"));
+			assertEquals(65536, l_in.readInt());
+
+			assertEquals(-1, l_in.read());
+			assertEquals(0, l_dir.list().length);
+
+			for (int i = 0; i < 100 && l_connector.getNumConnections() > 0; i++)
+				Thread.sleep(10);
+
+			assertEquals(0, l_connector.getNumConnections());
+		}
+		finally
+		{
+			l_connector.stop();
+
+			l_dir.delete();
+		}
+	}
+
+
+	public void testStop() throws Exception
+	{
+		final JaffreServer                l_server;
+		final SharedMemoryJaffreConnector l_connector;
+		final SharedMemoryJaffreClient    l_client;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SharedMemoryJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+
+		l_connector.start();
+
+		l_client = new SharedMemoryJaffreClient();
+
+		try
+		{
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(l_connector.getLocalPort());
+
+			assertEquals("echo", l_client.getProxy(Echo.class).echo("echo"));
+
+			l_connector.stop();
+
+			assertEquals(0, l_connector.getNumConnections());
+
+			try
+			{
+				l_client.getProxy(Echo.class).echo("echo");
+
+				fail();
+			}
+			catch (JaffreUncheckedException l_e)
+			{
+				// expected
+			}
+		}
+		finally
+		{
+			l_client.dispose();
+		}
+	}
+}
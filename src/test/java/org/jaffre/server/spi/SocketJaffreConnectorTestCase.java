@@ -18,8 +18,13 @@
 package org.jaffre.server.spi;
 
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+import org.example.services.Echo;
+import org.example.services.EchoService;
 import org.example.services.Greeting;
 import org.jaffre.client.spi.SocketJaffreClient;
 import org.jaffre.server.JaffreServer;
@@ -92,4 +97,147 @@ public final class SocketJaffreConnectorTestCase extends JaffreTestCaseBase
 
 		Thread.sleep(100);
 	}
+
+
+	public void testAcceptorThreads() throws Exception
+	{
+		final JaffreServer                    l_server;
+		final SocketJaffreConnector           l_connector;
+		final List<SocketJaffreClient>        l_clients;
+		final List<CompletableFuture<String>> l_results;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(1);
+		l_connector.setMaxThreadPoolSize(20);
+		l_connector.setNumAcceptorThreads(3);
+		l_connector.setReusePort(true);
+
+		assertEquals(3, l_connector.getNumAcceptorThreads());
+		assertTrue(l_connector.isReusePort());
+
+		l_connector.start();
+
+		try
+		{
+			assertTrue(l_connector.getLocalPort() > 0);
+
+			l_clients = new ArrayList<>();
+			l_results = new ArrayList<>();
+
+			for (int i = 0; i < 10; i++)
+			{
+				final SocketJaffreClient l_client;
+				final Echo               l_echo;
+				final String             l_strIn;
+
+				l_client = new SocketJaffreClient();
+
+				l_client.setServiceAddress("localhost");
+				l_client.setServicePort(l_connector.getLocalPort());
+
+				l_clients.add(l_client);
+
+				l_echo  = l_client.getProxy(Echo.class);
+				l_strIn = "echo" + i;
+
+				l_results.add(CompletableFuture.supplyAsync(() -> l_echo.echo(l_strIn)));
+			}
+
+			for (int i = 0; i < l_results.size(); i++)
+				assertEquals("echo" + i, l_results.get(i).get());
+
+			// every connection is kept alive by its own worker
+			assertTrue(l_connector.getNumRunningThreads() > 1);
+			assertTrue(l_connector.getNumRunningThreads() <= 20);
+
+			for (SocketJaffreClient l_client : l_clients)
+				l_client.dispose();
+		}
+		finally
+		{
+			l_connector.stop();
+		}
+	}
+
+
+	public void testAdaptivePool() throws Exception
+	{
+		final JaffreServer                    l_server;
+		final SocketJaffreConnector           l_connector;
+		final List<SocketJaffreClient>        l_clients;
+		final List<CompletableFuture<String>> l_results;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(2);
+		l_connector.setMaxThreadPoolSize(20);
+		l_connector.setKeepAliveTime(100L);
+		l_connector.setAcceptQueueCapacity(4);
+
+		assertEquals(100L, l_connector.getKeepAliveTime());
+		assertEquals(4, l_connector.getAcceptQueueCapacity());
+
+		l_connector.start();
+
+		try
+		{
+			l_clients = new ArrayList<>();
+			l_results = new ArrayList<>();
+
+			for (int i = 0; i < 10; i++)
+			{
+				final SocketJaffreClient l_client;
+				final Echo               l_echo;
+				final String             l_strIn;
+
+				l_client = new SocketJaffreClient();
+
+				l_client.setServiceAddress("localhost");
+				l_client.setServicePort(l_connector.getLocalPort());
+
+				l_clients.add(l_client);
+
+				l_echo  = l_client.getProxy(Echo.class);
+				l_strIn = "echo" + i;
+
+				l_results.add(CompletableFuture.supplyAsync(() -> l_echo.echo(l_strIn)));
+			}
+
+			for (int i = 0; i < l_results.size(); i++)
+				assertEquals("echo" + i, l_results.get(i).get());
+
+			assertTrue(l_connector.getNumRunningThreads() > 2);
+			assertEquals(10L, l_connector.getNumAcceptedConnections());
+			assertTrue(l_connector.getMaxQueueWaitTime() <= l_connector.getTotalQueueWaitTime());
+
+			for (SocketJaffreClient l_client : l_clients)
+				l_client.dispose();
+
+			// the idle workers exceeding the core pool size terminate
+			for (int i = 0; i < 1000 && l_connector.getNumRunningThreads() > 2; i++)
+				Thread.sleep(10);
+
+			assertEquals(2, l_connector.getNumRunningThreads());
+			assertEquals(0, l_connector.getNumQueuedConnections());
+		}
+		finally
+		{
+			l_connector.stop();
+		}
+	}
 }
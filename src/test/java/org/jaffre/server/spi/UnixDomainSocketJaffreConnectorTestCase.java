@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.server.spi;
+
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.example.services.Audit;
+import org.example.services.Echo;
+import org.example.services.EchoService;
+import org.jaffre.client.spi.UnixDomainSocketJaffreClient;
+import org.jaffre.server.JaffreServer;
+import org.jaffre.util.UnixDomainSocketUtil;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class UnixDomainSocketJaffreConnectorTestCase extends JaffreTestCaseBase
+{
+	public void testGetterSetter()
+	{
+		final UnixDomainSocketJaffreConnector l_connector;
+
+		l_connector = new UnixDomainSocketJaffreConnector();
+
+		assertNull(l_connector.getPath());
+		assertEquals(-1, l_connector.getLocalPort());
+		assertEquals(0, l_connector.getNumConnections());
+		assertFalse(l_connector.isRunning());
+
+		l_connector.setServer(new DefaultJaffreServer());
+
+		assertJCE(() -> l_connector.start(), "No socket path.");
+		assertJCE(() -> new UnixDomainSocketJaffreClient().getProxy(Echo.class).echo("echo"), "No socket path.");
+	}
+
+
+	public void testRemoteCalls() throws Exception
+	{
+		if (!UnixDomainSocketUtil.isSupported())
+			return;
+
+		final File                            l_dir;
+		final String                          l_strPath;
+		final JaffreServer                    l_server;
+		final UnixDomainSocketJaffreConnector l_connector;
+		final UnixDomainSocketJaffreClient    l_client;
+		final UnixDomainSocketJaffreClient    l_clientNoKeepAlive;
+		final AtomicInteger                   l_intEvents;
+
+		l_dir       = Files.createTempDirectory("jaffre").toFile();
+		l_strPath   = new File(l_dir, "jaffre.sock").getPath();
+		l_intEvents = new AtomicInteger();
+		l_server    = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+		l_server.registerInterface(Audit.class, new Audit()
+		{
+			@Override
+			public void record(String p_strEvent)
+			{
+				l_intEvents.incrementAndGet();
+			}
+
+			@Override
+			public int getNumEvents()
+			{
+				return l_intEvents.get();
+			}
+		});
+
+		l_connector = new UnixDomainSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setPath(l_strPath);
+
+		l_connector.start();
+
+		l_client            = new UnixDomainSocketJaffreClient();
+		l_clientNoKeepAlive = new UnixDomainSocketJaffreClient();
+
+		try
+		{
+			final Audit l_audit;
+
+			assertTrue(l_connector.isRunning());
+			assertTrue(new File(l_strPath).exists());
+
+			l_client.setPath(l_strPath);
+
+			for (int i = 0; i < 100; i++)
+				assertEquals("echo" + i, l_client.getProxy(Echo.class).echo("echo" + i));
+
+			assertEquals(1, l_connector.getNumConnections());
+
+			l_audit = l_client.getProxy(Audit.class);
+
+			for (int i = 0; i < 100; i++)
+				l_audit.record("event" + i);
+
+			l_client.flushInOnlyCalls();
+
+			// the calls are processed asynchronously
+			for (int i = 0; i < 1000 && l_audit.getNumEvents() < 100; i++)
+				Thread.sleep(10);
+
+			assertEquals(100, l_audit.getNumEvents());
+			assertEquals(1, l_connector.getNumConnections());
+
+			l_clientNoKeepAlive.setPath(l_strPath);
+			l_clientNoKeepAlive.setKeepAlive(false);
+
+			for (int i = 0; i < 10; i++)
+				assertEquals("echo" + i, l_clientNoKeepAlive.getProxy(Echo.class).echo("echo" + i));
+		}
+		finally
+		{
+			l_client.dispose();
+			l_clientNoKeepAlive.dispose();
+
+			l_connector.stop();
+		}
+
+		assertFalse(l_connector.isRunning());
+		assertFalse(new File(l_strPath).exists());
+
+		l_dir.delete();
+	}
+}
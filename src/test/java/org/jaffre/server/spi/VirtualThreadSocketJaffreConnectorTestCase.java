@@ -0,0 +1,108 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.server.spi;
+
+
+import org.example.services.Echo;
+import org.example.services.EchoService;
+import org.jaffre.client.spi.SocketJaffreClient;
+import org.jaffre.server.JaffreServer;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class VirtualThreadSocketJaffreConnectorTestCase extends JaffreTestCaseBase
+{
+	public void testGetterSetter()
+	{
+		final VirtualThreadSocketJaffreConnector l_connector;
+
+		l_connector = new VirtualThreadSocketJaffreConnector();
+
+		assertEquals(0, l_connector.getNumConnections());
+		assertEquals(-1, l_connector.getLocalPort());
+		assertFalse(l_connector.isRunning());
+	}
+
+
+	public void testManyKeepAliveConnections() throws Exception
+	{
+		final int l_iNumClients = 50;
+
+		// setup the server
+		final JaffreServer l_server;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		// the pool size must not limit the number of connections
+		final VirtualThreadSocketJaffreConnector l_connector;
+
+		l_connector = new VirtualThreadSocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCoreThreadPoolSize(1);
+		l_connector.setMaxThreadPoolSize(1);
+
+		l_connector.start();
+
+		final SocketJaffreClient[] l_clients;
+
+		l_clients = new SocketJaffreClient[l_iNumClients];
+
+		try
+		{
+			assertTrue(l_connector.isRunning());
+			assertTrue(l_connector.getLocalPort() > 0);
+
+			// open connections that are kept alive
+			for (int i = 0; i < l_iNumClients; i++)
+			{
+				l_clients[i] = new SocketJaffreClient();
+
+				l_clients[i].setServiceAddress("localhost");
+				l_clients[i].setServicePort(l_connector.getLocalPort());
+
+				assertEquals("first" + i, l_clients[i].getProxy(Echo.class).echo("first" + i));
+			}
+
+			assertEquals(l_iNumClients, l_connector.getNumConnections());
+
+			// all connections are still served
+			for (int i = l_iNumClients - 1; i >= 0; i--)
+				assertEquals("second" + i, l_clients[i].getProxy(Echo.class).echo("second" + i));
+		}
+		finally
+		{
+			for (final SocketJaffreClient l_client : l_clients)
+			{
+				if (l_client != null)
+					l_client.dispose();
+			}
+
+			l_connector.stop();
+		}
+
+		assertFalse(l_connector.isRunning());
+	}
+}
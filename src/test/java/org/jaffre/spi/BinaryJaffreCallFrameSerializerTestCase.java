@@ -0,0 +1,587 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.spi;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.example.services.Echo;
+import org.example.services.EchoService;
+import org.jaffre.JAFFRE_FLAG;
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreSerializeException;
+import org.jaffre.client.spi.SocketJaffreClient;
+import org.jaffre.server.JaffreServer;
+import org.jaffre.server.spi.DefaultJaffreServer;
+import org.jaffre.server.spi.SocketJaffreConnector;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class BinaryJaffreCallFrameSerializerTestCase extends JaffreTestCaseBase
+{
+	/**
+	 * An object that cannot be deserialized.
+	 */
+	private static final class Unreadable implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private void readObject(ObjectInputStream p_in) throws IOException
+		{
+			throw new IOException("unreadable");
+		}
+	}
+
+
+	public void testSerializeIllegalArgumentException()
+	{
+		final JaffreCallFrame l_frame;
+
+		l_frame = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		assertIAE(
+			() -> new BinaryJaffreCallFrameSerializer().serialize(null, null),
+			"No call frame to serialize.");
+
+		assertIAE(
+			() -> new BinaryJaffreCallFrameSerializer().serialize(l_frame, null),
+			"No output stream.");
+
+		assertIAE(
+			() -> new BinaryJaffreCallFrameSerializer().deserialize(null),
+			"No input stream.");
+	}
+
+
+	public void testSerializeDeserialize()
+		throws Exception
+	{
+		final Map<Object, Object> l_map;
+		final JaffreCallFrame     l_frame;
+
+		l_map = new HashMap<>();
+
+		l_map.put("key", Arrays.asList(1, 2L));
+		l_map.put(3, null);
+
+		l_frame = new JaffreCallFrame
+			(Echo.class,
+			 "echo",
+			 new Class<?>[] {String.class, int.class, long.class, double.class, float.class,
+			                 short.class, byte.class, char.class, boolean.class, Class.class,
+			                 List.class, List.class, Object.class, Object.class, Map.class,
+			                 Object.class, Object.class},
+			 new Object[] {"ä€", -1, Long.MIN_VALUE, 0.5d, -1.5f,
+			               (short)-7, (byte)-128, 'x', true, int[].class,
+			               new ArrayList<>(Arrays.asList("a", null)), new LinkedList<>(Arrays.asList("b")),
+			               new HashSet<>(Arrays.asList(4)), new LinkedHashSet<>(Arrays.asList(5, 6)), l_map,
+			               new BigDecimal("1.25"), Collections.emptyList()},
+			 "user data");
+
+		l_frame.setFlags(JAFFRE_FLAG.MEP_IN_OUT | JAFFRE_FLAG.CONNECTION_KEEP_ALIVE | 0x80000000);
+		l_frame.setCorrelationId(Long.MAX_VALUE);
+
+		assertEquals(l_frame, _serializeDeserialize(l_frame));
+	}
+
+
+	public void testMethodId()
+		throws Exception
+	{
+		final JaffreCallFrame l_frame1;
+		final JaffreCallFrame l_frame2;
+
+		l_frame1 = new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {String.class}, new Object[] {"x"});
+
+		l_frame1.setMethodIdRequest(true);
+
+		assertEquals(l_frame1, _serializeDeserialize(l_frame1));
+
+		l_frame2 = new JaffreCallFrame(129, new Object[] {"x"}, "user data");
+
+		l_frame2.setInOut();
+		l_frame2.setCorrelationId(3L);
+
+		assertEquals(l_frame2, _serializeDeserialize(l_frame2));
+
+		// the id frame carries neither the interface nor the method signature
+		assertTrue(_serialize(l_frame2).length < _serialize(l_frame1).length);
+	}
+
+
+	public void testArrays()
+		throws Exception
+	{
+		final JaffreCallFrame l_frame;
+		final Object[]     l_args;
+
+		l_frame = new JaffreCallFrame
+			(Echo.class,
+			 "echo",
+			 new Class<?>[] {byte[].class, int[].class, long[].class, double[].class, String[].class, char[].class},
+			 new Object[] {new byte[] {1, -1}, new int[] {Integer.MIN_VALUE}, new long[] {-2L},
+			               new double[] {Double.NaN}, new String[] {"a", null}, new char[] {'c'}});
+
+		l_args = _serializeDeserialize(l_frame).getParameters();
+
+		assertTrue(Arrays.equals(new byte[] {1, -1}, (byte[])l_args[0]));
+		assertTrue(Arrays.equals(new int[] {Integer.MIN_VALUE}, (int[])l_args[1]));
+		assertTrue(Arrays.equals(new long[] {-2L}, (long[])l_args[2]));
+		assertTrue(Arrays.equals(new double[] {Double.NaN}, (double[])l_args[3]));
+		assertEquals(String[].class, l_args[4].getClass());
+		assertArraysEquals(new String[] {"a", null}, (String[])l_args[4]);
+		assertTrue(Arrays.equals(new char[] {'c'}, (char[])l_args[5]));
+	}
+
+
+	@SuppressWarnings("unchecked")
+	public void testSharedReferences()
+		throws Exception
+	{
+		final List<Object> l_cyclic;
+		final List<String> l_shared;
+		final Object[]     l_args;
+		final List<Object> l_cyclicOut;
+		final List<Object> l_sharedOut;
+
+		l_cyclic = new ArrayList<>();
+
+		l_cyclic.add("a");
+		l_cyclic.add(l_cyclic);
+
+		l_shared = new ArrayList<>(Arrays.asList("b"));
+
+		l_args = _serializeDeserialize(new JaffreCallFrame
+			(Echo.class,
+			 "echo",
+			 new Class<?>[] {List.class, Object[].class},
+			 new Object[] {l_cyclic, new Object[] {l_shared, l_shared}})).getParameters();
+
+		// a cycle is retained
+		l_cyclicOut = (List<Object>)l_args[0];
+
+		assertEquals(2, l_cyclicOut.size());
+		assertEquals("a", l_cyclicOut.get(0));
+		assertSame(l_cyclicOut, l_cyclicOut.get(1));
+
+		// a shared reference is retained
+		l_sharedOut = (List<Object>)((Object[])l_args[1])[0];
+
+		assertEquals(l_shared, l_sharedOut);
+		assertSame(l_sharedOut, ((Object[])l_args[1])[1]);
+	}
+
+
+	public void testSmallerThanJavaSerialization()
+		throws Exception
+	{
+		final JaffreCallFrame       l_frame;
+		final ByteArrayOutputStream l_bosBinary;
+		final ByteArrayOutputStream l_bosDefault;
+
+		l_frame = new JaffreCallFrame
+			(Echo.class, "echo", new Class<?>[] {String.class}, new Object[] {"hello"});
+
+		l_bosBinary  = new ByteArrayOutputStream();
+		l_bosDefault = new ByteArrayOutputStream();
+
+		new BinaryJaffreCallFrameSerializer().serialize(l_frame, l_bosBinary);
+		new DefaultJaffreCallFrameSerializer().serialize(l_frame, l_bosDefault);
+
+		assertTrue(l_bosBinary.size() * 4 < l_bosDefault.size());
+	}
+
+
+	public void testIncompleteFrames()
+		throws Exception
+	{
+		final JaffreCallFrame                 l_frame;
+		final BinaryJaffreCallFrameSerializer l_ser;
+		final ByteArrayOutputStream           l_bos;
+		final byte[]                          l_buf;
+
+		l_frame = new JaffreCallFrame(Runnable.class, "run", null, null);
+		l_ser   = new BinaryJaffreCallFrameSerializer();
+		l_bos   = new ByteArrayOutputStream();
+
+		l_ser.serialize(l_frame, l_bos);
+		l_ser.serialize(l_frame, l_bos);
+
+		l_buf = l_bos.toByteArray();
+
+		// no more frames
+		assertNull(l_ser.deserialize(new ByteArrayInputStream(new byte[0])));
+
+		// two frames in a row, then no more frames
+		final ByteArrayInputStream l_bis;
+
+		l_bis = new ByteArrayInputStream(l_buf);
+
+		assertEquals(l_frame, l_ser.deserialize(l_bis));
+		assertEquals(l_frame, l_ser.deserialize(l_bis));
+		assertNull(l_ser.deserialize(l_bis));
+
+		// a truncated frame
+		try
+		{
+			l_ser.deserialize(new ByteArrayInputStream(l_buf, 0, l_buf.length / 2 - 1));
+
+			fail("An EOFException must occur.");
+		}
+		catch (EOFException l_e)
+		{
+			// expected
+		}
+	}
+
+
+	public void testMalformedFrames()
+		throws Exception
+	{
+		final BinaryJaffreCallFrameSerializer l_ser;
+		final JaffreCallFrame                 l_frame;
+
+		l_ser = new BinaryJaffreCallFrameSerializer();
+
+		assertEquals(16 * 1024 * 1024, l_ser.getMaxFrameSize());
+		assertJCE(() -> l_ser.setMaxFrameSize(0), "0 is not a valid maximum frame size.");
+
+		// a frame length of 2 GiB - 1 is rejected before the body is read
+		_assertJSE(() -> _deserialize(l_ser, 0xFF, 0xFF, 0xFF, 0xFF, 0x07),
+		           "The frame size 2147483647 exceeds the maximum frame size 16777216.");
+
+		// a negative and a huge argument count
+		_assertJSE(() -> _deserialize(l_ser, 9, 0, 0, 0, 1, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F),
+		           "Malformed frame.");
+		_assertJSE(() -> _deserialize(l_ser, 9, 0, 0, 0, 1, 0xFF, 0xFF, 0xFF, 0xFF, 0x07),
+		           "Malformed frame.");
+
+		// a huge parameter type count
+		_assertJSE(() -> _deserialize(l_ser, 15, 0, 0, 0, 0, 6, 'i', 'n', 't', 2, 'x', 0xFF, 0xFF, 0xFF, 0xFF, 0x07),
+		           "Malformed frame.");
+
+		// a frame that announces more data than it has
+		try
+		{
+			_deserialize(l_ser, 0xFF, 0xFF, 0x3F, 0, 0, 1, 0);
+
+			fail("An EOFException must occur.");
+		}
+		catch (EOFException l_e)
+		{
+			// expected
+		}
+
+		// frames larger than the maximum frame size are not written
+		l_frame = new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {String.class}, new Object[] {"0123456789"});
+
+		l_ser.setMaxFrameSize(16);
+
+		_assertJSE(() -> l_ser.serialize(l_frame, new ByteArrayOutputStream()),
+		           "The frame size " + (_serialize(l_frame).length - 1) + " exceeds the maximum frame size 16.");
+	}
+
+
+	public void testInternNames()
+		throws Exception
+	{
+		BinaryJaffreCallFrameSerializer       l_ser;
+		final JaffreCallFrameSerializer       l_serOut;
+		final JaffreCallFrameSerializer       l_serIn;
+		final JaffreCallFrame                 l_frame;
+		final JaffreCallFrame                 l_frameFailing;
+		final ByteArrayOutputStream           l_bos;
+		final int                             l_iFirst;
+		final ByteArrayInputStream            l_bis;
+
+		l_ser = new BinaryJaffreCallFrameSerializer();
+
+		assertFalse(l_ser.isInternNames());
+		assertSame(l_ser, l_ser.forConnection());
+
+		l_ser    = new BinaryJaffreCallFrameSerializer(true);
+		l_serOut = l_ser.forConnection();
+		l_serIn  = l_ser.forConnection();
+
+		assertTrue(l_ser.isInternNames());
+		assertNotSame(l_ser, l_serOut);
+
+		l_frame        = new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {Object.class}, new Object[] {String[].class});
+		l_frameFailing = new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {Object.class}, new Object[] {new Unreadable()});
+		l_bos          = new ByteArrayOutputStream();
+
+		l_serOut.serialize(l_frameFailing, l_bos);
+
+		l_iFirst = l_bos.size();
+
+		l_serOut.serialize(l_frame, l_bos);
+		l_serOut.serialize(l_frame, l_bos);
+
+		// the names are sent with the first frame only
+		assertTrue(l_bos.size() - l_iFirst < l_iFirst);
+
+		l_bis = new ByteArrayInputStream(l_bos.toByteArray());
+
+		// a frame that cannot be read does not affect subsequent frames
+		assertIOE(() -> l_serIn.deserialize(l_bis), "unreadable");
+		assertEquals(l_frame, l_serIn.deserialize(l_bis));
+		assertEquals(l_frame, l_serIn.deserialize(l_bis));
+		assertNull(l_serIn.deserialize(l_bis));
+
+		// serializers that do not intern names cannot read the frames
+		_assertJSE(() -> new BinaryJaffreCallFrameSerializer().deserialize(new ByteArrayInputStream(l_bos.toByteArray())),
+		           "Interned names require a serializer for the connection.");
+	}
+
+
+	public void testRemoteCall()
+		throws Exception
+	{
+		final JaffreServer          l_server;
+		final SocketJaffreConnector l_connector;
+		final SocketJaffreClient    l_client;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCallFrameSerializer(new BinaryJaffreCallFrameSerializer());
+		l_connector.setReturnFrameSerializer(new BinaryJaffreReturnFrameSerializer());
+
+		l_connector.start();
+
+		l_client = new SocketJaffreClient();
+
+		try
+		{
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(l_connector.getLocalPort());
+			l_client.setCallFrameSerializer(new BinaryJaffreCallFrameSerializer());
+			l_client.setReturnFrameSerializer(new BinaryJaffreReturnFrameSerializer());
+
+			assertEquals("binary1", l_client.getProxy(Echo.class).echo("binary1"));
+			assertEquals("binary2", l_client.getProxy(Echo.class).echo("binary2"));
+		}
+		finally
+		{
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+
+
+	public void testRemoteCallInternNames()
+		throws Exception
+	{
+		final JaffreServer          l_server;
+		final SocketJaffreConnector l_connector;
+		final SocketJaffreClient    l_client;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCallFrameSerializer(new BinaryJaffreCallFrameSerializer(true));
+		l_connector.setReturnFrameSerializer(new BinaryJaffreReturnFrameSerializer(true));
+
+		l_connector.start();
+
+		l_client = new SocketJaffreClient();
+
+		try
+		{
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(l_connector.getLocalPort());
+			l_client.setCallFrameSerializer(new BinaryJaffreCallFrameSerializer(true));
+			l_client.setReturnFrameSerializer(new BinaryJaffreReturnFrameSerializer(true));
+
+			assertEquals("binary1", l_client.getProxy(Echo.class).echo("binary1"));
+			assertEquals("binary2", l_client.getProxy(Echo.class).echo("binary2"));
+
+			// a new connection interns the names again
+			l_client.dispose();
+
+			assertEquals("binary3", l_client.getProxy(Echo.class).echo("binary3"));
+		}
+		finally
+		{
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+
+
+	public void testRemoteCallWithMethodIds()
+		throws Exception
+	{
+		final List<JaffreCallFrame> l_frames;
+		final JaffreServer          l_server;
+		final SocketJaffreConnector l_connector;
+		final SocketJaffreClient    l_client;
+
+		l_frames = Collections.synchronizedList(new ArrayList<>());
+
+		l_server = new DefaultJaffreServer()
+		{
+			@Override
+			public JaffreReturnFrame process(JaffreCallFrame p_call, Object p_extParam)
+			{
+				l_frames.add(p_call);
+
+				return super.process(p_call, p_extParam);
+			}
+		};
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCallFrameSerializer(new BinaryJaffreCallFrameSerializer());
+		l_connector.setReturnFrameSerializer(new BinaryJaffreReturnFrameSerializer());
+
+		l_connector.start();
+
+		l_client = new SocketJaffreClient();
+
+		try
+		{
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(l_connector.getLocalPort());
+			l_client.setCallFrameSerializer(new BinaryJaffreCallFrameSerializer());
+			l_client.setReturnFrameSerializer(new BinaryJaffreReturnFrameSerializer());
+			l_client.setUseMethodIds(true);
+
+			assertEquals("binary1", l_client.getProxy(Echo.class).echo("binary1"));
+			assertEquals("binary2", l_client.getProxy(Echo.class).echo("binary2"));
+
+			// a new connection requests a new id
+			l_client.dispose();
+
+			assertEquals("binary3", l_client.getProxy(Echo.class).echo("binary3"));
+			assertEquals("binary4", l_client.getProxy(Echo.class).echo("binary4"));
+
+			assertEquals(4, l_frames.size());
+			assertTrue(l_frames.get(0).isMethodIdRequest());
+			assertTrue(l_frames.get(1).hasMethodId());
+			assertTrue(l_frames.get(2).isMethodIdRequest());
+			assertTrue(l_frames.get(3).hasMethodId());
+		}
+		finally
+		{
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+
+
+	private static JaffreCallFrame _deserialize(BinaryJaffreCallFrameSerializer p_ser, int... p_bytes)
+		throws Exception
+	{
+		final byte[] l_buf;
+
+		l_buf = new byte[p_bytes.length];
+
+		for (int i = 0; i < p_bytes.length; i++)
+			l_buf[i] = (byte)p_bytes[i];
+
+		return p_ser.deserialize(new ByteArrayInputStream(l_buf));
+	}
+
+
+	private static void _assertJSE(RunnableEx p_run, String p_strMsg)
+	{
+		try
+		{
+			p_run.run();
+
+			fail("A JaffreSerializeException must occur.");
+		}
+		catch (JaffreSerializeException l_e)
+		{
+			assertEquals(p_strMsg, l_e.getMessage());
+		}
+		catch (Throwable l_e)
+		{
+			fail("Unexpected exception " + l_e + ".");
+		}
+	}
+
+
+	private static byte[] _serialize(JaffreCallFrame p_frame)
+		throws Exception
+	{
+		final ByteArrayOutputStream l_bos;
+
+		l_bos = new ByteArrayOutputStream();
+
+		new BinaryJaffreCallFrameSerializer().serialize(p_frame, l_bos);
+
+		return l_bos.toByteArray();
+	}
+
+
+	private static JaffreCallFrame _serializeDeserialize(JaffreCallFrame p_frame)
+		throws Exception
+	{
+		final BinaryJaffreCallFrameSerializer l_ser;
+		final ByteArrayOutputStream           l_bos;
+
+		l_ser = new BinaryJaffreCallFrameSerializer();
+		l_bos = new ByteArrayOutputStream();
+
+		l_ser.serialize(p_frame, l_bos);
+
+		return l_ser.deserialize(new ByteArrayInputStream(l_bos.toByteArray()));
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jaffre.spi;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.jaffre.JAFFRE_FLAG;
+import org.jaffre.JaffreReturnFrame;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class BinaryJaffreReturnFrameSerializerTestCase extends JaffreTestCaseBase
+{
+	public void testSerializeIllegalArgumentException()
+	{
+		final JaffreReturnFrame l_frame;
+
+		l_frame = new JaffreReturnFrame(null, false);
+
+		assertIAE(
+			() -> new BinaryJaffreReturnFrameSerializer().serialize(null, null),
+			"No return frame to serialize.");
+
+		assertIAE(
+			() -> new BinaryJaffreReturnFrameSerializer().serialize(l_frame, null),
+			"No output stream.");
+
+		assertIAE(
+			() -> new BinaryJaffreReturnFrameSerializer().deserialize(null),
+			"No input stream.");
+	}
+
+
+	public void testSerializeDeserialize()
+		throws Exception
+	{
+		final JaffreReturnFrame l_frame;
+
+		l_frame = new JaffreReturnFrame("the result value", false);
+
+		l_frame.setFlags(JAFFRE_FLAG.CONNECTION_KEEP_ALIVE);
+		l_frame.setCorrelationId(785L);
+		l_frame.setMethodId(300);
+		l_frame.setUserData(42);
+
+		assertEquals(l_frame, _serializeDeserialize(l_frame));
+	}
+
+
+	public void testExceptionResult()
+		throws Exception
+	{
+		final JaffreReturnFrame l_frame;
+		final JaffreReturnFrame l_deser;
+
+		l_frame = new JaffreReturnFrame(new IllegalStateException("test"), true);
+		l_deser = _serializeDeserialize(l_frame);
+
+		assertTrue(l_deser.isExceptionResult());
+		assertTrue(l_deser.getResult() instanceof IllegalStateException);
+		assertEquals("test", ((Throwable)l_deser.getResult()).getMessage());
+	}
+
+
+	private static JaffreReturnFrame _serializeDeserialize(JaffreReturnFrame p_frame)
+		throws Exception
+	{
+		final BinaryJaffreReturnFrameSerializer l_ser;
+		final ByteArrayOutputStream             l_bos;
+
+		l_ser = new BinaryJaffreReturnFrameSerializer();
+		l_bos = new ByteArrayOutputStream();
+
+		l_ser.serialize(p_frame, l_bos);
+
+		return l_ser.deserialize(new ByteArrayInputStream(l_bos.toByteArray()));
+	}
+}
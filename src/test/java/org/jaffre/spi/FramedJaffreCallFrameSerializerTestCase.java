@@ -0,0 +1,299 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.spi;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.example.services.Echo;
+import org.example.services.EchoService;
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.JaffreReturnFrame;
+import org.jaffre.JaffreReturnFrameSerializer;
+import org.jaffre.JaffreSerializeException;
+import org.jaffre.client.spi.PooledSocketJaffreClient;
+import org.jaffre.server.JaffreServer;
+import org.jaffre.server.spi.AbstractSocketJaffreConnector;
+import org.jaffre.server.spi.DefaultJaffreServer;
+import org.jaffre.server.spi.NioSocketJaffreConnector;
+import org.jaffre.server.spi.SocketJaffreConnector;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class FramedJaffreCallFrameSerializerTestCase extends JaffreTestCaseBase
+{
+	public void testIllegalArgumentException()
+	{
+		final JaffreCallFrame l_frame;
+
+		l_frame = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		assertIAE(
+			() -> new FramedJaffreCallFrameSerializer(null),
+			"No serializer.");
+
+		assertIAE(
+			() -> new FramedJaffreCallFrameSerializer().serialize(null, null),
+			"No call frame to serialize.");
+
+		assertIAE(
+			() -> new FramedJaffreCallFrameSerializer().serialize(l_frame, null),
+			"No output stream.");
+
+		assertIAE(
+			() -> new FramedJaffreCallFrameSerializer().deserialize(null),
+			"No input stream.");
+
+		assertJCE(
+			() -> new FramedJaffreCallFrameSerializer().setMaxFrameSize(8),
+			"8 is not a valid maximum frame size.");
+	}
+
+
+	public void testSerializeDeserialize()
+		throws Exception
+	{
+		final FramedJaffreCallFrameSerializer l_ser;
+		final JaffreCallFrame                 l_frame;
+		final ByteArrayOutputStream           l_baos;
+		final byte[]                          l_buf;
+		final DataInputStream                 l_in;
+		final ByteArrayInputStream            l_bais;
+
+		l_ser   = new FramedJaffreCallFrameSerializer();
+		l_frame = new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {String.class}, new Object[] {"framed"});
+		l_baos  = new ByteArrayOutputStream();
+
+		l_frame.setInOnly();
+
+		assertTrue(l_ser.getSerializer() instanceof DefaultJaffreCallFrameSerializer);
+		assertEquals(16 * 1024 * 1024, l_ser.getMaxFrameSize());
+		assertSame(l_ser, l_ser.forConnection());
+
+		l_ser.serialize(l_frame, l_baos);
+		l_ser.serialize(l_frame, l_baos);
+
+		l_buf = l_baos.toByteArray();
+
+		// the header
+		l_in = new DataInputStream(new ByteArrayInputStream(l_buf));
+
+		assertEquals(l_buf.length / 2 - 8, l_in.readInt());
+		assertEquals(l_frame.getFlags(), l_in.readInt());
+
+		assertEquals(l_buf.length / 2, l_ser.getFrameSize(ByteBuffer.wrap(l_buf)));
+		assertEquals(-1, l_ser.getFrameSize(ByteBuffer.wrap(l_buf, 0, 7)));
+
+		// the frames
+		l_bais = new ByteArrayInputStream(l_buf);
+
+		assertEquals(l_frame, l_ser.deserialize(l_bais));
+		assertEquals(l_frame, l_ser.deserialize(l_bais));
+		assertNull(l_ser.deserialize(l_bais));
+
+		// a truncated frame
+		try
+		{
+			l_ser.deserialize(new ByteArrayInputStream(Arrays.copyOf(l_buf, l_buf.length / 2 - 1)));
+
+			fail("An EOFException must occur.");
+		}
+		catch (EOFException l_e)
+		{
+			assertEquals("Truncated frame.", l_e.getMessage());
+		}
+	}
+
+
+	public void testMaxFrameSize()
+		throws Exception
+	{
+		final FramedJaffreCallFrameSerializer l_ser;
+		final JaffreCallFrame                 l_frame;
+		final ByteArrayOutputStream           l_baos;
+		final byte[]                          l_buf;
+		final ByteArrayInputStream            l_bais;
+
+		l_ser   = new FramedJaffreCallFrameSerializer(new BinaryJaffreCallFrameSerializer());
+		l_frame = new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {String.class}, new Object[] {new String(new char[1000])});
+		l_baos  = new ByteArrayOutputStream();
+
+		l_ser.serialize(l_frame, l_baos);
+
+		l_buf = l_baos.toByteArray();
+
+		l_ser.setMaxFrameSize(1000);
+
+		assertEquals(1000, l_ser.getMaxFrameSize());
+
+		_assertJSE(() -> l_ser.serialize(l_frame, new ByteArrayOutputStream()),
+		           "The frame size " + l_buf.length + " exceeds the maximum frame size 1000.");
+
+		_assertJSE(() -> l_ser.getFrameSize(ByteBuffer.wrap(l_buf)),
+		           "The frame size " + l_buf.length + " exceeds the maximum frame size 1000.");
+
+		// the payload is not read
+		l_bais = new ByteArrayInputStream(l_buf);
+
+		_assertJSE(() -> l_ser.deserialize(l_bais),
+		           "The frame size " + l_buf.length + " exceeds the maximum frame size 1000.");
+
+		assertEquals(l_buf.length - 8, l_bais.available());
+	}
+
+
+	public void testPersistentSerializer()
+		throws Exception
+	{
+		final JaffreCallFrameSerializer l_serOut;
+		final JaffreCallFrameSerializer l_serIn;
+		final ByteArrayOutputStream     l_baos;
+		final ByteArrayInputStream      l_bais;
+
+		l_serOut = new FramedJaffreCallFrameSerializer(new PersistentJaffreCallFrameSerializer()).forConnection();
+		l_serIn  = new FramedJaffreCallFrameSerializer(new PersistentJaffreCallFrameSerializer()).forConnection();
+		l_baos   = new ByteArrayOutputStream();
+
+		assertTrue(l_serOut instanceof FramedJaffreCallFrameSerializer);
+
+		for (int i = 0; i < 3; i++)
+			l_serOut.serialize(_frame("persistent" + i), l_baos);
+
+		l_bais = new ByteArrayInputStream(l_baos.toByteArray());
+
+		for (int i = 0; i < 3; i++)
+			assertEquals(_frame("persistent" + i), l_serIn.deserialize(l_bais));
+
+		assertNull(l_serIn.deserialize(l_bais));
+	}
+
+
+	public void testReturnFrame()
+		throws Exception
+	{
+		final JaffreReturnFrameSerializer l_ser;
+		final JaffreReturnFrame           l_frame;
+		final ByteArrayOutputStream       l_baos;
+
+		l_ser   = new FramedJaffreReturnFrameSerializer();
+		l_frame = new JaffreReturnFrame("framed", false);
+		l_baos  = new ByteArrayOutputStream();
+
+		l_frame.setKeepAlive(true);
+
+		l_ser.serialize(l_frame, l_baos);
+
+		assertEquals(l_frame, l_ser.deserialize(new ByteArrayInputStream(l_baos.toByteArray())));
+	}
+
+
+	public void testRemoteCall()
+		throws Exception
+	{
+		_testRemoteCall(new SocketJaffreConnector(),
+		                new FramedJaffreCallFrameSerializer(new PersistentJaffreCallFrameSerializer()),
+		                new FramedJaffreReturnFrameSerializer(new PersistentJaffreReturnFrameSerializer()));
+
+		_testRemoteCall(new NioSocketJaffreConnector(),
+		                new FramedJaffreCallFrameSerializer(new BinaryJaffreCallFrameSerializer()),
+		                new FramedJaffreReturnFrameSerializer(new BinaryJaffreReturnFrameSerializer()));
+	}
+
+
+	private static void _testRemoteCall(AbstractSocketJaffreConnector p_connector,
+	                                    JaffreCallFrameSerializer     p_serCall,
+	                                    JaffreReturnFrameSerializer   p_serRtrn)
+		throws Exception
+	{
+		final JaffreServer             l_server;
+		final PooledSocketJaffreClient l_client;
+		final Echo                     l_echo;
+		final String                   l_strLarge;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		p_connector.setServer(l_server);
+		p_connector.setBindingAddress("localhost");
+		p_connector.setPort(0);
+		p_connector.setCallFrameSerializer(p_serCall);
+		p_connector.setReturnFrameSerializer(p_serRtrn);
+
+		p_connector.start();
+
+		l_client = new PooledSocketJaffreClient();
+
+		try
+		{
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(p_connector.getLocalPort());
+			l_client.setCallFrameSerializer(p_serCall);
+			l_client.setReturnFrameSerializer(p_serRtrn);
+
+			l_echo = l_client.getProxy(Echo.class);
+
+			for (int i = 0; i < 10; i++)
+				assertEquals("framed" + i, l_echo.echo("framed" + i));
+
+			// a frame that is received in several reads
+			l_strLarge = new String(new char[100000]).replace('\0', 'x');
+
+			assertEquals(l_strLarge, l_echo.echo(l_strLarge));
+		}
+		finally
+		{
+			l_client.dispose();
+
+			p_connector.stop();
+		}
+	}
+
+
+	private static void _assertJSE(RunnableEx p_run, String p_strMsg)
+	{
+		try
+		{
+			p_run.run();
+
+			fail("A JaffreSerializeException must occur.");
+		}
+		catch (JaffreSerializeException l_e)
+		{
+			assertEquals(p_strMsg, l_e.getMessage());
+		}
+		catch (Throwable l_e)
+		{
+			fail("Unexpected exception " + l_e + ".");
+		}
+	}
+
+
+	private static JaffreCallFrame _frame(String p_str)
+	{
+		return new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {String.class}, new Object[] {p_str});
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.spi;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.example.services.Echo;
+import org.example.services.EchoService;
+import org.jaffre.JaffreCallFrame;
+import org.jaffre.JaffreCallFrameSerializer;
+import org.jaffre.client.spi.SocketJaffreClient;
+import org.jaffre.server.JaffreServer;
+import org.jaffre.server.spi.DefaultJaffreServer;
+import org.jaffre.server.spi.SocketJaffreConnector;
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class PersistentJaffreCallFrameSerializerTestCase extends JaffreTestCaseBase
+{
+	public void testIllegalArgumentException()
+	{
+		final JaffreCallFrame l_frame;
+
+		l_frame = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		assertIAE(
+			() -> new PersistentJaffreCallFrameSerializer().serialize(null, null),
+			"No call frame to serialize.");
+
+		assertIAE(
+			() -> new PersistentJaffreCallFrameSerializer().serialize(l_frame, null),
+			"No output stream.");
+
+		assertIAE(
+			() -> new PersistentJaffreCallFrameSerializer().deserialize(null),
+			"No input stream.");
+	}
+
+
+	public void testForConnection()
+	{
+		final JaffreCallFrameSerializer l_ser;
+
+		l_ser = new PersistentJaffreCallFrameSerializer();
+
+		assertNotSame(l_ser, l_ser.forConnection());
+		assertNotSame(l_ser.forConnection(), l_ser.forConnection());
+
+		assertSame(new DefaultJaffreCallFrameSerializer().forConnection().getClass(),
+		           DefaultJaffreCallFrameSerializer.class);
+	}
+
+
+	public void testSerializeDeserialize()
+		throws Exception
+	{
+		final JaffreCallFrameSerializer l_serOut;
+		final JaffreCallFrameSerializer l_serIn;
+		final ByteArrayOutputStream     l_baos;
+		final List<String>              l_list;
+		final int                       l_iSize1;
+		final int                       l_iSize2;
+
+		l_serOut = new PersistentJaffreCallFrameSerializer().forConnection();
+		l_serIn  = new PersistentJaffreCallFrameSerializer().forConnection();
+		l_baos   = new ByteArrayOutputStream();
+		l_list   = new ArrayList<>(Arrays.asList("a"));
+
+		l_serOut.serialize(_frame(l_list), l_baos);
+
+		l_iSize1 = l_baos.size();
+
+		// the modified list must not be sent as a back reference
+		l_list.add("b");
+
+		l_serOut.serialize(_frame(l_list), l_baos);
+
+		l_iSize2 = l_baos.size() - l_iSize1;
+
+		// neither the stream header nor the class descriptors are sent again
+		assertTrue(l_iSize2 < l_iSize1 / 2);
+
+		final ByteArrayInputStream l_bais;
+
+		l_bais = new ByteArrayInputStream(l_baos.toByteArray());
+
+		assertEquals(_frame(Arrays.asList("a")), l_serIn.deserialize(l_bais));
+		assertEquals(_frame(Arrays.asList("a", "b")), l_serIn.deserialize(l_bais));
+		assertNull(l_serIn.deserialize(l_bais));
+	}
+
+
+	public void testBoundToStream()
+		throws Exception
+	{
+		final JaffreCallFrameSerializer l_ser;
+		final JaffreCallFrame           l_frame;
+
+		l_ser   = new PersistentJaffreCallFrameSerializer().forConnection();
+		l_frame = new JaffreCallFrame(Runnable.class, "run", null, null);
+
+		l_ser.serialize(l_frame, new ByteArrayOutputStream());
+
+		assertISE(
+			() -> l_ser.serialize(l_frame, new ByteArrayOutputStream()),
+			"The serializer is bound to another output stream.");
+	}
+
+
+	public void testRemoteCall()
+		throws Exception
+	{
+		final JaffreServer          l_server;
+		final SocketJaffreConnector l_connector;
+		final SocketJaffreClient    l_client;
+
+		l_server = new DefaultJaffreServer();
+
+		l_server.registerInterface(Echo.class, new EchoService());
+
+		l_connector = new SocketJaffreConnector();
+
+		l_connector.setServer(l_server);
+		l_connector.setBindingAddress("localhost");
+		l_connector.setPort(0);
+		l_connector.setCallFrameSerializer(new PersistentJaffreCallFrameSerializer());
+		l_connector.setReturnFrameSerializer(new PersistentJaffreReturnFrameSerializer());
+
+		l_connector.start();
+
+		l_client = new SocketJaffreClient();
+
+		try
+		{
+			l_client.setServiceAddress("localhost");
+			l_client.setServicePort(l_connector.getLocalPort());
+			l_client.setCallFrameSerializer(new PersistentJaffreCallFrameSerializer());
+			l_client.setReturnFrameSerializer(new PersistentJaffreReturnFrameSerializer());
+
+			for (int i = 0; i < 10; i++)
+				assertEquals("persistent" + i, l_client.getProxy(Echo.class).echo("persistent" + i));
+
+			// a new connection gets new serializers
+			l_client.dispose();
+
+			assertEquals("persistent", l_client.getProxy(Echo.class).echo("persistent"));
+		}
+		finally
+		{
+			l_client.dispose();
+
+			l_connector.stop();
+		}
+	}
+
+
+	private static JaffreCallFrame _frame(List<String> p_list)
+	{
+		return new JaffreCallFrame(Echo.class, "echo", new Class<?>[] {Object.class}, new Object[] {p_list});
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * (C) Copyright 2008-2019 Alexander Veit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jaffre.ssl;
+
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.test.JaffreTestCaseBase;
+
+
+/**
+ * @author Alexander Veit
+ */
+public final class BlockingChannelTestCase extends JaffreTestCaseBase
+{
+	public void testReadWrite() throws Exception
+	{
+		try (final ServerSocketChannel l_server  = _openServer();
+		     final BlockingChannel     l_channel = new BlockingChannel(SocketChannel.open(), 0);
+		     final SocketChannel       l_peer    = _connect(l_server, l_channel))
+		{
+			final ByteBuffer              l_data;
+			final CompletableFuture<Long> l_sum;
+			final ByteBuffer              l_buf;
+			long                          l_lSum;
+
+			assertTrue(l_channel.getChannel().isBlocking());
+
+			// more than fits into the socket buffers
+			l_data = ByteBuffer.allocate(8 * 1024 * 1024);
+
+			for (int i = 0; i < l_data.capacity(); i++)
+				l_data.put(i, (byte)i);
+
+			l_sum = CompletableFuture.supplyAsync(() ->
+			{
+				final ByteBuffer l_in = ByteBuffer.allocate(4096);
+				long             l_lPeerSum;
+				long             l_lCount;
+
+				l_lPeerSum = 0L;
+				l_lCount   = 0L;
+
+				try
+				{
+					while (l_lCount < l_data.capacity())
+					{
+						l_in.clear();
+
+						l_lCount += l_peer.read(l_in);
+
+						l_in.flip();
+
+						while (l_in.hasRemaining())
+							l_lPeerSum += l_in.get();
+					}
+				}
+				catch (Exception l_e)
+				{
+					throw new RuntimeException(l_e);
+				}
+
+				return l_lPeerSum;
+			});
+
+			assertEquals(l_data.capacity(), l_channel.write(l_data));
+			assertFalse(l_data.hasRemaining());
+
+			l_data.flip();
+
+			l_lSum = 0L;
+
+			while (l_data.hasRemaining())
+				l_lSum += l_data.get();
+
+			assertEquals(l_lSum, l_sum.get().longValue());
+
+			// the reader waits for the peer
+			l_buf = ByteBuffer.allocate(10);
+
+			CompletableFuture.runAsync(() ->
+			{
+				try
+				{
+					Thread.sleep(100);
+
+					l_peer.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+				}
+				catch (Exception l_e)
+				{
+					throw new RuntimeException(l_e);
+				}
+			});
+
+			assertEquals(3, l_channel.read(l_buf));
+			assertEquals(0, l_channel.read(ByteBuffer.allocate(0)));
+
+			l_peer.shutdownOutput();
+
+			assertEquals(-1, l_channel.read(l_buf));
+		}
+	}
+
+
+	public void testTimeout() throws Exception
+	{
+		try (final ServerSocketChannel l_server  = _openServer();
+		     final BlockingChannel     l_channel = new BlockingChannel(SocketChannel.open(), 100);
+		     final SocketChannel       l_peer    = _connect(l_server, l_channel))
+		{
+			final ByteBuffer l_buf;
+
+			l_buf = ByteBuffer.allocate(10);
+
+			try
+			{
+				l_channel.read(l_buf);
+
+				fail();
+			}
+			catch (SocketTimeoutException l_e)
+			{
+				assertTrue(l_channel.isOpen());
+			}
+
+			try
+			{
+				l_channel.awaitReadable();
+
+				fail();
+			}
+			catch (SocketTimeoutException l_e)
+			{
+				assertTrue(l_channel.isOpen());
+			}
+
+			// the timeout does not break the connection
+			l_peer.write(ByteBuffer.wrap(new byte[] {4, 5}));
+
+			l_channel.awaitReadable();
+			l_channel.awaitReadable();
+
+			assertEquals(1, l_channel.read(l_buf));
+			assertEquals(4, l_buf.get(0));
+
+			while (l_buf.position() < 2)
+				assertTrue(l_channel.read(l_buf) > 0);
+
+			assertEquals(5, l_buf.get(1));
+		}
+
+		assertIAE(() -> new BlockingChannel(SocketChannel.open(), -1), "Negative timeout value.");
+	}
+
+
+	public void testInterrupt() throws Exception
+	{
+		try (final ServerSocketChannel l_server  = _openServer();
+		     final BlockingChannel     l_channel = new BlockingChannel(SocketChannel.open(), 0);
+		     final SocketChannel       l_peer    = _connect(l_server, l_channel))
+		{
+			final AtomicReference<Throwable> l_exception;
+			final Thread                     l_thread;
+
+			assertNotNull(l_peer);
+
+			l_exception = new AtomicReference<>();
+
+			l_thread = new Thread(() ->
+			{
+				try
+				{
+					l_channel.read(ByteBuffer.allocate(10));
+				}
+				catch (Throwable l_e)
+				{
+					l_exception.set(l_e);
+				}
+			});
+
+			l_thread.start();
+
+			Thread.sleep(100);
+
+			l_thread.interrupt();
+			l_thread.join(5000);
+
+			assertTrue(l_exception.get() instanceof ClosedByInterruptException);
+			assertFalse(l_channel.isOpen());
+		}
+	}
+
+
+	private static ServerSocketChannel _openServer() throws Exception
+	{
+		final ServerSocketChannel l_server;
+
+		l_server = ServerSocketChannel.open();
+
+		l_server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		return l_server;
+	}
+
+
+	private static SocketChannel _connect(ServerSocketChannel p_server, BlockingChannel p_channel)
+		throws Exception
+	{
+		p_channel.connect(p_server.getLocalAddress());
+
+		assertTrue(p_channel.getChannel().isConnected());
+
+		return p_server.accept();
+	}
+}